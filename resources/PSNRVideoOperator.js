@@ -26,6 +26,58 @@ var DEFAULT_FPS = 30;
  */
 var DEFAULT_MIME = 'image/png';
 
+/**
+ * The magic number at the start of an exported chunk of frames ("VOF1").
+ * @const
+ */
+var EXPORT_MAGIC = 0x564F4631;
+
+/**
+ * The size of the fixed part of every frame in an exported chunk.
+ * @const
+ */
+var EXPORT_FRAME_HEADER_SIZE = 36;
+
+/**
+ * The prefix of the string passed to the callback of an export which failed,
+ * which is not a valid base64 string.
+ * @const
+ */
+var EXPORT_ERROR_PREFIX = 'ERROR:';
+
+/**
+ * The magic number at the start of a drained chunk of streamed frames
+ * ("VOS1").
+ * @const
+ */
+var STREAM_MAGIC = 0x564F5331;
+
+/**
+ * The size of the fixed part of every frame in a drained chunk.
+ * @const
+ */
+var STREAM_FRAME_HEADER_SIZE = 56;
+
+/**
+ * The default options of the streaming capture.
+ * @const
+ */
+var DEFAULT_STREAM_OPTIONS = {
+    // The number of frames kept until drained, older ones are dropped.
+    ringSize: 256,
+    // The size of the downscaled luma plane.
+    lumaWidth: 160,
+    lumaHeight: 90,
+    // The part of the frame, from the top left corner, with the stamp.
+    stampWidthRatio: 0.3,
+    stampHeightRatio: 0.55,
+    // Keep the full frame of every n-th frame, 0 for none.
+    fullFrameInterval: 0,
+    // The maximum size of the full frames kept until drained, in bytes. A
+    // full frame which does not fit is not kept, the rest of the frame is.
+    maxFullFrameBytes: 64 * 1024 * 1024
+};
+
 /**
  * Create new Camera.
  * It allows to capture frames from video element.
@@ -78,6 +130,261 @@ Camera.prototype.start = function (fps) {
     }.bind(this), Math.floor(1000 / (fps || DEFAULT_FPS)));
 };
 
+/**
+ * Start capturing video frames in streaming mode. Rather than the full frame,
+ * every frame is reduced to the luma of its stamp region, a downscaled luma
+ * plane, the RGBA value of the pixel at the center and a hash of the luma
+ * plane. Full frames are kept only for every fullFrameInterval-th frame and
+ * up to maxFullFrameBytes in total. The frames go to a ring buffer of ringSize
+ * frames which has to be drained with drainStream, when it is full the oldest
+ * frame is dropped. The memory used does not grow with the duration of the
+ * capture.
+ * @param {number} [fps=DEFAULT_FPS] custom fps
+ * @param {object} [options] overrides DEFAULT_STREAM_OPTIONS
+ */
+Camera.prototype.startStreaming = function (fps, options) {
+    var opts = {};
+    Object.keys(DEFAULT_STREAM_OPTIONS).forEach(function (key) {
+        opts[key] = options && options[key] !== undefined && options[key] !== null ?
+            options[key] : DEFAULT_STREAM_OPTIONS[key];
+    });
+    this.streamOptions = opts;
+
+    this.canvas = document.createElement('canvas');
+    this.canvas.style.display = 'none';
+    document.body.appendChild(this.canvas);
+
+    this.lumaCanvas = document.createElement('canvas');
+    this.lumaCanvas.width = opts.lumaWidth;
+    this.lumaCanvas.height = opts.lumaHeight;
+
+    this.ring = new Array(opts.ringSize);
+    // The sequence number of the next captured frame.
+    this.ringWrite = 0;
+    // The sequence number of the next frame to drain.
+    this.ringRead = 0;
+    this.ringDropped = 0;
+    // The size of the full frames in the ring.
+    this.ringFullBytes = 0;
+
+    this.startTime = Date.now();
+    this.interval = window.setInterval(
+        this.captureStreamed.bind(this),
+        Math.floor(1000 / (fps || DEFAULT_FPS)));
+};
+
+/**
+ * Capture one frame in streaming mode.
+ */
+Camera.prototype.captureStreamed = function () {
+    var width = this.video.videoWidth;
+    var height = this.video.videoHeight;
+    if (!width || !height) {
+        return;
+    }
+
+    var opts = this.streamOptions;
+    if (this.canvas.width !== width || this.canvas.height !== height) {
+        this.canvas.width = width;
+        this.canvas.height = height;
+    }
+
+    var context = this.canvas.getContext('2d');
+    context.drawImage(this.video, 0, 0);
+
+    var stampWidth = Math.max(1, Math.round(width * opts.stampWidthRatio));
+    var stampHeight = Math.max(1, Math.round(height * opts.stampHeightRatio));
+    var stamp = toLuma(
+        context.getImageData(0, 0, stampWidth, stampHeight).data);
+    var center = new Uint8Array(context.getImageData(
+        Math.floor(width / 2), Math.floor(height / 2), 1, 1).data);
+
+    var lumaContext = this.lumaCanvas.getContext('2d');
+    lumaContext.drawImage(this.video, 0, 0, opts.lumaWidth, opts.lumaHeight);
+    var luma = toLuma(lumaContext.getImageData(
+        0, 0, opts.lumaWidth, opts.lumaHeight).data);
+
+    var seq = this.ringWrite;
+
+    if (seq - this.ringRead >= this.ring.length) {
+        this.releaseRingEntry(this.ringRead);
+        this.ringRead++;
+        this.ringDropped++;
+    }
+
+    // Checked before getImageData, which allocates the frame.
+    var full = null;
+    if (opts.fullFrameInterval > 0 && seq % opts.fullFrameInterval === 0
+            && this.ringFullBytes + width * height * 4 <= opts.maxFullFrameBytes) {
+        full = context.getImageData(0, 0, width, height);
+        this.ringFullBytes += full.data.length;
+    }
+
+    this.ring[seq % this.ring.length] = {
+        seq: seq,
+        timestamp: Date.now(),
+        audioLevel: this.aLvlUserResource ? Number(this.recordAudioLevel()) : -1,
+        width: width,
+        height: height,
+        center: center,
+        hash: fnv1a(luma),
+        luma: luma,
+        stamp: stamp,
+        stampWidth: stampWidth,
+        stampHeight: stampHeight,
+        full: full
+    };
+    this.ringWrite++;
+};
+
+/**
+ * Remove a frame from the ring buffer.
+ * @param {number} seq the sequence number of the frame
+ * @returns {object} the frame
+ */
+Camera.prototype.releaseRingEntry = function (seq) {
+    var index = seq % this.ring.length;
+    var entry = this.ring[index];
+    this.ring[index] = undefined;
+    if (entry && entry.full) {
+        this.ringFullBytes -= entry.full.data.length;
+    }
+    return entry;
+};
+
+/**
+ * Drain the frames captured in streaming mode as one binary chunk.
+ *
+ * The chunk starts with the magic number, the number of frames and the
+ * number of frames dropped since the start (int32 each), followed for every
+ * frame by its sequence number (int32), timestamp (float64), audio level
+ * (float64, -1 if not recorded), the RGBA value of the pixel at the center
+ * (4 bytes), the hash of the luma plane, width, height, luma plane width and
+ * height, stamp region width and height and full image length (int32 each),
+ * the luma plane, the luma of the stamp region and the encoded full image if
+ * any. All numbers are big-endian.
+ *
+ * @param {number} maxFrames maximum number of frames to drain
+ * @param {string} [mimeType=DEFAULT_MIME] full image mime type
+ * @param {function} callback called with the chunk as base64 string, or with
+ * EXPORT_ERROR_PREFIX and the error message on failure
+ */
+Camera.prototype.drainStream = function (maxFrames, mimeType, callback) {
+    var entries = [];
+    while (this.ringRead < this.ringWrite && entries.length < maxFrames) {
+        entries.push(this.releaseRingEntry(this.ringRead));
+        this.ringRead++;
+    }
+
+    var self = this;
+    var opts = this.streamOptions;
+    var images = [];
+
+    var finish = function () {
+        var size = 12;
+        entries.forEach(function (entry, i) {
+            size += STREAM_FRAME_HEADER_SIZE + entry.luma.length
+                + entry.stamp.length + images[i].length;
+        });
+
+        var bytes = new Uint8Array(size);
+        var view = new DataView(bytes.buffer);
+        view.setInt32(0, STREAM_MAGIC);
+        view.setInt32(4, entries.length);
+        view.setInt32(8, self.ringDropped);
+
+        var offset = 12;
+        entries.forEach(function (entry, i) {
+            view.setInt32(offset, entry.seq);
+            view.setFloat64(offset + 4, entry.timestamp);
+            view.setFloat64(offset + 12, entry.audioLevel);
+            bytes.set(entry.center, offset + 20);
+            view.setInt32(offset + 24, entry.hash);
+            view.setInt32(offset + 28, entry.width);
+            view.setInt32(offset + 32, entry.height);
+            view.setInt32(offset + 36, opts.lumaWidth);
+            view.setInt32(offset + 40, opts.lumaHeight);
+            view.setInt32(offset + 44, entry.stampWidth);
+            view.setInt32(offset + 48, entry.stampHeight);
+            view.setInt32(offset + 52, images[i].length);
+            offset += STREAM_FRAME_HEADER_SIZE;
+            bytes.set(entry.luma, offset);
+            offset += entry.luma.length;
+            bytes.set(entry.stamp, offset);
+            offset += entry.stamp.length;
+            bytes.set(images[i], offset);
+            offset += images[i].length;
+        });
+
+        callback(bytesToBase64(bytes));
+    };
+
+    // A separate canvas, the capture keeps using this.canvas meanwhile.
+    var canvas = null;
+    var next = function (i) {
+        if (i >= entries.length) {
+            finish();
+            return;
+        }
+
+        var full = entries[i].full;
+        if (!full) {
+            images.push(new Uint8Array(0));
+            next(i + 1);
+            return;
+        }
+
+        if (!canvas) {
+            canvas = document.createElement('canvas');
+        }
+        canvas.width = full.width;
+        canvas.height = full.height;
+        canvas.getContext('2d').putImageData(full, 0, 0);
+        encodeCanvas(canvas, mimeType, function (image) {
+            images.push(image);
+            next(i + 1);
+        }, function (e) {
+            callback(EXPORT_ERROR_PREFIX + (e && e.message || e));
+        });
+    };
+
+    if (entries.some(function (entry) { return entry.full; })) {
+        next(0);
+    } else {
+        entries.forEach(function () {
+            images.push(new Uint8Array(0));
+        });
+        finish();
+    }
+};
+
+/**
+ * Convert RGBA pixels to luma (BT.601).
+ * @param {Uint8ClampedArray} rgba
+ * @returns {Uint8Array} luma
+ */
+function toLuma(rgba) {
+    var luma = new Uint8Array(rgba.length / 4);
+    for (var i = 0, j = 0; i < luma.length; i++, j += 4) {
+        luma[i] = (rgba[j] * 299 + rgba[j + 1] * 587 + rgba[j + 2] * 114) / 1000;
+    }
+    return luma;
+}
+
+/**
+ * Hash bytes with 32-bit FNV-1a.
+ * @param {Uint8Array} bytes
+ * @returns {number} the hash as signed 32-bit integer
+ */
+function fnv1a(bytes) {
+    var hash = 0x811c9dc5;
+    for (var i = 0; i < bytes.length; i++) {
+        hash ^= bytes[i];
+        hash = Math.imul(hash, 0x01000193);
+    }
+    return hash | 0;
+}
+
 /**
  * Captures audio level value for the user recorded by this Camera instance
  * @return {Double} from 0.0 to 1.0 or -1 if undefined
@@ -147,7 +454,8 @@ Camera.prototype.getFrame = function (pos, mimeType) {
  * @returns {number} fps
  */
 Camera.prototype.getRealFPS = function () {
-    return this.frames.length * 1000 / (this.endTime - this.startTime);
+    var count = this.ring ? this.ringWrite : this.frames.length;
+    return count * 1000 / (this.endTime - this.startTime);
 };
 
 /**
@@ -203,6 +511,154 @@ Camera.prototype.getTimestamp = function (pos) {
     return ts;
 };
 
+/**
+ * Export frames with their metadata as one binary chunk.
+ *
+ * The chunk starts with the magic number and the number of frames (int32
+ * each), followed for every frame by its position (int32), timestamp
+ * (float64), audio level (float64, -1 if not recorded), the RGBA value of the
+ * pixel at the center (4 bytes), width, height and image length (int32 each)
+ * and the encoded image. All numbers are big-endian.
+ *
+ * Frames are added until maxFrames frames or maxBytes bytes of images are
+ * exported, but at least one frame is exported if any is left.
+ *
+ * @param {number} from position of the first frame to export
+ * @param {number} maxFrames maximum number of frames to export
+ * @param {number} maxBytes maximum size of the images
+ * @param {boolean} includeImages whether to include the encoded images
+ * @param {string} [mimeType=DEFAULT_MIME] image mime type
+ * @param {function} callback called with the chunk as base64 string, or with
+ * EXPORT_ERROR_PREFIX and the error message on failure
+ */
+Camera.prototype.exportFrames = function (from, maxFrames, maxBytes,
+                                          includeImages, mimeType, callback) {
+    var self = this;
+    var end = Math.min(this.frames.length, from + maxFrames);
+    var entries = [];
+    var imagesSize = 0;
+    var context = this.canvas.getContext('2d');
+
+    var finish = function () {
+        var size = 8;
+        entries.forEach(function (entry) {
+            size += EXPORT_FRAME_HEADER_SIZE + entry.image.length;
+        });
+
+        var bytes = new Uint8Array(size);
+        var view = new DataView(bytes.buffer);
+        view.setInt32(0, EXPORT_MAGIC);
+        view.setInt32(4, entries.length);
+
+        var offset = 8;
+        entries.forEach(function (entry) {
+            var frame = self.frames[entry.pos];
+            var level = self.audioLevels[entry.pos];
+
+            view.setInt32(offset, entry.pos);
+            view.setFloat64(offset + 4, self.timestamps[entry.pos]);
+            view.setFloat64(offset + 12,
+                level === null || level === undefined ? -1 : Number(level));
+            bytes.set(self.getRGBAatTheCenter(entry.pos), offset + 20);
+            view.setInt32(offset + 24, frame.width);
+            view.setInt32(offset + 28, frame.height);
+            view.setInt32(offset + 32, entry.image.length);
+            bytes.set(entry.image, offset + EXPORT_FRAME_HEADER_SIZE);
+            offset += EXPORT_FRAME_HEADER_SIZE + entry.image.length;
+        });
+
+        callback(bytesToBase64(bytes));
+    };
+
+    var next = function (pos) {
+        if (pos >= end || (entries.length > 0 && imagesSize >= maxBytes)) {
+            finish();
+            return;
+        }
+
+        if (!includeImages) {
+            entries.push({ pos: pos, image: new Uint8Array(0) });
+            next(pos + 1);
+            return;
+        }
+
+        context.putImageData(self.frames[pos], 0, 0);
+        encodeCanvas(self.canvas, mimeType, function (image) {
+            entries.push({ pos: pos, image: image });
+            imagesSize += image.length;
+            next(pos + 1);
+        }, function (e) {
+            // Fail now, rather than when the script times out.
+            callback(EXPORT_ERROR_PREFIX + (e && e.message || e));
+        });
+    };
+
+    if (includeImages) {
+        next(from);
+    } else {
+        // Without images there is nothing asynchronous, avoid the recursion.
+        for (var pos = from; pos < end; pos++) {
+            entries.push({ pos: pos, image: new Uint8Array(0) });
+        }
+        finish();
+    }
+};
+
+/**
+ * Encode bytes as base64 string.
+ * @param {Uint8Array} bytes
+ * @returns {string} base64 string
+ */
+function bytesToBase64(bytes) {
+    var chunks = [];
+    for (var i = 0; i < bytes.length; i += 0x8000) {
+        chunks.push(String.fromCharCode.apply(
+            null, bytes.subarray(i, i + 0x8000)));
+    }
+    return btoa(chunks.join(''));
+}
+
+/**
+ * Encode the content of a canvas. Exactly one of the callbacks is called,
+ * asynchronously, also when the encoding or onImage fails.
+ * @param {HTMLCanvasElement} canvas
+ * @param {string} [mimeType=DEFAULT_MIME] image mime type
+ * @param {function} onImage called with the image as Uint8Array
+ * @param {function} onError called with the error
+ */
+function encodeCanvas(canvas, mimeType, onImage, onError) {
+    var failed = false;
+    var fail = function (e) {
+        if (!failed) {
+            failed = true;
+            onError(e);
+        }
+    };
+
+    canvas.toBlob(function (blob) {
+        try {
+            if (!blob) {
+                throw new Error('The canvas could not be encoded');
+            }
+
+            var reader = new FileReader();
+            reader.onload = function () {
+                try {
+                    onImage(new Uint8Array(reader.result));
+                } catch (e) {
+                    fail(e);
+                }
+            };
+            reader.onerror = function () {
+                fail(reader.error || new Error('The image could not be read'));
+            };
+            reader.readAsArrayBuffer(blob);
+        } catch (e) {
+            fail(e);
+        }
+    }, mimeType || DEFAULT_MIME);
+}
+
 /**
  * Cleanup.
  */
@@ -242,6 +698,44 @@ VideoOperator.prototype.recordAll = function (videoIds,
     }
 };
 
+/**
+ * Use Cameras to capture frames from all video elements in streaming mode,
+ * see Camera.prototype.startStreaming.
+ * @param {string[]} videoIds array if ids of target video elements.
+ * @param {number} [fps=DEFAULT_FPS] fps for cameras
+ * @param {string[]} [aLvlUserResources] resources for audio level recording
+ * @param {object} [options] overrides DEFAULT_STREAM_OPTIONS
+ */
+VideoOperator.prototype.streamAll = function (videoIds,
+                                              fps, aLvlUserResources, options) {
+    for (var i = 0; i < videoIds.length; i++) {
+        var videoId = videoIds[i];
+        var aLvlUserResource = aLvlUserResources ? aLvlUserResources[i] : null;
+        var element = document.getElementById(videoId);
+        if (!element) {
+            throw new Error("cannot find element with id " + videoId);
+        }
+
+        var recorder = new Camera(element, aLvlUserResource);
+        recorder.startStreaming(fps, options);
+
+        this.cameras.push(recorder);
+    }
+};
+
+/**
+ * Drain the frames streamed by the Camera with specified id, see
+ * Camera.prototype.drainStream.
+ * @param {string} videoId id of the camera
+ * @param {number} maxFrames maximum number of frames to drain
+ * @param {string} [mimeType=DEFAULT_MIME] full image mime type
+ * @param {function} callback called with the chunk as base64 string
+ */
+VideoOperator.prototype.drainStream = function (videoId, maxFrames,
+                                                mimeType, callback) {
+    this.getCamera(videoId).drainStream(maxFrames, mimeType, callback);
+};
+
 /**
  * Stop all Cameras.
  */
@@ -306,6 +800,23 @@ VideoOperator.prototype.getFrame = function (videoId, pos, mimeType) {
     return this.getCamera(videoId).getFrame(pos, mimeType);
 };
 
+/**
+ * Export frames of the Camera with specified id with their metadata as one
+ * binary chunk, see Camera.prototype.exportFrames.
+ * @param {string} videoId id of the camera
+ * @param {number} from position of the first frame to export
+ * @param {number} maxFrames maximum number of frames to export
+ * @param {number} maxBytes maximum size of the images
+ * @param {boolean} includeImages whether to include the encoded images
+ * @param {string} [mimeType=DEFAULT_MIME] image mime type
+ * @param {function} callback called with the chunk as base64 string
+ */
+VideoOperator.prototype.exportFrames = function (videoId, from, maxFrames,
+        maxBytes, includeImages, mimeType, callback) {
+    this.getCamera(videoId).exportFrames(
+        from, maxFrames, maxBytes, includeImages, mimeType, callback);
+};
+
 /**
  * Get audio level for the frame at specified position.
  * @param {number} pos frame position
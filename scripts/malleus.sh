@@ -5,7 +5,7 @@ if [ -n "$DEBUG" ]; then
 fi
 
 usage() {
-  echo "Usage: $0 [--conferences=MALLEUS_CONFERENCES] [--participants=MALLEUS_PARTICIPANTS] [--senders=MALLEUS_SENDERS] [--audio-senders=MALLEUS_AUDIO_SENDERS] [--senders-per-tab=MALLEUS_SENDERS_PER_NODE] [--receivers-per-tab=MALLEUS_RECEIVERS_PER_NODE] [--sender-tabs-per-browser=MALLEUS_SENDER_TABS_PER_BROWSER] [--receiver-tabs-per-browser=MALLEUS_RECEIVER_TABS_PER_BROWSER] [--senders-per-node=MALLEUS_SENDERS_PER_NODE] [--receivers-per-node=MALLEUS_RECEIVERS_PER_NODE] [--duration=MALLEUS_DURATION (s)] [--join-delay=MALLEUS_JOIN_DELAY (ms)] [--room-name-prefix=MALLEUS_ROOM_NAME_PREFIX] [--hub-url=MALLEUS_HUB_URL] [--instance-url=MALLEUS_INSTANCE_URL] [--regions=MALLEUS_REGIONS] [--use-node-types] [--use-load-test] [--use-lite-mode] [--max-disrupted-bridges-pct=MALLEUS_MAX_DISRUPTED_BRIDGES_PCT] [--extra-sender-params=EXTRA_SENDER_PARAMS] [--extra-receiver-params=EXTRA_RECEIVER_PARAMS] [--debug] [--switch-speakers] [--use-stage-view] [--headless] [--save-logs]" >&2
+  echo "Usage: $0 [--conferences=MALLEUS_CONFERENCES] [--participants=MALLEUS_PARTICIPANTS] [--senders=MALLEUS_SENDERS] [--audio-senders=MALLEUS_AUDIO_SENDERS] [--senders-per-tab=MALLEUS_SENDERS_PER_NODE] [--receivers-per-tab=MALLEUS_RECEIVERS_PER_NODE] [--sender-tabs-per-browser=MALLEUS_SENDER_TABS_PER_BROWSER] [--receiver-tabs-per-browser=MALLEUS_RECEIVER_TABS_PER_BROWSER] [--senders-per-node=MALLEUS_SENDERS_PER_NODE] [--receivers-per-node=MALLEUS_RECEIVERS_PER_NODE] [--duration=MALLEUS_DURATION (s)] [--join-delay=MALLEUS_JOIN_DELAY (ms)] [--room-name-prefix=MALLEUS_ROOM_NAME_PREFIX] [--hub-url=MALLEUS_HUB_URL] [--instance-url=MALLEUS_INSTANCE_URL] [--regions=MALLEUS_REGIONS] [--use-node-types] [--use-load-test] [--use-lite-mode] [--max-disrupted-bridges-pct=MALLEUS_MAX_DISRUPTED_BRIDGES_PCT] [--extra-sender-params=EXTRA_SENDER_PARAMS] [--extra-receiver-params=EXTRA_RECEIVER_PARAMS] [--debug] [--switch-speakers] [--use-stage-view] [--headless] [--save-logs] [--use-virtual-threads] [--max-concurrent-driver-calls=MALLEUS_MAX_CONCURRENT_DRIVER_CALLS] [--arrival-profile=MALLEUS_ARRIVAL_PROFILE] [--arrival-fill-policy=MALLEUS_ARRIVAL_FILL_POLICY] [--health-check-interval=MALLEUS_HEALTH_CHECK_INTERVAL (ms)] [--metrics-interval=MALLEUS_METRICS_INTERVAL (ms)] [--join-milestones-timeout=MALLEUS_JOIN_MILESTONES_TIMEOUT (s)] [--metrics-port=MALLEUS_METRICS_PORT] [--browser-pool-size=MALLEUS_BROWSER_POOL_SIZE] [--network-profiles=MALLEUS_NETWORK_PROFILES]" >&2
   exit 1
 }
 
@@ -102,6 +102,14 @@ set_defaults() {
       MALLEUS_SET_SAVELOGS=false
     fi
 
+    if [ -z "$MALLEUS_USE_VIRTUAL_THREADS" ]; then
+      MALLEUS_USE_VIRTUAL_THREADS=false
+    fi
+
+    # Null is a fine default for MALLEUS_MAX_CONCURRENT_DRIVER_CALLS (unlimited)
+    # Null is a fine default for MALLEUS_ARRIVAL_PROFILE (use join delay) and MALLEUS_ARRIVAL_FILL_POLICY (round robin)
+    # Null is a fine default for MALLEUS_NETWORK_PROFILES (no shaping)
+
     # Null is a fine default for MALLEUS_EXTRA_SENDER_PARAMS and MALLEUS_EXTRA_RECEIVER_PARAMS
 }
 
@@ -140,6 +148,16 @@ case $1 in
         --use-stage-view) if [ -n "$optvalue" ]; then MALLEUS_USE_STAGE_VIEW=$optvalue; else MALLEUS_USE_STAGE_VIEW=true; fi;;
         --headless) if [ -n "$optvalue" ]; then MALLEUS_USE_HEADLESS=$optvalue; else MALLEUS_USE_HEADLESS=true; fi;;
         --save-logs) if [ -n "$optvalue" ]; then MALLEUS_SET_SAVELOGS=$optvalue; else MALLEUS_SET_SAVELOGS=true; fi;;
+        --use-virtual-threads) if [ -n "$optvalue" ]; then MALLEUS_USE_VIRTUAL_THREADS=$optvalue; else MALLEUS_USE_VIRTUAL_THREADS=true; fi;;
+        --max-concurrent-driver-calls) MALLEUS_MAX_CONCURRENT_DRIVER_CALLS=$optvalue;;
+        --arrival-profile) MALLEUS_ARRIVAL_PROFILE=$optvalue;;
+        --arrival-fill-policy) MALLEUS_ARRIVAL_FILL_POLICY=$optvalue;;
+        --health-check-interval) MALLEUS_HEALTH_CHECK_INTERVAL=$optvalue;;
+        --metrics-interval) MALLEUS_METRICS_INTERVAL=$optvalue;;
+        --join-milestones-timeout) MALLEUS_JOIN_MILESTONES_TIMEOUT=$optvalue;;
+        --metrics-port) MALLEUS_METRICS_PORT=$optvalue;;
+        --browser-pool-size) MALLEUS_BROWSER_POOL_SIZE=$optvalue;;
+        --network-profiles) MALLEUS_NETWORK_PROFILES=$optvalue;;
         --extra-sender-params) MALLEUS_EXTRA_SENDER_PARAMS=$optvalue;;
         --extra-receiver-params) MALLEUS_EXTRA_RECEIVER_PARAMS=$optvalue;;
         --max-disrupted-bridges-pct) MALLEUS_MAX_DISRUPTED_BRIDGES_PCT=$optvalue;;
@@ -229,6 +247,16 @@ mvn \
 -Dorg.jitsi.malleus.set.saveLogs=$MALLEUS_SET_SAVELOGS \
 -Dorg.jitsi.malleus.extra_sender_params=$MALLEUS_EXTRA_SENDER_PARAMS \
 -Dorg.jitsi.malleus.extra_receiver_params=$MALLEUS_EXTRA_RECEIVER_PARAMS \
+-Dorg.jitsi.malleus.use_virtual_threads=$MALLEUS_USE_VIRTUAL_THREADS \
+-Dorg.jitsi.malleus.max_concurrent_driver_calls=$MALLEUS_MAX_CONCURRENT_DRIVER_CALLS \
+-Dorg.jitsi.malleus.arrival_profile=$MALLEUS_ARRIVAL_PROFILE \
+-Dorg.jitsi.malleus.arrival_fill_policy=$MALLEUS_ARRIVAL_FILL_POLICY \
+-Dorg.jitsi.malleus.health_check_interval=$MALLEUS_HEALTH_CHECK_INTERVAL \
+-Dorg.jitsi.malleus.metrics_interval=$MALLEUS_METRICS_INTERVAL \
+-Dorg.jitsi.malleus.join_milestones_timeout=$MALLEUS_JOIN_MILESTONES_TIMEOUT \
+-Dorg.jitsi.malleus.network_profiles="$MALLEUS_NETWORK_PROFILES" \
+-Dorg.jitsi.meet.test.metrics.port=$MALLEUS_METRICS_PORT \
+-Dorg.jitsi.meet.test.browser_pool.size=$MALLEUS_BROWSER_POOL_SIZE \
 -Dremote.address=$MALLEUS_HUB_URL \
 -DallowInsecureCerts=$MALLEUS_ALLOW_INSECURE_CERTS \
 -Djitsi-meet.tests.toRun=$MALLEUS_TESTS_TO_RUN \
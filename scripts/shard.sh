@@ -0,0 +1,75 @@
+#!/bin/sh
+
+# Runs the desktop suite in shards of balanced durations at the same time,
+# e.g. against a selenium grid (see doc/grid), then merges their reports.
+# The options which are not listed below are passed to maven, e.g.
+#   scripts/shard.sh --shards=4 -Djitsi-meet.instance.url=https://meet.example.com \
+#     -Djitsi-meet.isRemote=true -Dremote.address=http://localhost:4444/wd/hub
+
+if [ -n "$DEBUG" ]; then
+  set -x
+fi
+
+usage() {
+  echo "Usage: $0 [--shards=SHARDS] [--suite=SHARDS_SUITE] [--out=SHARDS_DIR] [--history=SHARDS_HISTORY] [maven options...]" >&2
+  exit 1
+}
+
+SHARDS=4
+SHARDS_SUITE=src/test/resources/desktop/testng.xml
+SHARDS_DIR=target/shards
+SHARDS_HISTORY=test-durations.properties
+
+# Keeps the maven options in the arguments.
+for arg do
+  shift
+  optname=`echo $arg | cut -d= -f1`
+  optvalue=`echo $arg | cut -s -d= -f2-`
+  case $optname in
+    --shards) SHARDS=$optvalue;;
+    --suite) SHARDS_SUITE=$optvalue;;
+    --out) SHARDS_DIR=$optvalue;;
+    --history) SHARDS_HISTORY=$optvalue;;
+    --help) usage;;
+    *) set -- "$@" "$arg";;
+  esac
+done
+
+cd `dirname $0`/..
+
+rm -rf $SHARDS_DIR
+mkdir -p $SHARDS_DIR/reports || exit 1
+
+mvn -B -q test-compile dependency:build-classpath -Dmdep.outputFile=$SHARDS_DIR/classpath.txt || exit 1
+CLASSPATH=target/test-classes:`cat $SHARDS_DIR/classpath.txt`
+
+java -cp $CLASSPATH org.jitsi.meet.test.shard.ShardPlanner \
+  $SHARDS_SUITE $SHARDS $SHARDS_DIR $SHARDS_HISTORY || exit 1
+
+run_shard() {
+  shard=$1
+  shift
+  echo "Running shard $shard, logging to $SHARDS_DIR/shard-$shard.log"
+  mvn -B surefire:test \
+    -Dsuite.xml=$SHARDS_DIR/shard-$shard.xml \
+    -Dtest.report.directory=$SHARDS_DIR/reports/shard-$shard \
+    -Djitsi-meet.tests.durations=$SHARDS_HISTORY \
+    "$@" > $SHARDS_DIR/shard-$shard.log 2>&1
+}
+
+# The serial only tests run alone, after the others.
+REPORTS=""
+for suite in $SHARDS_DIR/shard-*.xml; do
+  shard=`basename $suite .xml | cut -d- -f2-`
+  REPORTS="$REPORTS $SHARDS_DIR/reports/shard-$shard"
+  if [ "$shard" != "serial" ]; then
+    run_shard $shard "$@" &
+  fi
+done
+wait
+
+if [ -f $SHARDS_DIR/shard-serial.xml ]; then
+  run_shard serial "$@"
+fi
+
+java -cp $CLASSPATH org.jitsi.meet.test.shard.ShardMerger $SHARDS_DIR/merged $REPORTS
@@ -16,6 +16,7 @@
 package org.jitsi.meet.test;
 
 import org.jitsi.meet.test.base.*;
+import org.jitsi.meet.test.bwe.*;
 import org.jitsi.meet.test.web.*;
 import org.jitsi.meet.test.util.*;
 
@@ -39,31 +40,38 @@ import static org.jitsi.meet.test.util.TestUtils.*;
  * and store the webrtc-internals of the receiver. This sequence of steps is
  * run once for the JVB and once for the TURN server, so we end up with two
  * webrtc-internals, one for the JVB and one for the TURN server. Finally, it
- * will feed the two webrtc-internals to an analysis script (bwe-benchmark.py)
- * that exits with success if the JVB bitrate time series is healthy, or with
- * failure otherwise.
+ * analyzes the received bitrate of both against the bottleneck schedule
+ * ({@link BweAnalysis}: utilization, overshoot and convergence time of every
+ * step), writes a comparison report ({@link BweComparison}) and succeeds if the
+ * JVB bitrate time series is healthy, or fails otherwise.
+ *
+ * The network/schedule combinations run concurrently ({@link BweMatrix}), up
+ * to {@link #CONCURRENCY_PROP_NAME} at once (by default based on the cores of
+ * the host), and the results of all are collected in one table written to
+ * bwe-matrix.out in the logs folder. Each gets its own tc class, receiver port
+ * and browser profile, but they share the network interface, the JVB and the
+ * TURN server, so the JVB and the TURN runs of a combination are run one after
+ * the other. Set {@link #CONCURRENCY_PROP_NAME} to 1 when the host does not
+ * have the capacity for the bitrates of several combinations at once.
  *
  * There are several requirements that must be met in order for this test to
  * function correctly:
  * - The user that is executing the test needs to be able to run the tc command.
  * - The JVB and the TURN server need to run on the same host that is running
  *   the test.
- * - A recent version of the python pandas library needs to be installed.
  * - The grid nodes need to be powerful enough to achieve high target bitrates.
+ * - The receiver runs in the chrome wrapper with mahimahi to emulate the
+ *   networks, unless {@link #REPLAY_TRACES_PROP_NAME} is set, in which case
+ *   their downlink traces are replayed with tc on the receiver port.
  *
  * @author George Politis
  */
+// Shapes the network of the host and measures the bandwidth, which the other
+// tests would take.
+@SerialOnly
 public class BandwidthEstimationTest
     extends WebTestBase
 {
-    /**
-     * Name of the system property which point to the tc script used to
-     * rate-limit the egress bitrate to the second participant (the receiver)
-     * ports.
-     * See {@link #tcScript}.
-     */
-    private static final String TC_SCRIPT_PROP_NAME = "tc.script";
-
     /**
      * Name of the system which holds the Chrome wrapper script with mahimahi
      * support.
@@ -71,12 +79,24 @@ public class BandwidthEstimationTest
     private static final String CHROME_WRAPPER_PROP_NAME = "chrome.wrapper";
 
     /**
-     * Name of the system property which point to the benchmark script used to
-     * determine whether or not the jvb bitrate time series is healthy.
-     * See {@link #benchmarkScript}.
+     * Name of the system property with the maximum number of combinations
+     * running at once. Defaults to {@link BweMatrix#getDefaultConcurrency()}.
+     */
+    private static final String CONCURRENCY_PROP_NAME = "bwe.concurrency";
+
+    /**
+     * Name of the system property which tells whether to replay the downlink
+     * traces of the networks on the receiver port ({@link MahimahiTrace}),
+     * capped by the bottleneck schedule, instead of running the receiver in
+     * the chrome wrapper. The uplink traces are not replayed then.
      */
-    private static final String BENCHMARK_SCRIPT_PROP_NAME
-        = "bwe-benchmark.script";
+    private static final String REPLAY_TRACES_PROP_NAME = "bwe.replay_traces";
+
+    /**
+     * The number of times the receiver joins at most to get a port which is
+     * not rate-limited by another combination.
+     */
+    private static final int MAX_JOIN_ATTEMPTS = 3;
 
     /**
      * The video file to use as input for the first participant (the sender).
@@ -226,18 +246,6 @@ public class BandwidthEstimationTest
      */
     private static final Network def = new Network("def", null, null);
 
-    /**
-     * Default tc script which will work only on linux.
-     */
-    private static final String DEFAULT_TC_SCRIPT
-        = "scripts/tc-port-schedule.sh";
-
-    /**
-     * Default benchmark script which will work only on linux.
-     */
-    private static final String DEFAULT_BENCHMARK_SCRIPT
-        = "scripts/bwe-benchmark.py";
-
     /**
      * Default chrome wrapper script with mahimahi(1) support.
      */
@@ -245,91 +253,55 @@ public class BandwidthEstimationTest
         = "scripts/google-chrome-stable-mahimahi.sh";
 
     /**
-     * Stores the path to the tc script. It is expected that the script
-     * supports two arguments:
-     * <p>
-     * 1. "{port number}" will adjust the outgoing rate of the given
-     * port number, based on the schedule provided with the
-     * "{schedule}" parameter.
-     * <p>
+     * Stores the path to the Chrome wrapper with mahimahi(1) support.
      */
-    private static String tcScript;
+    private static String chromeWrapper;
 
     /**
-     * Stores the path to the benchmark script.
+     * Whether to replay the network traces with {@link #emulator} rather than
+     * with {@link #chromeWrapper}.
      */
-    private static String benchmarkScript;
+    private boolean replayTraces;
 
     /**
-     * Stores the path to the Chrome wrapper with mahimahi(1) support.
+     * Runs the combinations concurrently and collects their results.
      */
-    private static String chromeWrapper;
+    private BweMatrix matrix;
 
     /**
-     * The options to launch the sender participant with.
+     * Rate-limits the egress bitrate to the receiver ports. It is configured
+     * with the tc.* system properties, see {@link NetworkEmulator}.
      */
-    private WebParticipantOptions senderOptions;
+    private NetworkEmulator emulator;
 
     /**
-     * Utility method that calls {@link #tcScript} to rate-limit given port.
-     *
-     * @param portNumber the port number to be rate-limited.
-     * @param timeout
-     * @param unit
-     * @throws Exception if anything goes wrong.
+     * The number of round trips used to estimate the clock offset of the
+     * receiver, to align its stats with the schedule.
      */
-    private static void schedulePort(
-            int portNumber, long timeout, TimeUnit unit, String ... schedule)
-        throws Exception
-    {
-        if (portNumber == -1)
-        {
-            throw new IllegalArgumentException("Trying to rate-limit port -1");
-        }
-
-        CmdExecutor cmdExecutor = new CmdExecutor();
-
-        List<String> cmdArgs = new LinkedList<>();
-
-        cmdArgs.add(tcScript);
-        cmdArgs.add(String.valueOf(portNumber));
-        Collections.addAll(cmdArgs, schedule);
-
-        // This will take a while (blocking), depending on the schedule.
-        cmdExecutor.executeCmd(cmdArgs, timeout, unit);
-    }
+    private static final int CLOCK_SAMPLES = 10;
 
     /**
-     * Runs the benchmark script with the jvb and the p2p webrtc-stats
-     * as a parameter.
+     * Analyzes the received bitrate of the jvb and the p2p runs against the
+     * schedule.
      *
-     * @param jvbFile the {@link File} to read the JVB webrtc-stats from.
-     * @param p2pFile the {@link File} to read the webrtc-stats file from.
-     * @param analysisFile the {@link File} to store the analysis results in.
+     * @param jvbRun the run through the JVB.
+     * @param p2pRun the run through the TURN server.
+     * @param schedule the schedule played in both runs.
      */
-    private static int benchmark(File jvbFile, File p2pFile, File analysisFile)
-        throws Exception
+    private static BweComparison benchmark(
+            Run jvbRun, Run p2pRun, BandwidthSchedule schedule)
+        throws IOException
     {
-        CmdExecutor cmdExecutor = new CmdExecutor()
-        {
-            @Override
-            public void configureProcessBuilder(ProcessBuilder processBuilder)
-            {
-                processBuilder.redirectOutput(analysisFile);
-                processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
-            }
-        };
-
-        List<String> cmdArgs = new LinkedList<>();
-
-        cmdArgs.add(benchmarkScript);
-        cmdArgs.add("compare");
-        cmdArgs.add("--jvb");
-        cmdArgs.add(jvbFile.toString());
-        cmdArgs.add("--p2p");
-        cmdArgs.add(p2pFile.toString());
-
-        return cmdExecutor.executeCmd(cmdArgs, 3, TimeUnit.SECONDS);
+        RtcStatsParser parser = new RtcStatsParser(
+            name -> name.endsWith(BweAnalysis.BYTES_RECEIVED_SUFFIX));
+
+        return new BweComparison(
+            new BweAnalysis(
+                "jvb", parser.parse(jvbRun.stats),
+                schedule, jvbRun.stepStarts),
+            new BweAnalysis(
+                "p2p", parser.parse(p2pRun.stats),
+                schedule, p2pRun.stepStarts));
     }
 
     /**
@@ -387,35 +359,41 @@ public class BandwidthEstimationTest
     {
         super.setupClass();
 
-        tcScript = System.getProperty(TC_SCRIPT_PROP_NAME);
-        if (tcScript == null)
+        if (!"linux".equalsIgnoreCase(System.getProperty("os.name")))
         {
-            if ("linux".equalsIgnoreCase(System.getProperty("os.name")))
-            {
-                tcScript = DEFAULT_TC_SCRIPT;
-            }
-            else
-            {
-                print(
-                    "WARN no tc script has been specified and "
-                        + "the BandwidthEstimationTest will not be "
-                        + "executed!");
-                cleanupClass();
-                throw new SkipException("no tc script has been specified");
-            }
+            print(
+                "WARN tc is only available on linux and "
+                    + "the BandwidthEstimationTest will not be "
+                    + "executed!");
+            cleanupClass();
+            throw new SkipException("tc is only available on linux");
+        }
+
+        try
+        {
+            emulator = NetworkEmulator.fromSystemProperties();
+        }
+        catch (IOException e)
+        {
+            print("WARN " + e.getMessage() + " and "
+                + "the BandwidthEstimationTest will not be executed!");
+            cleanupClass();
+            throw new SkipException(e.getMessage());
         }
+        print("Shaping the receivers on " + emulator.getDevice());
 
-        benchmarkScript = System.getProperty(BENCHMARK_SCRIPT_PROP_NAME);
-        if (benchmarkScript == null)
+        replayTraces = Boolean.getBoolean(REPLAY_TRACES_PROP_NAME);
+        chromeWrapper = System.getProperty(CHROME_WRAPPER_PROP_NAME);
+        if (chromeWrapper == null && !replayTraces)
         {
             if ("linux".equalsIgnoreCase(System.getProperty("os.name")))
             {
-                benchmarkScript = DEFAULT_BENCHMARK_SCRIPT;
+                chromeWrapper = DEFAULT_CHROME_WRAPPER;
             }
             else
             {
                 print(
-                    "WARN no benchmark script has been specified and "
+                    "WARN no chrome wrapper has been specified and "
                         + "the BandwidthEstimationTest will not be "
                         + "executed!");
                 cleanupClass();
@@ -423,31 +401,42 @@ public class BandwidthEstimationTest
             }
         }
 
-        chromeWrapper = System.getProperty(CHROME_WRAPPER_PROP_NAME);
-        if (chromeWrapper == null)
+        matrix = new BweMatrix(
+            Integer.getInteger(
+                CONCURRENCY_PROP_NAME, BweMatrix.getDefaultConcurrency()));
+        print("Running up to " + matrix.getConcurrency()
+            + " BWE combinations at once");
+    }
+
+    @Override
+    public void cleanupClass()
+    {
+        if (matrix != null)
         {
-            if ("linux".equalsIgnoreCase(System.getProperty("os.name")))
+            String table = matrix.getTable();
+            print(table);
+            try
             {
-                chromeWrapper = DEFAULT_CHROME_WRAPPER;
+                writeFile(getLogFile("bwe-matrix.out"), table);
             }
-            else
+            catch (IOException e)
             {
-                print(
-                    "WARN no chrome wrapper has been specified and "
-                        + "the BandwidthEstimationTest will not be "
-                        + "executed!");
-                cleanupClass();
-                throw new SkipException("no tc script has been specified");
+                print("Failed to write the BWE matrix: " + e);
             }
+            matrix = null;
         }
 
-        senderOptions
-            = new WebParticipantOptions().setFakeStreamVideoFile(
-                INPUT_VIDEO_FILE);
+        if (emulator != null)
+        {
+            emulator.close();
+            emulator = null;
+        }
+
+        super.cleanupClass();
     }
 
-    @DataProvider(name = "dp")
-    public Object[][] createData()
+    @DataProvider(name = "dp", parallel = true)
+    public Object[][] createData(ITestContext context)
     {
         // If the tests is not in the list of tests to be executed,
         // skip executing the DataProvider.
@@ -456,8 +445,13 @@ public class BandwidthEstimationTest
             return new Object[0][0];
         }
 
+        // The rows beyond the concurrency wait for a sandbox.
+        context.getCurrentXmlTest().getSuite()
+            .setDataProviderThreadCount(matrix.getConcurrency());
+
         // These are bitrate,duration pairs. The units are important and are
-        // defined in TC(8). The test duration should be in seconds.
+        // defined in TC(8). The test duration should be in seconds. Steps may
+        // also delay or drop packets, see BandwidthSchedule.
         String[] schedule1 = { "100mbit,90" };
         String[] schedule2 = { "10mbit,60", "1mbit,60", "10mbit,60" };
 
@@ -488,10 +482,12 @@ public class BandwidthEstimationTest
     {
         // XXX notice that the webrtc stats gathering default interval is 300
         // seconds.
-        String jvbStats = test(
-                true, 200, TimeUnit.SECONDS, network, schedule);
-        String p2pStats = test(
-                false, 200, TimeUnit.SECONDS, network, schedule);
+        // The runs which are compared must not compete for the bandwidth.
+        List<Run> runs = matrix.run(sandbox -> Arrays.asList(
+            test(true, 200, TimeUnit.SECONDS, network, schedule, sandbox),
+            test(false, 200, TimeUnit.SECONDS, network, schedule, sandbox)));
+        Run jvbRun = runs.get(0);
+        Run p2pRun = runs.get(1);
 
         File jvbFile = getLogFile(
                 network.name + "JVB" + humanizeSchedule(schedule) + ".json");
@@ -500,11 +496,19 @@ public class BandwidthEstimationTest
         File analysisFile = getLogFile(
                 network.name + humanizeSchedule(schedule) + ".out");
 
-        writeFile(jvbFile, jvbStats);
-        writeFile(p2pFile, p2pStats);
+        writeFile(jvbFile, jvbRun.stats);
+        writeFile(p2pFile, p2pRun.stats);
+
+        BweComparison comparison = benchmark(
+            jvbRun, p2pRun, BandwidthSchedule.parse(schedule));
+        writeFile(analysisFile, comparison.getReport());
+        print(comparison.getReport());
+        matrix.addResult(
+            network.name + " " + humanizeSchedule(schedule), comparison);
 
-        int result = benchmark(jvbFile, p2pFile, analysisFile);
-        assertEquals(result, 0);
+        assertTrue(
+            comparison.isHealthy(),
+            "JVB bitrate ratio too low: " + comparison.getRatio());
     }
 
     /**
@@ -514,13 +518,15 @@ public class BandwidthEstimationTest
      * @param timeout
      * @param unit
      * @param schedule
-     * @return the file where the results where written.
+     * @param sandbox the resources reserved for this run.
+     * @return the stats of the receiver and the times the steps of the
+     * schedule took effect.
      *
      * @throws Exception if something goes wrong.
      */
-    private String test(
+    private Run test(
             boolean useJVB, long timeout, TimeUnit unit,
-            Network network, String[] schedule)
+            Network network, String[] schedule, BweMatrix.Sandbox sandbox)
         throws Exception
     {
         JitsiMeetUrl senderUrl, receiverUrl;
@@ -558,14 +564,27 @@ public class BandwidthEstimationTest
 
         WebParticipantOptions receiverOptions = new WebParticipantOptions();
 
+        BandwidthSchedule bottleneck = BandwidthSchedule.parse(schedule);
+        BandwidthSchedule played = bottleneck;
+
         boolean useCustomBinary = false;
-        if (network.uplink != null && network.uplink != "")
+        if (replayTraces)
+        {
+            if (network.downlink != null && !network.downlink.isEmpty())
+            {
+                played = MahimahiTrace.load(network.downlink).toSchedule(
+                    bottleneck.getDurationMillis(),
+                    MahimahiTrace.DEFAULT_BIN_MILLIS, 1, 0, bottleneck);
+            }
+        }
+        else if (network.uplink != null && network.uplink != "")
         {
             receiverOptions.setUplink(network.uplink);
             useCustomBinary = true;
         }
 
-        if (network.downlink != null && network.downlink != "")
+        if (!replayTraces
+            && network.downlink != null && network.downlink != "")
         {
             receiverOptions.setDownlink(network.downlink);
             useCustomBinary = true;
@@ -579,48 +598,154 @@ public class BandwidthEstimationTest
             // either SIGINT or SIGTERM the chrome wrapper to give it a chance
             // to free up any resources it has allocated. Setting the profile
             // directory does that..
-            receiverOptions.setProfileDirectory("/tmp/bwe-receiver-data-dir");
+            receiverOptions.setProfileDirectory(
+                "/tmp/bwe-receiver-data-dir-" + sandbox.getSlot());
         }
 
-        ensureTwoParticipants(
-                senderUrl, receiverUrl, senderOptions, receiverOptions);
-
-        WebDriver sender = getParticipant1().getDriver();
-        assertNotNull(sender);
-        WebDriver receiver = getParticipant2().getDriver();
-        assertNotNull(receiver);
+        // The combinations run concurrently, so every run has its own
+        // participants rather than the shared participant1 and participant2.
+        WebParticipantOptions senderOptions
+            = new WebParticipantOptions().setFakeStreamVideoFile(
+                INPUT_VIDEO_FILE);
+        senderOptions.setName("sender" + sandbox.getSlot());
+        receiverOptions.setName("receiver" + sandbox.getSlot());
 
-        // Rate limit the media flow on the receiver and analyze the webrtc
-        // internals.
-        String localCandidateType
-            = MeetUtils.getLocalCandidateType(receiver, useJVB);
-        while (!"prflx".equalsIgnoreCase(localCandidateType))
+        WebParticipant senderParticipant = null;
+        WebParticipant receiverParticipant = null;
+        try
         {
-            print("Waiting for a prflx local candidate type. Got: "
-                    + localCandidateType);
+            senderParticipant = participants.createParticipant(
+                "web.participant1", senderOptions);
+            senderParticipant.joinConference(senderUrl);
+            senderParticipant.waitToJoinMUC();
+
+            receiverParticipant = participants.createParticipant(
+                "web.participant2", receiverOptions);
+            WebDriver receiver = receiverParticipant.getDriver();
+            assertNotNull(receiver);
+
+            int receiverPort = -1;
+            for (int attempt = 1; receiverPort == -1; attempt++)
+            {
+                receiverParticipant.joinConference(receiverUrl);
+                receiverParticipant.waitToJoinMUC();
+
+                senderParticipant.waitForIceConnected();
+                receiverParticipant.waitForIceConnected();
+                receiverParticipant.waitForSendReceiveData();
+
+                // Rate limit the media flow on the receiver and analyze the
+                // webrtc internals.
+                String localCandidateType
+                    = MeetUtils.getLocalCandidateType(receiver, useJVB);
+                while (!"prflx".equalsIgnoreCase(localCandidateType))
+                {
+                    print("Waiting for a prflx local candidate type. Got: "
+                            + localCandidateType);
+
+                    Thread.sleep(1000);
+                    localCandidateType
+                        = MeetUtils.getLocalCandidateType(receiver, useJVB);
+                }
+
+                int port = MeetUtils.getBundlePort(receiver, useJVB);
+                print("Receiver port: " + port);
+
+                if (sandbox.tryReservePort(port))
+                {
+                    receiverPort = port;
+                }
+                else if (attempt < MAX_JOIN_ATTEMPTS)
+                {
+                    // Another combination rate-limits the port, the next
+                    // connection gets another one.
+                    print("Receiver port " + port + " is in use, rejoining");
+                    receiverParticipant.hangUp();
+                }
+                else
+                {
+                    throw new IllegalStateException(
+                        "Receiver port " + port
+                            + " is rate-limited by another combination");
+                }
+            }
 
-            Thread.sleep(1000);
-            localCandidateType
-                = MeetUtils.getLocalCandidateType(receiver, useJVB);
-        }
+            // The stats are timestamped by the browser.
+            double clockOffset
+                = MeetUtils.getClockOffset(receiver, CLOCK_SAMPLES);
 
-        int receiverPort = MeetUtils.getBundlePort(receiver, useJVB);
+            // This will take a while (blocking), depending on the schedule.
+            List<NetworkEmulator.Change> changes;
+            try (NetworkEmulator.Session session = emulator.play(
+                    NetworkEmulator.Target.port(receiverPort), played))
+            {
+                session.awaitEnd(timeout, unit);
+                changes = session.getChanges();
+            }
 
-        print("Receiver port: " + receiverPort);
+            // The bottleneck is analyzed, its steps are the played ones unless
+            // a trace is replayed, in which case they are planned from the
+            // start of the replay.
+            long[] stepStarts = new long[bottleneck.getSteps().size()];
+            for (int i = 0; i < stepStarts.length; i++)
+            {
+                long time = played == bottleneck
+                    ? changes.get(i).getTimeMillis()
+                    : changes.get(0).getTimeMillis()
+                        + bottleneck.getSteps().get(i).getStartMillis();
+                stepStarts[i] = Math.round(time + clockOffset);
+            }
 
-        // This will take a while (blocking), depending on the schedule.
-        schedulePort(receiverPort, timeout, unit, schedule);
+            String rtcStats = MeetUtils.getRtpStats(receiver, useJVB);
+            assertNotNull(rtcStats, "No webrtc stats for the receiver");
 
-        String rtcStats = MeetUtils.getRtpStats(receiver, useJVB);
+            return new Run(rtcStats, stepStarts);
+        }
+        finally
+        {
+            // XXX prevent ghosts, and we want to actually quit the drivers
+            // because we may wish to launch chrome with different parameters.
+            for (WebParticipant participant
+                    : Arrays.asList(senderParticipant, receiverParticipant))
+            {
+                if (participant != null)
+                {
+                    try
+                    {
+                        participant.hangUp();
+                    }
+                    catch (Exception e)
+                    {
+                        print("Failed to hang up " + participant.getName()
+                            + ": " + e);
+                    }
+                    participants.close(participant);
+                }
+            }
+        }
+    }
+
+    /**
+     * The outcome of one run of a schedule.
+     */
+    static class Run
+    {
+        Run(String stats, long[] stepStarts)
+        {
+            this.stats = stats;
+            this.stepStarts = stepStarts;
+        }
 
-        // XXX prevent ghosts
-        getParticipant1().hangUp();
-        getParticipant2().hangUp();
-        // XXX we want to actually quit the drivers because we may wish to
-        // launch chrome with different parameters.
-        participants.cleanup();
+        /**
+         * The webrtc stats of the receiver, as JSON.
+         */
+        final String stats;
 
-        return rtcStats;
+        /**
+         * The times the steps of the schedule took effect, on the clock of
+         * the receiver.
+         */
+        final long[] stepStarts;
     }
 
     static class Network
@@ -38,6 +38,13 @@ public class DesktopSharingTest
     private static final String LOCAL_VIDEO_XPATH
         = "//span[@id='localVideoWrapper']";
 
+    @Override
+    public int getBrowserSlots()
+    {
+        // testLastNAndScreenshare joins a fourth participant.
+        return 4;
+    }
+
     /**
      * Check desktop sharing start.
      */
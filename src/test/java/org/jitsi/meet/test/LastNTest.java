@@ -28,6 +28,12 @@ import org.testng.annotations.*;
 public class LastNTest
     extends WebTestBase
 {
+    @Override
+    public int getBrowserSlots()
+    {
+        return 4;
+    }
+
     /**
      * Last N test scenario.
      */
@@ -47,9 +47,12 @@ import static org.jitsi.meet.test.util.TestUtils.*;
  * from WebRTC remote stream stats which may appear with slight delay. The video
  * is captured with Canvas and seems to be pretty accurate(0 frame delay).
  * The green dot is detected by verifying if the pixel at the center of
- * the video has green value of at least 200{@link #rgbaToColorStr(List)}.
+ * the video has green value of at least 200{@link #rgbaToColorStr(int)}.
  * The beep sound is detected when the audio level is greater than 0.2
- * {@link #isBeep(Double)}.
+ * {@link #isBeep(double)}. The timestamps, audio levels and center pixels of
+ * all frames are exported in chunks
+ * ({@link FrameSeries#fetch(VideoOperator, String)}) and processed as
+ * primitive arrays.
  *
  * Once the data has been collected the differences between the times when
  * audio/video was sent to when it was received are being calculated. In normal
@@ -62,6 +65,11 @@ import static org.jitsi.meet.test.util.TestUtils.*;
  * delay and the average of the last 5 video delays. For 7/9 it is more than 0.8
  * and the tests will fail when the value is lower than 0.5.
  *
+ * The audio to video offset is also tracked over the whole recording with
+ * {@link AVSyncAnalyzer}, which reports the offset over time, its drift and
+ * jitter. When the "lipsync.max_drift" property is set (in milliseconds per
+ * second), the test fails if the offset drifts faster than that.
+ *
  * @author Pawel Domas
  */
 public class LipSyncTest
@@ -80,6 +88,19 @@ public class LipSyncTest
      */
     private static final double MIN_SYNC_RATIO = 0.5;
 
+    /**
+     * The name of the property with the maximum drift of the audio to video
+     * offset, in milliseconds per second, in either direction. Not checked if
+     * not set.
+     */
+    private static final String MAX_DRIFT_PNAME = "lipsync.max_drift";
+
+    /**
+     * The name of the property with the maximum lag searched by the
+     * {@link AVSyncAnalyzer}, in milliseconds.
+     */
+    private static final String MAX_LAG_PNAME = "lipsync.max_lag";
+
     private boolean debug;
 
     @Override
@@ -205,8 +226,8 @@ public class LipSyncTest
             dumpLipSyncInfo("participant2.log", participant2Series);
         }
 
-        print("BEEP diffs: " + comparison.beepDifferences);
-        print("GREEN diffs: " + comparison.greenDifferences);
+        print("BEEP diffs: " + Arrays.toString(comparison.beepDifferences));
+        print("GREEN diffs: " + Arrays.toString(comparison.greenDifferences));
 
         double beepAvg = comparison.getBeepDiffAvg();
 
@@ -223,12 +244,47 @@ public class LipSyncTest
         double syncRatio = lastGreenAvg / beepAvg;
         print("A/V sync ratio: " + syncRatio);
 
+        AVSyncAnalyzer.Result sync = analyzeSync(
+            participant2Series.data, participant1Series.data);
+        print(sync.toString());
+        if (debug)
+        {
+            print("A/V offsets: " + sync.getSamples());
+        }
+
         operator1.dispose();
         operator2.dispose();
 
         assertTrue(
             syncRatio > MIN_SYNC_RATIO,
             "A/V sync ratio is too low: " + syncRatio);
+
+        String maxDrift = System.getProperty(MAX_DRIFT_PNAME);
+        if (maxDrift != null && maxDrift.length() > 0)
+        {
+            assertFalse(sync.getSamples().isEmpty(), "A/V offset not measured");
+            assertTrue(
+                Math.abs(sync.getDriftMillisPerSecond())
+                    <= Double.parseDouble(maxDrift),
+                "A/V offset drifts too fast: " + sync);
+        }
+    }
+
+    /**
+     * Tracks the audio to video offset of the receiver over the recording.
+     */
+    private static AVSyncAnalyzer.Result analyzeSync(
+        FrameSeries sender, FrameSeries receiver)
+    {
+        long maxLag = Long.getLong(
+            MAX_LAG_PNAME, AVSyncAnalyzer.DEFAULT_MAX_LAG_MILLIS);
+
+        return new AVSyncAnalyzer(
+                Math.max(AVSyncAnalyzer.DEFAULT_WINDOW_MILLIS, 4 * maxLag),
+                AVSyncAnalyzer.DEFAULT_STEP_MILLIS,
+                maxLag,
+                AVSyncAnalyzer.DEFAULT_MIN_CORRELATION)
+            .analyze(sender, receiver);
     }
 
     private static void dumpLipSyncInfo(String fileName, Series series)
@@ -242,8 +298,10 @@ public class LipSyncTest
                             "frames count for %s: %s\n", series.getVideoId(),
                             framesCount));
 
-            fileWriter.write("Beep starts: " + series.getBeepStarts() + "\n");
-            fileWriter.write("Green starts: " + series.getGreenStarts() + "\n");
+            fileWriter.write(
+                "Beep starts: " + Arrays.toString(series.getBeepStarts()) + "\n");
+            fileWriter.write(
+                "Green starts: " + Arrays.toString(series.getGreenStarts()) + "\n");
 
             for (int i = 0; i < framesCount; i += 1)
             {
@@ -262,185 +320,162 @@ public class LipSyncTest
     /**
      * Returns <tt>true</tt> if given audio level is considered a beep sounds.
      *
-     * @param aLvl a <tt>Double</tt> from 0.0 to 1.0 which represents the output
-     * audio level.
+     * @param aLvl a value from 0.0 to 1.0 which represents the output audio
+     * level.
      */
-    static private boolean isBeep(Double aLvl)
+    static private boolean isBeep(double aLvl)
     {
         return aLvl > 0.2d;
     }
 
     /**
-     * Returns string representation of given RGBA array.
-     * @param rgba an array with 0-255 values of red, green, blue and alpha
-     * color channels.
+     * Returns <tt>true</tt> if given pixel is considered the green dot.
+     *
+     * @param rgba the red, green, blue and alpha values packed as 0xRRGGBBAA.
+     */
+    static private boolean isGreen(int rgba)
+    {
+        return "GREEN".equals(rgbaToColorStr(rgba));
+    }
+
+    /**
+     * Returns string representation of given RGBA value.
+     * @param rgba the 0-255 values of red, green, blue and alpha color
+     * channels packed as 0xRRGGBBAA.
      * @return "RED", "GREEN" or "R={red},G={green},B={blue},A={alpha}"
      */
-    static private String rgbaToColorStr(List<Long> rgba)
+    static private String rgbaToColorStr(int rgba)
     {
-        if (rgba.get(0) > 200)
+        int red = (rgba >>> 24) & 0xff;
+        int green = (rgba >>> 16) & 0xff;
+        int blue = (rgba >>> 8) & 0xff;
+        int alpha = rgba & 0xff;
+
+        if (red > 200)
         {
             return  "RED";
         }
-        else if (rgba.get(1) > 200)
+        else if (green > 200)
         {
             return  "GREEN";
         }
         else
         {
             return String.format(
-                    "R=%s,G=%s,B=%s,A=%s",
-                    rgba.get(0), rgba.get(1), rgba.get(2), rgba.get(3));
+                    "R=%s,G=%s,B=%s,A=%s", red, green, blue, alpha);
         }
     }
 
     /**
-     * Structure that stores the info about captured frame.
+     * Returns the index of the first rising edge of a signal after a start
+     * index, i.e. the index of the first element which is set while the
+     * previous one is not.
+     *
+     * @param signal the signal.
+     * @param startIdx starting array index.
+     *
+     * @return the index of the rising edge or <tt>-1</tt> when it never
+     * happens.
      */
-    private class CapturedFrame
+    private static int findRisingEdge(boolean[] signal, int startIdx)
     {
-        final Date timestamp;
-
-        final boolean beep;
-
-        final String color;
-
-        CapturedFrame(Date timestamp, boolean beep, List<Long> pixelRgba)
+        for (int i = startIdx + 1; i + 1 < signal.length; i++)
         {
-            Objects.requireNonNull(timestamp, "timestamp");
-            Objects.requireNonNull(pixelRgba, "pixelRgba");
-
-            this.timestamp = timestamp;
-            this.beep = beep;
-            this.color = rgbaToColorStr(pixelRgba);
+            if (!signal[i - 1] && signal[i])
+            {
+                return i;
+            }
         }
+        return -1;
+    }
 
-        boolean isGreen()
+    /**
+     * Returns all rising edges of a signal, see
+     * {@link #findRisingEdge(boolean[], int)}.
+     */
+    private static int[] findRisingEdges(boolean[] signal)
+    {
+        int[] edges = new int[signal.length];
+        int count = 0;
+        int idx = 0;
+        do
         {
-            return "GREEN".equals(this.color);
-        }
+            idx = findRisingEdge(signal, idx);
+            if (idx != -1)
+            {
+                edges[count++] = idx;
+            }
+        } while (idx > 0);
+
+        return Arrays.copyOf(edges, count);
     }
 
     /**
-     * A series of captured frames.
+     * A series of captured frames, as primitive arrays indexed by frame.
      */
-    private class Series
+    private static class Series
     {
         private final String videoId;
 
-        private final CapturedFrame[] frames;
+        private final FrameSeries data;
+
+        private final long[] timestamps;
 
-        private ArrayList<Integer> beepStarts = new ArrayList<>();
+        private final int[] centerRgba;
 
-        private ArrayList<Integer> greenStarts = new ArrayList<>();
+        private final boolean[] beeps;
+
+        private final boolean[] greens;
+
+        private int[] beepStarts = new int[0];
+
+        private int[] greenStarts = new int[0];
 
         Series(VideoOperator operator, String videoID)
         {
             this.videoId = videoID;
 
-            Long countLong = operator.getFramesCount(videoID);
-            int frameCount = Integer.parseInt(String.valueOf(countLong));
+            FrameSeries series = FrameSeries.fetch(operator, videoID);
+            this.data = series;
+            int frameCount = series.getLength();
 
-            this.frames = new CapturedFrame[frameCount];
+            this.timestamps = series.getTimestamps();
+            this.centerRgba = series.getCenterRgba();
+            this.beeps = new boolean[frameCount];
+            this.greens = new boolean[frameCount];
 
+            double[] audioLevels = series.getAudioLevels();
             for (int i = 0; i < frameCount; i += 1)
             {
-                //Double audioLevel = operator.getAudioLevel(id, i);
-                Long timestamp = operator.getTimestamp(videoID, i);
-                Date date = new Date(timestamp);
-                boolean beep = isBeep(operator.getAudioLevel(videoID, i));
-                List<Long> pixelRgba = operator.getRGBAatTheCenter(videoID, i);
-
-                frames[i] = new CapturedFrame(date, beep, pixelRgba);
+                beeps[i] = isBeep(audioLevels[i]);
+                greens[i] = isGreen(centerRgba[i]);
             }
         }
 
         int getLength()
         {
-            return frames.length;
+            return timestamps.length;
         }
 
         Date getTs(int idx)
         {
-            return frames[idx].timestamp;
+            return new Date(timestamps[idx]);
         }
 
         boolean getBeep(int idx)
         {
-            return frames[idx].beep;
+            return beeps[idx];
         }
 
         String getColor(int idx)
         {
-            return frames[idx].color;
+            return rgbaToColorStr(centerRgba[idx]);
         }
 
         void process()
         {
-            // Find when beep starts for the first time
-            int beepIdx = 0;
-            do
-            {
-                beepIdx = findBeep(beepIdx);
-                if (beepIdx != -1)
-                {
-                    beepStarts.add(beepIdx);
-                }
-            } while (beepIdx > 0);
-
-            int greenIdx = 0;
-            do
-            {
-                greenIdx = findGreen(greenIdx);
-                if (greenIdx != -1)
-                {
-                    greenStarts.add(greenIdx);
-                }
-            } while (greenIdx > 0);
-        }
-
-        /**
-         * Goes over given array and returns an index of the element for which
-         * given <tt>{@link Comparator}</tt> returns value greater than 0 when
-         * compared with the previous element.
-         *
-         * @param series an array of <tt>T</tt>
-         * @param condition a <tt>Comparator</tt> which detects the signal.
-         * @param startIdx starting array index.
-         * @param <T> the type of the array elements.
-         *
-         * @return an index of the element for which given
-         * <tt>{@link Comparator}</tt> returns value greater than 0 when
-         * compared with the previous element or <tt>-1</tt> when it never
-         * happens.
-         */
-        private <T> int findSignalIdx(T[] series,
-                                      Comparator<T> condition, int startIdx)
-        {
-            for (int i = startIdx + 1; i + 1 < series.length; i++)
-            {
-                if (condition.compare(series[i-1], series[i]) > 0)
-                {
-                    return i;
-                }
-            }
-            return -1;
-        }
-
-        int findBeep(int startIdx)
-        {
-            return findSignalIdx(
-                frames,
-                (o1, o2) -> (!o1.beep && o2.beep) ? 1 : 0,
-                startIdx);
-        }
-
-        int findGreen(int startIdx)
-        {
-            return findSignalIdx(
-                frames,
-                (e0, e1) -> (!e0.isGreen() && e1.isGreen()) ? 1 : 0,
-                startIdx);
+            beepStarts = findRisingEdges(beeps);
+            greenStarts = findRisingEdges(greens);
         }
 
         String getVideoId()
@@ -448,12 +483,12 @@ public class LipSyncTest
             return videoId;
         }
 
-        List<Integer> getBeepStarts()
+        int[] getBeepStarts()
         {
             return beepStarts;
         }
 
-        ArrayList<Integer> getGreenStarts()
+        int[] getGreenStarts()
         {
             return greenStarts;
         }
@@ -470,9 +505,9 @@ public class LipSyncTest
 
         private final Series receiverSeries;
 
-        private List<Integer> beepDifferences;
+        private int[] beepDifferences;
 
-        private List<Integer> greenDifferences;
+        private int[] greenDifferences;
 
         SeriesComparison(Series senderSeries, Series receiverSeries)
         {
@@ -494,30 +529,30 @@ public class LipSyncTest
                         receiverSeries.greenStarts, senderSeries.greenStarts);
         }
 
-        private List<Integer> calcDifferences(ArrayList<Integer> receiverTimes,
-                                              ArrayList<Integer> senderTimes)
+        private int[] calcDifferences(int[] receiverTimes, int[] senderTimes)
         {
-            List<Integer> diffs = new ArrayList<>();
+            int first = 0;
 
-            // We may have to remove first entry of the receiver side if
+            // We may have to skip first entry of the receiver side if
             // we have missed first rising edge on the sender side.
-            if (receiverTimes.size() > 0 && senderTimes.size() > 0)
+            if (receiverTimes.length > 0 && senderTimes.length > 0)
             {
-                if (senderTimes.get(0) > receiverTimes.get(0))
+                if (senderTimes[0] > receiverTimes[0])
                 {
-                    // Remove first element
-                    Integer removed = receiverTimes.remove(0);
+                    first = 1;
                     if (debug)
                     {
-                        print("ADJUSTING! removed: " + removed);
+                        print("ADJUSTING! removed: " + receiverTimes[0]);
                     }
                 }
             }
 
-            for (int i =0; i < receiverTimes.size() && i < senderTimes.size();
-                    i++)
+            int count = Math.max(
+                0, Math.min(receiverTimes.length - first, senderTimes.length));
+            int[] diffs = new int[count];
+            for (int i = 0; i < count; i++)
             {
-                diffs.add(receiverTimes.get(i) - senderTimes.get(i));
+                diffs[i] = receiverTimes[first + i] - senderTimes[i];
             }
             return diffs;
         }
@@ -533,7 +568,7 @@ public class LipSyncTest
             {
                 avg += diff;
             }
-            return avg / beepDifferences.size();
+            return avg / beepDifferences.length;
         }
 
         /**
@@ -543,10 +578,10 @@ public class LipSyncTest
         double getLastFewGreenAvg(int lastCount)
         {
             double avg = 0;
-            for (int i = greenDifferences.size() - lastCount;
-                    i < greenDifferences.size(); i++)
+            for (int i = greenDifferences.length - lastCount;
+                    i < greenDifferences.length; i++)
             {
-                avg += greenDifferences.get(i);
+                avg += greenDifferences[i];
             }
             return avg / lastCount;
         }
@@ -16,12 +16,17 @@
 package org.jitsi.meet.test;
 
 import org.jitsi.meet.test.base.*;
+import org.jitsi.meet.test.base.stats.*;
+import org.jitsi.meet.test.bwe.*;
+import org.jitsi.meet.test.malleus.*;
 import org.jitsi.meet.test.util.*;
 import org.jitsi.meet.test.web.*;
 import org.openqa.selenium.*;
+import org.openqa.selenium.remote.*;
 import org.testng.*;
 import org.testng.annotations.*;
 
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
@@ -31,6 +36,8 @@ import java.util.stream.*;
  * @author Damian Minkov
  * @author Boris Grozev
  */
+// Runs its own number of browsers, and loads the deployment.
+@SerialOnly
 public class MalleusJitsificus
     extends WebTestBase
 {
@@ -89,6 +96,87 @@ public class MalleusJitsificus
     public static final String EXTRA_RECEIVER_PARAMS
         = "org.jitsi.malleus.extra_receiver_params";
 
+    /**
+     * Run the participant tasks of all conferences on virtual threads (when
+     * supported by the JVM), with a small shared scheduler for the timed
+     * starts, instead of a scheduled thread pool per conference. The
+     * conferences are all started by the data provider, whose threads only
+     * wait for them.
+     */
+    public static final String USE_VIRTUAL_THREADS_PNAME
+        = "org.jitsi.malleus.use_virtual_threads";
+
+    /**
+     * The maximum number of concurrent WebDriver calls to the hub when
+     * {@link #USE_VIRTUAL_THREADS_PNAME} is enabled, counting every command
+     * sent by the drivers rather than the operations made of them. Unlimited
+     * if not set.
+     */
+    public static final String MAX_CONCURRENT_DRIVER_CALLS_PNAME
+        = "org.jitsi.malleus.max_concurrent_driver_calls";
+
+    /**
+     * The global, open-loop arrival profile for the joins of all conferences,
+     * see {@link ArrivalProfile#parse(String)}. When not set participants of
+     * every conference join every {@link #JOIN_DELAY_PNAME} ms.
+     */
+    public static final String ARRIVAL_PROFILE_PNAME
+        = "org.jitsi.malleus.arrival_profile";
+
+    /**
+     * How the arrivals of {@link #ARRIVAL_PROFILE_PNAME} are distributed over
+     * the conferences, see {@link ArrivalScheduler.FillPolicy}.
+     */
+    public static final String ARRIVAL_FILL_POLICY_PNAME
+        = "org.jitsi.malleus.arrival_fill_policy";
+
+    /**
+     * The interval in milliseconds between the health checks of every
+     * participant when failure detection is enabled. Defaults to 5000.
+     */
+    public static final String HEALTH_CHECK_INTERVAL_PNAME
+        = "org.jitsi.malleus.health_check_interval";
+
+    /**
+     * The interval in milliseconds at which the RTP statistics of every
+     * participant are recorded to a metrics file in the logs folder, see
+     * {@link MetricsRecorder}. Nothing is recorded when not set.
+     */
+    public static final String METRICS_INTERVAL_PNAME
+        = "org.jitsi.malleus.metrics_interval";
+
+    /**
+     * How long (in seconds) to keep polling a joined participant for the
+     * join milestones (MUC, ICE, bridge, first media), see
+     * {@link JoinLatencies}. The polling starts once the join is complete, in
+     * the background. Not set or 0 measures only the URL open.
+     */
+    public static final String JOIN_MILESTONES_TIMEOUT_PNAME
+        = "org.jitsi.malleus.join_milestones_timeout";
+
+    /**
+     * The network conditions of the participants, e.g. schedules or
+     * mahimahi traces, see {@link NetworkProfiles}. They shape the egress traffic of this host
+     * towards the participants, with the tc.* properties of
+     * {@link NetworkEmulator}. Not shaped if not set. Only the media sent
+     * from this host can be shaped, so the bridge (or the TURN server) needs
+     * to run on this host. A participant receiving its media from another
+     * host is not shaped, which is reported.
+     */
+    public static final String NETWORK_PROFILES_PNAME
+        = "org.jitsi.malleus.network_profiles";
+
+    /**
+     * The interval between the polls for the join milestones.
+     */
+    private static final long JOIN_MILESTONES_POLL_MS = 200;
+
+    /**
+     * The maximum number of participants sampled at the same time by the
+     * metrics recorder.
+     */
+    private static final int METRICS_MAX_CONCURRENT_SAMPLES = 16;
+
     // The maximum number of audio senders per browser.  This is a hard-coded Chrome limit, so hard-code it here too.
     public static final int MAX_AUDIO_SENDERS_PER_BROWSER = 16;
 
@@ -107,6 +195,30 @@ public class MalleusJitsificus
     private SharedBaseDriver senderBaseDriver;
     private SharedBaseDriver receiverBaseDriver;
 
+    // The executor shared by all conferences, when running on virtual threads.
+    private ThrottledExecutor sharedExecutor;
+
+    // The conferences running on the shared executor, by conference index.
+    private final Map<Integer, Future<?>> sharedExecutorConferences = new ConcurrentHashMap<>();
+
+    // Plans the joins of all conferences, when an arrival profile is configured.
+    private ArrivalScheduler arrivalScheduler;
+
+    // Records the stats of all participants, when a metrics interval is configured.
+    private MetricsRecorder metricsRecorder;
+
+    // The latencies of the join milestones of all participants.
+    private final JoinLatencies joinLatencies = new JoinLatencies();
+
+    // How long to poll for the join milestones, 0 to not poll.
+    private long joinMilestonesTimeoutMs;
+
+    // The network conditions of the participants, when network profiles are configured.
+    private NetworkProfiles networkProfiles;
+
+    // Plays the network profiles.
+    private NetworkEmulator networkEmulator;
+
     @DataProvider(name = "dp", parallel = true)
     public Object[][] createData(ITestContext context)
     {
@@ -188,9 +300,26 @@ public class MalleusJitsificus
         String extraSenderParams = System.getProperty(EXTRA_SENDER_PARAMS);
         String extraReceiverParams = System.getProperty(EXTRA_RECEIVER_PARAMS);
 
-        // Use one thread per conference.
+        boolean useVirtualThreads = Boolean.parseBoolean(System.getProperty(USE_VIRTUAL_THREADS_PNAME));
+
+        String maxDriverCallsStr = System.getProperty(MAX_CONCURRENT_DRIVER_CALLS_PNAME);
+        int maxDriverCalls = maxDriverCallsStr == null || "".equals(maxDriverCallsStr)
+            ? 0
+            : Integer.parseInt(maxDriverCallsStr);
+
+        String arrivalProfileStr = System.getProperty(ARRIVAL_PROFILE_PNAME);
+        if (arrivalProfileStr != null && !"".equals(arrivalProfileStr))
+        {
+            arrivalScheduler = new ArrivalScheduler(
+                ArrivalProfile.parse(arrivalProfileStr),
+                ArrivalScheduler.FillPolicy.parse(System.getProperty(ARRIVAL_FILL_POLICY_PNAME)),
+                numConferences);
+        }
+
+        // Use one thread per conference, or start all the conferences on the
+        // shared executor below and only wait for them, one after the other.
         context.getCurrentXmlTest().getSuite()
-            .setDataProviderThreadCount(numConferences);
+            .setDataProviderThreadCount(useVirtualThreads ? 1 : numConferences);
 
         if (!useLoadTest && (sendersPerTab > 1 || receiversPerTab > 1))
         {
@@ -206,6 +335,8 @@ public class MalleusJitsificus
         print("audio senders=" + numAudioSenders + (switchSpeakers ? " (switched)" : ""));
         print("duration=" + durationMs + "ms");
         print("join delay=" + joinDelayMs + "ms");
+        print("arrival profile="
+            + (arrivalScheduler == null ? "none" : arrivalScheduler.getProfile().toString()));
         print("room_name_prefix=" + roomNamePrefix);
         print("enable_p2p=" + enableP2p);
         print("max_disrupted_bridges_pct=" + maxDisruptedBridges);
@@ -215,6 +346,52 @@ public class MalleusJitsificus
         print("participants per tab=" + sendersPerTab + " send / " + receiversPerTab + " recv");
         print("extra sender params=" + extraSenderParams);
         print("extra receiver params=" + extraReceiverParams);
+        print("virtual threads=" + useVirtualThreads
+            + (useVirtualThreads ? " (max driver calls=" + (maxDriverCalls > 0 ? maxDriverCalls : "unlimited") + ")" : ""));
+
+        if (useVirtualThreads)
+        {
+            sharedExecutor = ThrottledExecutor.create(2, maxDriverCalls);
+        }
+
+        String joinMilestonesTimeoutStr = System.getProperty(JOIN_MILESTONES_TIMEOUT_PNAME);
+        joinMilestonesTimeoutMs = 1000 * (joinMilestonesTimeoutStr == null || "".equals(joinMilestonesTimeoutStr)
+            ? 0 : Long.parseLong(joinMilestonesTimeoutStr));
+        print("join milestones timeout=" + joinMilestonesTimeoutMs + "ms");
+
+        String metricsIntervalStr = System.getProperty(METRICS_INTERVAL_PNAME);
+        if (metricsIntervalStr != null && !"".equals(metricsIntervalStr))
+        {
+            File metricsFile = new File(
+                FailureListener.createLogsFolder(), "malleus-metrics-" + System.currentTimeMillis() + ".bin");
+            try
+            {
+                metricsRecorder = new MetricsRecorder(
+                    metricsFile, Long.parseLong(metricsIntervalStr), METRICS_MAX_CONCURRENT_SAMPLES);
+                print("metrics=" + metricsFile + " every " + metricsIntervalStr + "ms");
+            }
+            catch (IOException e)
+            {
+                print("WARNING: failed to create metrics file " + metricsFile + ": " + e.getMessage());
+            }
+        }
+
+        String networkProfilesStr = System.getProperty(NETWORK_PROFILES_PNAME);
+        if (networkProfilesStr != null && !"".equals(networkProfilesStr.trim()))
+        {
+            try
+            {
+                // Every participant stays for the duration, whenever it joins.
+                networkProfiles = NetworkProfiles.parse(networkProfilesStr, durationMs);
+                networkEmulator = NetworkEmulator.fromSystemProperties();
+                print("network profiles=" + networkProfiles + " on " + networkEmulator.getDevice());
+            }
+            catch (IOException e)
+            {
+                print("WARNING: network profiles disabled: " + e.getMessage());
+                networkProfiles = null;
+            }
+        }
 
         senderBaseDriver = new SharedBaseDriver(senderTabsPerBrowser);
         receiverBaseDriver = new SharedBaseDriver(receiverTabsPerBrowser);
@@ -248,13 +425,46 @@ public class MalleusJitsificus
                 senderTabsPerBrowser, receiverTabsPerBrowser,
                 sendersPerTab, receiversPerTab,
                 extraSenderParams, extraReceiverParams,
-                useLiteMode
+                useLiteMode,
+                i
             };
+
+            if (sharedExecutor != null)
+            {
+                Object[] row = ret[i];
+                sharedExecutorConferences.put(i, sharedExecutor.submit(() -> {
+                    try
+                    {
+                        runConference(row);
+                    }
+                    catch (Exception e)
+                    {
+                        // Let it be returned by Future#get()
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
         }
 
         return ret;
     }
 
+    /**
+     * Runs a conference with the parameters of a row of the data provider.
+     */
+    private void runConference(Object[] row)
+        throws Exception
+    {
+        runConference(
+            (JitsiMeetUrl) row[0], (Integer) row[1],
+            (Integer) row[2], (Integer) row[3], (Integer) row[4], (Integer) row[5],
+            (String[]) row[6], (Float) row[7], (Boolean) row[8],
+            (Integer) row[9], (Integer) row[10],
+            (Integer) row[11], (Integer) row[12],
+            (String) row[13], (String) row[14],
+            (Boolean) row[15], (Integer) row[16]);
+    }
+
     @Test(dataProvider = "dp")
     public void testMain(
         JitsiMeetUrl url, int numberOfParticipants,
@@ -263,7 +473,45 @@ public class MalleusJitsificus
         int senderTabsPerBrowser, int receiverTabsPerBrowser,
         int sendersPerTab, int receiversPerTab,
         String extraSenderParams, String extraReceiverParams,
-        boolean useLiteMode)
+        boolean useLiteMode, int conferenceIndex)
+        throws Exception
+    {
+        Future<?> conference = sharedExecutorConferences.remove(conferenceIndex);
+        if (conference == null)
+        {
+            runConference(
+                url, numberOfParticipants, durationMs, joinDelayMs, numSenders, numAudioSenders,
+                regions, blipMaxDisruptedPct, switchSpeakers,
+                senderTabsPerBrowser, receiverTabsPerBrowser,
+                sendersPerTab, receiversPerTab,
+                extraSenderParams, extraReceiverParams,
+                useLiteMode, conferenceIndex);
+            return;
+        }
+
+        try
+        {
+            conference.get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException && cause.getCause() instanceof Exception)
+            {
+                cause = cause.getCause();
+            }
+            throw cause instanceof Exception ? (Exception) cause : new Exception(cause);
+        }
+    }
+
+    private void runConference(
+        JitsiMeetUrl url, int numberOfParticipants,
+        long durationMs, long joinDelayMs, int numSenders, int numAudioSenders,
+        String[] regions, float blipMaxDisruptedPct, boolean switchSpeakers,
+        int senderTabsPerBrowser, int receiverTabsPerBrowser,
+        int sendersPerTab, int receiversPerTab,
+        String extraSenderParams, String extraReceiverParams,
+        boolean useLiteMode, int conferenceIndex)
         throws Exception
     {
         List<MalleusTask> malleusTasks = new ArrayList<>(numberOfParticipants);
@@ -271,7 +519,9 @@ public class MalleusJitsificus
 
         bridgeSelectionCountDownLatch = new CountDownLatch(numberOfParticipants);
 
-        ScheduledExecutorService pool = Executors.newScheduledThreadPool(numberOfParticipants + 2);
+        ThrottledExecutor pool = sharedExecutor != null
+            ? sharedExecutor
+            : ThrottledExecutor.wrap(Executors.newScheduledThreadPool(numberOfParticipants + 2));
 
         boolean disruptBridges = blipMaxDisruptedPct > 0;
 
@@ -344,11 +594,11 @@ public class MalleusJitsificus
             }
 
             MalleusTask task = new MalleusTask(
+                conferenceIndex,
                 i,
                 urlCopy,
                 durationMs,
                 joinDelayMs,
-                i * joinDelayMs,
                 audioSender, /* Don't do GUM before unmuting */
                 !sender /* no video */,
                 switchSpeakers || !audioSender /* no audio */,
@@ -358,7 +608,6 @@ public class MalleusJitsificus
                 multitab ? sharedBaseDriver : null
             );
             malleusTasks.add(task);
-            task.start(pool);
             i += numClients;
             if (audioSender)
             {
@@ -380,6 +629,29 @@ public class MalleusJitsificus
             }
         }
 
+        long[] startDelays = new long[malleusTasks.size()];
+        if (arrivalScheduler != null)
+        {
+            startDelays = arrivalScheduler.register(conferenceIndex, malleusTasks.size());
+        }
+        else
+        {
+            for (int k = 0; k < startDelays.length; k++)
+            {
+                startDelays[k] = malleusTasks.get(k).i * joinDelayMs;
+            }
+        }
+
+        for (int k = 0; k < startDelays.length; k++)
+        {
+            malleusTasks.get(k).start(pool, k, startDelays[k]);
+        }
+
+        // The speakers keep switching until the last participant to join has left.
+        long lastStartMs = arrivalScheduler != null
+            ? Arrays.stream(startDelays).max().orElse(0)
+            : joinDelayMs * numberOfParticipants;
+
         List<Future<?>> otherTasks = new ArrayList<>();
 
         if (disruptBridges)
@@ -403,7 +675,7 @@ public class MalleusJitsificus
             otherTasks.add(pool.submit(() -> {
                     try
                     {
-                        switchSpeakers(speakerTasks, durationMs + joinDelayMs * numberOfParticipants);
+                        switchSpeakers(speakerTasks, durationMs + lastStartMs);
                     }
                     catch (Exception e)
                     {
@@ -440,12 +712,94 @@ public class MalleusJitsificus
             }
         }
 
+        print(joinLatencies.getSummary(conferenceIndex));
+
+        if (pool != sharedExecutor)
+        {
+            pool.shutdown();
+        }
+        else
+        {
+            print("Conference " + url.getRoomName() + " done: " + pool);
+        }
+
         if (!errors.isEmpty())
         {
             throw new Exception("Failed with multiple errors. Throws the primary.", errors.get(0));
         }
     }
 
+    /**
+     * Prints the join latencies of all conferences.
+     */
+    @AfterClass
+    public void printJoinLatencies()
+    {
+        print(joinLatencies.getSummary());
+    }
+
+    /**
+     * @return the latencies of the join milestones of all participants, which
+     * can be read while the test runs.
+     */
+    public JoinLatencies getJoinLatencies()
+    {
+        return joinLatencies;
+    }
+
+    /**
+     * Prints how the actual arrivals compared to the planned ones.
+     */
+    @AfterClass
+    public void printArrivalSummary()
+    {
+        if (arrivalScheduler != null)
+        {
+            print(arrivalScheduler.getSummary());
+        }
+    }
+
+    /**
+     * Stops recording metrics and closes the metrics file, if any.
+     */
+    @AfterClass
+    public void closeMetricsRecorder()
+        throws IOException
+    {
+        if (metricsRecorder != null)
+        {
+            metricsRecorder.close();
+            print(metricsRecorder.toString());
+            metricsRecorder = null;
+        }
+    }
+
+    /**
+     * Removes the shaping of the network profiles, if any.
+     */
+    @AfterClass
+    public void closeNetworkEmulator()
+    {
+        if (networkEmulator != null)
+        {
+            networkEmulator.close();
+            networkEmulator = null;
+        }
+    }
+
+    /**
+     * Shuts down the executor shared by all conferences, if any.
+     */
+    @AfterClass
+    public void shutdownSharedExecutor()
+    {
+        if (sharedExecutor != null)
+        {
+            sharedExecutor.shutdown();
+            sharedExecutor = null;
+        }
+    }
+
     /** Object that holds the shared base driver that can be used by tabbed drivers. */
     private static class SharedBaseDriver
     {
@@ -489,37 +843,43 @@ public class MalleusJitsificus
 
     private class MalleusTask
     {
+        private final int conference;
         private final int i;
         private final JitsiMeetUrl _url;
         private final long durationMs;
-        private final long joinDelayMs;
+        private long startDelayMs;
+        private int arrivalIndex;
         private boolean audioSender;
         private final boolean muteVideo;
         private boolean muteAudio;
         private final boolean enableFailureDetection;
 
-        public boolean running;
+        public volatile boolean running;
 
         private Future<?> started;
         private Future<?> complete;
-        private ScheduledFuture<?> checking;
+        private Future<?> checking;
+        private Future<?> measuringMilestones;
 
         WebParticipant participant;
         private String bridge;
 
-        private ScheduledExecutorService pool;
+        // Plays the network profile of the participant, if any.
+        private NetworkEmulator.Session shaping;
+
+        private ThrottledExecutor pool;
 
         private final SharedBaseDriver sharedBaseDriver;
 
         public MalleusTask(
-            int i, JitsiMeetUrl url, long durationMs, long joinDelayMs, long totalJoinDelayMs,
+            int conference, int i, JitsiMeetUrl url, long durationMs, long joinDelayMs,
             boolean audioSender, boolean muteVideo, boolean muteAudio, String region, int numClients,
             boolean enableFailureDetection, SharedBaseDriver sharedBaseDriver)
         {
+            this.conference = conference;
             this.i = i;
             this._url = url;
             this.durationMs = durationMs;
-            this.joinDelayMs = totalJoinDelayMs;
             this.audioSender = audioSender;
             this.muteVideo = muteVideo;
             this.muteAudio = muteAudio;
@@ -550,24 +910,33 @@ public class MalleusJitsificus
             }
         }
 
-        public void start(ScheduledExecutorService pool)
+        public void start(ThrottledExecutor pool, int arrivalIndex, long startDelayMs)
         {
             this.pool = pool;
+            this.arrivalIndex = arrivalIndex;
+            this.startDelayMs = startDelayMs;
 
-            started = pool.schedule(this::join, joinDelayMs, TimeUnit.MILLISECONDS);
-            complete = pool.schedule(this::finish, joinDelayMs + durationMs, TimeUnit.MILLISECONDS);
+            started = pool.schedule(this::join, startDelayMs, TimeUnit.MILLISECONDS);
+            complete = pool.schedule(this::finish, startDelayMs + durationMs, TimeUnit.MILLISECONDS);
 
             if (enableFailureDetection)
             {
-                long healthCheckIntervalMs = 5000; // Configure this?
+                String healthCheckIntervalStr = System.getProperty(HEALTH_CHECK_INTERVAL_PNAME);
+                long healthCheckIntervalMs = healthCheckIntervalStr == null || healthCheckIntervalStr.trim().isEmpty()
+                    ? 5000 : Long.parseLong(healthCheckIntervalStr.trim());
 
                 checking = pool.scheduleWithFixedDelay(this::check,
-                    joinDelayMs + healthCheckIntervalMs, healthCheckIntervalMs, TimeUnit.MILLISECONDS);
+                    startDelayMs + healthCheckIntervalMs, healthCheckIntervalMs, TimeUnit.MILLISECONDS);
             }
         }
 
         private void join()
         {
+            if (arrivalScheduler != null)
+            {
+                arrivalScheduler.recordArrival(conference, arrivalIndex);
+            }
+
             boolean useLoadTest = Boolean.parseBoolean(System.getProperty(USE_LOAD_TEST_PNAME));
             boolean useNodeTypes = Boolean.parseBoolean(System.getProperty(USE_NODE_TYPES_PNAME));
             boolean useHeadless = Boolean.parseBoolean(System.getProperty(USE_HEADLESS));
@@ -598,7 +967,7 @@ public class MalleusJitsificus
             if (sharedBaseDriver != null)
             {
                 ops.setMultitab(true);
-                int numTabs = sharedBaseDriver.createOrGetDriver(
+                int numTabs = pool.throttled(() -> sharedBaseDriver.createOrGetDriver(
                     () -> {
                         participant = participants.createParticipant(configPrefix, ops);
                         return ((TabbedWebDriver) participant.getDriver()).getBaseDriver();
@@ -608,7 +977,7 @@ public class MalleusJitsificus
                         ops.setBaseDriver(baseDriver);
                         participant = participants.createParticipant(configPrefix, ops);
                     }
-                );
+                ));
                 if (numTabs >= MAX_AUDIO_SENDERS_PER_BROWSER)
                 {
                     /* Chrome can't support more than MAX_AUDIO_SENDER_PER_BROWSER audio sender tabs per browser,
@@ -628,13 +997,27 @@ public class MalleusJitsificus
             }
             else
             {
-                participant = participants.createParticipant(configPrefix, ops);
+                participant = pool.throttled(() -> participants.createParticipant(configPrefix, ops));
+            }
+
+            // From now on every command of the driver takes a permit on its own.
+            WebDriver driver = participant.getDriver();
+            if (driver instanceof TabbedWebDriver)
+            {
+                pool.throttle(((TabbedWebDriver) driver).getBaseDriver());
+            }
+            else if (driver instanceof RemoteWebDriver)
+            {
+                pool.throttle((RemoteWebDriver) driver);
             }
 
             allHungUp.register();
+            long joinStartMs = System.currentTimeMillis();
             try
             {
                 participant.joinConference(_url);
+                joinLatencies.record(
+                    conference, i, JoinLatencies.Milestone.URL_OPEN, System.currentTimeMillis() - joinStartMs);
             }
             catch (Exception e)
             {
@@ -671,15 +1054,173 @@ public class MalleusJitsificus
             }
 
             running = true;
+
+            startShaping();
+
+            if (metricsRecorder != null)
+            {
+                metricsRecorder.register(conference, i, participant::getRtpStatsSnapshot);
+            }
+
+            if (joinMilestonesTimeoutMs > 0)
+            {
+                measuringMilestones = pool.submit(() -> measureJoinMilestones(joinStartMs));
+            }
+        }
+
+        /**
+         * Polls the health of the participant until it reaches all join
+         * milestones, {@link #joinMilestonesTimeoutMs} passes or it leaves,
+         * and records the latencies. The resolution is the poll interval for
+         * the connection states and the stats interval of the app for
+         * bitrates. The milestones reached before the join completed, e.g.
+         * the MUC join, are recorded at the first poll.
+         *
+         * @param joinStartMs the time the join started.
+         */
+        private void measureJoinMilestones(long joinStartMs)
+        {
+            EnumSet<JoinLatencies.Milestone> pending = EnumSet.of(
+                JoinLatencies.Milestone.MUC_JOIN,
+                JoinLatencies.Milestone.ICE_CONNECTED,
+                JoinLatencies.Milestone.BRIDGE_ASSIGNED,
+                JoinLatencies.Milestone.FIRST_SEND_BITRATE,
+                JoinLatencies.Milestone.FIRST_RECEIVE_BITRATE);
+            if (muteVideo && !audioSender)
+            {
+                // Receivers never send.
+                pending.remove(JoinLatencies.Milestone.FIRST_SEND_BITRATE);
+            }
+
+            try
+            {
+                while (running
+                    && !pending.isEmpty()
+                    && System.currentTimeMillis() - joinStartMs < joinMilestonesTimeoutMs)
+                {
+                    HealthSnapshot health = participant.getHealthSnapshot();
+                    long latencyMs = health.getTimestamp() - joinStartMs;
+
+                    for (Iterator<JoinLatencies.Milestone> it = pending.iterator(); it.hasNext(); )
+                    {
+                        JoinLatencies.Milestone milestone = it.next();
+                        if (isReached(milestone, health))
+                        {
+                            joinLatencies.record(conference, i, milestone, latencyMs);
+                            it.remove();
+                        }
+                    }
+
+                    if (!pending.isEmpty())
+                    {
+                        Thread.sleep(JOIN_MILESTONES_POLL_MS);
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // The participant left.
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (Exception e)
+            {
+                if (running)
+                {
+                    TestUtils.print("Participant " + i + " failed to measure join milestones: " + e.getMessage());
+                }
+                return;
+            }
+
+            if (running && !pending.isEmpty())
+            {
+                TestUtils.print("Participant " + i + " did not reach " + pending + " in "
+                    + joinMilestonesTimeoutMs + "ms");
+            }
+        }
+
+        /**
+         * Starts playing the network profile of the participant on the port
+         * it receives media on, if it has one.
+         */
+        private void startShaping()
+        {
+            BandwidthSchedule profile = networkProfiles == null ? null : networkProfiles.get(i);
+            if (profile == null)
+            {
+                return;
+            }
+
+            try
+            {
+                HealthSnapshot health = participant.getHealthSnapshot();
+                boolean p2p = health.isP2P();
+                String remote = health.getRemoteSocket();
+                if (remote != null && !NetworkEmulator.isLocalSocket(remote))
+                {
+                    TestUtils.print("Participant " + i + " receives its media from " + remote
+                        + ", which is not this host, so its network profile cannot be played");
+                    return;
+                }
+
+                int port = MeetUtils.getBundlePort(participant.getDriver(), !p2p);
+                shaping = networkEmulator.play(NetworkEmulator.Target.port(port), profile);
+            }
+            catch (Exception e)
+            {
+                TestUtils.print("Participant " + i + " failed to start its network profile: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Stops the network profile of the participant and prints the times
+         * its steps took effect.
+         */
+        private void stopShaping()
+        {
+            if (shaping != null)
+            {
+                shaping.close();
+                TestUtils.print("Participant " + i + " network profile changes: " + shaping.getChanges());
+                shaping = null;
+            }
+        }
+
+        private boolean isReached(JoinLatencies.Milestone milestone, HealthSnapshot health)
+        {
+            switch (milestone)
+            {
+            case MUC_JOIN:
+                return health.isInMuc();
+            case ICE_CONNECTED:
+                return health.isIceConnected();
+            case BRIDGE_ASSIGNED:
+                return !health.isP2P() && health.getRemoteSocket() != null;
+            case FIRST_SEND_BITRATE:
+                return health.getUploadBitrate() > 0;
+            case FIRST_RECEIVE_BITRATE:
+                return health.getDownloadBitrate() > 0;
+            default:
+                return true;
+            }
         }
 
         private void finish()
         {
             running = false;
+            if (metricsRecorder != null)
+            {
+                metricsRecorder.unregister(conference, i);
+            }
             if (checking != null)
             {
                 checking.cancel(true);
             }
+            if (measuringMilestones != null)
+            {
+                measuringMilestones.cancel(true);
+            }
+            stopShaping();
 
             try
             {
@@ -714,21 +1255,30 @@ public class MalleusJitsificus
 
         private void check()
         {
-            try
-            {
-                participant.waitForIceConnected(0 /* no timeout */);
-            }
-            catch (Exception ex)
+            // One round trip for the whole state, cheap enough to check often.
+            HealthSnapshot health = participant.getHealthSnapshot();
+
+            if (!health.isIceConnected())
             {
-                TestUtils.print("Participant " + i + " is NOT connected.");
+                TortureMetrics.ICE_DISCONNECTS.increment();
+                TestUtils.print("Participant " + i + " is NOT connected: " + health);
                 if (!bridgesToFail.contains(bridge))
                 {
-                    throw ex;
+                    throw new IllegalStateException("Participant " + i + " is not connected: " + health);
                 }
                 else
                 {
-                    // wait for reconnect
-                    participant.waitForIceConnected(20);
+                    // wait for reconnect, polling so that no permit is
+                    // held between the checks
+                    long deadline = System.currentTimeMillis() + 20000;
+                    while (!participant.getHealthSnapshot().isIceConnected())
+                    {
+                        if (System.currentTimeMillis() > deadline)
+                        {
+                            throw new org.openqa.selenium.TimeoutException("Participant " + i + " did not reconnect in 20s");
+                        }
+                        TestUtils.waitMillis(500);
+                    }
                     TestUtils.print("Participant " + i + " reconnected.");
                 }
             }
@@ -57,38 +57,41 @@ public class PSNRTest
         "psnr.output.filename";
 
     /**
-     * The PSNR script that produces PSNR results for every frame that we've
-     * captured.
+     * The directory where we get the input frames.
      */
-    private static final String PSNR_SCRIPT = "scripts/psnr-test.sh";
+    public static final String INPUT_FRAME_DIR= "resources/psnr/stamped/";
 
     /**
-     * The directory where we save the captured frames.
+     * The video file to use as input.
      */
-    private static final String OUTPUT_FRAME_DIR
-        = "target/psnr/captured-frames/";
+    public static final String INPUT_VIDEO_FILE
+        = "resources/psnr/psnr-input.y4m";
 
     /**
-     * The directory where we get the input frames.
+     * How long we should sample frames for psnr calculations
      */
-    public static final String INPUT_FRAME_DIR= "resources/psnr/stamped/";
+    private static final String PSNR_DURATION_MILLIS_PROP = "psnr.duration_millis";
 
     /**
-     * The video file to use as input.
+     * Whether to capture in streaming mode, in which the browser keeps only a
+     * bounded number of reduced frames which are drained periodically, so
+     * that long captures are possible. The PSNR is then computed on every
+     * {@link #PSNR_FULL_FRAME_INTERVAL_PROP}-th frame, while the frozen and
+     * skipped frames are counted over all frames.
      */
-    public static final String INPUT_VIDEO_FILE
-        = "resources/psnr/psnr-input.y4m";
+    private static final String PSNR_STREAMING_PROP = "psnr.streaming";
 
     /**
-     * The directory to use for frame resizing.
+     * In streaming mode, the interval (in frames) at which full frames are
+     * sampled for the PSNR. Defaults to 10.
      */
-    private static final String RESIZED_FRAME_DIR
-        = "target/psnr/resized-frames/";
+    private static final String PSNR_FULL_FRAME_INTERVAL_PROP
+        = "psnr.full_frame_interval";
 
     /**
-     * How long we should sample frames for psnr calculations
+     * In streaming mode, how often the frames are drained from the browser.
      */
-    private static final String PSNR_DURATION_MILLIS_PROP = "psnr.duration_millis";
+    private static final long STREAM_DRAIN_PERIOD_MILLIS = 1000;
 
     /**
      * The minimum PSNR value that we will accept before failing. PSNR above 20
@@ -145,13 +148,6 @@ public class PSNRTest
     public void testPSNR()
         throws Exception
     {
-        // Create the output directory for captured frames.
-        File outputFrameDir = new File(OUTPUT_FRAME_DIR);
-        if (!outputFrameDir.exists())
-        {
-            outputFrameDir.mkdirs();
-        }
-
         // stop everything to maximize performance
         MuteTest muteTest = new MuteTest(this);
         muteTest.muteParticipant1AndCheck();
@@ -180,172 +176,144 @@ public class PSNRTest
 
         List<String> ids = MeetUIUtils.getRemoteVideoIDs(driver1);
 
-        operator1.recordAll(ids);
+        boolean streaming
+            = Boolean.parseBoolean(System.getProperty(PSNR_STREAMING_PROP));
 
         String timeToRunInMillisVal = System.getProperty(PSNR_DURATION_MILLIS_PROP);
 
         // default is 10 seconds (originally this was 1 minute, but the
         // longer duration seemed to affect stability, perhaps due to
-        // memory issues in the browser)
+        // memory issues in the browser, use streaming mode for longer runs)
         if (timeToRunInMillisVal == null || timeToRunInMillisVal.length() == 0)
         {
             timeToRunInMillisVal = "10000";
         }
         int timeToRunInMillis = Integer.valueOf(timeToRunInMillisVal);
 
-        // execute every 1 sec. This heartbeat task isn't necessary for the
-        // PSNR testing but it can provide hints as to why the PSNR has failed.
+        try (PSNRAnalyzer analyzer = new PSNRAnalyzer(new File(INPUT_FRAME_DIR)))
+        {
+            Map<String, PSNRAnalyzer.StreamAnalysis> streams
+                = new LinkedHashMap<>();
+            for (String id : ids)
+            {
+                streams.put(id, analyzer.newStream(id));
+            }
 
-        HeartbeatTask heartbeatTask
-            = new HeartbeatTask(
-                getParticipant1(),
-                getParticipant2(),
-                timeToRunInMillis,
-                false);
+            FrameStream frameStream = null;
+            if (streaming)
+            {
+                String fullFrameIntervalVal
+                    = System.getProperty(PSNR_FULL_FRAME_INTERVAL_PROP);
+                Map<String, Object> streamOptions = new HashMap<>();
+                streamOptions.put(
+                    "fullFrameInterval",
+                    fullFrameIntervalVal == null || fullFrameIntervalVal.isEmpty()
+                        ? 10 : Integer.parseInt(fullFrameIntervalVal));
+
+                operator1.streamAll(ids, 0, null, streamOptions);
+                frameStream = new FrameStream(
+                    operator1, ids, STREAM_DRAIN_PERIOD_MILLIS,
+                    (id, frame) -> streams.get(id).add(frame));
+            }
+            else
+            {
+                operator1.recordAll(ids);
+            }
 
-        heartbeatTask.start(/* delay */ 1000, /* period */ 1000);
+            // execute every 1 sec. This heartbeat task isn't necessary for the
+            // PSNR testing but it can provide hints as to why the PSNR has failed.
 
-        heartbeatTask.await(timeToRunInMillis, TimeUnit.MILLISECONDS);
+            HeartbeatTask heartbeatTask
+                = new HeartbeatTask(
+                    getParticipant1(),
+                    getParticipant2(),
+                    timeToRunInMillis,
+                    false);
 
-        operator1.stopRecording();
+            heartbeatTask.start(/* delay */ 1000, /* period */ 1000);
 
-        print("REAL FPS: " + operator1.getRealFPS());
-        print("RAW DATA SIZE: " + operator1.getRawDataSize() + "MB");
+            heartbeatTask.await(timeToRunInMillis, TimeUnit.MILLISECONDS);
 
-        // now close second participant to maximize performance
-        getParticipant2().hangUp();
+            operator1.stopRecording();
+            if (frameStream != null)
+            {
+                frameStream.close();
+                print(frameStream.toString());
+            }
 
-        for (String id : ids)
-        {
-            Long framesCount = operator1.getFramesCount(id);
-            print(String.format("frames count for %s: %s\n", id, framesCount));
-
-            float totalPsnr = 0f;
-            int numFrozenFrames = 0;
-            int numSkippedFrames = 0;
-            int prevFrameNumber = -1;
-            for (int i = 0; i < framesCount; i += 1)
+            print("REAL FPS: " + operator1.getRealFPS());
+            if (!streaming)
             {
-                byte[] data = operator1.getFrame(id, i);
+                print("RAW DATA SIZE: " + operator1.getRawDataSize() + "MB");
+            }
 
-                String outputFrame = OUTPUT_FRAME_DIR + id + "-" + i + ".png";
+            // now close second participant to maximize performance
+            getParticipant2().hangUp();
 
-                try (OutputStream stream = new FileOutputStream(outputFrame))
+            if (!streaming)
+            {
+                // The frames are analyzed in the background while the rest
+                // are being fetched.
+                for (String id : ids)
                 {
-                    stream.write(data);
-                }
-
-                Runtime rt = Runtime.getRuntime();
-                String[] commands = {
-                    PSNR_SCRIPT, outputFrame,
-                    INPUT_FRAME_DIR, RESIZED_FRAME_DIR
-                };
+                    Long framesCount = operator1.getFramesCount(id);
+                    print(String.format("frames count for %s: %s\n", id, framesCount));
 
-                Process proc = rt.exec(commands);
+                    operator1.exportFrames(
+                        id, true, frame -> streams.get(id).add(frame.getImage()));
+                }
+            }
 
-                BufferedReader stdInput
-                    = new BufferedReader(
-                            new InputStreamReader(proc.getInputStream()));
+            for (PSNRAnalyzer.StreamAnalysis stream : streams.values())
+            {
+                PSNRAnalyzer.StreamResult result = stream.finish();
+                int framesCount = result.getFramesCount();
 
-                BufferedReader stdError
-                    = new BufferedReader(
-                            new InputStreamReader(proc.getErrorStream()));
+                // Without frames there is nothing to compare, and the
+                // percentages below would not be numbers.
+                assertTrue(
+                    framesCount > 0,
+                    "No frame of " + result.getId() + " could be decoded");
 
-                // read the output from the command
-                String s;
-                try
+                for (PSNRAnalyzer.FrameResult frame : result.getFrames())
                 {
-                    while ((s = stdInput.readLine()) != null)
+                    if (Double.isNaN(frame.getPsnr()))
                     {
-                        print(s);
-                        int frameNum = Integer.parseInt(s.split(" ")[0]);
-                        float psnr = Float.parseFloat(s.split(" ")[1]);
-
-                        assertTrue(
-                            psnr > MIN_PSNR,
-                            "Frame is bellow the PSNR threshold");
-
-                        if (prevFrameNumber != -1 &&
-                            frameNum == prevFrameNumber)
-                        {
-                            System.out.println("Current frame same as the last, incrementing frozen");
-                            numFrozenFrames++;
-                        }
-                        else if (prevFrameNumber != -1 &&
-                            frameNum != prevFrameNumber + 1)
-                        {
-                            if (frameNum < prevFrameNumber)
-                            {
-                                // roll-over case, frameNum should be '1', so
-                                // calculate anything more than that as skipped
-                                // frames
-                                System.out.println(
-                                    "roll over: previous frame was " +
-                                    prevFrameNumber + "current frame is "
-                                    + frameNum + ", skipped " +
-                                    (frameNum - 1) + " frames");
-                                numSkippedFrames += (frameNum - 1);
-                            }
-                            else
-                            {
-                                System.out.println(
-                                    "previous frame was " + prevFrameNumber +
-                                    "current frame is " + frameNum + ", skipped " +
-                                    (frameNum - (prevFrameNumber + 1)) + " frames");
-                                numSkippedFrames +=
-                                    (frameNum - (prevFrameNumber + 1));
-                            }
-                        }
-                        prevFrameNumber = frameNum;
-
-                        System.out.println("frame number " + frameNum + " had psnr " + psnr);
-                        totalPsnr += psnr;
+                        // Streamed frame without a full frame sampled.
+                        continue;
                     }
 
-                    // read any errors from the attempted command
-                    while ((s = stdError.readLine()) != null)
-                    {
-                        print(s);
-                    }
+                    System.out.println(frame);
+                    assertTrue(
+                        frame.getPsnr() > MIN_PSNR,
+                        "Frame is bellow the PSNR threshold");
                 }
-                catch (IOException e)
+
+                System.out.println("Average psnr: " + result.getAveragePsnr());
+                System.out.println("Average ssim: " + result.getAverageSsim());
+                System.out.println("Num frozen frames: " + result.getFrozenFrames());
+                System.out.println("Frozen pct: " + result.getFrozenFrames() / (float)framesCount);
+                System.out.println("Num skipped frames: " + result.getSkippedFrames());
+                System.out.println("Skipped pct: " + result.getSkippedFrames() / (float)framesCount);
+
+                JSONObject json = new JSONObject();
+                json.put("totalFrames", framesCount);
+                json.put("psnr", result.getAveragePsnr());
+                json.put("ssim", result.getAverageSsim());
+                json.put("numFrozenFrames", result.getFrozenFrames());
+                json.put("numSkippedFrames", result.getSkippedFrames());
+
+                String psnrOutputDir = System.getProperty(PSNR_OUTPUT_DIR_PROP);
+                String psnrOutputFilename
+                    = System.getProperty(PSNR_OUTPUT_FILENAME_PROP);
+                if (psnrOutputDir != null && !psnrOutputDir.isEmpty() &&
+                    psnrOutputFilename != null && !psnrOutputFilename.isEmpty())
                 {
-                    e.printStackTrace();
+                    PrintWriter writer = new PrintWriter(
+                        Paths.get(psnrOutputDir, psnrOutputFilename).toString());
+                    writer.print(json.toString());
+                    writer.close();
                 }
-
-                assertEquals(
-                    proc.waitFor(),
-                    0,
-                    "The psnr-test.sh failed.");
-
-                // If the test has passed for a specific frame, delete
-                // it to optimize disk space usage.
-                File outputFrameFile = new File(outputFrame);
-                outputFrameFile.delete();
-            }
-            float averagePsnr = totalPsnr / framesCount;
-            System.out.println("Average psnr: " + averagePsnr);
-            System.out.println("Num frozen frames: " + numFrozenFrames);
-            System.out.println("Frozen pct: " + numFrozenFrames / (float)framesCount);
-            System.out.println("Num skipped frames: " + numSkippedFrames);
-            System.out.println("Skipped pct: " + numSkippedFrames / (float)framesCount);
-
-            JSONObject json = new JSONObject();
-            json.put("totalFrames", framesCount);
-            json.put("psnr", averagePsnr);
-            json.put("numFrozenFrames", numFrozenFrames);
-            json.put("numSkippedFrames", numSkippedFrames);
-
-            String psnrOutputDir = System.getProperty(PSNR_OUTPUT_DIR_PROP);
-            String psnrOutputFilename
-                = System.getProperty(PSNR_OUTPUT_FILENAME_PROP);
-            if (psnrOutputDir != null && !psnrOutputDir.isEmpty() &&
-                psnrOutputFilename != null && !psnrOutputFilename.isEmpty())
-            {
-                PrintWriter writer = new PrintWriter(
-                    Paths.get(psnrOutputDir, psnrOutputFilename).toString());
-                writer.print(json.toString());
-                writer.close();
             }
         }
 
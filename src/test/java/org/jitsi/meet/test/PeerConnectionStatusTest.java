@@ -15,6 +15,7 @@
  */
 package org.jitsi.meet.test;
 
+import org.jitsi.meet.test.base.*;
 import org.jitsi.meet.test.util.*;
 import org.jitsi.meet.test.web.*;
 
@@ -46,6 +47,8 @@ import static org.jitsi.meet.test.util.TestUtils.*;
  *
  * @author Pawel Domas
  */
+// The firewall script blocks the ports of the bridge for the whole host.
+@SerialOnly
 public class PeerConnectionStatusTest
     extends WebTestBase
 {
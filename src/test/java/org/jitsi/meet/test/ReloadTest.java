@@ -15,6 +15,7 @@
  */
 package org.jitsi.meet.test;
 
+import org.jitsi.meet.test.base.*;
 import org.jitsi.meet.test.util.*;
 import org.jitsi.meet.test.web.*;
 
@@ -32,6 +33,8 @@ import static org.jitsi.meet.test.util.TestUtils.*;
  * if the client reloads the conference and if the conference is working after
  * the reload. 
  */
+// Restarting prosody and jicofo would break the other conferences.
+@SerialOnly
 public class ReloadTest
     extends WebTestBase
 {
@@ -0,0 +1,218 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test;
+
+import org.jitsi.meet.test.base.*;
+import org.jitsi.meet.test.capture.*;
+import org.jitsi.meet.test.tasks.*;
+import org.jitsi.meet.test.util.*;
+import org.jitsi.meet.test.web.*;
+
+import org.testng.annotations.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.jitsi.meet.test.util.TestUtils.*;
+import static org.testng.Assert.*;
+
+/**
+ * Measures the glass-to-glass video latency through the bridge and peer to
+ * peer. Participant1 sends the video stamped with frame numbers used by
+ * {@link PSNRTest}, its local video and the remote video on participant2 are
+ * captured in streaming mode and the times the frame numbers appear on both
+ * sides are joined with {@link VideoLatencyAnalyzer}.
+ *
+ * Like {@link PSNRTest} it requires the PSNR resources and is skipped by
+ * default.
+ */
+public class VideoLatencyTest
+    extends WebTestBase
+{
+    /**
+     * How long to measure, in milliseconds. Defaults to 30 seconds.
+     */
+    private static final String DURATION_MILLIS_PROP = "latency.duration_millis";
+
+    /**
+     * The maximum median latency in milliseconds, not checked if not set.
+     */
+    private static final String MAX_MEDIAN_MILLIS_PROP = "latency.max_median_millis";
+
+    /**
+     * The capture rate, twice the rate of the stamped video so that the time
+     * a frame appears is known within half of its duration.
+     */
+    private static final int CAPTURE_FPS = 60;
+
+    /**
+     * The number of round trips used to estimate the clock offset of every
+     * browser.
+     */
+    private static final int CLOCK_SAMPLES = 20;
+
+    /**
+     * How often the frames are drained from the browsers.
+     */
+    private static final long DRAIN_PERIOD_MILLIS = 1000;
+
+    @Override
+    public void setupClass()
+    {
+        super.setupClass();
+
+        if (!new File(PSNRTest.INPUT_VIDEO_FILE).exists())
+        {
+            throw new RuntimeException(
+                "Unable to run latency tests: INPUT_VIDEO_FILE does not exist");
+        }
+    }
+
+    @Override
+    public boolean skipTestByDefault()
+    {
+        return true;
+    }
+
+    /**
+     * Measures the latency of the video forwarded by the bridge.
+     */
+    @Test
+    public void testJvbLatency()
+        throws Exception
+    {
+        hangUpAllParticipants();
+        WebParticipantOptions options
+            = new WebParticipantOptions()
+                .setFakeStreamVideoFile(PSNRTest.INPUT_VIDEO_FILE);
+        ensureTwoParticipants(null, null, options, null);
+
+        measure("jvb");
+    }
+
+    /**
+     * Measures the latency of the video sent peer to peer.
+     */
+    @Test(dependsOnMethods = { "testJvbLatency" }, alwaysRun = true)
+    public void testP2PLatency()
+        throws Exception
+    {
+        hangUpAllParticipants();
+        JitsiMeetUrl url
+            = getJitsiMeetUrl().appendConfig("config.p2p.enabled=true");
+        WebParticipantOptions options
+            = new WebParticipantOptions()
+                .setFakeStreamVideoFile(PSNRTest.INPUT_VIDEO_FILE);
+        ensureTwoParticipants(url, url, options, null);
+
+        MeetUtils.waitForP2PIceConnected(getParticipant1().getDriver());
+        MeetUtils.waitForP2PIceConnected(getParticipant2().getDriver());
+
+        measure("p2p");
+    }
+
+    /**
+     * Captures the video sent by participant1 on both sides for the
+     * configured duration and prints the latency distribution.
+     *
+     * @param path the name of the media path, only used in the output.
+     */
+    private void measure(String path)
+        throws Exception
+    {
+        WebParticipant sender = getParticipant1();
+        WebParticipant receiver = getParticipant2();
+
+        // Only the video of participant1 is needed.
+        new MuteTest(this).muteParticipant1AndCheck();
+        new MuteTest(this).muteParticipant2AndCheck();
+        MeetUIUtils.muteVideoAndCheck(receiver, sender);
+
+        VideoOperator senderOperator = new VideoOperator(sender);
+        senderOperator.init();
+        VideoOperator receiverOperator = new VideoOperator(receiver);
+        receiverOperator.init();
+
+        List<String> senderIds = Collections.singletonList(
+            MeetUIUtils.getLocalVideoID(sender.getDriver()));
+        List<String> receiverIds
+            = MeetUIUtils.getRemoteVideoIDs(receiver.getDriver());
+        assertEquals(receiverIds.size(), 1, "Remote videos on participant2");
+
+        VideoLatencyAnalyzer analyzer = new VideoLatencyAnalyzer();
+        analyzer.setSenderClockOffset(
+            senderOperator.getClockOffset(CLOCK_SAMPLES));
+        String receiverId = path + "/" + receiver.getName();
+        analyzer.addReceiver(
+            receiverId, receiverOperator.getClockOffset(CLOCK_SAMPLES));
+
+        int duration = Integer.getInteger(DURATION_MILLIS_PROP, 30000);
+
+        senderOperator.streamAll(senderIds, CAPTURE_FPS, null, null);
+        receiverOperator.streamAll(receiverIds, CAPTURE_FPS, null, null);
+        FrameStream sent = new FrameStream(
+            senderOperator, senderIds, DRAIN_PERIOD_MILLIS,
+            (id, frame) -> analyzer.addSent(frame));
+        FrameStream received = new FrameStream(
+            receiverOperator, receiverIds, DRAIN_PERIOD_MILLIS,
+            (id, frame) -> analyzer.addReceived(receiverId, frame));
+        try
+        {
+            HeartbeatTask heartbeatTask
+                = new HeartbeatTask(sender, receiver, duration, false);
+            heartbeatTask.start(/* delay */ 1000, /* period */ 1000);
+            heartbeatTask.await(duration, TimeUnit.MILLISECONDS);
+
+            senderOperator.stopRecording();
+            receiverOperator.stopRecording();
+        }
+        finally
+        {
+            try
+            {
+                sent.close();
+            }
+            finally
+            {
+                received.close();
+            }
+        }
+        print("Sent " + sent + ", received " + received);
+
+        senderOperator.dispose();
+        receiverOperator.dispose();
+
+        for (VideoLatencyAnalyzer.Result result : analyzer.finish().values())
+        {
+            print("Video latency " + result);
+
+            assertTrue(
+                result.getLatencies().getCount() > 0,
+                "No frame of " + result.getId() + " matched a sent frame");
+
+            String maxMedian = System.getProperty(MAX_MEDIAN_MILLIS_PROP);
+            if (maxMedian != null && !maxMedian.isEmpty())
+            {
+                long median = result.getLatencies().getValueAtPercentile(50);
+                assertTrue(
+                    median <= Long.parseLong(maxMedian),
+                    "Median video latency of " + result.getId()
+                        + " is too high: " + median);
+            }
+        }
+    }
+}
@@ -15,11 +15,13 @@
  */
 package org.jitsi.meet.test.base;
 
+import org.jitsi.meet.test.util.*;
 import org.testng.*;
 import org.testng.annotations.*;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.util.stream.*;
 import org.apache.commons.lang3.*;
 
@@ -71,6 +73,31 @@ public abstract class AbstractBaseTest<P extends Participant>
      */
     private static List<String> testsToInclude = null;
 
+    /**
+     * The number of browsers a test class uses at the same time, unless it
+     * overrides {@link #getBrowserSlots()}.
+     */
+    public static final int DEFAULT_BROWSER_SLOTS = 3;
+
+    /**
+     * The name of the attribute of the {@link ITestContext} of a class with
+     * the time (in milliseconds) it waited for its browsers, which is not
+     * part of its own duration.
+     */
+    public static final String BROWSER_SLOTS_WAIT_ATTR = "browserSlotsWaitMillis";
+
+    /**
+     * The part of the room names common to all the test classes of this run,
+     * so that the rooms of two runs against the same deployment do not clash.
+     */
+    private static final int RUN_ID = (int) (Math.random() * 1000000000);
+
+    /**
+     * The number of rooms created by this run, which makes the rooms of the
+     * test classes run in parallel unique.
+     */
+    private static final AtomicInteger roomCount = new AtomicInteger();
+
     /**
      * The {@link Properties} instance which holds all configuration properties
      * used by this test and it's sub-components.
@@ -93,6 +120,12 @@ public abstract class AbstractBaseTest<P extends Participant>
      */
     private Boolean skipped;
 
+    /**
+     * The number of slots reserved from {@link BrowserSlots}, released when
+     * the class finished.
+     */
+    private int reservedBrowserSlots;
+
     /**
      * The name of the property which controls the default jwt token
      * used in tests
@@ -104,8 +137,8 @@ public abstract class AbstractBaseTest<P extends Participant>
      */
     protected AbstractBaseTest()
     {
-        currentRoomName
-            = "jitsimeettorture" + String.valueOf((int)(Math.random()*1000000000));
+        currentRoomName = String.format(
+            "jitsimeettorture%09d%d", RUN_ID, roomCount.incrementAndGet());
         participants = null;
     }
 
@@ -180,9 +213,16 @@ public abstract class AbstractBaseTest<P extends Participant>
             throw new SkipException("skips-" + className);
         }
 
+        long waitStart = System.currentTimeMillis();
+        reserveBrowserSlots(className);
+        context.setAttribute(
+            BROWSER_SLOTS_WAIT_ATTR, System.currentTimeMillis() - waitStart);
+
         print(
             "---=== Testing " + className + " ===---");
 
+        PrometheusMetrics.startIfConfigured();
+
         participants = createParticipantHelper(config);
 
         participants.initialize();
@@ -261,6 +301,35 @@ public abstract class AbstractBaseTest<P extends Participant>
         // Currently does nothing.
     }
 
+    /**
+     * Reserves the browsers of this class, when the test classes run in
+     * parallel.
+     *
+     * @param className the name of this class.
+     */
+    private void reserveBrowserSlots(String className)
+    {
+        BrowserSlots slots = BrowserSlots.getInstance();
+        if (slots != null && reservedBrowserSlots == 0)
+        {
+            reservedBrowserSlots
+                = slots.acquire(getBrowserSlots(), isSerialOnly(), className);
+        }
+    }
+
+    /**
+     * Releases the browsers of this class, if they were reserved.
+     */
+    private void releaseBrowserSlots()
+    {
+        BrowserSlots slots = BrowserSlots.getInstance();
+        if (slots != null && reservedBrowserSlots > 0)
+        {
+            slots.release(reservedBrowserSlots);
+            reservedBrowserSlots = 0;
+        }
+    }
+
     /**
      * Checks whether the current test needs to be skipped.
      *
@@ -343,6 +412,33 @@ public abstract class AbstractBaseTest<P extends Participant>
         return false;
     }
 
+    /**
+     * The number of browsers this test class uses at the same time, which it
+     * reserves when the test classes run in parallel (see
+     * {@link ParallelSuiteListener}). Tests which use more browsers than
+     * {@link #DEFAULT_BROWSER_SLOTS} must override it, or they may exceed
+     * the capacity of the host.
+     *
+     * @return the number of browsers.
+     */
+    public int getBrowserSlots()
+    {
+        return DEFAULT_BROWSER_SLOTS;
+    }
+
+    /**
+     * Tests which change the state shared with the other tests are marked
+     * {@link SerialOnly}, to never run at the same time as other test classes,
+     * when they run in parallel.
+     *
+     * @return <code>true</code> to run this class alone or <code>false</code>
+     * otherwise.
+     */
+    public final boolean isSerialOnly()
+    {
+        return getClass().isAnnotationPresent(SerialOnly.class);
+    }
+
     /**
      * Checks if this test class is to be skipped.
      *
@@ -386,6 +482,19 @@ public abstract class AbstractBaseTest<P extends Participant>
         {
             this.participants.cleanup();
         }
+
+        releaseBrowserSlots();
+    }
+
+    /**
+     * Releases the browsers of this class, even if its setup failed and
+     * {@link #cleanupClass()} was not called, or if a subclass overrides it
+     * without calling it.
+     */
+    @AfterClass(alwaysRun = true)
+    final public void releaseBrowserSlotsPrivate()
+    {
+        releaseBrowserSlots();
     }
 
     @BeforeMethod
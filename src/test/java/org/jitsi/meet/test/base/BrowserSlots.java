@@ -0,0 +1,156 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.base;
+
+import org.jitsi.meet.test.util.*;
+
+import java.util.concurrent.*;
+
+/**
+ * The budget of browsers of the test classes running in parallel (see
+ * {@link ParallelSuiteListener}). Every test class reserves the number of
+ * browsers it uses ({@link AbstractBaseTest#getBrowserSlots()}) before it
+ * starts and releases them once it finished, so that the classes only run
+ * concurrently as long as their browsers fit in the budget. A serial only
+ * class ({@link AbstractBaseTest#isSerialOnly()}) reserves the whole budget
+ * and runs alone.
+ *
+ * The slots are handed out in order, a class waiting for many slots is not
+ * overtaken by the classes which need fewer.
+ */
+class BrowserSlots
+{
+    /**
+     * The name of the system property with the number of test classes run at
+     * the same time, 1 (sequentially) by default.
+     */
+    static final String THREAD_COUNT_PNAME = "jitsi-meet.tests.threadCount";
+
+    /**
+     * The name of the system property with the number of browsers which may
+     * run at the same time, by default {@link #THREAD_COUNT_PNAME} times
+     * {@link AbstractBaseTest#DEFAULT_BROWSER_SLOTS}.
+     */
+    static final String BUDGET_PNAME = "jitsi-meet.tests.browserSlots";
+
+    /**
+     * The singleton instance.
+     */
+    private static BrowserSlots instance;
+
+    private final int budget;
+
+    private final Semaphore slots;
+
+    /**
+     * @return the number of test classes run at the same time.
+     */
+    static int getThreadCount()
+    {
+        return Math.max(1, intProperty(THREAD_COUNT_PNAME, 1));
+    }
+
+    /**
+     * Returns the process wide instance, creating it on first use.
+     *
+     * @return the budget, or null if the test classes run sequentially.
+     */
+    static synchronized BrowserSlots getInstance()
+    {
+        if (instance == null)
+        {
+            int threadCount = getThreadCount();
+            if (threadCount <= 1)
+            {
+                return null;
+            }
+
+            int budget = intProperty(
+                BUDGET_PNAME, threadCount * AbstractBaseTest.DEFAULT_BROWSER_SLOTS);
+            instance = new BrowserSlots(Math.max(1, budget));
+        }
+
+        return instance;
+    }
+
+    private static int intProperty(String name, int defaultValue)
+    {
+        String value = System.getProperty(name);
+        return value == null || value.trim().isEmpty()
+            ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private BrowserSlots(int budget)
+    {
+        this.budget = budget;
+        this.slots = new Semaphore(budget, true);
+        TestUtils.print("Running test classes with a budget of " + budget + " browsers");
+    }
+
+    /**
+     * Reserves slots, waiting until they are free.
+     *
+     * @param count the number of slots, capped to the budget.
+     * @param serial whether to reserve the whole budget.
+     * @param name the name of the test class, only used in messages.
+     * @return the number of slots reserved, to be released.
+     */
+    int acquire(int count, boolean serial, String name)
+    {
+        int reserved = serial ? budget : Math.max(1, Math.min(count, budget));
+        if (!tryAcquire(reserved))
+        {
+            TestUtils.print(
+                name + " waits for " + reserved + " browser slots ("
+                    + slots.availablePermits() + " free)");
+            slots.acquireUninterruptibly(reserved);
+        }
+        return reserved;
+    }
+
+    /**
+     * Reserves slots if they are free and no class waits for slots before
+     * this one. Unlike {@link Semaphore#tryAcquire(int)}, this does not barge
+     * ahead of the waiting classes, e.g. a serial class waiting for the whole
+     * budget.
+     *
+     * @param count the number of slots.
+     * @return whether the slots were reserved.
+     */
+    private boolean tryAcquire(int count)
+    {
+        try
+        {
+            return slots.tryAcquire(count, 0, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Releases slots.
+     *
+     * @param count the number of slots returned by
+     * {@link #acquire(int, boolean, String)}.
+     */
+    void release(int count)
+    {
+        slots.release(count);
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.base;
+
+import org.jitsi.meet.test.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A process wide service which keeps the webdriver sessions of all
+ * {@link Participant}s alive. Instead of every participant holding its own
+ * thread pool, all of them register here and share a single timer thread and
+ * a small pool of workers which execute the actual keep-alive calls.
+ *
+ * The first execution of every registration is randomly placed within one
+ * interval, so that a large number of participants created at the same time
+ * do not hit the grid hub at the same instant.
+ */
+public class KeepAliveService
+{
+    /**
+     * The name of the property which controls the number of worker threads
+     * executing keep-alive calls.
+     */
+    public static final String WORKERS_PNAME
+        = "org.jitsi.meet.test.keepalive.workers";
+
+    /**
+     * The default number of worker threads.
+     */
+    private static final int DEFAULT_WORKERS = 4;
+
+    /**
+     * The singleton instance.
+     */
+    private static KeepAliveService instance;
+
+    /**
+     * The thread which fires the keep-alive executions at the right time.
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * The workers which execute the keep-alive calls, so that a slow or
+     * hanging driver call does not delay the firing of the others.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * The number of active registrations.
+     */
+    private final AtomicInteger registered = new AtomicInteger();
+
+    /**
+     * The number of keep-alive calls currently being executed.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The number of keep-alive calls which started executing later than
+     * a quarter of their interval after the time they were due.
+     */
+    private final AtomicLong late = new AtomicLong();
+
+    /**
+     * The number of keep-alive calls skipped because the previous call for
+     * the same registration was still executing.
+     */
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * The number of keep-alive calls which threw an exception.
+     */
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * The number of keep-alive calls executed.
+     */
+    private final AtomicLong executed = new AtomicLong();
+
+    /**
+     * Returns the process wide instance, creating it on first use.
+     * @return the keep-alive service.
+     */
+    public static synchronized KeepAliveService getInstance()
+    {
+        if (instance == null)
+        {
+            String workersStr = System.getProperty(WORKERS_PNAME);
+            int workers = workersStr == null || workersStr.trim().isEmpty()
+                ? DEFAULT_WORKERS : Integer.parseInt(workersStr.trim());
+
+            instance = new KeepAliveService(workers);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Creates new service.
+     * @param numWorkers the number of threads executing keep-alive calls.
+     */
+    private KeepAliveService(int numWorkers)
+    {
+        timer = Executors.newSingleThreadScheduledExecutor(
+            daemonThreadFactory("keep-alive-timer"));
+        workers = Executors.newFixedThreadPool(
+            Math.max(1, numWorkers), daemonThreadFactory("keep-alive-worker"));
+    }
+
+    /**
+     * Creates a thread factory producing named daemon threads, so that the
+     * service never prevents the JVM from exiting.
+     */
+    private static ThreadFactory daemonThreadFactory(String prefix)
+    {
+        AtomicInteger counter = new AtomicInteger();
+
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Registers a keep-alive call to be executed periodically.
+     *
+     * @param keepAlive the call which keeps the session alive.
+     * @param interval the interval between calls.
+     * @param unit the time unit of the <tt>interval</tt>.
+     * @return the registration which must be cancelled once the session is
+     * no longer needed.
+     */
+    public Registration register(Runnable keepAlive, long interval, TimeUnit unit)
+    {
+        long intervalMs = Math.max(1, unit.toMillis(interval));
+        long initialDelayMs
+            = ThreadLocalRandom.current().nextLong(intervalMs) + 1;
+
+        Registration registration
+            = new Registration(keepAlive, intervalMs, initialDelayMs);
+
+        registration.future = timer.scheduleAtFixedRate(
+            registration::fire, initialDelayMs, intervalMs, TimeUnit.MILLISECONDS);
+        registered.incrementAndGet();
+
+        return registration;
+    }
+
+    /**
+     * @return the number of active registrations.
+     */
+    public int getRegisteredCount()
+    {
+        return registered.get();
+    }
+
+    /**
+     * @return the number of keep-alive calls currently being executed.
+     */
+    public int getInFlightCount()
+    {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of keep-alive calls which started late.
+     */
+    public long getLateCount()
+    {
+        return late.get();
+    }
+
+    /**
+     * @return the number of keep-alive calls skipped because the previous one
+     * was still executing.
+     */
+    public long getSkippedCount()
+    {
+        return skipped.get();
+    }
+
+    /**
+     * @return the number of keep-alive calls which failed.
+     */
+    public long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of keep-alive calls executed.
+     */
+    public long getExecutedCount()
+    {
+        return executed.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "KeepAliveService[registered=%d, inFlight=%d, executed=%d, late=%d, skipped=%d, failed=%d]",
+            getRegisteredCount(),
+            getInFlightCount(),
+            getExecutedCount(),
+            getLateCount(),
+            getSkippedCount(),
+            getFailedCount());
+    }
+
+    /**
+     * A single participant's registration with the service.
+     */
+    public class Registration
+    {
+        /**
+         * The call which keeps the session alive.
+         */
+        private final Runnable keepAlive;
+
+        /**
+         * The interval between calls in milliseconds.
+         */
+        private final long intervalMs;
+
+        /**
+         * The time in milliseconds the next call is due.
+         */
+        private volatile long nextDueMs;
+
+        /**
+         * Whether a call for this registration is currently executing.
+         */
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        /**
+         * Whether this registration was cancelled.
+         */
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        /**
+         * The periodic execution in the timer.
+         */
+        private ScheduledFuture<?> future;
+
+        private Registration(Runnable keepAlive, long intervalMs, long initialDelayMs)
+        {
+            this.keepAlive = Objects.requireNonNull(keepAlive, "keepAlive");
+            this.intervalMs = intervalMs;
+            this.nextDueMs = System.currentTimeMillis() + initialDelayMs;
+        }
+
+        /**
+         * Executed by the timer, hands the call over to the workers.
+         */
+        private void fire()
+        {
+            long dueMs = nextDueMs;
+            nextDueMs = dueMs + intervalMs;
+
+            if (!running.compareAndSet(false, true))
+            {
+                skipped.incrementAndGet();
+                return;
+            }
+
+            workers.execute(() -> execute(dueMs));
+        }
+
+        /**
+         * Executed by a worker, does the actual keep-alive call.
+         * @param dueMs the time the call was due.
+         */
+        private void execute(long dueMs)
+        {
+            try
+            {
+                if (cancelled.get())
+                {
+                    return;
+                }
+
+                if (System.currentTimeMillis() - dueMs > intervalMs / 4)
+                {
+                    late.incrementAndGet();
+                }
+
+                inFlight.incrementAndGet();
+                try
+                {
+                    keepAlive.run();
+                    executed.incrementAndGet();
+                }
+                catch (Exception e)
+                {
+                    failed.incrementAndGet();
+                    TestUtils.print("Keep-alive failed: " + e.getMessage());
+                }
+                finally
+                {
+                    inFlight.decrementAndGet();
+                }
+            }
+            finally
+            {
+                running.set(false);
+            }
+        }
+
+        /**
+         * Cancels this registration. Safe to be called more than once.
+         */
+        public void cancel()
+        {
+            if (cancelled.compareAndSet(false, true))
+            {
+                future.cancel(false);
+                registered.decrementAndGet();
+            }
+        }
+    }
+}
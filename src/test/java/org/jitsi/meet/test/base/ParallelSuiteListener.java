@@ -0,0 +1,53 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.base;
+
+import org.jitsi.meet.test.util.*;
+import org.testng.*;
+import org.testng.xml.*;
+
+import java.util.*;
+
+/**
+ * Runs the tests of the suites in parallel when
+ * {@link BrowserSlots#THREAD_COUNT_PNAME} is more than 1. Every test of the
+ * suites has a single test class, which creates its own participants in its
+ * own room, so the classes run in parallel. How many of them run at the same
+ * time is further limited by the budget of browsers, see
+ * {@link BrowserSlots}.
+ */
+public class ParallelSuiteListener
+    implements IAlterSuiteListener
+{
+    @Override
+    public void alter(List<XmlSuite> suites)
+    {
+        int threadCount = BrowserSlots.getThreadCount();
+        if (threadCount <= 1)
+        {
+            return;
+        }
+
+        for (XmlSuite suite : suites)
+        {
+            TestUtils.print(
+                "Running the tests of " + suite.getName() + " on "
+                    + threadCount + " threads");
+            suite.setParallel(XmlSuite.ParallelMode.TESTS);
+            suite.setThreadCount(threadCount);
+        }
+    }
+}
@@ -79,16 +79,15 @@ public abstract class Participant<T extends WebDriver>
     private JitsiMeetUrl meetUrl = null;
 
     /**
-     * Executor that is responsible for keeping the participant session alive.
+     * The registration with the {@link KeepAliveService} which keeps the
+     * participant session alive, if it is null this means it is not started.
      */
-    private ScheduledExecutorService executor
-        = Executors.newScheduledThreadPool(1);
+    private KeepAliveService.Registration keepAliveExecution = null;
 
     /**
-     * The execution of the keepalive, if it is null this means
-     * it is not started.
+     * Whether {@link #close()} was called.
      */
-    private ScheduledFuture<?> keepAliveExecution = null;
+    private volatile boolean closed = false;
 
     /**
      * Constructs a Participant.
@@ -108,6 +107,8 @@ public abstract class Participant<T extends WebDriver>
         this.driver = Objects.requireNonNull(driver, "driver");
         this.type = Objects.requireNonNull(type, "type");
         this.defaultConfig = defaultConfig;
+
+        TortureMetrics.ACTIVE_PARTICIPANTS.increment();
     }
 
     /**
@@ -146,7 +147,20 @@ public abstract class Participant<T extends WebDriver>
             return;
         }
 
-        doJoinConference(meetURL);
+        TortureMetrics.JOINS_IN_PROGRESS.increment();
+        try
+        {
+            doJoinConference(meetURL);
+        }
+        catch (RuntimeException e)
+        {
+            TortureMetrics.JOIN_FAILURES.increment();
+            throw e;
+        }
+        finally
+        {
+            TortureMetrics.JOINS_IN_PROGRESS.decrement();
+        }
 
         this.joinedRoomName = meetURL.getRoomName();
         this.meetUrl = meetURL;
@@ -165,15 +179,14 @@ public abstract class Participant<T extends WebDriver>
     /**
      * Starts the keep-alive execution.
      */
-    private void startKeepAliveExecution()
+    private synchronized void startKeepAliveExecution()
     {
         if (this.keepAliveExecution == null)
         {
-            this.keepAliveExecution = this.executor
-                .scheduleAtFixedRate(
+            this.keepAliveExecution = KeepAliveService.getInstance()
+                .register(
                     driver::getCurrentUrl,
                     KEEP_ALIVE_SESSION_INTERVAL,
-                    KEEP_ALIVE_SESSION_INTERVAL,
                     TimeUnit.SECONDS);
         }
     }
@@ -185,7 +198,7 @@ public abstract class Participant<T extends WebDriver>
     {
         if (this.keepAliveExecution != null)
         {
-            this.keepAliveExecution.cancel(true);
+            this.keepAliveExecution.cancel();
             this.keepAliveExecution = null;
         }
     }
@@ -197,14 +210,28 @@ public abstract class Participant<T extends WebDriver>
     {
         TestUtils.print("Closing " + name);
 
+        if (!closed)
+        {
+            closed = true;
+            TortureMetrics.ACTIVE_PARTICIPANTS.decrement();
+        }
+
         cancelKeepAlive();
 
-        driver.quit();
+        quitDriver();
 
         // FIXME missing comment on why this is necessary ? (if it really is...)
         TestUtils.waitMillis(500);
     }
 
+    /**
+     * Quits the driver of this participant, called by {@link #close()}.
+     */
+    protected void quitDriver()
+    {
+        driver.quit();
+    }
+
     /**
      * Will call {@link #close()}, but catching any {@link Throwable}s.
      */
@@ -257,6 +284,16 @@ public abstract class Participant<T extends WebDriver>
      */
     protected abstract RtpStatistics getRtpStatistics();
 
+    /**
+     * Obtains the detailed RTP statistics of this participant: loss, jitter,
+     * RTT, frame, freeze and concealment counters, and per SSRC resolution
+     * and frame rate. Two snapshots can be compared with
+     * {@link RtpStatsSnapshot#delta(RtpStatsSnapshot)}.
+     *
+     * @return a snapshot of the RTP statistics of this participant.
+     */
+    public abstract RtpStatsSnapshot getRtpStatsSnapshot();
+
     /**
      * Returns {@code true} if the ICE connection is currently in the connected
      * state.
@@ -590,6 +627,16 @@ public abstract class Participant<T extends WebDriver>
      */
     public abstract boolean isXmppConnected();
 
+    /**
+     * Obtains the ICE, MUC and XMPP state, the bitrate and the transport of
+     * this participant at once, which is a lot cheaper than calling
+     * {@link #isIceConnected()}, {@link #isInMuc()},
+     * {@link #isXmppConnected()} and {@link #getRtpStatistics()} one by one.
+     *
+     * @return a snapshot of the connection health of this participant.
+     */
+    public abstract HealthSnapshot getHealthSnapshot();
+
     /**
      * @return a representation of the filmstrip of this participant.
      */
@@ -161,13 +161,23 @@ public abstract class ParticipantHelper<P extends Participant>
 
         P participant = participantFactory.createParticipant(targetOptions);
 
-        if (ix > -1 && ix < participants.size())
+        synchronized (participants)
         {
-            participants.set(ix, participant);
-        }
-        else
-        {
-            participants.add(participant);
+            // The participants created at the same time may not be created
+            // in the order of their indexes.
+            while (ix > participants.size())
+            {
+                participants.add(null);
+            }
+
+            if (ix > -1 && ix < participants.size())
+            {
+                participants.set(ix, participant);
+            }
+            else
+            {
+                participants.add(participant);
+            }
         }
 
         TestUtils.print("Started " + participant.getType() + " driver for prefix: " + configPrefix);
@@ -186,7 +196,9 @@ public abstract class ParticipantHelper<P extends Participant>
     }
 
     /**
-     * Cleans up by closing all participants.
+     * Cleans up by closing all participants. The browsers of pooled web
+     * participants are reset and kept for the next test classes rather than
+     * quit, see org.jitsi.meet.test.web.BrowserPool.
      */
     public void cleanup()
     {
@@ -199,6 +211,29 @@ public abstract class ParticipantHelper<P extends Participant>
         }
     }
 
+    /**
+     * Closes a participant and removes it from this helper, for participants
+     * managed by the test itself rather than by index. Its slot is cleared
+     * rather than removed, so the indexes of the other participants do not
+     * change.
+     *
+     * @param participant the participant to close.
+     */
+    public void close(P participant)
+    {
+        synchronized (participants)
+        {
+            int ix = participants.indexOf(participant);
+            if (ix == -1)
+            {
+                return;
+            }
+            participants.set(ix, null);
+        }
+
+        participant.closeSafely();
+    }
+
     /**
      * Hangups a participant.
      * @param index the participant index to be hungup.
@@ -215,7 +250,9 @@ public abstract class ParticipantHelper<P extends Participant>
      */
     public void hangUpAll()
     {
-        participants.forEach(Participant::hangUp);
+        participants.stream()
+            .filter(participant -> participant != null)
+            .forEach(Participant::hangUp);
     }
 
     /**
@@ -230,8 +267,11 @@ public abstract class ParticipantHelper<P extends Participant>
 
         // remove the index, so we do not mess up the number of participants
         // and their order/indexes in the list
-        int ix = participants.indexOf(participant);
-        participants.set(ix, null);
+        synchronized (participants)
+        {
+            int ix = participants.indexOf(participant);
+            participants.set(ix, null);
+        }
     }
 
     /**
@@ -0,0 +1,34 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.base;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks the test classes which change the state shared with the other tests,
+ * e.g. restart the backend, shut a bridge down with {@link org.jitsi.meet.test.util.JvbUtil}
+ * or shape the network of the host, so that they never run at the same time as other
+ * test classes (see {@link AbstractBaseTest#isSerialOnly()}). Being on the
+ * class, it can be read without creating the test, e.g. by
+ * {@link org.jitsi.meet.test.shard.ShardPlanner}.
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface SerialOnly
+{
+}
@@ -39,7 +39,7 @@ public class TestSettings
      * {@link #SETTINGS_PROPERTIES_LOCATION} file merged with the
      * {@link System#getProperties()} set.
      */
-    public static Properties initSettings()
+    public static synchronized Properties initSettings()
     {
         // will load properties from settings.properties files
         try (
@@ -0,0 +1,225 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.base.stats;
+
+import org.jitsi.meet.test.base.*;
+
+/**
+ * A snapshot of the connection health of a {@link Participant}, obtained at
+ * once so that checking the state of a participant costs a single round trip
+ * to the driver.
+ */
+public class HealthSnapshot
+{
+    /**
+     * The ICE state in which the media connection is up.
+     */
+    private static final String ICE_CONNECTED = "connected";
+
+    /**
+     * The time (in milliseconds since the epoch) the snapshot was taken.
+     */
+    private final long timestamp;
+
+    /**
+     * The state of the ICE connection to the bridge.
+     */
+    private final String iceState;
+
+    /**
+     * The state of the P2P ICE connection, if any.
+     */
+    private final String p2pIceState;
+
+    /**
+     * Whether the participant has joined the MUC.
+     */
+    private final boolean inMuc;
+
+    /**
+     * Whether the XMPP connection is connected.
+     */
+    private final boolean xmppConnected;
+
+    /**
+     * The download (receive) RTP bitrate in bits per second.
+     */
+    private final long downloadBitrate;
+
+    /**
+     * The upload (send) RTP bitrate in bits per second.
+     */
+    private final long uploadBitrate;
+
+    /**
+     * Whether the active transport is peer-to-peer.
+     */
+    private final boolean p2p;
+
+    /**
+     * The transport protocol in use (udp/tcp), or <tt>null</tt>.
+     */
+    private final String transportProtocol;
+
+    /**
+     * The socket of the remote endpoint, or <tt>null</tt>.
+     */
+    private final String remoteSocket;
+
+    /**
+     * Creates new snapshot.
+     *
+     * @param iceState the state of the ICE connection to the bridge.
+     * @param p2pIceState the state of the P2P ICE connection, if any.
+     * @param inMuc whether the participant has joined the MUC.
+     * @param xmppConnected whether the XMPP connection is connected.
+     * @param downloadBitrate the download bitrate in bits per second.
+     * @param uploadBitrate the upload bitrate in bits per second.
+     * @param p2p whether the active transport is peer-to-peer.
+     * @param transportProtocol the transport protocol in use, or null.
+     * @param remoteSocket the socket of the remote endpoint, or null.
+     */
+    public HealthSnapshot(
+        String iceState,
+        String p2pIceState,
+        boolean inMuc,
+        boolean xmppConnected,
+        long downloadBitrate,
+        long uploadBitrate,
+        boolean p2p,
+        String transportProtocol,
+        String remoteSocket)
+    {
+        this.timestamp = System.currentTimeMillis();
+        this.iceState = iceState;
+        this.p2pIceState = p2pIceState;
+        this.inMuc = inMuc;
+        this.xmppConnected = xmppConnected;
+        this.downloadBitrate = Math.max(0, downloadBitrate);
+        this.uploadBitrate = Math.max(0, uploadBitrate);
+        this.p2p = p2p;
+        this.transportProtocol = transportProtocol;
+        this.remoteSocket = remoteSocket;
+    }
+
+    /**
+     * @return the time (in milliseconds since the epoch) the snapshot was
+     * taken.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * @return the state of the ICE connection to the bridge, or <tt>null</tt>
+     * if unknown.
+     */
+    public String getIceState()
+    {
+        return iceState;
+    }
+
+    /**
+     * @return {@code true} if the ICE connection to the bridge is connected.
+     */
+    public boolean isIceConnected()
+    {
+        return ICE_CONNECTED.equals(iceState);
+    }
+
+    /**
+     * @return the state of the P2P ICE connection, or <tt>null</tt> if there
+     * is none.
+     */
+    public String getP2pIceState()
+    {
+        return p2pIceState;
+    }
+
+    /**
+     * @return {@code true} if the P2P ICE connection is connected.
+     */
+    public boolean isP2pIceConnected()
+    {
+        return ICE_CONNECTED.equals(p2pIceState);
+    }
+
+    /**
+     * @return {@code true} if the participant has joined the MUC.
+     */
+    public boolean isInMuc()
+    {
+        return inMuc;
+    }
+
+    /**
+     * @return {@code true} if the XMPP connection is connected.
+     */
+    public boolean isXmppConnected()
+    {
+        return xmppConnected;
+    }
+
+    /**
+     * @return the download (receive) RTP bitrate in bits per second.
+     */
+    public long getDownloadBitrate()
+    {
+        return downloadBitrate;
+    }
+
+    /**
+     * @return the upload (send) RTP bitrate in bits per second.
+     */
+    public long getUploadBitrate()
+    {
+        return uploadBitrate;
+    }
+
+    /**
+     * @return {@code true} if the active transport is peer-to-peer.
+     */
+    public boolean isP2P()
+    {
+        return p2p;
+    }
+
+    /**
+     * @return the transport protocol in use (udp/tcp), or <tt>null</tt>.
+     */
+    public String getTransportProtocol()
+    {
+        return transportProtocol;
+    }
+
+    /**
+     * @return the socket of the remote endpoint, or <tt>null</tt>.
+     */
+    public String getRemoteSocket()
+    {
+        return remoteSocket;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "ice=%s p2pIce=%s muc=%b xmpp=%b down=%d up=%d p2p=%b transport=%s remote=%s",
+            iceState, p2pIceState, inMuc, xmppConnected, downloadBitrate, uploadBitrate,
+            p2p, transportProtocol, remoteSocket);
+    }
+}
@@ -0,0 +1,561 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.base.stats;
+
+import org.jitsi.meet.test.base.*;
+
+/**
+ * A typed snapshot of the RTP statistics of a {@link Participant}. Besides the
+ * bitrate and the transport it holds the packet loss, jitter, RTT, frame,
+ * freeze and audio concealment counters and the resolution and frame rate of
+ * every SSRC.
+ *
+ * All values are kept in primitive fields and arrays, the per SSRC values in
+ * parallel arrays indexed from 0 to {@link #getSsrcCount()} - 1. Cumulative
+ * counters can be turned into rates with {@link #delta(RtpStatsSnapshot)}.
+ * Implementations fill the fields when constructed.
+ */
+public abstract class RtpStatsSnapshot
+    implements RtpStatistics
+{
+    /**
+     * The value of {@link #getQualityLimitationReason()} when the sending of
+     * video is not limited.
+     */
+    public static final String QUALITY_LIMITATION_NONE = "none";
+
+    /**
+     * The time (in milliseconds since the epoch) the snapshot was taken.
+     */
+    protected long timestamp = System.currentTimeMillis();
+
+    /**
+     * The download (receive) bitrate in bits per second.
+     */
+    protected long downloadBitrate;
+
+    /**
+     * The upload (send) bitrate in bits per second.
+     */
+    protected long uploadBitrate;
+
+    /**
+     * The download (receive) packet loss in percent.
+     */
+    protected double downloadPacketLoss;
+
+    /**
+     * The upload (send) packet loss in percent.
+     */
+    protected double uploadPacketLoss;
+
+    /**
+     * The largest jitter of all received streams, in milliseconds.
+     */
+    protected double jitterMs;
+
+    /**
+     * The round trip time, in milliseconds.
+     */
+    protected double rttMs;
+
+    /**
+     * The number of RTP packets received.
+     */
+    protected long packetsReceived;
+
+    /**
+     * The number of RTP packets lost, as reported for the received streams.
+     */
+    protected long packetsLost;
+
+    /**
+     * The number of RTP packets sent.
+     */
+    protected long packetsSent;
+
+    /**
+     * The number of video frames encoded.
+     */
+    protected long framesEncoded;
+
+    /**
+     * The number of video frames decoded.
+     */
+    protected long framesDecoded;
+
+    /**
+     * The number of video freezes of the received streams.
+     */
+    protected long freezeCount;
+
+    /**
+     * The total duration of the video freezes, in milliseconds.
+     */
+    protected long freezeDurationMs;
+
+    /**
+     * The number of concealed audio samples of the received streams.
+     */
+    protected long concealedSamples;
+
+    /**
+     * The total number of audio samples received.
+     */
+    protected long totalSamplesReceived;
+
+    /**
+     * The reason the sending of video is limited, one of "none", "cpu",
+     * "bandwidth" or "other", or <tt>null</tt> if not sending video.
+     */
+    protected String qualityLimitationReason;
+
+    /**
+     * The transport in use.
+     */
+    protected RtpTransport rtpTransport;
+
+    /**
+     * The number of valid entries in the per SSRC arrays.
+     */
+    protected int ssrcCount;
+
+    /**
+     * The SSRCs of the video streams.
+     */
+    protected long[] ssrcs = new long[0];
+
+    /**
+     * Whether the SSRC at the same index is sent (local) or received.
+     */
+    protected boolean[] ssrcLocal = new boolean[0];
+
+    /**
+     * The width of the SSRC at the same index, in pixels.
+     */
+    protected int[] widths = new int[0];
+
+    /**
+     * The height of the SSRC at the same index, in pixels.
+     */
+    protected int[] heights = new int[0];
+
+    /**
+     * The frame rate of the SSRC at the same index.
+     */
+    protected double[] framesPerSecond = new double[0];
+
+    /**
+     * Allocates the per SSRC arrays.
+     *
+     * @param count the number of SSRCs.
+     */
+    protected void allocateSsrcs(int count)
+    {
+        ssrcCount = count;
+        ssrcs = new long[count];
+        ssrcLocal = new boolean[count];
+        widths = new int[count];
+        heights = new int[count];
+        framesPerSecond = new double[count];
+    }
+
+    /**
+     * @return the time (in milliseconds since the epoch) the snapshot was
+     * taken.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDownloadBitrate()
+    {
+        return downloadBitrate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getUploadBitrate()
+    {
+        return uploadBitrate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RtpTransport getRtpTransport()
+    {
+        return rtpTransport;
+    }
+
+    /**
+     * @return the download (receive) packet loss in percent.
+     */
+    public double getDownloadPacketLoss()
+    {
+        return downloadPacketLoss;
+    }
+
+    /**
+     * @return the upload (send) packet loss in percent.
+     */
+    public double getUploadPacketLoss()
+    {
+        return uploadPacketLoss;
+    }
+
+    /**
+     * @return the largest jitter of all received streams, in milliseconds.
+     */
+    public double getJitterMs()
+    {
+        return jitterMs;
+    }
+
+    /**
+     * @return the round trip time, in milliseconds.
+     */
+    public double getRttMs()
+    {
+        return rttMs;
+    }
+
+    /**
+     * @return the number of RTP packets received.
+     */
+    public long getPacketsReceived()
+    {
+        return packetsReceived;
+    }
+
+    /**
+     * @return the number of RTP packets lost for the received streams.
+     */
+    public long getPacketsLost()
+    {
+        return packetsLost;
+    }
+
+    /**
+     * @return the number of RTP packets sent.
+     */
+    public long getPacketsSent()
+    {
+        return packetsSent;
+    }
+
+    /**
+     * @return the number of video frames encoded.
+     */
+    public long getFramesEncoded()
+    {
+        return framesEncoded;
+    }
+
+    /**
+     * @return the number of video frames decoded.
+     */
+    public long getFramesDecoded()
+    {
+        return framesDecoded;
+    }
+
+    /**
+     * @return the number of video freezes of the received streams.
+     */
+    public long getFreezeCount()
+    {
+        return freezeCount;
+    }
+
+    /**
+     * @return the total duration of the video freezes, in milliseconds.
+     */
+    public long getFreezeDurationMs()
+    {
+        return freezeDurationMs;
+    }
+
+    /**
+     * @return the number of concealed audio samples.
+     */
+    public long getConcealedSamples()
+    {
+        return concealedSamples;
+    }
+
+    /**
+     * @return the total number of audio samples received.
+     */
+    public long getTotalSamplesReceived()
+    {
+        return totalSamplesReceived;
+    }
+
+    /**
+     * @return the reason the sending of video is limited, see
+     * {@link #qualityLimitationReason}.
+     */
+    public String getQualityLimitationReason()
+    {
+        return qualityLimitationReason;
+    }
+
+    /**
+     * @return the number of video SSRCs in this snapshot.
+     */
+    public int getSsrcCount()
+    {
+        return ssrcCount;
+    }
+
+    /**
+     * @param i the index, from 0 to {@link #getSsrcCount()} - 1.
+     * @return the SSRC at the given index.
+     */
+    public long getSsrc(int i)
+    {
+        return ssrcs[i];
+    }
+
+    /**
+     * @param i the index, from 0 to {@link #getSsrcCount()} - 1.
+     * @return {@code true} if the SSRC at the given index is sent,
+     * {@code false} if it is received.
+     */
+    public boolean isLocalSsrc(int i)
+    {
+        return ssrcLocal[i];
+    }
+
+    /**
+     * @param i the index, from 0 to {@link #getSsrcCount()} - 1.
+     * @return the width in pixels of the SSRC at the given index.
+     */
+    public int getWidth(int i)
+    {
+        return widths[i];
+    }
+
+    /**
+     * @param i the index, from 0 to {@link #getSsrcCount()} - 1.
+     * @return the height in pixels of the SSRC at the given index.
+     */
+    public int getHeight(int i)
+    {
+        return heights[i];
+    }
+
+    /**
+     * @param i the index, from 0 to {@link #getSsrcCount()} - 1.
+     * @return the frame rate of the SSRC at the given index.
+     */
+    public double getFramesPerSecond(int i)
+    {
+        return framesPerSecond[i];
+    }
+
+    /**
+     * Computes the change of the cumulative counters since a previous
+     * snapshot of the same participant.
+     *
+     * @param previous the previous snapshot.
+     * @return the delta.
+     */
+    public Delta delta(RtpStatsSnapshot previous)
+    {
+        return new Delta(previous, this);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "down=%d up=%d loss=%.1f/%.1f%% jitter=%.1fms rtt=%.1fms encoded=%d decoded=%d freezes=%d"
+                + " concealed=%d/%d qualityLimitation=%s ssrcs=%d",
+            downloadBitrate, uploadBitrate, downloadPacketLoss, uploadPacketLoss, jitterMs, rttMs,
+            framesEncoded, framesDecoded, freezeCount, concealedSamples, totalSamplesReceived,
+            qualityLimitationReason, ssrcCount);
+    }
+
+    /**
+     * The change of the cumulative counters between two snapshots. Counters
+     * which went down (e.g. after an ICE restart created a new peer
+     * connection) count from zero.
+     */
+    public static class Delta
+    {
+        private final long intervalMs;
+        private final long packetsReceived;
+        private final long packetsLost;
+        private final long packetsSent;
+        private final long framesEncoded;
+        private final long framesDecoded;
+        private final long freezeCount;
+        private final long freezeDurationMs;
+        private final long concealedSamples;
+        private final long totalSamplesReceived;
+
+        private Delta(RtpStatsSnapshot from, RtpStatsSnapshot to)
+        {
+            intervalMs = Math.max(0, to.timestamp - from.timestamp);
+            packetsReceived = diff(from.packetsReceived, to.packetsReceived);
+            packetsLost = diff(from.packetsLost, to.packetsLost);
+            packetsSent = diff(from.packetsSent, to.packetsSent);
+            framesEncoded = diff(from.framesEncoded, to.framesEncoded);
+            framesDecoded = diff(from.framesDecoded, to.framesDecoded);
+            freezeCount = diff(from.freezeCount, to.freezeCount);
+            freezeDurationMs = diff(from.freezeDurationMs, to.freezeDurationMs);
+            concealedSamples = diff(from.concealedSamples, to.concealedSamples);
+            totalSamplesReceived = diff(from.totalSamplesReceived, to.totalSamplesReceived);
+        }
+
+        private static long diff(long from, long to)
+        {
+            return to >= from ? to - from : to;
+        }
+
+        private double perSecond(long count)
+        {
+            return intervalMs > 0 ? count * 1000d / intervalMs : 0;
+        }
+
+        /**
+         * @return the time between the two snapshots, in milliseconds.
+         */
+        public long getIntervalMs()
+        {
+            return intervalMs;
+        }
+
+        /**
+         * @return the number of packets received in the interval.
+         */
+        public long getPacketsReceived()
+        {
+            return packetsReceived;
+        }
+
+        /**
+         * @return the number of packets lost in the interval.
+         */
+        public long getPacketsLost()
+        {
+            return packetsLost;
+        }
+
+        /**
+         * @return the number of packets sent in the interval.
+         */
+        public long getPacketsSent()
+        {
+            return packetsSent;
+        }
+
+        /**
+         * @return the fraction (0 to 1) of the expected packets which were
+         * lost in the interval.
+         */
+        public double getLossRatio()
+        {
+            long expected = packetsReceived + packetsLost;
+            return expected > 0 ? (double) packetsLost / expected : 0;
+        }
+
+        /**
+         * @return the number of frames encoded in the interval.
+         */
+        public long getFramesEncoded()
+        {
+            return framesEncoded;
+        }
+
+        /**
+         * @return the number of frames decoded in the interval.
+         */
+        public long getFramesDecoded()
+        {
+            return framesDecoded;
+        }
+
+        /**
+         * @return the rate of encoded frames, in frames per second.
+         */
+        public double getEncodeFps()
+        {
+            return perSecond(framesEncoded);
+        }
+
+        /**
+         * @return the rate of decoded frames, in frames per second.
+         */
+        public double getDecodeFps()
+        {
+            return perSecond(framesDecoded);
+        }
+
+        /**
+         * @return the number of video freezes in the interval.
+         */
+        public long getFreezeCount()
+        {
+            return freezeCount;
+        }
+
+        /**
+         * @return the duration of the video freezes in the interval, in
+         * milliseconds.
+         */
+        public long getFreezeDurationMs()
+        {
+            return freezeDurationMs;
+        }
+
+        /**
+         * @return the number of audio samples concealed in the interval.
+         */
+        public long getConcealedSamples()
+        {
+            return concealedSamples;
+        }
+
+        /**
+         * @return the fraction (0 to 1) of the audio samples received in the
+         * interval which were concealed.
+         */
+        public double getConcealedRatio()
+        {
+            return totalSamplesReceived > 0 ? (double) concealedSamples / totalSamplesReceived : 0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(
+                "interval=%dms loss=%.3f encodeFps=%.1f decodeFps=%.1f freezes=%d (%dms) concealed=%.3f",
+                intervalMs, getLossRatio(), getEncodeFps(), getDecodeFps(), freezeCount, freezeDurationMs,
+                getConcealedRatio());
+        }
+    }
+}
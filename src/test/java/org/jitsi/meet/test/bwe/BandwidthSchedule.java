@@ -0,0 +1,456 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.bwe;
+
+import java.util.*;
+
+/**
+ * A bottleneck schedule: a sequence of network conditions, each held for a
+ * duration. Steps are written as "{rate}[:{impairment}...],{duration}" with the
+ * rate in the units of TC(8) (e.g. "1mbit", "500kbit", "100kbps"), the
+ * duration in seconds and optional NETEM(8) impairments:
+ * <ul>
+ * <li>{@code delay={time}}: the one way delay, e.g. "delay=50ms",</li>
+ * <li>{@code jitter={time}}: the variation of the delay, e.g.
+ * "jitter=10ms",</li>
+ * <li>{@code loss={percent}}: the random packet loss, e.g. "loss=1%".</li>
+ * </ul>
+ * For example "2mbit:delay=100ms:jitter=20ms:loss=2%,30". Times need a
+ * unit, "s", "ms" or "us" (tc reads times without a unit as microseconds). A step with a zero
+ * duration is held until the schedule is stopped, see
+ * {@link NetworkEmulator}.
+ */
+public class BandwidthSchedule
+{
+    private final List<Step> steps;
+
+    /**
+     * Parses a schedule.
+     *
+     * @param steps the steps, e.g. { "10mbit,60", "1mbit:loss=1%,60" }.
+     * @return the schedule.
+     * @throws IllegalArgumentException if a step is malformed.
+     */
+    public static BandwidthSchedule parse(String... steps)
+    {
+        List<Step> parsed = new ArrayList<>(steps.length);
+        long offset = 0;
+        for (String step : steps)
+        {
+            String[] parts = step.split(",");
+            if (parts.length != 2)
+            {
+                throw new IllegalArgumentException("Invalid schedule step: " + step);
+            }
+
+            String[] conditions = parts[0].trim().split(":");
+            String rate = conditions[0].trim();
+            long delayMicros = 0;
+            long jitterMicros = 0;
+            double lossPercent = 0;
+            for (int i = 1; i < conditions.length; i++)
+            {
+                String[] kv = conditions[i].split("=", 2);
+                if (kv.length != 2)
+                {
+                    throw new IllegalArgumentException("Invalid impairment: " + step);
+                }
+
+                switch (kv[0].trim().toLowerCase(Locale.ROOT))
+                {
+                case "delay":
+                    delayMicros = parseTimeMicros(kv[1]);
+                    break;
+                case "jitter":
+                    jitterMicros = parseTimeMicros(kv[1]);
+                    break;
+                case "loss":
+                    lossPercent = parseLossPercent(kv[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown impairment: " + step);
+                }
+            }
+
+            long durationMs;
+            try
+            {
+                durationMs = Math.round(Double.parseDouble(parts[1].trim()) * 1000);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("Invalid duration: " + step);
+            }
+
+            if (durationMs < 0)
+            {
+                throw new IllegalArgumentException("Negative duration: " + step);
+            }
+
+            parsed.add(new Step(
+                rate, parseRate(rate), delayMicros, jitterMicros, lossPercent,
+                offset, durationMs));
+            offset += durationMs;
+        }
+
+        return new BandwidthSchedule(parsed);
+    }
+
+    /**
+     * Parses a rate in the units of TC(8).
+     *
+     * @param rate the rate, e.g. "10mbit".
+     * @return the rate in bits per second.
+     * @throws IllegalArgumentException if the rate is malformed.
+     */
+    public static long parseRate(String rate)
+    {
+        String lower = rate.trim().toLowerCase(Locale.ROOT);
+        int unitIdx = 0;
+        while (unitIdx < lower.length()
+            && (Character.isDigit(lower.charAt(unitIdx)) || lower.charAt(unitIdx) == '.'))
+        {
+            unitIdx++;
+        }
+
+        double value;
+        try
+        {
+            value = Double.parseDouble(lower.substring(0, unitIdx));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid rate: " + rate);
+        }
+
+        double multiplier;
+        switch (lower.substring(unitIdx))
+        {
+        case "":
+        case "bit":
+            multiplier = 1;
+            break;
+        case "kbit":
+            multiplier = 1e3;
+            break;
+        case "mbit":
+            multiplier = 1e6;
+            break;
+        case "gbit":
+            multiplier = 1e9;
+            break;
+        case "bps":
+            multiplier = 8;
+            break;
+        case "kbps":
+            multiplier = 8e3;
+            break;
+        case "mbps":
+            multiplier = 8e6;
+            break;
+        case "gbps":
+            multiplier = 8e9;
+            break;
+        default:
+            throw new IllegalArgumentException("Invalid rate unit: " + rate);
+        }
+
+        return Math.round(value * multiplier);
+    }
+
+    /**
+     * Parses a time in the units of TC(8). The unit is required, since tc
+     * reads a time without a unit as microseconds, which is easily mistaken
+     * for milliseconds.
+     *
+     * @param time the time, e.g. "50ms".
+     * @return the time in microseconds.
+     * @throws IllegalArgumentException if the time is malformed or has no
+     * unit.
+     */
+    public static long parseTimeMicros(String time)
+    {
+        String lower = time.trim().toLowerCase(Locale.ROOT);
+        double multiplier;
+        String value;
+        if (lower.endsWith("us"))
+        {
+            multiplier = 1;
+            value = lower.substring(0, lower.length() - 2);
+        }
+        else if (lower.endsWith("ms"))
+        {
+            multiplier = 1000;
+            value = lower.substring(0, lower.length() - 2);
+        }
+        else if (lower.endsWith("s"))
+        {
+            multiplier = 1e6;
+            value = lower.substring(0, lower.length() - 1);
+        }
+        else
+        {
+            throw new IllegalArgumentException(
+                "Time without a unit (s, ms or us): " + time);
+        }
+
+        try
+        {
+            double micros = Double.parseDouble(value) * multiplier;
+            if (micros < 0)
+            {
+                throw new IllegalArgumentException("Negative time: " + time);
+            }
+            return Math.round(micros);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid time: " + time);
+        }
+    }
+
+    private static double parseLossPercent(String loss)
+    {
+        String trimmed = loss.trim();
+        if (trimmed.endsWith("%"))
+        {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+
+        double percent;
+        try
+        {
+            percent = Double.parseDouble(trimmed);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid loss: " + loss);
+        }
+        if (percent < 0 || percent > 100)
+        {
+            throw new IllegalArgumentException("Invalid loss: " + loss);
+        }
+        return percent;
+    }
+
+    private BandwidthSchedule(List<Step> steps)
+    {
+        this.steps = Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * @return the steps, in order.
+     */
+    public List<Step> getSteps()
+    {
+        return steps;
+    }
+
+    /**
+     * Returns the step at a time.
+     *
+     * @param millis the time relative to the start of the schedule, in
+     * milliseconds.
+     * @return the step, the last one after the end of the schedule.
+     */
+    public Step getStepAt(long millis)
+    {
+        for (Step step : steps)
+        {
+            if (millis < step.getEndMillis())
+            {
+                return step;
+            }
+        }
+        return steps.get(steps.size() - 1);
+    }
+
+    /**
+     * @return the total duration in milliseconds.
+     */
+    public long getDurationMillis()
+    {
+        return steps.isEmpty() ? 0 : steps.get(steps.size() - 1).getEndMillis();
+    }
+
+    /**
+     * @return the schedule in the format it was parsed from.
+     */
+    public String[] toArgs()
+    {
+        String[] args = new String[steps.size()];
+        for (int i = 0; i < args.length; i++)
+        {
+            args[i] = steps.get(i).toString();
+        }
+        return args;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.join(" ", toArgs());
+    }
+
+    /**
+     * The network conditions of one step of a schedule.
+     */
+    public static class Step
+    {
+        private final String rate;
+
+        private final long bitsPerSecond;
+
+        private final long delayMicros;
+
+        private final long jitterMicros;
+
+        private final double lossPercent;
+
+        private final long startMillis;
+
+        private final long durationMillis;
+
+        private Step(
+            String rate, long bitsPerSecond,
+            long delayMicros, long jitterMicros, double lossPercent,
+            long startMillis, long durationMillis)
+        {
+            this.rate = rate;
+            this.bitsPerSecond = bitsPerSecond;
+            this.delayMicros = delayMicros;
+            this.jitterMicros = jitterMicros;
+            this.lossPercent = lossPercent;
+            this.startMillis = startMillis;
+            this.durationMillis = durationMillis;
+        }
+
+        /**
+         * @return the rate as written in the schedule, in the units of TC(8).
+         */
+        public String getRate()
+        {
+            return rate;
+        }
+
+        /**
+         * @return the rate limit in bits per second.
+         */
+        public long getBitsPerSecond()
+        {
+            return bitsPerSecond;
+        }
+
+        /**
+         * @return the one way delay in microseconds.
+         */
+        public long getDelayMicros()
+        {
+            return delayMicros;
+        }
+
+        /**
+         * @return the variation of the delay in microseconds.
+         */
+        public long getJitterMicros()
+        {
+            return jitterMicros;
+        }
+
+        /**
+         * @return the random packet loss, from 0 to 100.
+         */
+        public double getLossPercent()
+        {
+            return lossPercent;
+        }
+
+        /**
+         * @return whether the step delays or drops packets, besides limiting
+         * the rate.
+         */
+        public boolean isImpaired()
+        {
+            return delayMicros > 0 || jitterMicros > 0 || lossPercent > 0;
+        }
+
+        /**
+         * @return the start of the step relative to the start of the
+         * schedule, in milliseconds.
+         */
+        public long getStartMillis()
+        {
+            return startMillis;
+        }
+
+        /**
+         * @return the end of the step relative to the start of the schedule,
+         * in milliseconds.
+         */
+        public long getEndMillis()
+        {
+            return startMillis + durationMillis;
+        }
+
+        /**
+         * @return the duration of the step in milliseconds.
+         */
+        public long getDurationMillis()
+        {
+            return durationMillis;
+        }
+
+        /**
+         * @return the rate and the impairments of the step, as written in the
+         * schedule.
+         */
+        public String getConditions()
+        {
+            StringBuilder sb = new StringBuilder(rate);
+            if (delayMicros > 0)
+            {
+                sb.append(":delay=").append(formatMicros(delayMicros));
+            }
+            if (jitterMicros > 0)
+            {
+                sb.append(":jitter=").append(formatMicros(jitterMicros));
+            }
+            if (lossPercent > 0)
+            {
+                sb.append(":loss=").append(formatNumber(lossPercent)).append('%');
+            }
+            return sb.toString();
+        }
+
+        private static String formatMicros(long micros)
+        {
+            return micros % 1000 == 0 ? micros / 1000 + "ms" : micros + "us";
+        }
+
+        private static String formatNumber(double value)
+        {
+            return value == Math.rint(value)
+                ? String.valueOf((long) value) : String.valueOf(value);
+        }
+
+        @Override
+        public String toString()
+        {
+            return getConditions() + "," + (durationMillis % 1000 == 0
+                ? String.valueOf(durationMillis / 1000) : String.valueOf(durationMillis / 1000.0));
+        }
+    }
+}
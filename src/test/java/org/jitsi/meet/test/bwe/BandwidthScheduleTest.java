@@ -0,0 +1,109 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.bwe;
+
+import org.testng.annotations.*;
+
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests the parsing of {@link BandwidthSchedule}.
+ */
+public class BandwidthScheduleTest
+{
+    @Test
+    public void testParse()
+    {
+        BandwidthSchedule schedule = BandwidthSchedule.parse(
+            "10mbit,60", "1mbit:delay=50ms:jitter=500us:loss=1.5%,30.5");
+
+        List<BandwidthSchedule.Step> steps = schedule.getSteps();
+        assertEquals(steps.size(), 2);
+
+        BandwidthSchedule.Step first = steps.get(0);
+        assertEquals(first.getBitsPerSecond(), 10_000_000);
+        assertFalse(first.isImpaired());
+        assertEquals(first.getStartMillis(), 0);
+        assertEquals(first.getDurationMillis(), 60000);
+
+        BandwidthSchedule.Step second = steps.get(1);
+        assertEquals(second.getBitsPerSecond(), 1_000_000);
+        assertEquals(second.getDelayMicros(), 50000);
+        assertEquals(second.getJitterMicros(), 500);
+        assertEquals(second.getLossPercent(), 1.5);
+        assertEquals(second.getStartMillis(), 60000);
+        assertEquals(second.getDurationMillis(), 30500);
+
+        assertEquals(schedule.getDurationMillis(), 90500);
+        assertSame(schedule.getStepAt(59999), first);
+        assertSame(schedule.getStepAt(60000), second);
+        assertSame(schedule.getStepAt(100000), second);
+    }
+
+    @Test
+    public void testRoundTrip()
+    {
+        String[] args = { "2mbit:delay=100ms:jitter=20ms:loss=2%,30", "500kbit,0.5" };
+
+        assertEquals(BandwidthSchedule.parse(args).toArgs(), args);
+    }
+
+    @Test
+    public void testRateUnits()
+    {
+        assertEquals(BandwidthSchedule.parseRate("500kbit"), 500_000);
+        assertEquals(BandwidthSchedule.parseRate("100kbps"), 800_000);
+        assertEquals(BandwidthSchedule.parseRate("1.5Mbit"), 1_500_000);
+        assertEquals(BandwidthSchedule.parseRate("1gbit"), 1_000_000_000);
+    }
+
+    @Test
+    public void testTimeUnits()
+    {
+        assertEquals(BandwidthSchedule.parseTimeMicros("50ms"), 50000);
+        assertEquals(BandwidthSchedule.parseTimeMicros("2s"), 2_000_000);
+        assertEquals(BandwidthSchedule.parseTimeMicros("750us"), 750);
+    }
+
+    /**
+     * tc reads a time without a unit as microseconds, it is not guessed.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTimeWithoutUnit()
+    {
+        BandwidthSchedule.parse("1mbit:delay=50,10");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownImpairment()
+    {
+        BandwidthSchedule.parse("1mbit:reorder=5%,10");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidLoss()
+    {
+        BandwidthSchedule.parse("1mbit:loss=120%,10");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMissingDuration()
+    {
+        BandwidthSchedule.parse("1mbit");
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.bwe;
+
+import java.util.*;
+
+/**
+ * The performance of the bandwidth estimation of one run of a bottleneck
+ * schedule, computed from the RTC stats of the receiver.
+ *
+ * The received bitrate is taken from the bytes received on the connection
+ * ({@link #CONNECTION_BYTES_RECEIVED}) and compared, step by step, to the rate
+ * limit of the schedule:
+ * <ul>
+ * <li>utilization: the mean bitrate over the limit,</li>
+ * <li>overshoot: how much the peak bitrate exceeds the limit, relative to
+ * it,</li>
+ * <li>convergence time: the time from the start of the step after which the
+ * bitrate stays within {@link #CONVERGENCE_TOLERANCE} of the steady state
+ * bitrate (the median of the last third of the step).</li>
+ * </ul>
+ */
+public class BweAnalysis
+{
+    /**
+     * The stat with the bytes received on the connection, i.e. all media.
+     */
+    public static final String CONNECTION_BYTES_RECEIVED = "Conn-audio-1-0-bytesReceived";
+
+    /**
+     * The suffix of the stats with bytes received, whose bitrates are
+     * reported.
+     */
+    public static final String BYTES_RECEIVED_SUFFIX = "bytesReceived";
+
+    /**
+     * The relative distance from the steady state bitrate within which the
+     * bitrate is considered converged.
+     */
+    public static final double CONVERGENCE_TOLERANCE = 0.2;
+
+    /**
+     * The value of the convergence time when the bitrate did not converge.
+     */
+    public static final long NOT_CONVERGED = -1;
+
+    private final String name;
+
+    private final StatsSeries bitrate;
+
+    private final Map<String, Double> seriesBitrates;
+
+    private final List<StepResult> steps;
+
+    private final double meanBitrate;
+
+    private final double meanSampleBits;
+
+    /**
+     * Analyzes a run.
+     *
+     * @param name the name of the run, only used in the report.
+     * @param stats the RTC stats of the receiver, see {@link RtcStatsParser}.
+     * @param schedule the schedule which was played.
+     * @param scheduleStart the time the schedule started, in milliseconds since
+     * the epoch on the clock of the browser.
+     */
+    public BweAnalysis(
+        String name, Map<String, StatsSeries> stats, BandwidthSchedule schedule, long scheduleStart)
+    {
+        this(name, stats, schedule, plannedStepStarts(schedule, scheduleStart));
+    }
+
+    /**
+     * Analyzes a run with the times the steps actually took effect, see
+     * {@link NetworkEmulator.Change#getTimeMillis()}.
+     *
+     * @param name the name of the run, only used in the report.
+     * @param stats the RTC stats of the receiver, see {@link RtcStatsParser}.
+     * @param schedule the schedule which was played.
+     * @param stepStarts the time every step of the schedule took effect, in
+     * milliseconds since the epoch on the clock of the browser. A step ends
+     * when the next one takes effect, the last one after its duration.
+     */
+    public BweAnalysis(
+        String name, Map<String, StatsSeries> stats, BandwidthSchedule schedule, long[] stepStarts)
+    {
+        List<BandwidthSchedule.Step> scheduleSteps = schedule.getSteps();
+        if (stepStarts.length != scheduleSteps.size())
+        {
+            throw new IllegalArgumentException(
+                "Expected " + scheduleSteps.size() + " step starts, got " + stepStarts.length);
+        }
+
+        this.name = name;
+
+        seriesBitrates = new TreeMap<>();
+        StatsSeries connection = stats.get(CONNECTION_BYTES_RECEIVED);
+        StatsSeries largest = null;
+        for (StatsSeries series : stats.values())
+        {
+            if (!series.getName().endsWith(BYTES_RECEIVED_SUFFIX) || series.size() < 2)
+            {
+                continue;
+            }
+
+            seriesBitrates.put(series.getName(), series.toBitrate().getMean());
+            if (largest == null || last(series) > last(largest))
+            {
+                largest = series;
+            }
+        }
+
+        // Without the connection stat (e.g. other stats naming) the counter
+        // with the most bytes is the closest to the total.
+        StatsSeries total = connection != null ? connection : largest;
+        meanSampleBits = total == null || total.size() < 2
+            ? Double.NaN
+            : 8 * (last(total) - total.getValues()[0]) / (total.size() - 1);
+        bitrate = total == null
+            ? new StatsSeries(CONNECTION_BYTES_RECEIVED + "-bps", new long[0], new double[0])
+            : total.toBitrate();
+
+        List<StepResult> stepResults = new ArrayList<>();
+        long end = 0;
+        for (int i = 0; i < stepStarts.length; i++)
+        {
+            BandwidthSchedule.Step step = scheduleSteps.get(i);
+            end = i + 1 < stepStarts.length
+                ? stepStarts[i + 1] : stepStarts[i] + step.getDurationMillis();
+            stepResults.add(analyzeStep(step, stepStarts[i], end));
+        }
+        steps = Collections.unmodifiableList(stepResults);
+
+        meanBitrate = stepStarts.length == 0 ? Double.NaN : bitrate.getMean(stepStarts[0], end);
+    }
+
+    private static long[] plannedStepStarts(BandwidthSchedule schedule, long scheduleStart)
+    {
+        List<BandwidthSchedule.Step> steps = schedule.getSteps();
+        long[] starts = new long[steps.size()];
+        for (int i = 0; i < starts.length; i++)
+        {
+            starts[i] = scheduleStart + steps.get(i).getStartMillis();
+        }
+        return starts;
+    }
+
+    private StepResult analyzeStep(BandwidthSchedule.Step step, long from, long to)
+    {
+        long[] times = bitrate.getTimes();
+        double[] values = bitrate.getValues();
+
+        int first = 0;
+        while (first < times.length && times[first] <= from)
+        {
+            first++;
+        }
+        int end = first;
+        while (end < times.length && times[end] <= to)
+        {
+            end++;
+        }
+
+        double capacity = step.getBitsPerSecond();
+        double mean = bitrate.getMean(from, to);
+        double peak = Double.NaN;
+        for (int i = first; i < end; i++)
+        {
+            peak = Double.isNaN(peak) ? values[i] : Math.max(peak, values[i]);
+        }
+
+        double steady = Double.NaN;
+        long convergence = NOT_CONVERGED;
+        int count = end - first;
+        if (count >= 3)
+        {
+            double[] tail = Arrays.copyOfRange(values, end - Math.max(1, count / 3), end);
+            Arrays.sort(tail);
+            steady = tail[tail.length / 2];
+
+            int converged = end;
+            while (converged > first
+                && Math.abs(values[converged - 1] - steady) <= CONVERGENCE_TOLERANCE * steady)
+            {
+                converged--;
+            }
+            if (converged < end)
+            {
+                convergence = times[converged] - from;
+            }
+        }
+
+        return new StepResult(
+            step,
+            mean,
+            peak,
+            steady,
+            mean / capacity,
+            Double.isNaN(peak) ? Double.NaN : Math.max(0, peak - capacity) / capacity,
+            convergence);
+    }
+
+    private static double last(StatsSeries series)
+    {
+        return series.getValues()[series.size() - 1];
+    }
+
+    /**
+     * @return the name of the run.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the received bitrate over time.
+     */
+    public StatsSeries getBitrate()
+    {
+        return bitrate;
+    }
+
+    /**
+     * @return the mean bitrate of every stat with bytes received, by name.
+     */
+    public Map<String, Double> getSeriesBitrates()
+    {
+        return seriesBitrates;
+    }
+
+    /**
+     * @return the results of every step of the schedule.
+     */
+    public List<StepResult> getSteps()
+    {
+        return steps;
+    }
+
+    /**
+     * @return the mean received bitrate over the schedule, in bits per
+     * second.
+     */
+    public double getMeanBitrate()
+    {
+        return meanBitrate;
+    }
+
+    /**
+     * @return the mean of the bits received between consecutive samples of
+     * the connection over the whole recording, regardless of the time between
+     * the samples and of the schedule. This is the measure the bridge and peer
+     * to peer runs have always been compared with, see
+     * {@link BweComparison#getRatio()}.
+     */
+    public double getMeanSampleBits()
+    {
+        return meanSampleBits;
+    }
+
+    /**
+     * The performance during one step of the schedule.
+     */
+    public static class StepResult
+    {
+        private final BandwidthSchedule.Step step;
+        private final double meanBitrate;
+        private final double peakBitrate;
+        private final double steadyBitrate;
+        private final double utilization;
+        private final double overshoot;
+        private final long convergenceMillis;
+
+        private StepResult(
+            BandwidthSchedule.Step step,
+            double meanBitrate, double peakBitrate, double steadyBitrate,
+            double utilization, double overshoot, long convergenceMillis)
+        {
+            this.step = step;
+            this.meanBitrate = meanBitrate;
+            this.peakBitrate = peakBitrate;
+            this.steadyBitrate = steadyBitrate;
+            this.utilization = utilization;
+            this.overshoot = overshoot;
+            this.convergenceMillis = convergenceMillis;
+        }
+
+        /**
+         * @return the step.
+         */
+        public BandwidthSchedule.Step getStep()
+        {
+            return step;
+        }
+
+        /**
+         * @return the mean bitrate during the step, NaN without samples.
+         */
+        public double getMeanBitrate()
+        {
+            return meanBitrate;
+        }
+
+        /**
+         * @return the highest bitrate sampled during the step, NaN without
+         * samples.
+         */
+        public double getPeakBitrate()
+        {
+            return peakBitrate;
+        }
+
+        /**
+         * @return the median bitrate of the last third of the step, NaN with
+         * less than three samples.
+         */
+        public double getSteadyBitrate()
+        {
+            return steadyBitrate;
+        }
+
+        /**
+         * @return the mean bitrate over the rate limit.
+         */
+        public double getUtilization()
+        {
+            return utilization;
+        }
+
+        /**
+         * @return how much the peak bitrate exceeds the rate limit, relative
+         * to it, 0 if it does not.
+         */
+        public double getOvershoot()
+        {
+            return overshoot;
+        }
+
+        /**
+         * @return the time from the start of the step after which the bitrate
+         * stays close to the steady state bitrate, or
+         * {@link #NOT_CONVERGED}.
+         */
+        public long getConvergenceMillis()
+        {
+            return convergenceMillis;
+        }
+    }
+}
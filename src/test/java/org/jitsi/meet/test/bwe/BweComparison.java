@@ -0,0 +1,147 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.bwe;
+
+import java.util.*;
+
+/**
+ * Compares the bandwidth estimation through the bridge to the one peer to
+ * peer (the reference) for the same bottleneck schedule.
+ */
+public class BweComparison
+{
+    /**
+     * The minimum ratio of the bits received per sample through the bridge to
+     * the ones peer to peer for the bridge to be considered healthy.
+     */
+    public static final double MIN_RATIO = 0.95;
+
+    private final BweAnalysis jvb;
+
+    private final BweAnalysis p2p;
+
+    /**
+     * @param jvb the analysis of the run through the bridge.
+     * @param p2p the analysis of the run peer to peer.
+     */
+    public BweComparison(BweAnalysis jvb, BweAnalysis p2p)
+    {
+        this.jvb = Objects.requireNonNull(jvb);
+        this.p2p = Objects.requireNonNull(p2p);
+    }
+
+    /**
+     * @return the analysis of the run through the bridge.
+     */
+    public BweAnalysis getJvb()
+    {
+        return jvb;
+    }
+
+    /**
+     * @return the analysis of the run peer to peer.
+     */
+    public BweAnalysis getP2p()
+    {
+        return p2p;
+    }
+
+    /**
+     * @return the mean bits received per sample through the bridge over the
+     * ones peer to peer, see {@link BweAnalysis#getMeanSampleBits()}. This is
+     * the pass criterion.
+     */
+    public double getRatio()
+    {
+        return jvb.getMeanSampleBits() / p2p.getMeanSampleBits();
+    }
+
+    /**
+     * @return the mean bitrate through the bridge over the mean bitrate peer
+     * to peer, during the schedule. It is only reported.
+     */
+    public double getBitrateRatio()
+    {
+        return jvb.getMeanBitrate() / p2p.getMeanBitrate();
+    }
+
+    /**
+     * @return whether the bitrate through the bridge is healthy, i.e. the ratio
+     * is above {@link #MIN_RATIO}.
+     */
+    public boolean isHealthy()
+    {
+        return getRatio() > MIN_RATIO;
+    }
+
+    /**
+     * @return a human readable report with the results of every step of both
+     * runs side by side.
+     */
+    public String getReport()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("BWE %s vs %s%n", jvb.getName(), p2p.getName()));
+        sb.append(String.format(
+            "%-12s %6s | %10s %6s %6s %8s | %10s %6s %6s %8s%n",
+            "step", "secs",
+            "jvb kbps", "util", "over", "conv ms",
+            "p2p kbps", "util", "over", "conv ms"));
+
+        List<BweAnalysis.StepResult> jvbSteps = jvb.getSteps();
+        List<BweAnalysis.StepResult> p2pSteps = p2p.getSteps();
+        for (int i = 0; i < jvbSteps.size() && i < p2pSteps.size(); i++)
+        {
+            BweAnalysis.StepResult j = jvbSteps.get(i);
+            BweAnalysis.StepResult p = p2pSteps.get(i);
+            sb.append(String.format(
+                "%-12s %6d | %10.0f %6.2f %6.2f %8d | %10.0f %6.2f %6.2f %8d%n",
+                j.getStep().getRate(),
+                j.getStep().getDurationMillis() / 1000,
+                j.getMeanBitrate() / 1000, j.getUtilization(), j.getOvershoot(), j.getConvergenceMillis(),
+                p.getMeanBitrate() / 1000, p.getUtilization(), p.getOvershoot(), p.getConvergenceMillis()));
+        }
+
+        appendSeries(sb, jvb);
+        appendSeries(sb, p2p);
+
+        sb.append(String.format(
+            "mean kbps: jvb %.0f p2p %.0f ratio %.3f%n",
+            jvb.getMeanBitrate() / 1000, p2p.getMeanBitrate() / 1000,
+            getBitrateRatio()));
+        sb.append(String.format(
+            "bits per sample: jvb %.0f p2p %.0f ratio %.3f (%s, min %.2f)%n",
+            jvb.getMeanSampleBits(), p2p.getMeanSampleBits(),
+            getRatio(), isHealthy() ? "healthy" : "unhealthy", MIN_RATIO));
+
+        return sb.toString();
+    }
+
+    private static void appendSeries(StringBuilder sb, BweAnalysis analysis)
+    {
+        sb.append(String.format("%s series:%n", analysis.getName()));
+        for (Map.Entry<String, Double> e : analysis.getSeriesBitrates().entrySet())
+        {
+            sb.append(String.format("  %-48s %10.0f kbps%n", e.getKey(), e.getValue() / 1000));
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return getReport();
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.bwe;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs the cells of a bandwidth estimation matrix (a network trace and a
+ * bottleneck schedule, whose bridge and peer to peer runs are compared) from
+ * concurrent threads and collects their comparisons into one table.
+ *
+ * Every running cell holds a {@link Sandbox}, which gives it the resources
+ * that must not be shared with the other cells running at the same time: a
+ * slot number (used for the browser profile directory) and the receiver port
+ * being rate-limited. The number of sandboxes bounds the
+ * number of cells running at once.
+ *
+ * The cells running at once still share the network interface, the bridge
+ * and the TURN server of the host. The runs of a cell are therefore run one
+ * after the other, so that the bridge and peer to peer runs which are
+ * compared are not competing with each other.
+ */
+public class BweMatrix
+{
+    /**
+     * The number of cores budgeted for one cell: two browsers, possibly in
+     * mahimahi shells, and their share of the bridge or TURN server.
+     */
+    public static final int CORES_PER_CELL = 4;
+
+    /**
+     * Free slot numbers.
+     */
+    private final BlockingQueue<Integer> slots;
+
+    /**
+     * The ports being rate-limited by the running cells.
+     */
+    private final Set<Integer> reservedPorts = new HashSet<>();
+
+    private final int concurrency;
+
+    private final Map<String, BweComparison> results = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return the default number of cells to run at once, based on the cores
+     * of this host.
+     */
+    public static int getDefaultConcurrency()
+    {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / CORES_PER_CELL);
+    }
+
+    /**
+     * @param concurrency the maximum number of cells running at once.
+     */
+    public BweMatrix(int concurrency)
+    {
+        if (concurrency < 1)
+        {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+
+        this.concurrency = concurrency;
+        slots = new ArrayBlockingQueue<>(concurrency);
+        for (int i = 0; i < concurrency; i++)
+        {
+            slots.add(i);
+        }
+    }
+
+    /**
+     * @return the maximum number of cells running at once.
+     */
+    public int getConcurrency()
+    {
+        return concurrency;
+    }
+
+    /**
+     * Runs a cell in a sandbox on the calling thread, waiting for a free
+     * sandbox first.
+     *
+     * @param cell the cell.
+     * @return the result of the cell.
+     * @throws Exception if the cell failed.
+     */
+    public <T> T run(Cell<T> cell)
+        throws Exception
+    {
+        try (Sandbox sandbox = acquire())
+        {
+            return cell.run(sandbox);
+        }
+    }
+
+    private Sandbox acquire()
+        throws InterruptedException
+    {
+        return new Sandbox(slots.take());
+    }
+
+    /**
+     * Records the comparison of a row of the matrix.
+     *
+     * @param row the name of the row, e.g. the network and the schedule.
+     * @param comparison the comparison of its cells.
+     */
+    public void addResult(String row, BweComparison comparison)
+    {
+        results.put(row, comparison);
+    }
+
+    /**
+     * @return a table with the results of all rows.
+     */
+    public String getTable()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(
+            "%-40s %10s %10s %7s %10s %10s  %s%n",
+            "row", "jvb kbps", "p2p kbps", "ratio", "jvb conv", "p2p conv", "result"));
+        for (Map.Entry<String, BweComparison> e : results.entrySet())
+        {
+            BweComparison comparison = e.getValue();
+            sb.append(String.format(
+                "%-40s %10.0f %10.0f %7.3f %10s %10s  %s%n",
+                e.getKey(),
+                comparison.getJvb().getMeanBitrate() / 1000,
+                comparison.getP2p().getMeanBitrate() / 1000,
+                comparison.getRatio(),
+                maxConvergence(comparison.getJvb()),
+                maxConvergence(comparison.getP2p()),
+                comparison.isHealthy() ? "healthy" : "UNHEALTHY"));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the longest convergence time of the steps of a run, "-" if a
+     * step did not converge.
+     */
+    private static String maxConvergence(BweAnalysis analysis)
+    {
+        long max = 0;
+        for (BweAnalysis.StepResult step : analysis.getSteps())
+        {
+            if (step.getConvergenceMillis() == BweAnalysis.NOT_CONVERGED)
+            {
+                return "-";
+            }
+            max = Math.max(max, step.getConvergenceMillis());
+        }
+        return max + "ms";
+    }
+
+    /**
+     * A cell of the matrix.
+     */
+    public interface Cell<T>
+    {
+        /**
+         * Runs the cell.
+         *
+         * @param sandbox the resources of the cell.
+         * @return the result.
+         * @throws Exception if the cell failed.
+         */
+        T run(Sandbox sandbox)
+            throws Exception;
+    }
+
+    /**
+     * The resources of a running cell.
+     */
+    public class Sandbox
+        implements AutoCloseable
+    {
+        private final int slot;
+
+        private int port = -1;
+
+        private Sandbox(int slot)
+        {
+            this.slot = slot;
+        }
+
+        /**
+         * @return the number of the slot, from 0 to the concurrency minus one.
+         */
+        public int getSlot()
+        {
+            return slot;
+        }
+
+        /**
+         * Reserves the port the cell rate-limits, unless another cell
+         * rate-limits the same port (the tc filters only match the port). The
+         * port is known once the media flows, so rather than waiting with its
+         * media shaped by the other cell, the cell should connect again to
+         * get another port.
+         *
+         * @param port the port.
+         * @return whether the port was reserved.
+         */
+        public boolean tryReservePort(int port)
+        {
+            synchronized (reservedPorts)
+            {
+                releasePort();
+                if (!reservedPorts.add(port))
+                {
+                    return false;
+                }
+                this.port = port;
+                return true;
+            }
+        }
+
+        private void releasePort()
+        {
+            synchronized (reservedPorts)
+            {
+                if (port != -1)
+                {
+                    reservedPorts.remove(port);
+                    port = -1;
+                }
+            }
+        }
+
+        /**
+         * Releases the port and the slot.
+         */
+        @Override
+        public void close()
+        {
+            releasePort();
+            slots.add(slot);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.bwe;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A packet delivery trace of mahimahi(1), e.g. the .up and .down files under
+ * /usr/share/mahimahi/traces. Every line is the time, in milliseconds, of an
+ * opportunity to deliver one packet of {@link #PACKET_BITS}, and the trace
+ * repeats after the last one.
+ *
+ * The trace is replayed without mm-link(1) by converting it into a
+ * {@link BandwidthSchedule} for a {@link NetworkEmulator}: the opportunities
+ * are counted in bins and every bin becomes a step with their rate. The rate
+ * only changes once per bin, so the bursts within a bin are smoothed out.
+ */
+public class MahimahiTrace
+{
+    /**
+     * The size of the packet of a delivery opportunity, the MTU.
+     */
+    public static final int PACKET_BITS = 1500 * 8;
+
+    /**
+     * The default duration of the bins, long enough to keep the rate of the tc
+     * commands reasonable with many participants.
+     */
+    public static final long DEFAULT_BIN_MILLIS = 500;
+
+    /**
+     * The rate of the bins without delivery opportunities, since HTB(8) needs
+     * a positive rate.
+     */
+    public static final long MIN_BITS_PER_SECOND = 8000;
+
+    /**
+     * The rates are rounded to this, so that the bins with close rates merge.
+     */
+    private static final long RATE_QUANTUM = 1000;
+
+    private final String name;
+
+    /**
+     * The times of the delivery opportunities, sorted.
+     */
+    private final long[] opportunities;
+
+    private final long periodMillis;
+
+    /**
+     * Loads a trace.
+     *
+     * @param path the path of the trace file.
+     * @return the trace.
+     * @throws IOException if the file can not be read or is not a trace.
+     */
+    public static MahimahiTrace load(String path)
+        throws IOException
+    {
+        try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.US_ASCII))
+        {
+            return parse(new File(path).getName(), reader);
+        }
+    }
+
+    /**
+     * Parses a trace.
+     *
+     * @param name the name of the trace, only used in messages.
+     * @param trace the content of the trace.
+     * @return the trace.
+     * @throws IOException if the trace can not be read or is malformed.
+     */
+    public static MahimahiTrace parse(String name, Reader trace)
+        throws IOException
+    {
+        BufferedReader reader = trace instanceof BufferedReader
+            ? (BufferedReader) trace : new BufferedReader(trace);
+
+        long[] opportunities = new long[1024];
+        int size = 0;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null)
+        {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty())
+            {
+                continue;
+            }
+
+            long time;
+            try
+            {
+                time = Long.parseLong(line);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException(name + ":" + lineNumber + ": invalid time: " + line);
+            }
+            if (time < 0 || (size > 0 && time < opportunities[size - 1]))
+            {
+                throw new IOException(name + ":" + lineNumber + ": time goes backwards: " + line);
+            }
+
+            if (size == opportunities.length)
+            {
+                opportunities = Arrays.copyOf(opportunities, size * 2);
+            }
+            opportunities[size++] = time;
+        }
+
+        if (size == 0 || opportunities[size - 1] == 0)
+        {
+            throw new IOException(name + ": empty trace");
+        }
+
+        return new MahimahiTrace(name, Arrays.copyOf(opportunities, size));
+    }
+
+    private MahimahiTrace(String name, long[] opportunities)
+    {
+        this.name = name;
+        this.opportunities = opportunities;
+        this.periodMillis = opportunities[opportunities.length - 1];
+    }
+
+    /**
+     * @return the name of the trace.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the time after which the trace repeats, in milliseconds.
+     */
+    public long getPeriodMillis()
+    {
+        return periodMillis;
+    }
+
+    /**
+     * @return the number of delivery opportunities in one period.
+     */
+    public int getOpportunityCount()
+    {
+        return opportunities.length;
+    }
+
+    /**
+     * @return the mean rate of the trace, in bits per second.
+     */
+    public double getMeanBitsPerSecond()
+    {
+        return opportunities.length * (double) PACKET_BITS * 1000 / periodMillis;
+    }
+
+    /**
+     * Returns the number of opportunities before a time, the trace looping.
+     *
+     * @param time the time in milliseconds since the start of the trace.
+     */
+    private double countBefore(double time)
+    {
+        long loops = (long) Math.floor(time / periodMillis);
+        double inLoop = time - loops * (double) periodMillis;
+
+        // The first opportunity at or after inLoop.
+        int lo = 0, hi = opportunities.length;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (opportunities[mid] < inLoop)
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+
+        return loops * (double) opportunities.length + lo;
+    }
+
+    /**
+     * Returns the rate of the trace over an interval, the trace looping.
+     *
+     * @param fromMillis the start of the interval in the time of the trace.
+     * @param toMillis the end of the interval in the time of the trace.
+     * @return the rate in bits per second.
+     */
+    public double getBitsPerSecond(double fromMillis, double toMillis)
+    {
+        if (toMillis <= fromMillis)
+        {
+            throw new IllegalArgumentException("Empty interval");
+        }
+        return (countBefore(toMillis) - countBefore(fromMillis)) * PACKET_BITS * 1000
+            / (toMillis - fromMillis);
+    }
+
+    /**
+     * Converts the trace into a schedule with {@link #DEFAULT_BIN_MILLIS}
+     * bins, at its own pace and from its start.
+     *
+     * @param durationMillis the duration of the schedule, the trace looping
+     * as needed.
+     * @return the schedule.
+     */
+    public BandwidthSchedule toSchedule(long durationMillis)
+    {
+        return toSchedule(durationMillis, DEFAULT_BIN_MILLIS, 1, 0, null);
+    }
+
+    /**
+     * Converts the trace into a schedule.
+     *
+     * @param durationMillis the duration of the schedule, the trace looping
+     * as needed.
+     * @param binMillis the duration of the bins, i.e. the resolution of the
+     * schedule.
+     * @param timeScale stretches the time of the trace without changing its
+     * rates, e.g. 2 makes the rate change twice as slowly.
+     * @param offsetMillis the time of the trace the schedule starts at, e.g.
+     * for participants not to follow the same trace in lockstep.
+     * @param cap a schedule whose rates the ones of the trace do not exceed,
+     * e.g. a bottleneck, whose impairments are kept, or null.
+     * @return the schedule.
+     */
+    public BandwidthSchedule toSchedule(
+        long durationMillis, long binMillis, double timeScale, long offsetMillis, BandwidthSchedule cap)
+    {
+        if (durationMillis <= 0 || binMillis <= 0 || !(timeScale > 0))
+        {
+            throw new IllegalArgumentException("Invalid replay of " + name);
+        }
+
+        List<String> steps = new ArrayList<>();
+        long stepRate = -1;
+        String stepImpairments = null;
+        long stepStart = 0;
+        for (long t = 0; t < durationMillis; t += binMillis)
+        {
+            long end = Math.min(t + binMillis, durationMillis);
+            double rate = getBitsPerSecond(
+                offsetMillis + t / timeScale, offsetMillis + end / timeScale);
+            long quantized = Math.max(
+                MIN_BITS_PER_SECOND, Math.round(rate / RATE_QUANTUM) * RATE_QUANTUM);
+
+            String impairments = "";
+            if (cap != null)
+            {
+                BandwidthSchedule.Step capStep = cap.getStepAt(t);
+                quantized = Math.min(quantized, capStep.getBitsPerSecond());
+                impairments = capStep.getConditions().substring(capStep.getRate().length());
+            }
+
+            if (quantized != stepRate || !impairments.equals(stepImpairments))
+            {
+                if (stepRate != -1)
+                {
+                    steps.add(formatStep(stepRate, stepImpairments, t - stepStart));
+                }
+                stepRate = quantized;
+                stepImpairments = impairments;
+                stepStart = t;
+            }
+        }
+        steps.add(formatStep(stepRate, stepImpairments, durationMillis - stepStart));
+
+        return BandwidthSchedule.parse(steps.toArray(new String[0]));
+    }
+
+    private static String formatStep(long bitsPerSecond, String impairments, long durationMillis)
+    {
+        return bitsPerSecond + "bit" + impairments + "," + durationMillis / 1000.0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "%s (%d opportunities in %dms, mean %.0f kbps)",
+            name, opportunities.length, periodMillis, getMeanBitsPerSecond() / 1000);
+    }
+}
@@ -0,0 +1,803 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.bwe;
+
+import org.jitsi.meet.test.util.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Plays {@link BandwidthSchedule}s with TC(8): the rate is limited by an HTB(8)
+ * class and the delay, jitter and loss are applied by a NETEM(8) qdisc under
+ * it.
+ *
+ * A schedule is played on a {@link Target}:
+ * <ul>
+ * <li>the egress traffic towards a port of the device, in which case the
+ * targets share the root HTB qdisc of the device (added by the first and
+ * removed by the last) and each has its own class and u32 filter,</li>
+ * <li>all the egress traffic of a device in a network namespace, which owns the
+ * root qdisc of the device.</li>
+ * </ul>
+ * The root qdisc is only added in place of the default one of the kernel. A
+ * device whose root qdisc was configured otherwise, e.g. by a previous run
+ * which did not clean up, is not touched and the session fails to start.
+ * Only the root qdiscs added by this class are removed.
+ *
+ * The steps are applied at their offset from the start of the schedule by a
+ * scheduler, independently of how long the previous changes took, and the time
+ * every change took effect is recorded ({@link Change}), so the stats can be
+ * aligned with the actual steps rather than the planned ones.
+ *
+ * The user running the tests needs to be able to run tc, directly or through
+ * sudo (see {@link #SUDO_PNAME}).
+ */
+public class NetworkEmulator
+    implements AutoCloseable
+{
+    /**
+     * The name of the system property with the device to shape. Defaults to
+     * the first device which is up and not a loopback.
+     */
+    public static final String DEVICE_PNAME = "tc.device";
+
+    /**
+     * The name of the system property with the path of tc.
+     */
+    public static final String COMMAND_PNAME = "tc.command";
+
+    /**
+     * The name of the system property which tells whether to run tc through
+     * sudo. Defaults to true unless running as root.
+     */
+    public static final String SUDO_PNAME = "tc.sudo";
+
+    /**
+     * The default path of tc.
+     */
+    public static final String DEFAULT_COMMAND = "/sbin/tc";
+
+    /**
+     * The first minor number of the classes of the targets, leaving the ones
+     * below to the default class and to manual usage of tc.
+     */
+    private static final int FIRST_CLASS_ID = 0x10;
+
+    /**
+     * The largest minor number of a class.
+     */
+    private static final int MAX_CLASS_ID = 0xffff;
+
+    /**
+     * The queue limit of the NETEM qdiscs, in packets, large enough to hold
+     * the packets delayed at high rates.
+     */
+    private static final int NETEM_LIMIT = 10000;
+
+    /**
+     * The time to wait for one tc command.
+     */
+    private static final long COMMAND_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * The minor numbers of the classes in use, by the name of the namespace
+     * and the device of their root qdisc. Shared by all the emulators of the
+     * JVM since they share the root qdiscs.
+     */
+    private static final Map<String, Set<Integer>> classIds = new HashMap<>();
+
+    /**
+     * The root qdiscs added by the emulators of the JVM, by the name of the
+     * namespace and the device. Guarded by {@link #classIds}.
+     */
+    private static final Set<String> installedRoots = new HashSet<>();
+
+    private final String command;
+
+    private final boolean sudo;
+
+    private final String device;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates an emulator configured from the system properties, see
+     * {@link #DEVICE_PNAME}, {@link #COMMAND_PNAME} and {@link #SUDO_PNAME}.
+     *
+     * @return the emulator.
+     * @throws IOException if no device is configured and none could be found.
+     */
+    public static NetworkEmulator fromSystemProperties()
+        throws IOException
+    {
+        String device = System.getProperty(DEVICE_PNAME);
+        if (device == null || device.trim().isEmpty())
+        {
+            device = findDefaultDevice();
+        }
+
+        String command = System.getProperty(COMMAND_PNAME);
+        if (command == null || command.trim().isEmpty())
+        {
+            command = DEFAULT_COMMAND;
+        }
+
+        String sudo = System.getProperty(SUDO_PNAME);
+        return new NetworkEmulator(
+            command.trim(),
+            sudo == null || sudo.trim().isEmpty()
+                ? !"root".equals(System.getProperty("user.name"))
+                : Boolean.parseBoolean(sudo.trim()),
+            device.trim());
+    }
+
+    /**
+     * @return the name of the first device which is up and not a loopback.
+     * @throws IOException if there is no such device.
+     */
+    private static String findDefaultDevice()
+        throws IOException
+    {
+        List<NetworkInterface> interfaces
+            = Collections.list(NetworkInterface.getNetworkInterfaces());
+        interfaces.sort(Comparator.comparingInt(NetworkInterface::getIndex));
+        for (NetworkInterface networkInterface : interfaces)
+        {
+            if (networkInterface.isUp() && !networkInterface.isLoopback()
+                && !networkInterface.isVirtual())
+            {
+                return networkInterface.getName();
+            }
+        }
+
+        throw new IOException("No network device to shape, set " + DEVICE_PNAME);
+    }
+
+    /**
+     * Tells whether the traffic from a remote socket of a browser leaves this
+     * host, i.e. whether its address belongs to this host. The port targets
+     * only shape the traffic sent by this host.
+     *
+     * @param socket the socket, e.g. "10.0.0.1:10000" or "[::1]:10000".
+     * @return whether the address of the socket is one of this host.
+     * @throws IOException if the address could not be resolved.
+     */
+    public static boolean isLocalSocket(String socket)
+        throws IOException
+    {
+        int colon = socket.lastIndexOf(':');
+        String host = colon == -1 ? socket : socket.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]"))
+        {
+            host = host.substring(1, host.length() - 1);
+        }
+
+        InetAddress address = InetAddress.getByName(host);
+        return address.isLoopbackAddress() || address.isAnyLocalAddress()
+            || NetworkInterface.getByInetAddress(address) != null;
+    }
+
+    /**
+     * @param command the path of tc.
+     * @param sudo whether to run tc through sudo.
+     * @param device the device whose egress traffic to shape for the port
+     * targets.
+     */
+    public NetworkEmulator(String command, boolean sudo, String device)
+    {
+        this.command = Objects.requireNonNull(command);
+        this.sudo = sudo;
+        this.device = Objects.requireNonNull(device);
+        scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "network-emulator");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @return the device whose egress traffic is shaped for the port targets.
+     */
+    public String getDevice()
+    {
+        return device;
+    }
+
+    /**
+     * Starts playing a schedule: the first step is applied right away and the
+     * others at their offsets. The last step is held until the session is
+     * closed.
+     *
+     * @param target what to shape.
+     * @param schedule the schedule.
+     * @return the session playing the schedule.
+     * @throws IOException if the shaping could not be set up.
+     */
+    public Session play(Target target, BandwidthSchedule schedule)
+        throws IOException
+    {
+        if (schedule.getSteps().isEmpty())
+        {
+            throw new IllegalArgumentException("Empty schedule");
+        }
+
+        Session session = new Session(target, schedule, allocateClassId(target));
+        sessions.add(session);
+        try
+        {
+            session.start();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            session.close();
+            throw e;
+        }
+        return session;
+    }
+
+    /**
+     * Plays a whole schedule and removes the shaping, blocking until then.
+     *
+     * @param target what to shape.
+     * @param schedule the schedule.
+     * @return the changes which were applied.
+     * @throws Exception if the shaping failed.
+     */
+    public List<Change> playAndWait(Target target, BandwidthSchedule schedule)
+        throws Exception
+    {
+        try (Session session = play(target, schedule))
+        {
+            session.awaitEnd(
+                schedule.getDurationMillis() + COMMAND_TIMEOUT_MILLIS,
+                TimeUnit.MILLISECONDS);
+            return session.getChanges();
+        }
+    }
+
+    /**
+     * Stops all sessions and removes their shaping.
+     */
+    @Override
+    public void close()
+    {
+        for (Session session : new ArrayList<>(sessions))
+        {
+            session.close();
+        }
+        scheduler.shutdownNow();
+    }
+
+    private static String rootKey(Target target, String device)
+    {
+        return (target.namespace == null ? "" : target.namespace) + "/" + device;
+    }
+
+    /**
+     * Reserves a class minor number on the root qdisc of a target.
+     *
+     * @return the minor number.
+     */
+    private int allocateClassId(Target target)
+    {
+        String key = rootKey(target, target.getDevice(device));
+        synchronized (classIds)
+        {
+            Set<Integer> ids = classIds.computeIfAbsent(key, k -> new HashSet<>());
+            if (target.namespace != null && !ids.isEmpty())
+            {
+                throw new IllegalStateException(
+                    "Already shaping " + target.getDevice(device) + " in " + target.namespace);
+            }
+            for (int id = FIRST_CLASS_ID; id <= MAX_CLASS_ID; id++)
+            {
+                if (ids.add(id))
+                {
+                    return id;
+                }
+            }
+        }
+
+        throw new IllegalStateException("No free tc class on " + key);
+    }
+
+    /**
+     * Releases a class minor number.
+     *
+     * @return true if it was the last class of the root qdisc.
+     */
+    private boolean releaseClassId(Target target, int classId)
+    {
+        String key = rootKey(target, target.getDevice(device));
+        synchronized (classIds)
+        {
+            Set<Integer> ids = classIds.get(key);
+            if (ids == null)
+            {
+                return true;
+            }
+            ids.remove(classId);
+            if (ids.isEmpty())
+            {
+                classIds.remove(key);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Runs tc.
+     *
+     * @param namespace the network namespace to run tc in, or null.
+     * @param args the arguments of tc.
+     * @return the output of tc.
+     * @throws IOException if tc failed.
+     */
+    private String tc(String namespace, String... args)
+        throws IOException
+    {
+        List<String> cmd = new ArrayList<>();
+        if (sudo)
+        {
+            cmd.add("sudo");
+        }
+        if (namespace != null)
+        {
+            Collections.addAll(cmd, "ip", "netns", "exec", namespace);
+        }
+        cmd.add(command);
+        Collections.addAll(cmd, args);
+
+        Process process = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        String output;
+        try (InputStream in = process.getInputStream())
+        {
+            output = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+        }
+
+        try
+        {
+            if (!process.waitFor(COMMAND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+            {
+                process.destroyForcibly();
+                throw new IOException(
+                    "tc timed out", new TimeoutException(String.join(" ", cmd)));
+            }
+        }
+        catch (InterruptedException e)
+        {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted running " + cmd);
+        }
+
+        if (process.exitValue() != 0)
+        {
+            throw new IOException(
+                String.join(" ", cmd) + " failed (" + process.exitValue() + "): " + output);
+        }
+        return output;
+    }
+
+    /**
+     * Runs tc, ignoring failures.
+     */
+    private void tcQuietly(String namespace, String... args)
+    {
+        try
+        {
+            tc(namespace, args);
+        }
+        catch (IOException e)
+        {
+            // The state may be gone already, e.g. with the namespace.
+        }
+    }
+
+    private static String formatRate(BandwidthSchedule.Step step)
+    {
+        return step.getBitsPerSecond() + "bit";
+    }
+
+    private static String formatMicros(long micros)
+    {
+        return micros + "us";
+    }
+
+    /**
+     * What to shape.
+     */
+    public static class Target
+    {
+        private final int port;
+
+        private final String namespace;
+
+        private final String device;
+
+        /**
+         * @param port the destination port of the egress traffic to shape.
+         * @return the target.
+         */
+        public static Target port(int port)
+        {
+            if (port < 1 || port > 65535)
+            {
+                throw new IllegalArgumentException("Invalid port: " + port);
+            }
+            return new Target(port, null, null);
+        }
+
+        /**
+         * @param namespace the name of the network namespace.
+         * @param device the device in the namespace whose egress traffic to
+         * shape.
+         * @return the target.
+         */
+        public static Target namespace(String namespace, String device)
+        {
+            return new Target(-1, Objects.requireNonNull(namespace), Objects.requireNonNull(device));
+        }
+
+        private Target(int port, String namespace, String device)
+        {
+            this.port = port;
+            this.namespace = namespace;
+            this.device = device;
+        }
+
+        private String getDevice(String defaultDevice)
+        {
+            return device != null ? device : defaultDevice;
+        }
+
+        @Override
+        public String toString()
+        {
+            return namespace == null ? "port " + port : namespace + "/" + device;
+        }
+    }
+
+    /**
+     * A step of a schedule which took effect.
+     */
+    public static class Change
+    {
+        private final int index;
+
+        private final BandwidthSchedule.Step step;
+
+        private final long scheduledMillis;
+
+        private final long timeMillis;
+
+        private Change(int index, BandwidthSchedule.Step step, long scheduledMillis, long timeMillis)
+        {
+            this.index = index;
+            this.step = step;
+            this.scheduledMillis = scheduledMillis;
+            this.timeMillis = timeMillis;
+        }
+
+        /**
+         * @return the index of the step in the schedule.
+         */
+        public int getIndex()
+        {
+            return index;
+        }
+
+        /**
+         * @return the step.
+         */
+        public BandwidthSchedule.Step getStep()
+        {
+            return step;
+        }
+
+        /**
+         * @return the time the step was planned for, in milliseconds since
+         * the epoch on the clock of the JVM.
+         */
+        public long getScheduledMillis()
+        {
+            return scheduledMillis;
+        }
+
+        /**
+         * @return the time tc returned from applying the step, in
+         * milliseconds since the epoch on the clock of the JVM.
+         */
+        public long getTimeMillis()
+        {
+            return timeMillis;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ts=" + timeMillis + ",step=" + index + ",late="
+                + (timeMillis - scheduledMillis) + "ms," + step.getConditions();
+        }
+    }
+
+    /**
+     * A schedule being played on a target.
+     */
+    public class Session
+        implements AutoCloseable
+    {
+        private final Target target;
+
+        private final BandwidthSchedule schedule;
+
+        private final int classId;
+
+        private final String dev;
+
+        private final String classIdStr;
+
+        private final List<Change> changes = new CopyOnWriteArrayList<>();
+
+        private final List<ScheduledFuture<?>> futures = new ArrayList<>();
+
+        private final CountDownLatch end = new CountDownLatch(1);
+
+        private volatile IOException failure;
+
+        private long startMillis;
+
+        private boolean installed;
+
+        private boolean closed;
+
+        private Session(Target target, BandwidthSchedule schedule, int classId)
+        {
+            this.target = target;
+            this.schedule = schedule;
+            this.classId = classId;
+            this.dev = target.getDevice(device);
+            this.classIdStr = Integer.toHexString(classId);
+        }
+
+        /**
+         * Installs the qdiscs and schedules the steps.
+         */
+        private synchronized void start()
+            throws IOException
+        {
+            List<BandwidthSchedule.Step> steps = schedule.getSteps();
+            install(steps.get(0));
+            long startNanos = System.nanoTime();
+            startMillis = System.currentTimeMillis();
+            changes.add(new Change(0, steps.get(0), startMillis, startMillis));
+            TestUtils.print("Shaping " + target + " on " + dev + ": " + changes.get(0));
+
+            for (int i = 1; i < steps.size(); i++)
+            {
+                int index = i;
+                BandwidthSchedule.Step step = steps.get(i);
+                long delayNanos = startNanos
+                    + TimeUnit.MILLISECONDS.toNanos(step.getStartMillis()) - System.nanoTime();
+                futures.add(scheduler.schedule(
+                    () -> apply(index, step), delayNanos, TimeUnit.NANOSECONDS));
+            }
+
+            long endNanos = startNanos
+                + TimeUnit.MILLISECONDS.toNanos(schedule.getDurationMillis()) - System.nanoTime();
+            futures.add(scheduler.schedule(end::countDown, endNanos, TimeUnit.NANOSECONDS));
+        }
+
+        private void install(BandwidthSchedule.Step step)
+            throws IOException
+        {
+            String ns = target.namespace;
+            synchronized (classIds)
+            {
+                // Another session may have added the shared root qdisc
+                // already.
+                String key = rootKey(target, dev);
+                if (!installedRoots.contains(key))
+                {
+                    String root = tc(ns, "qdisc", "show", "dev", dev, "root");
+                    // The default qdiscs of the kernel have no handle ("0:").
+                    if (!root.isEmpty() && !root.matches("(?s)qdisc \\S+ 0: .*"))
+                    {
+                        throw new IOException(
+                            "The root qdisc of " + dev + " is configured already, remove it"
+                                + " or shape another device: " + root);
+                    }
+                    tc(ns, "qdisc", "add", "dev", dev, "root", "handle", "1:", "htb",
+                        "default", ns == null ? "1" : classIdStr);
+                    installedRoots.add(key);
+                }
+            }
+            installed = true;
+
+            String rate = formatRate(step);
+            tc(ns, "class", "add", "dev", dev, "parent", "1:", "classid", "1:" + classIdStr,
+                "htb", "rate", rate, "ceil", rate);
+            tc(ns, netem("add", step));
+            if (ns == null)
+            {
+                tc(null, "filter", "add", "dev", dev, "protocol", "ip", "parent", "1:0",
+                    "prio", String.valueOf(classId), "u32",
+                    "match", "ip", "dport", String.valueOf(target.port), "0xffff",
+                    "flowid", "1:" + classIdStr);
+            }
+        }
+
+        private String[] netem(String verb, BandwidthSchedule.Step step)
+        {
+            List<String> args = new ArrayList<>(Arrays.asList(
+                "qdisc", verb, "dev", dev, "parent", "1:" + classIdStr,
+                "handle", classIdStr + ":", "netem", "limit", String.valueOf(NETEM_LIMIT),
+                "delay", formatMicros(step.getDelayMicros())));
+            if (step.getJitterMicros() > 0)
+            {
+                args.add(formatMicros(step.getJitterMicros()));
+            }
+            args.add("loss");
+            args.add(String.format(Locale.ROOT, "%.4f%%", step.getLossPercent()));
+            return args.toArray(new String[0]);
+        }
+
+        /**
+         * Applies a step and records when it took effect.
+         */
+        private synchronized void apply(int index, BandwidthSchedule.Step step)
+        {
+            if (closed)
+            {
+                return;
+            }
+
+            long scheduledMillis = startMillis + step.getStartMillis();
+            BandwidthSchedule.Step previous = schedule.getSteps().get(index - 1);
+            try
+            {
+                // Only what changed, every command delays the change.
+                if (step.getBitsPerSecond() != previous.getBitsPerSecond())
+                {
+                    String rate = formatRate(step);
+                    tc(target.namespace, "class", "change", "dev", dev, "parent", "1:",
+                        "classid", "1:" + classIdStr, "htb", "rate", rate, "ceil", rate);
+                }
+                if (step.getDelayMicros() != previous.getDelayMicros()
+                    || step.getJitterMicros() != previous.getJitterMicros()
+                    || step.getLossPercent() != previous.getLossPercent())
+                {
+                    tc(target.namespace, netem("change", step));
+                }
+                Change change = new Change(index, step, scheduledMillis, System.currentTimeMillis());
+                changes.add(change);
+                TestUtils.print("Shaping " + target + " on " + dev + ": " + change);
+            }
+            catch (IOException e)
+            {
+                TestUtils.print("Failed to shape " + target + ": " + e.getMessage());
+                failure = e;
+                end.countDown();
+            }
+        }
+
+        /**
+         * Waits for the end of the schedule, the last step still being
+         * applied.
+         *
+         * @param timeout the maximum time to wait.
+         * @param unit the unit of the timeout.
+         * @throws IOException if a step failed.
+         * @throws TimeoutException if the schedule did not end in time.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        public void awaitEnd(long timeout, TimeUnit unit)
+            throws IOException, TimeoutException, InterruptedException
+        {
+            if (!end.await(timeout, unit))
+            {
+                throw new TimeoutException("The schedule of " + target + " did not end");
+            }
+            if (failure != null)
+            {
+                throw failure;
+            }
+        }
+
+        /**
+         * @return the time the first step took effect, in milliseconds since
+         * the epoch on the clock of the JVM.
+         */
+        public synchronized long getStartMillis()
+        {
+            return startMillis;
+        }
+
+        /**
+         * @return the steps which took effect so far, in order.
+         */
+        public List<Change> getChanges()
+        {
+            return new ArrayList<>(changes);
+        }
+
+        /**
+         * @return the schedule.
+         */
+        public BandwidthSchedule getSchedule()
+        {
+            return schedule;
+        }
+
+        /**
+         * Cancels the steps not applied yet and removes the shaping. Does
+         * nothing if already closed.
+         */
+        @Override
+        public void close()
+        {
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    return;
+                }
+                closed = true;
+                for (ScheduledFuture<?> future : futures)
+                {
+                    future.cancel(false);
+                }
+                end.countDown();
+
+                if (installed)
+                {
+                    String ns = target.namespace;
+                    if (ns == null)
+                    {
+                        tcQuietly(null, "filter", "del", "dev", dev, "parent", "1:",
+                            "prio", String.valueOf(classId));
+                    }
+                    tcQuietly(ns, "qdisc", "del", "dev", dev, "parent", "1:" + classIdStr);
+                    tcQuietly(ns, "class", "del", "dev", dev, "classid", "1:" + classIdStr);
+                }
+            }
+
+            // The shared root qdisc goes with the last class, if it was added
+            // by this class.
+            synchronized (classIds)
+            {
+                if (releaseClassId(target, classId)
+                    && installedRoots.remove(rootKey(target, dev)))
+                {
+                    tcQuietly(target.namespace, "qdisc", "del", "dev", dev, "root");
+                }
+            }
+            sessions.remove(this);
+            if (installed)
+            {
+                TestUtils.print("Stopped shaping " + target + " on " + dev);
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.bwe;
+
+import org.json.simple.parser.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Parses the RTC stats of a peer connection as returned by
+ * {@link org.jitsi.meet.test.util.MeetUtils#getRtpStats}, i.e. an object
+ * mapping stat names to objects with "times" and "values" arrays.
+ *
+ * The JSON is parsed as a stream of events and only the numeric values of the
+ * selected stats are kept, in primitive arrays, so the stats of long runs do
+ * not need to be loaded as a tree.
+ */
+public class RtcStatsParser
+{
+    private final Predicate<String> filter;
+
+    /**
+     * @param filter selects the names of the stats to keep.
+     */
+    public RtcStatsParser(Predicate<String> filter)
+    {
+        this.filter = Objects.requireNonNull(filter);
+    }
+
+    /**
+     * Parses stats.
+     *
+     * @param json the JSON.
+     * @return the selected numeric series by name, in the order they appear.
+     * @throws IOException if the JSON can not be read or parsed.
+     */
+    public Map<String, StatsSeries> parse(Reader json)
+        throws IOException
+    {
+        Handler handler = new Handler();
+        try
+        {
+            new JSONParser().parse(json, handler);
+        }
+        catch (ParseException e)
+        {
+            throw new IOException("Invalid RTC stats: " + e, e);
+        }
+
+        return handler.series;
+    }
+
+    /**
+     * Parses stats.
+     *
+     * @param json the JSON.
+     * @return the selected numeric series by name, in the order they appear.
+     * @throws IOException if the JSON can not be parsed.
+     */
+    public Map<String, StatsSeries> parse(String json)
+        throws IOException
+    {
+        return parse(new StringReader(json));
+    }
+
+    /**
+     * Tracks the position in the document: depth 1 is the object of all
+     * stats, depth 2 the object of a stat and depth 3 its arrays.
+     */
+    private class Handler
+        implements ContentHandler
+    {
+        private final Map<String, StatsSeries> series = new LinkedHashMap<>();
+
+        private int depth;
+
+        private String stat;
+
+        private String key;
+
+        private final LongBuffer times = new LongBuffer();
+
+        private final DoubleBuffer values = new DoubleBuffer();
+
+        /**
+         * Whether a value of the current stat was not a number, the stat
+         * being skipped.
+         */
+        private boolean nonNumeric;
+
+        @Override
+        public void startJSON()
+        {
+        }
+
+        @Override
+        public void endJSON()
+        {
+        }
+
+        @Override
+        public boolean startObject()
+        {
+            depth++;
+            return true;
+        }
+
+        @Override
+        public boolean endObject()
+        {
+            if (depth == 2 && stat != null)
+            {
+                if (!nonNumeric && times.size == values.size)
+                {
+                    series.put(stat, new StatsSeries(stat, times.toArray(), values.toArray()));
+                }
+                stat = null;
+            }
+            depth--;
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(String name)
+        {
+            if (depth == 1)
+            {
+                stat = filter.test(name) ? name : null;
+                times.size = 0;
+                values.size = 0;
+                nonNumeric = false;
+            }
+            else if (depth == 2)
+            {
+                key = name;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry()
+        {
+            if (depth == 2)
+            {
+                key = null;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean startArray()
+        {
+            depth++;
+            return true;
+        }
+
+        @Override
+        public boolean endArray()
+        {
+            depth--;
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value)
+        {
+            if (depth != 3 || stat == null || key == null)
+            {
+                return true;
+            }
+
+            if ("times".equals(key))
+            {
+                if (value instanceof Number)
+                {
+                    times.add(((Number) value).longValue());
+                }
+                else
+                {
+                    nonNumeric = true;
+                }
+            }
+            else if ("values".equals(key))
+            {
+                if (value instanceof Number)
+                {
+                    values.add(((Number) value).doubleValue());
+                }
+                else if (value instanceof String)
+                {
+                    // Older browsers report numbers as strings.
+                    try
+                    {
+                        values.add(Double.parseDouble((String) value));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        nonNumeric = true;
+                    }
+                }
+                else
+                {
+                    nonNumeric = true;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class LongBuffer
+    {
+        private long[] data = new long[64];
+        private int size;
+
+        private void add(long value)
+        {
+            if (size == data.length)
+            {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        private long[] toArray()
+        {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    private static class DoubleBuffer
+    {
+        private double[] data = new double[64];
+        private int size;
+
+        private void add(double value)
+        {
+            if (size == data.length)
+            {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        private double[] toArray()
+        {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
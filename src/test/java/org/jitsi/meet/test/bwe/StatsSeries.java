@@ -0,0 +1,152 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.bwe;
+
+import java.util.*;
+
+/**
+ * A numeric time series of the RTC stats of a peer connection, e.g.
+ * "Conn-audio-1-0-bytesReceived", with the times in milliseconds since the
+ * epoch (browser clock).
+ */
+public class StatsSeries
+{
+    private final String name;
+
+    private final long[] times;
+
+    private final double[] values;
+
+    /**
+     * @param name the name of the stat.
+     * @param times the sample times, in ascending order.
+     * @param values the values, of the same length as the times.
+     */
+    public StatsSeries(String name, long[] times, double[] values)
+    {
+        if (times.length != values.length)
+        {
+            throw new IllegalArgumentException("times and values differ in length");
+        }
+
+        this.name = name;
+        this.times = times;
+        this.values = values;
+    }
+
+    /**
+     * @return the name of the stat.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the number of samples.
+     */
+    public int size()
+    {
+        return times.length;
+    }
+
+    /**
+     * @return the sample times.
+     */
+    public long[] getTimes()
+    {
+        return times;
+    }
+
+    /**
+     * @return the values.
+     */
+    public double[] getValues()
+    {
+        return values;
+    }
+
+    /**
+     * Computes the rate of a series of cumulative byte counters (e.g.
+     * "bytesReceived") between consecutive samples. Intervals in which the
+     * counter decreased (it was reset) or no time passed are skipped.
+     *
+     * @return the rate in bits per second, at the end of every interval.
+     */
+    public StatsSeries toBitrate()
+    {
+        long[] rateTimes = new long[Math.max(0, times.length - 1)];
+        double[] rates = new double[rateTimes.length];
+        int count = 0;
+        for (int i = 1; i < times.length; i++)
+        {
+            long elapsed = times[i] - times[i - 1];
+            double bytes = values[i] - values[i - 1];
+            if (elapsed <= 0 || bytes < 0)
+            {
+                continue;
+            }
+
+            rateTimes[count] = times[i];
+            rates[count] = bytes * 8 * 1000 / elapsed;
+            count++;
+        }
+
+        return new StatsSeries(
+            name + "-bps", Arrays.copyOf(rateTimes, count), Arrays.copyOf(rates, count));
+    }
+
+    /**
+     * Computes the time weighted mean of a rate series between two times,
+     * every value covering the interval since the previous sample.
+     *
+     * @param from the start time, inclusive.
+     * @param to the end time, exclusive.
+     * @return the mean, or NaN if no sample falls in the range.
+     */
+    public double getMean(long from, long to)
+    {
+        double sum = 0;
+        long weight = 0;
+        for (int i = 1; i < times.length; i++)
+        {
+            if (times[i] <= from || times[i - 1] >= to)
+            {
+                continue;
+            }
+
+            long overlap = Math.min(times[i], to) - Math.max(times[i - 1], from);
+            sum += values[i] * overlap;
+            weight += overlap;
+        }
+
+        return weight == 0 ? Double.NaN : sum / weight;
+    }
+
+    /**
+     * @return the mean of all values, or NaN if there are none.
+     */
+    public double getMean()
+    {
+        return times.length < 2 ? (times.length == 0 ? Double.NaN : values[0]) : getMean(times[0], times[times.length - 1]);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[%d samples]", name, times.length);
+    }
+}
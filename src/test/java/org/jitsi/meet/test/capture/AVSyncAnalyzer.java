@@ -0,0 +1,542 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.capture;
+
+import java.util.*;
+
+/**
+ * Tracks the audio to video offset over a whole recording of the lip-sync
+ * stream (a beep played together with a green dot at the center of the video).
+ *
+ * The audio level and the "greenness" of the center pixel are resampled to a
+ * uniform grid and cross-correlated in sliding windows (with an FFT), the lag
+ * of the correlation peak being the offset of the audio relative to the video
+ * in that window. The offsets measured on the receiver are relative to the
+ * offset measured on the sender, which removes the delay of the capture
+ * itself, e.g. the audio levels being reported late. Both offsets are measured
+ * within a single browser, so the clocks of the two browsers do not need to be
+ * synchronized.
+ *
+ * The beeps being periodic, the maximum lag searched has to be less than half
+ * of their period for the result to be unambiguous.
+ */
+public class AVSyncAnalyzer
+{
+    /**
+     * The default length of the sliding window.
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 5000;
+
+    /**
+     * The default step of the sliding window.
+     */
+    public static final long DEFAULT_STEP_MILLIS = 1000;
+
+    /**
+     * The default maximum lag searched, in either direction.
+     */
+    public static final long DEFAULT_MAX_LAG_MILLIS = 1000;
+
+    /**
+     * The default minimum normalized correlation at the peak for a window to
+     * be considered, windows without a beep or with noise only fall below it.
+     */
+    public static final double DEFAULT_MIN_CORRELATION = 0.3;
+
+    private final long windowMillis;
+
+    private final long stepMillis;
+
+    private final long maxLagMillis;
+
+    private final double minCorrelation;
+
+    /**
+     * Creates an analyzer with the default parameters.
+     */
+    public AVSyncAnalyzer()
+    {
+        this(DEFAULT_WINDOW_MILLIS, DEFAULT_STEP_MILLIS, DEFAULT_MAX_LAG_MILLIS, DEFAULT_MIN_CORRELATION);
+    }
+
+    /**
+     * @param windowMillis the length of the sliding window.
+     * @param stepMillis the step of the sliding window.
+     * @param maxLagMillis the maximum offset searched, in either direction.
+     * @param minCorrelation the minimum normalized correlation, from 0 to 1,
+     * for a window to be considered.
+     */
+    public AVSyncAnalyzer(long windowMillis, long stepMillis, long maxLagMillis, double minCorrelation)
+    {
+        if (windowMillis <= 0 || stepMillis <= 0 || maxLagMillis <= 0)
+        {
+            throw new IllegalArgumentException("The window, step and maximum lag must be positive");
+        }
+        if (maxLagMillis >= windowMillis)
+        {
+            throw new IllegalArgumentException("The maximum lag must be less than the window");
+        }
+
+        this.windowMillis = windowMillis;
+        this.stepMillis = stepMillis;
+        this.maxLagMillis = maxLagMillis;
+        this.minCorrelation = minCorrelation;
+    }
+
+    /**
+     * Computes the audio to video offset of the receiver over time.
+     *
+     * @param sender the series recorded from the local video of the sender.
+     * @param receiver the series recorded from the remote video on the
+     * receiver.
+     * @return the result.
+     */
+    public Result analyze(FrameSeries sender, FrameSeries receiver)
+    {
+        List<Sample> senderSamples = track(sender);
+        List<Sample> receiverSamples = track(receiver);
+
+        double baseline = 0;
+        if (!senderSamples.isEmpty())
+        {
+            double[] offsets = new double[senderSamples.size()];
+            for (int i = 0; i < offsets.length; i++)
+            {
+                offsets[i] = senderSamples.get(i).offsetMillis;
+            }
+            Arrays.sort(offsets);
+            baseline = offsets[offsets.length / 2];
+        }
+
+        List<Sample> samples = new ArrayList<>(receiverSamples.size());
+        for (Sample s : receiverSamples)
+        {
+            samples.add(new Sample(s.timeMillis, s.offsetMillis - baseline, s.correlation));
+        }
+
+        return new Result(samples, baseline, !senderSamples.isEmpty());
+    }
+
+    /**
+     * Computes the offset of the audio relative to the video of a single
+     * series over time, without any baseline.
+     *
+     * @param series the series.
+     * @return an offset per window with a correlation above the minimum, the
+     * times being relative to the first frame.
+     */
+    public List<Sample> track(FrameSeries series)
+    {
+        int length = series.getLength();
+        if (length < 2)
+        {
+            return Collections.emptyList();
+        }
+
+        long[] timestamps = series.getTimestamps();
+        double period = medianInterval(timestamps);
+        if (period <= 0)
+        {
+            return Collections.emptyList();
+        }
+
+        long start = timestamps[0];
+        int gridLength = (int) ((timestamps[length - 1] - start) / period) + 1;
+        double[] audio = new double[gridLength];
+        double[] video = new double[gridLength];
+        double[] audioLevels = series.getAudioLevels();
+        int[] centerRgba = series.getCenterRgba();
+
+        // Sample and hold: every grid point takes the last frame at or before
+        // it.
+        int frame = 0;
+        for (int i = 0; i < gridLength; i++)
+        {
+            double t = start + i * period;
+            while (frame + 1 < length && timestamps[frame + 1] <= t)
+            {
+                frame++;
+            }
+            audio[i] = Math.max(0, audioLevels[frame]);
+            video[i] = greenness(centerRgba[frame]);
+        }
+
+        int window = (int) Math.round(windowMillis / period);
+        int step = Math.max(1, (int) Math.round(stepMillis / period));
+        int maxLag = Math.min(window - 1, (int) Math.round(maxLagMillis / period));
+        if (window < 2 || gridLength < window)
+        {
+            return Collections.emptyList();
+        }
+
+        int fftSize = Integer.highestOneBit(2 * window - 1) << 1;
+        double[] audioRe = new double[fftSize];
+        double[] audioIm = new double[fftSize];
+        double[] videoRe = new double[fftSize];
+        double[] videoIm = new double[fftSize];
+
+        List<Sample> samples = new ArrayList<>();
+        for (int from = 0; from + window <= gridLength; from += step)
+        {
+            double audioNorm = fill(audio, from, window, audioRe, audioIm);
+            double videoNorm = fill(video, from, window, videoRe, videoIm);
+            if (audioNorm == 0 || videoNorm == 0)
+            {
+                continue;
+            }
+
+            // corr[k] = sum(video[n] * audio[n + k]) = IFFT(conj(V) * A)[k]
+            fft(audioRe, audioIm, false);
+            fft(videoRe, videoIm, false);
+            for (int k = 0; k < fftSize; k++)
+            {
+                double re = videoRe[k] * audioRe[k] + videoIm[k] * audioIm[k];
+                double im = videoRe[k] * audioIm[k] - videoIm[k] * audioRe[k];
+                audioRe[k] = re;
+                audioIm[k] = im;
+            }
+            fft(audioRe, audioIm, true);
+
+            int peak = 0;
+            double peakValue = Double.NEGATIVE_INFINITY;
+            for (int lag = -maxLag; lag <= maxLag; lag++)
+            {
+                double value = audioRe[Math.floorMod(lag, fftSize)];
+                if (value > peakValue)
+                {
+                    peakValue = value;
+                    peak = lag;
+                }
+            }
+
+            double correlation = peakValue / (audioNorm * videoNorm);
+            if (correlation < minCorrelation)
+            {
+                continue;
+            }
+
+            // Parabolic interpolation of the peak for sub-frame precision.
+            double offset = peak;
+            if (peak > -maxLag && peak < maxLag)
+            {
+                double before = audioRe[Math.floorMod(peak - 1, fftSize)];
+                double after = audioRe[Math.floorMod(peak + 1, fftSize)];
+                double curvature = before - 2 * peakValue + after;
+                if (curvature < 0)
+                {
+                    offset += 0.5 * (before - after) / curvature;
+                }
+            }
+
+            samples.add(new Sample((long) ((from + window / 2.0) * period), offset * period, correlation));
+        }
+
+        return samples;
+    }
+
+    /**
+     * @return how green the pixel is, from 0 to 1, the green dot on the red
+     * background being 1.
+     */
+    private static double greenness(int rgba)
+    {
+        int red = (rgba >>> 24) & 0xff;
+        int green = (rgba >>> 16) & 0xff;
+        return Math.max(0, green - red) / 255.0;
+    }
+
+    /**
+     * Copies a window of a signal without its mean into the beginning of the
+     * zero padded FFT buffers.
+     *
+     * @return the euclidean norm of the window without its mean.
+     */
+    private static double fill(double[] signal, int from, int length, double[] re, double[] im)
+    {
+        double mean = 0;
+        for (int i = 0; i < length; i++)
+        {
+            mean += signal[from + i];
+        }
+        mean /= length;
+
+        double energy = 0;
+        Arrays.fill(re, 0);
+        Arrays.fill(im, 0);
+        for (int i = 0; i < length; i++)
+        {
+            double v = signal[from + i] - mean;
+            re[i] = v;
+            energy += v * v;
+        }
+
+        // Constant windows (no beep, no dot) have nothing to correlate.
+        return energy < 1e-9 ? 0 : Math.sqrt(energy);
+    }
+
+    private static double medianInterval(long[] timestamps)
+    {
+        long[] intervals = new long[timestamps.length - 1];
+        for (int i = 0; i < intervals.length; i++)
+        {
+            intervals[i] = timestamps[i + 1] - timestamps[i];
+        }
+        Arrays.sort(intervals);
+        return intervals[intervals.length / 2];
+    }
+
+    /**
+     * An in-place iterative radix-2 FFT.
+     *
+     * @param re the real parts, the length being a power of two.
+     * @param im the imaginary parts.
+     * @param inverse whether to compute the inverse transform, including the
+     * scaling.
+     */
+    static void fft(double[] re, double[] im, boolean inverse)
+    {
+        int n = re.length;
+
+        for (int i = 1, j = 0; i < n; i++)
+        {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1)
+            {
+                j ^= bit;
+            }
+            j ^= bit;
+
+            if (i < j)
+            {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+
+        for (int len = 2; len <= n; len <<= 1)
+        {
+            double angle = 2 * Math.PI / len * (inverse ? 1 : -1);
+            double wRe = Math.cos(angle);
+            double wIm = Math.sin(angle);
+            for (int i = 0; i < n; i += len)
+            {
+                double curRe = 1;
+                double curIm = 0;
+                for (int k = 0; k < len / 2; k++)
+                {
+                    int a = i + k;
+                    int b = a + len / 2;
+                    double tRe = re[b] * curRe - im[b] * curIm;
+                    double tIm = re[b] * curIm + im[b] * curRe;
+                    re[b] = re[a] - tRe;
+                    im[b] = im[a] - tIm;
+                    re[a] += tRe;
+                    im[a] += tIm;
+
+                    double nextRe = curRe * wRe - curIm * wIm;
+                    curIm = curRe * wIm + curIm * wRe;
+                    curRe = nextRe;
+                }
+            }
+        }
+
+        if (inverse)
+        {
+            for (int i = 0; i < n; i++)
+            {
+                re[i] /= n;
+                im[i] /= n;
+            }
+        }
+    }
+
+    /**
+     * The offset measured in one window.
+     */
+    public static class Sample
+    {
+        private final long timeMillis;
+
+        private final double offsetMillis;
+
+        private final double correlation;
+
+        Sample(long timeMillis, double offsetMillis, double correlation)
+        {
+            this.timeMillis = timeMillis;
+            this.offsetMillis = offsetMillis;
+            this.correlation = correlation;
+        }
+
+        /**
+         * @return the time of the center of the window, relative to the first
+         * frame.
+         */
+        public long getTimeMillis()
+        {
+            return timeMillis;
+        }
+
+        /**
+         * @return how late the audio is compared to the video, negative when
+         * the audio is ahead.
+         */
+        public double getOffsetMillis()
+        {
+            return offsetMillis;
+        }
+
+        /**
+         * @return the normalized correlation at the peak, from 0 to 1.
+         */
+        public double getCorrelation()
+        {
+            return correlation;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%.1fs: %.1fms (%.2f)", timeMillis / 1000.0, offsetMillis, correlation);
+        }
+    }
+
+    /**
+     * The offset of the receiver over time with its trend.
+     */
+    public static class Result
+    {
+        private final List<Sample> samples;
+
+        private final double baselineMillis;
+
+        private final boolean hasBaseline;
+
+        private final double driftMillisPerSecond;
+
+        private final double interceptMillis;
+
+        private final double jitterMillis;
+
+        Result(List<Sample> samples, double baselineMillis, boolean hasBaseline)
+        {
+            this.samples = Collections.unmodifiableList(samples);
+            this.baselineMillis = baselineMillis;
+            this.hasBaseline = hasBaseline;
+
+            // Least squares fit of offset = intercept + drift * time.
+            int n = samples.size();
+            double meanT = 0;
+            double meanO = 0;
+            for (Sample s : samples)
+            {
+                meanT += s.timeMillis / 1000.0;
+                meanO += s.offsetMillis;
+            }
+            meanT /= Math.max(1, n);
+            meanO /= Math.max(1, n);
+
+            double covariance = 0;
+            double variance = 0;
+            for (Sample s : samples)
+            {
+                double dt = s.timeMillis / 1000.0 - meanT;
+                covariance += dt * (s.offsetMillis - meanO);
+                variance += dt * dt;
+            }
+            driftMillisPerSecond = variance > 0 ? covariance / variance : 0;
+            interceptMillis = meanO - driftMillisPerSecond * meanT;
+
+            double residuals = 0;
+            for (Sample s : samples)
+            {
+                double r = s.offsetMillis - getTrendMillis(s.timeMillis);
+                residuals += r * r;
+            }
+            jitterMillis = n > 2 ? Math.sqrt(residuals / (n - 2)) : 0;
+        }
+
+        /**
+         * @return the offsets over time, relative to the sender.
+         */
+        public List<Sample> getSamples()
+        {
+            return samples;
+        }
+
+        /**
+         * @return the offset of the audio relative to the video measured on the
+         * sender, subtracted from the offsets of the receiver.
+         */
+        public double getBaselineMillis()
+        {
+            return baselineMillis;
+        }
+
+        /**
+         * @return whether the baseline could be measured on the sender, the
+         * offsets being absolute otherwise.
+         */
+        public boolean hasBaseline()
+        {
+            return hasBaseline;
+        }
+
+        /**
+         * @return the slope of the offset over time, in milliseconds per
+         * second, negative when the video catches up with the audio.
+         */
+        public double getDriftMillisPerSecond()
+        {
+            return driftMillisPerSecond;
+        }
+
+        /**
+         * @return the standard deviation of the offsets around the trend line.
+         */
+        public double getJitterMillis()
+        {
+            return jitterMillis;
+        }
+
+        /**
+         * @param timeMillis the time relative to the first frame.
+         * @return the offset at a time according to the trend line.
+         */
+        public double getTrendMillis(long timeMillis)
+        {
+            return interceptMillis + driftMillisPerSecond * timeMillis / 1000.0;
+        }
+
+        /**
+         * @return the offset at the end of the recording according to the
+         * trend line, or NaN if nothing was measured.
+         */
+        public double getFinalOffsetMillis()
+        {
+            return samples.isEmpty() ? Double.NaN : getTrendMillis(samples.get(samples.size() - 1).timeMillis);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(
+                "A/V offset: %d windows, final %.1fms, drift %.2fms/s, jitter %.1fms, baseline %s",
+                samples.size(), getFinalOffsetMillis(), driftMillisPerSecond, jitterMillis,
+                hasBaseline ? String.format("%.1fms", baselineMillis) : "none");
+        }
+    }
+}
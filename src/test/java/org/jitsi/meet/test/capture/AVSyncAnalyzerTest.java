@@ -0,0 +1,135 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.capture;
+
+import org.testng.annotations.*;
+
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests the cross-correlation of {@link AVSyncAnalyzer} on synthetic beeps and
+ * green dots.
+ */
+public class AVSyncAnalyzerTest
+{
+    /**
+     * The interval between the frames.
+     */
+    private static final long FRAME_MILLIS = 20;
+
+    /**
+     * The period of the beeps, at least twice the maximum lag searched.
+     */
+    private static final long BEEP_PERIOD_MILLIS = 1000;
+
+    private static final long BEEP_MILLIS = 100;
+
+    private static final int RED = 0xff0000ff;
+
+    private static final int GREEN = 0x00ff00ff;
+
+    private final AVSyncAnalyzer analyzer = new AVSyncAnalyzer(5000, 1000, 400, 0.3);
+
+    /**
+     * Creates a series in which the audio of every beep starts
+     * {@code audioDelayMillis} after its green dot.
+     */
+    private static FrameSeries series(long durationMillis, long audioDelayMillis)
+    {
+        List<CapturedFrame> frames = new ArrayList<>();
+        for (long t = 0; t < durationMillis; t += FRAME_MILLIS)
+        {
+            boolean green = t % BEEP_PERIOD_MILLIS < BEEP_MILLIS;
+            long audioPhase = Math.floorMod(t - audioDelayMillis, BEEP_PERIOD_MILLIS);
+            double audioLevel = audioPhase < BEEP_MILLIS ? 0.8 : 0.01;
+            frames.add(new CapturedFrame(
+                frames.size(), 1_000_000 + t, audioLevel, green ? GREEN : RED, 1, 1, new byte[0]));
+        }
+        return new FrameSeries("video", frames);
+    }
+
+    @Test
+    public void testTrack()
+    {
+        List<AVSyncAnalyzer.Sample> samples = analyzer.track(series(20000, 200));
+
+        assertFalse(samples.isEmpty());
+        for (AVSyncAnalyzer.Sample sample : samples)
+        {
+            assertEquals(sample.getOffsetMillis(), 200, FRAME_MILLIS, sample.toString());
+        }
+    }
+
+    @Test
+    public void testAudioAhead()
+    {
+        List<AVSyncAnalyzer.Sample> samples = analyzer.track(series(20000, -120));
+
+        assertFalse(samples.isEmpty());
+        for (AVSyncAnalyzer.Sample sample : samples)
+        {
+            assertEquals(sample.getOffsetMillis(), -120, FRAME_MILLIS, sample.toString());
+        }
+    }
+
+    @Test
+    public void testBaseline()
+    {
+        AVSyncAnalyzer.Result result = analyzer.analyze(series(20000, 60), series(20000, 260));
+
+        assertTrue(result.hasBaseline());
+        assertEquals(result.getBaselineMillis(), 60, FRAME_MILLIS);
+        assertFalse(result.getSamples().isEmpty());
+        for (AVSyncAnalyzer.Sample sample : result.getSamples())
+        {
+            assertEquals(sample.getOffsetMillis(), 200, 2 * FRAME_MILLIS, sample.toString());
+        }
+    }
+
+    @Test
+    public void testNoBeep()
+    {
+        List<CapturedFrame> frames = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+        {
+            frames.add(new CapturedFrame(i, i * FRAME_MILLIS, 0.01, RED, 1, 1, new byte[0]));
+        }
+
+        assertTrue(analyzer.track(new FrameSeries("video", frames)).isEmpty());
+    }
+
+    @Test
+    public void testFft()
+    {
+        double[] re = { 1, 2, 3, 4, 0, 0, 0, 0 };
+        double[] im = new double[re.length];
+
+        AVSyncAnalyzer.fft(re, im, false);
+        // The DC component is the sum.
+        assertEquals(re[0], 10, 1e-9);
+        assertEquals(im[0], 0, 1e-9);
+
+        AVSyncAnalyzer.fft(re, im, true);
+        double[] expected = { 1, 2, 3, 4, 0, 0, 0, 0 };
+        for (int i = 0; i < re.length; i++)
+        {
+            assertEquals(re[i], expected[i], 1e-9);
+            assertEquals(im[i], 0, 1e-9);
+        }
+    }
+}
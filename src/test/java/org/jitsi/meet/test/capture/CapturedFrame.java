@@ -0,0 +1,113 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.capture;
+
+/**
+ * A frame captured by PSNRVideoOperator.js with its metadata, as exported by
+ * {@link VideoOperator#exportFrames(String, boolean, java.util.function.Consumer)}.
+ */
+public class CapturedFrame
+{
+    private final int index;
+    private final long timestamp;
+    private final double audioLevel;
+    private final int centerRgba;
+    private final int width;
+    private final int height;
+    private final byte[] image;
+
+    CapturedFrame(
+        int index, long timestamp, double audioLevel, int centerRgba, int width, int height, byte[] image)
+    {
+        this.index = index;
+        this.timestamp = timestamp;
+        this.audioLevel = audioLevel;
+        this.centerRgba = centerRgba;
+        this.width = width;
+        this.height = height;
+        this.image = image;
+    }
+
+    /**
+     * @return the index of the frame among the frames captured from the video.
+     */
+    public int getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * @return the time the frame was captured, obtained with JavaScript
+     * Date.now().
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * @return the audio level recorded with the frame, from 0.0 to 1.0, or -1
+     * if not recorded.
+     */
+    public double getAudioLevel()
+    {
+        return audioLevel;
+    }
+
+    /**
+     * @return the RGBA value of the pixel at the center of the frame, packed
+     * as 0xRRGGBBAA.
+     */
+    public int getCenterRgba()
+    {
+        return centerRgba;
+    }
+
+    /**
+     * @param component 0 for red, 1 for green, 2 for blue, 3 for alpha.
+     * @return a component of the pixel at the center of the frame, from 0 to
+     * 255.
+     */
+    public int getCenterComponent(int component)
+    {
+        return (centerRgba >>> (24 - 8 * component)) & 0xff;
+    }
+
+    /**
+     * @return the width of the frame.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return the height of the frame.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * @return the encoded image (PNG by default), empty if the frames were
+     * exported without images.
+     */
+    public byte[] getImage()
+    {
+        return image;
+    }
+}
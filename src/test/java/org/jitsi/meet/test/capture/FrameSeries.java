@@ -0,0 +1,130 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.capture;
+
+import java.util.*;
+
+/**
+ * The timestamps, audio levels and center pixels of all frames captured for a
+ * video, in columns of primitives. The frames are exported without images with
+ * {@link VideoOperator#exportFrames(String, boolean, java.util.function.Consumer)}.
+ */
+public class FrameSeries
+{
+    private final String videoId;
+
+    private final long[] timestamps;
+
+    private final double[] audioLevels;
+
+    /**
+     * The RGBA values of the pixels at the center, packed as
+     * 0xRRGGBBAA.
+     */
+    private final int[] centerRgba;
+
+    /**
+     * Creates the series of frames.
+     *
+     * @param videoId the id of the video element.
+     * @param frames the frames in capture order.
+     */
+    public FrameSeries(String videoId, List<CapturedFrame> frames)
+    {
+        this.videoId = videoId;
+
+        int count = frames.size();
+        timestamps = new long[count];
+        audioLevels = new double[count];
+        centerRgba = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            CapturedFrame frame = frames.get(i);
+            timestamps[i] = frame.getTimestamp();
+            audioLevels[i] = frame.getAudioLevel();
+            centerRgba[i] = frame.getCenterRgba();
+        }
+    }
+
+    /**
+     * Fetches the frames captured for a video, without their images.
+     *
+     * @param operator the operator which captured the frames.
+     * @param videoId the id of the video element.
+     * @return the series.
+     */
+    public static FrameSeries fetch(VideoOperator operator, String videoId)
+    {
+        List<CapturedFrame> frames = new ArrayList<>();
+        operator.exportFrames(videoId, false, frames::add);
+
+        return new FrameSeries(videoId, frames);
+    }
+
+    /**
+     * @return the id of the video element.
+     */
+    public String getVideoId()
+    {
+        return videoId;
+    }
+
+    /**
+     * @return the number of frames.
+     */
+    public int getLength()
+    {
+        return timestamps.length;
+    }
+
+    /**
+     * @return the times the frames were captured, obtained with JavaScript
+     * Date.now(). The array is not copied.
+     */
+    public long[] getTimestamps()
+    {
+        return timestamps;
+    }
+
+    /**
+     * @return the audio levels recorded with the frames, from 0.0 to 1.0, or
+     * -1 if not recorded. The array is not copied.
+     */
+    public double[] getAudioLevels()
+    {
+        return audioLevels;
+    }
+
+    /**
+     * @return the RGBA values of the pixels at the center of the frames,
+     * packed as 0xRRGGBBAA. The array is not copied.
+     */
+    public int[] getCenterRgba()
+    {
+        return centerRgba;
+    }
+
+    /**
+     * @param idx the index of the frame.
+     * @param component 0 for red, 1 for green, 2 for blue, 3 for alpha.
+     * @return a component of the pixel at the center of a frame, from 0 to
+     * 255.
+     */
+    public int getCenterComponent(int idx, int component)
+    {
+        return (centerRgba[idx] >>> (24 - 8 * component)) & 0xff;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.capture;
+
+import org.jitsi.meet.test.util.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Periodically drains the frames captured in streaming mode by a
+ * {@link VideoOperator} (see
+ * {@link VideoOperator#streamAll(List, int, List, Map)}) and passes them to a
+ * listener, so that the ring buffers in the browser do not overflow.
+ *
+ * The drains run on their own thread while the test and its tasks keep using
+ * the participant. Every chunk of a drain is fetched with one driver command,
+ * which a {@link org.jitsi.meet.test.web.TabbedWebDriver} queues with the
+ * other commands of its browser and a remote driver executes in turn with the
+ * other commands of its session. Only the drains themselves are serialized,
+ * so that the final drain of {@link #close()} does not overlap a periodic one.
+ */
+public class FrameStream
+    implements Closeable
+{
+    /**
+     * Receives the drained frames.
+     */
+    public interface Listener
+    {
+        /**
+         * Called for every drained frame, in capture order per video, on the
+         * draining thread.
+         *
+         * @param videoId the id of the video element.
+         * @param frame the frame.
+         */
+        void onFrame(String videoId, StreamedFrame frame);
+    }
+
+    private final VideoOperator operator;
+
+    private final List<String> videoIds;
+
+    private final Listener listener;
+
+    private final ScheduledExecutorService timer;
+
+    /**
+     * The number of frames dropped by the browser, by video id.
+     */
+    private final Map<String, Integer> dropped = new ConcurrentHashMap<>();
+
+    private final AtomicLong drained = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Starts draining.
+     *
+     * @param operator the operator which is streaming.
+     * @param videoIds the ids of the video elements being streamed.
+     * @param periodMs the interval between drains, in milliseconds. It should
+     * be well below the ring size divided by the frame rate.
+     * @param listener receives the frames.
+     */
+    public FrameStream(VideoOperator operator, List<String> videoIds, long periodMs, Listener listener)
+    {
+        this.operator = Objects.requireNonNull(operator);
+        this.videoIds = new ArrayList<>(videoIds);
+        this.listener = Objects.requireNonNull(listener);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "frame-stream");
+            t.setDaemon(true);
+            return t;
+        });
+
+        timer.scheduleWithFixedDelay(this::drainQuietly, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void drainQuietly()
+    {
+        try
+        {
+            drain();
+        }
+        catch (Exception e)
+        {
+            failures.incrementAndGet();
+            TestUtils.print("Failed to drain the frame stream: " + e.getMessage());
+        }
+    }
+
+    private synchronized void drain()
+    {
+        for (String videoId : videoIds)
+        {
+            dropped.put(videoId, operator.drainStream(videoId, frame -> {
+                drained.incrementAndGet();
+                listener.onFrame(videoId, frame);
+            }));
+        }
+    }
+
+    /**
+     * @param videoId the id of the video element.
+     * @return the number of frames of a video dropped by the browser because
+     * they were not drained in time.
+     */
+    public int getDropped(String videoId)
+    {
+        return dropped.getOrDefault(videoId, 0);
+    }
+
+    /**
+     * @return the number of frames drained.
+     */
+    public long getDrained()
+    {
+        return drained.get();
+    }
+
+    /**
+     * Stops the periodic draining and drains the remaining frames. The
+     * recording should be stopped first.
+     */
+    @Override
+    public void close()
+    {
+        timer.shutdownNow();
+        try
+        {
+            timer.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        drain();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "FrameStream[drained=%d, dropped=%s, failures=%d]", drained.get(), dropped, failures.get());
+    }
+}
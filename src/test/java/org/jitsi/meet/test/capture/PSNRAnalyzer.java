@@ -0,0 +1,759 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.capture;
+
+import com.google.zxing.*;
+import com.google.zxing.common.*;
+import com.google.zxing.qrcode.*;
+
+import javax.imageio.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Computes the PSNR and SSIM of captured video frames against the stamped
+ * reference frames produced by <tt>scripts/psnr-build-resources.sh</tt>.
+ *
+ * Every reference frame carries its number as a QR code in its top left
+ * corner, the number of a captured frame is decoded from it and the frame is
+ * compared to the reference frame with that number (scaled to the size of the
+ * reference first, if needed). Frames are analyzed in memory on a
+ * {@link ForkJoinPool}: the frames of a stream are analyzed in parallel with
+ * each other, and the metrics of a frame are computed in parallel over bands
+ * of rows.
+ */
+public class PSNRAnalyzer
+    implements Closeable
+{
+    /**
+     * The PSNR reported for identical frames, which have no finite PSNR.
+     */
+    public static final double MAX_PSNR = 100;
+
+    /**
+     * The PSNR and SSIM reported for frames whose number can not be decoded.
+     */
+    public static final double UNKNOWN = -1;
+
+    /**
+     * The PSNR and SSIM reported for streamed frames whose full frame was not
+     * sampled, only their number is known.
+     */
+    public static final double NOT_MEASURED = Double.NaN;
+
+    /**
+     * The size of the windows over which the SSIM is computed, and the step
+     * between them.
+     */
+    private static final int SSIM_WINDOW = 8;
+    private static final int SSIM_STEP = 4;
+
+    /**
+     * The SSIM stabilization constants for 8 bit samples.
+     */
+    private static final double SSIM_C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double SSIM_C2 = (0.03 * 255) * (0.03 * 255);
+
+    /**
+     * The number of rows below which the metrics of a frame are not split
+     * further.
+     */
+    private static final int MIN_ROWS_PER_TASK = 64;
+
+    /**
+     * The number of decoded reference frames kept in memory.
+     */
+    private static final int REFERENCE_CACHE_SIZE = 32;
+
+    private final File referenceDir;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * The recently used reference frames by number, guarded by itself.
+     */
+    private final Map<String, Frame> references = new LinkedHashMap<String, Frame>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Frame> eldest)
+        {
+            return size() > REFERENCE_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Creates an analyzer which uses all available processors.
+     *
+     * @param referenceDir the directory with the stamped reference frames,
+     * named after their number (e.g. 001.png).
+     */
+    public PSNRAnalyzer(File referenceDir)
+    {
+        this(referenceDir, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an analyzer.
+     *
+     * @param referenceDir the directory with the stamped reference frames,
+     * named after their number (e.g. 001.png).
+     * @param parallelism the number of frames analyzed at the same time.
+     */
+    public PSNRAnalyzer(File referenceDir, int parallelism)
+    {
+        this.referenceDir = Objects.requireNonNull(referenceDir);
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Starts the analysis of a stream.
+     *
+     * @param id the id of the stream, only used in the results.
+     * @return the analysis to add the captured frames to.
+     */
+    public StreamAnalysis newStream(String id)
+    {
+        return new StreamAnalysis(id);
+    }
+
+    /**
+     * Analyzes one captured frame.
+     *
+     * @param encoded the frame, in any format supported by {@link ImageIO}.
+     * @return the result.
+     * @throws IOException if the frame or its reference can not be read.
+     */
+    public FrameResult analyzeFrame(byte[] encoded)
+        throws IOException
+    {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(encoded));
+        if (image == null)
+        {
+            throw new IOException("Unsupported image format");
+        }
+
+        Frame captured = new Frame(image);
+        String number = decodeFrameNumber(captured);
+        if (number == null)
+        {
+            return new FrameResult(-1, UNKNOWN, UNKNOWN);
+        }
+
+        int frameNumber;
+        try
+        {
+            frameNumber = Integer.parseInt(number.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return new FrameResult(-1, UNKNOWN, UNKNOWN);
+        }
+
+        Frame reference = getReference(number.trim());
+        if (reference == null)
+        {
+            return new FrameResult(frameNumber, UNKNOWN, UNKNOWN);
+        }
+
+        if (captured.width != reference.width || captured.height != reference.height)
+        {
+            captured = captured.scale(reference.width, reference.height);
+        }
+
+        Metrics metrics = new MetricsTask(captured, reference, 0, reference.height).invoke();
+
+        double mse = metrics.squaredError / (3d * reference.width * reference.height);
+        double psnr = mse == 0 ? MAX_PSNR : Math.min(MAX_PSNR, 10 * Math.log10(255 * 255 / mse));
+        double ssim = metrics.ssimWindows == 0 ? UNKNOWN : metrics.ssimSum / metrics.ssimWindows;
+
+        return new FrameResult(frameNumber, psnr, ssim);
+    }
+
+    /**
+     * Analyzes a frame captured in streaming mode. If its full frame was
+     * sampled it is analyzed like {@link #analyzeFrame(byte[])}, otherwise
+     * only its number is decoded from the stamp region.
+     *
+     * @param frame the streamed frame.
+     * @return the result.
+     * @throws IOException if the frame or its reference can not be read.
+     */
+    public FrameResult analyzeFrame(StreamedFrame frame)
+        throws IOException
+    {
+        if (frame.hasImage())
+        {
+            return analyzeFrame(frame.getImage());
+        }
+
+        int frameNumber = decodeFrameNumber(frame);
+        return frameNumber == -1
+            ? new FrameResult(-1, UNKNOWN, UNKNOWN)
+            : new FrameResult(frameNumber, NOT_MEASURED, NOT_MEASURED);
+    }
+
+    /**
+     * Decodes the number of a frame captured in streaming mode from its stamp
+     * region.
+     *
+     * @param frame the streamed frame.
+     * @return the frame number, or -1 if it could not be decoded.
+     */
+    public static int decodeFrameNumber(StreamedFrame frame)
+    {
+        if (frame.getStampWidth() == 0 || frame.getStampHeight() == 0)
+        {
+            return -1;
+        }
+
+        LuminanceSource source = new PlanarYUVLuminanceSource(
+            frame.getStamp(), frame.getStampWidth(), frame.getStampHeight(),
+            0, 0, frame.getStampWidth(), frame.getStampHeight(), false);
+        String number = decodeFrameNumber(source);
+        try
+        {
+            return number == null ? -1 : Integer.parseInt(number.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Decodes the QR code with the frame number, looking at the top left part
+     * of the frame first.
+     *
+     * @return the text of the QR code, or <tt>null</tt>.
+     */
+    private static String decodeFrameNumber(Frame frame)
+    {
+        LuminanceSource source = new RGBLuminanceSource(frame.width, frame.height, frame.rgb);
+        return decodeFrameNumber(
+            source.crop(0, 0, Math.max(1, frame.width / 2), Math.max(1, frame.height * 2 / 3)),
+            source);
+    }
+
+    /**
+     * Decodes the QR code with the frame number from the first of a number of
+     * sources which has one.
+     *
+     * @return the text of the QR code, or <tt>null</tt>.
+     */
+    private static String decodeFrameNumber(LuminanceSource... attempts)
+    {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+
+        for (LuminanceSource attempt : attempts)
+        {
+            try
+            {
+                return new QRCodeReader().decode(new BinaryBitmap(new HybridBinarizer(attempt)), hints).getText();
+            }
+            catch (ReaderException e)
+            {
+                // Try the next one.
+            }
+        }
+
+        return null;
+    }
+
+    private Frame getReference(String number)
+        throws IOException
+    {
+        synchronized (references)
+        {
+            Frame frame = references.get(number);
+            if (frame != null)
+            {
+                return frame;
+            }
+        }
+
+        File file = new File(referenceDir, number + ".png");
+        if (!file.exists())
+        {
+            return null;
+        }
+
+        BufferedImage image = ImageIO.read(file);
+        if (image == null)
+        {
+            throw new IOException("Unsupported image format: " + file);
+        }
+
+        Frame frame = new Frame(image);
+        synchronized (references)
+        {
+            references.put(number, frame);
+        }
+        return frame;
+    }
+
+    /**
+     * Stops the analysis threads.
+     */
+    @Override
+    public void close()
+    {
+        pool.shutdownNow();
+    }
+
+    /**
+     * The analysis of the frames of one stream. Frames are analyzed as soon as
+     * they are added.
+     */
+    public class StreamAnalysis
+    {
+        private final String id;
+
+        private final List<ForkJoinTask<FrameResult>> tasks = new ArrayList<>();
+
+        private StreamAnalysis(String id)
+        {
+            this.id = id;
+        }
+
+        /**
+         * Adds the next captured frame of the stream and starts analyzing it.
+         *
+         * @param encoded the frame, in any format supported by
+         * {@link ImageIO}.
+         */
+        public synchronized void add(byte[] encoded)
+        {
+            tasks.add(pool.submit(() -> analyzeFrame(encoded)));
+        }
+
+        /**
+         * Adds the next frame of the stream captured in streaming mode and
+         * starts analyzing it.
+         *
+         * @param frame the frame.
+         */
+        public synchronized void add(StreamedFrame frame)
+        {
+            tasks.add(pool.submit(() -> analyzeFrame(frame)));
+        }
+
+        /**
+         * Waits for the analysis of all frames added.
+         *
+         * @return the results.
+         * @throws IOException if a frame or its reference can not be read.
+         */
+        public synchronized StreamResult finish()
+            throws IOException
+        {
+            List<FrameResult> frames = new ArrayList<>(tasks.size());
+            for (ForkJoinTask<FrameResult> task : tasks)
+            {
+                try
+                {
+                    frames.add(task.get());
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while analyzing " + id);
+                }
+                catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof IOException)
+                    {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException("Failed to analyze a frame of " + id, e.getCause());
+                }
+            }
+
+            return new StreamResult(id, frames);
+        }
+    }
+
+    /**
+     * The result of the analysis of one frame.
+     */
+    public static class FrameResult
+    {
+        private final int frameNumber;
+        private final double psnr;
+        private final double ssim;
+
+        private FrameResult(int frameNumber, double psnr, double ssim)
+        {
+            this.frameNumber = frameNumber;
+            this.psnr = psnr;
+            this.ssim = ssim;
+        }
+
+        /**
+         * @return the number decoded from the frame, -1 if none.
+         */
+        public int getFrameNumber()
+        {
+            return frameNumber;
+        }
+
+        /**
+         * @return the PSNR in dB, {@link #UNKNOWN} if the reference frame is
+         * not known, {@link #NOT_MEASURED} if only the number of the frame was
+         * available.
+         */
+        public double getPsnr()
+        {
+            return psnr;
+        }
+
+        /**
+         * @return the mean SSIM of the luma, {@link #UNKNOWN} if the
+         * reference frame is not known, {@link #NOT_MEASURED} if only the
+         * number of the frame was available.
+         */
+        public double getSsim()
+        {
+            return ssim;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("frame number %d had psnr %.4f ssim %.4f", frameNumber, psnr, ssim);
+        }
+    }
+
+    /**
+     * The results of the analysis of a stream.
+     */
+    public static class StreamResult
+    {
+        private final String id;
+        private final List<FrameResult> frames;
+        private final double averagePsnr;
+        private final double minPsnr;
+        private final double averageSsim;
+        private final int frozenFrames;
+        private final int skippedFrames;
+        private final int unknownFrames;
+
+        private StreamResult(String id, List<FrameResult> frames)
+        {
+            this.id = id;
+            this.frames = Collections.unmodifiableList(frames);
+
+            double totalPsnr = 0;
+            double totalSsim = 0;
+            double min = Double.MAX_VALUE;
+            int known = 0;
+            int unknown = 0;
+            int frozen = 0;
+            int skipped = 0;
+            int prevFrameNumber = -1;
+
+            for (FrameResult frame : frames)
+            {
+                int frameNum = frame.frameNumber;
+                if (frameNum == -1 || frame.psnr == UNKNOWN)
+                {
+                    unknown++;
+                    continue;
+                }
+
+                if (prevFrameNumber != -1 && frameNum == prevFrameNumber)
+                {
+                    frozen++;
+                }
+                else if (prevFrameNumber != -1 && frameNum != prevFrameNumber + 1)
+                {
+                    // On roll-over the frame number starts again from 1,
+                    // everything after it was skipped.
+                    skipped += frameNum < prevFrameNumber ? frameNum - 1 : frameNum - (prevFrameNumber + 1);
+                }
+                prevFrameNumber = frameNum;
+
+                if (Double.isNaN(frame.psnr))
+                {
+                    continue;
+                }
+
+                totalPsnr += frame.psnr;
+                totalSsim += frame.ssim;
+                min = Math.min(min, frame.psnr);
+                known++;
+            }
+
+            this.averagePsnr = known == 0 ? UNKNOWN : totalPsnr / known;
+            this.averageSsim = known == 0 ? UNKNOWN : totalSsim / known;
+            this.minPsnr = known == 0 ? UNKNOWN : min;
+            this.frozenFrames = frozen;
+            this.skippedFrames = skipped;
+            this.unknownFrames = unknown;
+        }
+
+        /**
+         * @return the id of the stream.
+         */
+        public String getId()
+        {
+            return id;
+        }
+
+        /**
+         * @return the results of every frame, in capture order.
+         */
+        public List<FrameResult> getFrames()
+        {
+            return frames;
+        }
+
+        /**
+         * @return the number of frames analyzed.
+         */
+        public int getFramesCount()
+        {
+            return frames.size();
+        }
+
+        /**
+         * @return the average PSNR of the frames with a known reference and a
+         * measured PSNR.
+         */
+        public double getAveragePsnr()
+        {
+            return averagePsnr;
+        }
+
+        /**
+         * @return the lowest PSNR of the frames with a known reference.
+         */
+        public double getMinPsnr()
+        {
+            return minPsnr;
+        }
+
+        /**
+         * @return the average SSIM of the frames with a known reference.
+         */
+        public double getAverageSsim()
+        {
+            return averageSsim;
+        }
+
+        /**
+         * @return the number of frames with the same number as the previous
+         * one.
+         */
+        public int getFrozenFrames()
+        {
+            return frozenFrames;
+        }
+
+        /**
+         * @return the number of frame numbers missing between consecutive
+         * frames.
+         */
+        public int getSkippedFrames()
+        {
+            return skippedFrames;
+        }
+
+        /**
+         * @return the number of frames whose number could not be decoded or
+         * whose reference frame does not exist.
+         */
+        public int getUnknownFrames()
+        {
+            return unknownFrames;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(
+                "%s: frames=%d psnr avg=%.4f min=%.4f ssim avg=%.4f frozen=%d skipped=%d unknown=%d",
+                id, frames.size(), averagePsnr, minPsnr, averageSsim, frozenFrames, skippedFrames,
+                unknownFrames);
+        }
+    }
+
+    /**
+     * A decoded frame.
+     */
+    private static class Frame
+    {
+        private final int width;
+        private final int height;
+
+        /**
+         * The pixels, as packed RGB, row by row.
+         */
+        private final int[] rgb;
+
+        private Frame(BufferedImage image)
+        {
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+            this.rgb = image.getRGB(0, 0, width, height, null, 0, width);
+        }
+
+        private Frame scale(int width, int height)
+        {
+            BufferedImage source = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
+            source.setRGB(0, 0, this.width, this.height, rgb, 0, this.width);
+
+            BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = scaled.createGraphics();
+            try
+            {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(source, 0, 0, width, height, null);
+            }
+            finally
+            {
+                g.dispose();
+            }
+
+            return new Frame(scaled);
+        }
+
+        private double luma(int x, int y)
+        {
+            int p = rgb[y * width + x];
+            return 0.299 * ((p >> 16) & 0xff) + 0.587 * ((p >> 8) & 0xff) + 0.114 * (p & 0xff);
+        }
+    }
+
+    /**
+     * The sums from which the metrics of a frame are computed.
+     */
+    private static class Metrics
+    {
+        private long squaredError;
+        private double ssimSum;
+        private long ssimWindows;
+
+        private Metrics add(Metrics other)
+        {
+            squaredError += other.squaredError;
+            ssimSum += other.ssimSum;
+            ssimWindows += other.ssimWindows;
+            return this;
+        }
+    }
+
+    /**
+     * Computes the sums of a band of rows of two frames of the same size,
+     * splitting it in halves while it is large enough. A band owns the SSIM
+     * windows which start in it.
+     */
+    private static class MetricsTask
+        extends RecursiveTask<Metrics>
+    {
+        private static final long serialVersionUID = 5023868102395374619L;
+
+        private final Frame a;
+        private final Frame b;
+        private final int fromRow;
+        private final int toRow;
+
+        private MetricsTask(Frame a, Frame b, int fromRow, int toRow)
+        {
+            this.a = a;
+            this.b = b;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected Metrics compute()
+        {
+            if (toRow - fromRow > MIN_ROWS_PER_TASK)
+            {
+                int middle = (fromRow + toRow) >>> 1;
+                MetricsTask top = new MetricsTask(a, b, fromRow, middle);
+                MetricsTask bottom = new MetricsTask(a, b, middle, toRow);
+                top.fork();
+                return bottom.compute().add(top.join());
+            }
+
+            Metrics metrics = new Metrics();
+            int width = a.width;
+
+            for (int y = fromRow; y < toRow; y++)
+            {
+                int offset = y * width;
+                for (int x = 0; x < width; x++)
+                {
+                    int pa = a.rgb[offset + x];
+                    int pb = b.rgb[offset + x];
+                    int dr = ((pa >> 16) & 0xff) - ((pb >> 16) & 0xff);
+                    int dg = ((pa >> 8) & 0xff) - ((pb >> 8) & 0xff);
+                    int db = (pa & 0xff) - (pb & 0xff);
+                    metrics.squaredError += dr * dr + dg * dg + db * db;
+                }
+            }
+
+            int firstWindowRow = (fromRow + SSIM_STEP - 1) / SSIM_STEP * SSIM_STEP;
+            for (int y = firstWindowRow; y < toRow && y + SSIM_WINDOW <= a.height; y += SSIM_STEP)
+            {
+                for (int x = 0; x + SSIM_WINDOW <= width; x += SSIM_STEP)
+                {
+                    metrics.ssimSum += ssim(x, y);
+                    metrics.ssimWindows++;
+                }
+            }
+
+            return metrics;
+        }
+
+        /**
+         * Computes the SSIM of the luma of a window.
+         */
+        private double ssim(int x0, int y0)
+        {
+            double sumA = 0, sumB = 0, sumAA = 0, sumBB = 0, sumAB = 0;
+            for (int y = y0; y < y0 + SSIM_WINDOW; y++)
+            {
+                for (int x = x0; x < x0 + SSIM_WINDOW; x++)
+                {
+                    double la = a.luma(x, y);
+                    double lb = b.luma(x, y);
+                    sumA += la;
+                    sumB += lb;
+                    sumAA += la * la;
+                    sumBB += lb * lb;
+                    sumAB += la * lb;
+                }
+            }
+
+            double n = SSIM_WINDOW * SSIM_WINDOW;
+            double meanA = sumA / n;
+            double meanB = sumB / n;
+            double varA = sumAA / n - meanA * meanA;
+            double varB = sumBB / n - meanB * meanB;
+            double cov = sumAB / n - meanA * meanB;
+
+            return ((2 * meanA * meanB + SSIM_C1) * (2 * cov + SSIM_C2))
+                / ((meanA * meanA + meanB * meanB + SSIM_C1) * (varA + varB + SSIM_C2));
+        }
+    }
+}
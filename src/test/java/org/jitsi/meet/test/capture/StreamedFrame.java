@@ -0,0 +1,191 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.capture;
+
+/**
+ * A frame captured by PSNRVideoOperator.js in streaming mode, reduced to what
+ * the analyzers need, as drained by
+ * {@link VideoOperator#drainStream(String, java.util.function.Consumer)}.
+ */
+public class StreamedFrame
+{
+    private final int sequence;
+    private final long timestamp;
+    private final double audioLevel;
+    private final int centerRgba;
+    private final int hash;
+    private final int width;
+    private final int height;
+    private final int lumaWidth;
+    private final int lumaHeight;
+    private final byte[] luma;
+    private final int stampWidth;
+    private final int stampHeight;
+    private final byte[] stamp;
+    private final byte[] image;
+
+    StreamedFrame(
+        int sequence, long timestamp, double audioLevel, int centerRgba, int hash,
+        int width, int height,
+        int lumaWidth, int lumaHeight, byte[] luma,
+        int stampWidth, int stampHeight, byte[] stamp,
+        byte[] image)
+    {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.audioLevel = audioLevel;
+        this.centerRgba = centerRgba;
+        this.hash = hash;
+        this.width = width;
+        this.height = height;
+        this.lumaWidth = lumaWidth;
+        this.lumaHeight = lumaHeight;
+        this.luma = luma;
+        this.stampWidth = stampWidth;
+        this.stampHeight = stampHeight;
+        this.stamp = stamp;
+        this.image = image;
+    }
+
+    /**
+     * @return the sequence number of the frame among the frames captured from
+     * the video. Gaps are frames dropped because the ring buffer was not
+     * drained in time.
+     */
+    public int getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * @return the time the frame was captured, obtained with JavaScript
+     * Date.now().
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * @return the audio level recorded with the frame, from 0.0 to 1.0, or -1
+     * if not recorded.
+     */
+    public double getAudioLevel()
+    {
+        return audioLevel;
+    }
+
+    /**
+     * @param component 0 for red, 1 for green, 2 for blue, 3 for alpha.
+     * @return a component of the pixel at the center of the frame, from 0 to
+     * 255.
+     */
+    public int getCenterComponent(int component)
+    {
+        return (centerRgba >>> (24 - 8 * component)) & 0xff;
+    }
+
+    /**
+     * @return the FNV-1a hash of the downscaled luma plane. Consecutive frames
+     * with the same hash are most likely frozen.
+     */
+    public int getHash()
+    {
+        return hash;
+    }
+
+    /**
+     * @return the width of the frame.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return the height of the frame.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * @return the width of the downscaled luma plane.
+     */
+    public int getLumaWidth()
+    {
+        return lumaWidth;
+    }
+
+    /**
+     * @return the height of the downscaled luma plane.
+     */
+    public int getLumaHeight()
+    {
+        return lumaHeight;
+    }
+
+    /**
+     * @return the downscaled luma plane, row by row.
+     */
+    public byte[] getLuma()
+    {
+        return luma;
+    }
+
+    /**
+     * @return the width of the stamp region.
+     */
+    public int getStampWidth()
+    {
+        return stampWidth;
+    }
+
+    /**
+     * @return the height of the stamp region.
+     */
+    public int getStampHeight()
+    {
+        return stampHeight;
+    }
+
+    /**
+     * @return the luma of the stamp region (the top left part of the frame at
+     * full resolution), row by row.
+     */
+    public byte[] getStamp()
+    {
+        return stamp;
+    }
+
+    /**
+     * @return the encoded full frame (PNG by default), empty if the full frame
+     * was not sampled.
+     */
+    public byte[] getImage()
+    {
+        return image;
+    }
+
+    /**
+     * @return whether the full frame was sampled.
+     */
+    public boolean hasImage()
+    {
+        return image.length > 0;
+    }
+}
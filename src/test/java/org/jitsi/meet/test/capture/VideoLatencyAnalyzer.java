@@ -0,0 +1,301 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.capture;
+
+import org.jitsi.meet.test.util.*;
+
+import java.util.*;
+
+/**
+ * Measures the glass-to-glass latency of the video stamped with frame numbers
+ * (see PSNRTest) by matching the time a frame number first appears in the
+ * local video of the sender to the time it first appears in the remote video
+ * of every receiver.
+ *
+ * The frames of both sides are captured in streaming mode and their times are
+ * translated to the clock of the JVM with the clock offset of every browser
+ * (see {@link VideoOperator#getClockOffset(int)}), so the browsers may run on
+ * different machines. The precision is bounded by the capture interval, which
+ * should be shorter than the interval between the frames of the video.
+ *
+ * As the fake video loops, a frame number appears on the sender every loop.
+ * A received frame is matched to the latest appearance on the sender before
+ * it was received, so latencies longer than the duration of the video can not
+ * be measured.
+ */
+public class VideoLatencyAnalyzer
+{
+    /**
+     * The default maximum latency, received frames which can only be matched
+     * to older sent frames are counted as unmatched.
+     */
+    public static final long DEFAULT_MAX_LATENCY_MILLIS = 5000;
+
+    private final long maxLatencyMillis;
+
+    /**
+     * The JVM times at which frame numbers appeared on the sender, by frame
+     * number, in ascending order.
+     */
+    private final Map<Integer, List<Double>> sent = new HashMap<>();
+
+    private final Map<String, Receiver> receivers = new LinkedHashMap<>();
+
+    private double senderClockOffset;
+
+    private int lastSentNumber = -1;
+
+    /**
+     * Creates an analyzer with the default maximum latency.
+     */
+    public VideoLatencyAnalyzer()
+    {
+        this(DEFAULT_MAX_LATENCY_MILLIS);
+    }
+
+    /**
+     * @param maxLatencyMillis the maximum latency.
+     */
+    public VideoLatencyAnalyzer(long maxLatencyMillis)
+    {
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    /**
+     * Sets the clock offset of the browser of the sender.
+     *
+     * @param clockOffset the offset, see
+     * {@link VideoOperator#getClockOffset(int)}.
+     */
+    public synchronized void setSenderClockOffset(double clockOffset)
+    {
+        this.senderClockOffset = clockOffset;
+    }
+
+    /**
+     * Adds a receiver.
+     *
+     * @param id the id of the receiver, only used in the results.
+     * @param clockOffset the clock offset of its browser, see
+     * {@link VideoOperator#getClockOffset(int)}.
+     */
+    public synchronized void addReceiver(String id, double clockOffset)
+    {
+        receivers.put(id, new Receiver(id, clockOffset));
+    }
+
+    /**
+     * Adds a frame captured from the local video of the sender. The frames
+     * have to be added in capture order.
+     *
+     * @param frame the frame.
+     */
+    public void addSent(StreamedFrame frame)
+    {
+        int number = PSNRAnalyzer.decodeFrameNumber(frame);
+
+        synchronized (this)
+        {
+            if (number == -1 || number == lastSentNumber)
+            {
+                return;
+            }
+            lastSentNumber = number;
+            sent.computeIfAbsent(number, n -> new ArrayList<>())
+                .add(frame.getTimestamp() - senderClockOffset);
+        }
+    }
+
+    /**
+     * Adds a frame captured from the remote video of a receiver. The frames of
+     * a receiver have to be added in capture order.
+     *
+     * @param receiverId the id of the receiver.
+     * @param frame the frame.
+     */
+    public void addReceived(String receiverId, StreamedFrame frame)
+    {
+        int number = PSNRAnalyzer.decodeFrameNumber(frame);
+
+        synchronized (this)
+        {
+            Receiver receiver = receivers.get(receiverId);
+            if (receiver == null)
+            {
+                throw new IllegalArgumentException("Unknown receiver: " + receiverId);
+            }
+
+            receiver.frames++;
+            if (number == -1)
+            {
+                receiver.unknown++;
+            }
+            else if (number != receiver.lastNumber)
+            {
+                receiver.lastNumber = number;
+                receiver.numbers.add(number);
+                receiver.times.add(frame.getTimestamp() - receiver.clockOffset);
+            }
+        }
+    }
+
+    /**
+     * Matches the frames of every receiver to the frames of the sender. All
+     * frames have to be added before, as the sender and the receivers may be
+     * drained at different times.
+     *
+     * @return the results by receiver id.
+     */
+    public synchronized Map<String, Result> finish()
+    {
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (Receiver receiver : receivers.values())
+        {
+            LatencyHistogram histogram = new LatencyHistogram();
+            int unmatched = 0;
+            for (int i = 0; i < receiver.numbers.size(); i++)
+            {
+                double received = receiver.times.get(i);
+                double sentTime = findSent(receiver.numbers.get(i), received);
+                if (Double.isNaN(sentTime))
+                {
+                    unmatched++;
+                }
+                else
+                {
+                    histogram.record(Math.round(received - sentTime));
+                }
+            }
+
+            results.put(
+                receiver.id,
+                new Result(receiver.id, histogram, receiver.frames, receiver.unknown, unmatched));
+        }
+        return results;
+    }
+
+    /**
+     * @return the JVM time of the latest appearance of a frame number on the
+     * sender before a time, or NaN if there is none within the maximum
+     * latency.
+     */
+    private double findSent(int number, double before)
+    {
+        List<Double> times = sent.get(number);
+        if (times == null)
+        {
+            return Double.NaN;
+        }
+
+        for (int i = times.size() - 1; i >= 0; i--)
+        {
+            double time = times.get(i);
+            if (time <= before)
+            {
+                return before - time <= maxLatencyMillis ? time : Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static class Receiver
+    {
+        private final String id;
+        private final double clockOffset;
+        private final List<Integer> numbers = new ArrayList<>();
+        private final List<Double> times = new ArrayList<>();
+        private int lastNumber = -1;
+        private int frames;
+        private int unknown;
+
+        private Receiver(String id, double clockOffset)
+        {
+            this.id = id;
+            this.clockOffset = clockOffset;
+        }
+    }
+
+    /**
+     * The latency distribution of a receiver.
+     */
+    public static class Result
+    {
+        private final String id;
+        private final LatencyHistogram latencies;
+        private final int frames;
+        private final int unknownFrames;
+        private final int unmatchedFrames;
+
+        private Result(String id, LatencyHistogram latencies, int frames, int unknownFrames, int unmatchedFrames)
+        {
+            this.id = id;
+            this.latencies = latencies;
+            this.frames = frames;
+            this.unknownFrames = unknownFrames;
+            this.unmatchedFrames = unmatchedFrames;
+        }
+
+        /**
+         * @return the id of the receiver.
+         */
+        public String getId()
+        {
+            return id;
+        }
+
+        /**
+         * @return the latencies of the matched frames, in milliseconds.
+         */
+        public LatencyHistogram getLatencies()
+        {
+            return latencies;
+        }
+
+        /**
+         * @return the number of frames captured on the receiver.
+         */
+        public int getFrames()
+        {
+            return frames;
+        }
+
+        /**
+         * @return the number of captured frames whose number could not be
+         * decoded.
+         */
+        public int getUnknownFrames()
+        {
+            return unknownFrames;
+        }
+
+        /**
+         * @return the number of received frame numbers which could not be
+         * matched to a sent frame.
+         */
+        public int getUnmatchedFrames()
+        {
+            return unmatchedFrames;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(
+                "%s: latency %s, frames=%d, unknown=%d, unmatched=%d",
+                id, latencies, frames, unknownFrames, unmatchedFrames);
+        }
+    }
+}
@@ -19,7 +19,9 @@ import org.jitsi.meet.test.util.*;
 
 import org.jitsi.meet.test.web.*;
 
+import java.nio.*;
 import java.util.*;
+import java.util.function.*;
 
 /**
  * Java wrapper for PSNRVideoOperator.js script used to capture video frames.
@@ -34,6 +36,60 @@ public class VideoOperator
     private static final String PSNR_JS_SCRIPT
         = "resources/PSNRVideoOperator.js";
 
+    /**
+     * The magic number at the start of a chunk exported by
+     * PSNRVideoOperator.js.
+     */
+    private static final int EXPORT_MAGIC = 0x564F4631;
+
+    /**
+     * The maximum number of frames exported in one chunk.
+     */
+    private static final int EXPORT_MAX_FRAMES = 10000;
+
+    /**
+     * The size of the images after which no more frames are added to an
+     * exported chunk. The chunk is transferred as a base64 string, so this
+     * keeps the strings in the browser and the driver reasonably small.
+     */
+    private static final int EXPORT_MAX_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * The prefix of the string returned by the export script on failure. It
+     * is not a valid base64 string.
+     */
+    private static final String EXPORT_ERROR_PREFIX = "ERROR:";
+
+    /**
+     * Exports a chunk of frames, see PSNRVideoOperator.js.
+     */
+    private static final String EXPORT_SCRIPT =
+        "var cb = arguments[arguments.length - 1];"
+        + "try {"
+        + " window._operator.exportFrames("
+        + "  arguments[0], arguments[1], arguments[2], arguments[3], arguments[4], null, cb);"
+        + "} catch (e) { cb('" + EXPORT_ERROR_PREFIX + "' + e.message); }";
+
+    /**
+     * The magic number at the start of a chunk drained from a stream by
+     * PSNRVideoOperator.js.
+     */
+    private static final int STREAM_MAGIC = 0x564F5331;
+
+    /**
+     * The maximum number of frames drained from a stream in one chunk.
+     */
+    private static final int STREAM_MAX_FRAMES = 512;
+
+    /**
+     * Drains a chunk of streamed frames, see PSNRVideoOperator.js.
+     */
+    private static final String DRAIN_SCRIPT =
+        "var cb = arguments[arguments.length - 1];"
+        + "try {"
+        + " window._operator.drainStream(arguments[0], arguments[1], null, cb);"
+        + "} catch (e) { cb('" + EXPORT_ERROR_PREFIX + "' + e.message); }";
+
     /**
      * <tt>WebDriver</tt> used by this instance.
      */
@@ -97,6 +153,158 @@ public class VideoOperator
         return org.apache.commons.codec.binary.Base64.decodeBase64(frameBase64);
     }
 
+    /**
+     * Fetches all frames captured for a video with their metadata, in chunks
+     * of many frames, and passes them to a consumer in capture order. This
+     * takes a fraction of the round trips of {@link #getFrame(String, int)},
+     * {@link #getTimestamp(String, int)}, {@link #getAudioLevel(String, int)}
+     * and {@link #getRGBAatTheCenter(String, int)} per frame.
+     *
+     * @param videoId the id of the video element.
+     * @param includeImages whether to fetch the images or just the metadata.
+     * @param consumer receives the frames.
+     */
+    public void exportFrames(
+        String videoId, boolean includeImages, Consumer<CapturedFrame> consumer)
+    {
+        long count = getFramesCount(videoId);
+        int from = 0;
+        while (from < count)
+        {
+            String chunk = (String) participant.executeAsyncScript(
+                EXPORT_SCRIPT,
+                videoId, from, EXPORT_MAX_FRAMES, EXPORT_MAX_BYTES, includeImages);
+
+            if (chunk == null || chunk.startsWith(EXPORT_ERROR_PREFIX))
+            {
+                throw new IllegalStateException(
+                    "Failed to export frames of " + videoId + ": " + chunk);
+            }
+
+            int exported = parseChunk(
+                Base64.getDecoder().decode(chunk), consumer);
+            if (exported == 0)
+            {
+                break;
+            }
+            from += exported;
+        }
+    }
+
+    /**
+     * Parses a chunk exported by PSNRVideoOperator.js.
+     *
+     * @return the number of frames in the chunk.
+     */
+    private static int parseChunk(byte[] chunk, Consumer<CapturedFrame> consumer)
+    {
+        ByteBuffer buf = ByteBuffer.wrap(chunk);
+        if (buf.getInt() != EXPORT_MAGIC)
+        {
+            throw new IllegalStateException("Unexpected export format");
+        }
+
+        int count = buf.getInt();
+        for (int i = 0; i < count; i++)
+        {
+            int index = buf.getInt();
+            long timestamp = (long) buf.getDouble();
+            double audioLevel = buf.getDouble();
+            int rgba = buf.getInt();
+            int width = buf.getInt();
+            int height = buf.getInt();
+            byte[] image = new byte[buf.getInt()];
+            buf.get(image);
+
+            consumer.accept(new CapturedFrame(
+                index, timestamp, audioLevel, rgba, width, height, image));
+        }
+
+        return count;
+    }
+
+    /**
+     * Drains the frames captured in streaming mode (see
+     * {@link #streamAll(List, int, List, Map)}) since the previous call and
+     * passes them to a consumer in capture order.
+     *
+     * @param videoId the id of the video element.
+     * @param consumer receives the frames.
+     * @return the number of frames dropped by the browser since the start of
+     * the capture, because they were not drained in time.
+     */
+    public int drainStream(String videoId, Consumer<StreamedFrame> consumer)
+    {
+        while (true)
+        {
+            String chunk = (String) participant.executeAsyncScript(
+                DRAIN_SCRIPT, videoId, STREAM_MAX_FRAMES);
+
+            if (chunk == null || chunk.startsWith(EXPORT_ERROR_PREFIX))
+            {
+                throw new IllegalStateException(
+                    "Failed to drain frames of " + videoId + ": " + chunk);
+            }
+
+            ByteBuffer buf = ByteBuffer.wrap(Base64.getDecoder().decode(chunk));
+            if (buf.getInt() != STREAM_MAGIC)
+            {
+                throw new IllegalStateException("Unexpected stream format");
+            }
+
+            int count = buf.getInt();
+            int dropped = buf.getInt();
+            for (int i = 0; i < count; i++)
+            {
+                int sequence = buf.getInt();
+                long timestamp = (long) buf.getDouble();
+                double audioLevel = buf.getDouble();
+                int rgba = buf.getInt();
+                int hash = buf.getInt();
+                int width = buf.getInt();
+                int height = buf.getInt();
+                int lumaWidth = buf.getInt();
+                int lumaHeight = buf.getInt();
+                int stampWidth = buf.getInt();
+                int stampHeight = buf.getInt();
+                int imageLength = buf.getInt();
+
+                byte[] luma = new byte[lumaWidth * lumaHeight];
+                buf.get(luma);
+                byte[] stamp = new byte[stampWidth * stampHeight];
+                buf.get(stamp);
+                byte[] image = new byte[imageLength];
+                buf.get(image);
+
+                consumer.accept(new StreamedFrame(
+                    sequence, timestamp, audioLevel, rgba, hash,
+                    width, height,
+                    lumaWidth, lumaHeight, luma,
+                    stampWidth, stampHeight, stamp,
+                    image));
+            }
+
+            if (count < STREAM_MAX_FRAMES)
+            {
+                return dropped;
+            }
+        }
+    }
+
+    /**
+     * Estimates the offset of the clock of the browser, which provides the
+     * timestamps of the captured frames, from the clock of the JVM, see
+     * {@link MeetUtils#getClockOffset(org.openqa.selenium.WebDriver, int)}.
+     *
+     * @param samples the number of round trips.
+     * @return the time of the browser (JavaScript Date.now()) minus the time of
+     * the JVM ({@link System#currentTimeMillis()}), in milliseconds.
+     */
+    public double getClockOffset(int samples)
+    {
+        return MeetUtils.getClockOffset(participant.getDriver(), samples);
+    }
+
     /**
      * Tells how many frames have been captured for the video.
      * @param videoId the id of the video element.
@@ -208,6 +416,34 @@ public class VideoOperator
                 videoIDs, fps, aLvlResources);
     }
 
+    /**
+     * Starts the recording in streaming mode for videos which ids are on the
+     * <tt>videoIDs</tt> list. Every frame is reduced in the browser to its
+     * stamp region, a downscaled luma plane, the center pixel and a hash, and
+     * kept in a ring buffer until drained with
+     * {@link #drainStream(String, Consumer)} (see {@link FrameStream}), so the
+     * memory used by the browser does not grow with the duration.
+     *
+     * @param videoIDs the list of video elements IDs which will be recorded.
+     * @param fps recording frame rate, 0 for the default.
+     * @param aLvlResources the list with MUC resource JIDs for which audio
+     * levels will be recorded, or <tt>null</tt>.
+     * @param options overrides the streaming options of PSNRVideoOperator.js
+     * (ringSize, lumaWidth, lumaHeight, stampWidthRatio, stampHeightRatio,
+     * fullFrameInterval), or <tt>null</tt>.
+     */
+    public void streamAll(List<String>        videoIDs,
+                          int                 fps,
+                          List<String>        aLvlResources,
+                          Map<String, Object> options)
+    {
+        participant.executeScript(
+                "window._operator = new window.VideoOperator();" +
+                    "window._operator.streamAll(" +
+                    "arguments[0], arguments[1], arguments[2], arguments[3]);",
+                videoIDs, fps, aLvlResources, options);
+    }
+
     /**
      * Stops the recording.
      */
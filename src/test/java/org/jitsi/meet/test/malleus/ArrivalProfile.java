@@ -0,0 +1,313 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.malleus;
+
+import java.util.*;
+
+/**
+ * Describes the rate at which participants arrive (join), as a function of the
+ * time elapsed since the start of the test. Profiles are created from a
+ * specification string of the form {@code name:key=value,key=value}, e.g.:
+ * <ul>
+ *     <li>{@code constant:rate=5} - 5 joins per second, evenly spaced.</li>
+ *     <li>{@code poisson:rate=5} - on average 5 joins per second, with
+ *     exponentially distributed gaps.</li>
+ *     <li>{@code ramp:from=1,to=20,duration=120} - the rate grows linearly
+ *     from 1 to 20 joins per second over 120 seconds, then stays at 20.</li>
+ *     <li>{@code step:rates=1/5/10,step=30} - the rate is 1, 5 and then 10
+ *     joins per second, changing every 30 seconds.</li>
+ *     <li>{@code spike:base=2,peak=50,at=60,duration=5} - 2 joins per second,
+ *     except for 5 seconds starting at second 60 where the rate is 50.</li>
+ * </ul>
+ * Every profile also accepts {@code poisson=true}, which randomizes the
+ * arrivals around the profile's rate.
+ */
+public interface ArrivalProfile
+{
+    /**
+     * Returns the arrival rate at a given time.
+     *
+     * @param t the time in seconds since the start.
+     * @return the rate in arrivals per second, never negative.
+     */
+    double rate(double t);
+
+    /**
+     * @return {@code true} if arrivals form a Poisson process with the
+     * profile's rate, {@code false} if they are evenly spaced.
+     */
+    boolean isPoisson();
+
+    /**
+     * Parses a profile specification.
+     *
+     * @param spec the specification, see the class description.
+     * @return the profile.
+     * @throws IllegalArgumentException if the specification is invalid.
+     */
+    static ArrivalProfile parse(String spec)
+    {
+        String trimmed = Objects.requireNonNull(spec, "spec").trim();
+        int colon = trimmed.indexOf(':');
+        String name = (colon < 0 ? trimmed : trimmed.substring(0, colon)).toLowerCase();
+
+        Map<String, String> params = new HashMap<>();
+        if (colon >= 0)
+        {
+            for (String param : trimmed.substring(colon + 1).split(","))
+            {
+                if (param.trim().isEmpty())
+                {
+                    continue;
+                }
+
+                String[] kv = param.split("=", 2);
+                if (kv.length != 2)
+                {
+                    throw new IllegalArgumentException("Invalid arrival profile parameter: " + param);
+                }
+                params.put(kv[0].trim().toLowerCase(), kv[1].trim());
+            }
+        }
+
+        boolean poisson = Boolean.parseBoolean(params.getOrDefault("poisson", "false"));
+
+        ArrivalProfile profile;
+        switch (name)
+        {
+        case "constant":
+            profile = new Constant(positive(params, "rate"), poisson);
+            break;
+        case "poisson":
+            profile = new Constant(positive(params, "rate"), true);
+            break;
+        case "ramp":
+            profile = new Ramp(
+                nonNegative(params, "from"), positive(params, "to"), positive(params, "duration"), poisson);
+            break;
+        case "step":
+        {
+            String ratesStr = params.get("rates");
+            if (ratesStr == null)
+            {
+                throw new IllegalArgumentException("Missing 'rates' for step arrival profile");
+            }
+
+            double[] rates = Arrays.stream(ratesStr.split("/")).mapToDouble(Double::parseDouble).toArray();
+            if (rates.length == 0 || rates[rates.length - 1] <= 0 || Arrays.stream(rates).anyMatch(r -> r < 0))
+            {
+                throw new IllegalArgumentException("Invalid 'rates' for step arrival profile: " + ratesStr);
+            }
+            profile = new Step(rates, positive(params, "step"), poisson);
+            break;
+        }
+        case "spike":
+            profile = new Spike(
+                positive(params, "base"),
+                positive(params, "peak"),
+                nonNegative(params, "at"),
+                positive(params, "duration"),
+                poisson);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown arrival profile: " + name);
+        }
+
+        return profile;
+    }
+
+    /**
+     * Reads a parameter which must be a positive number.
+     */
+    static double positive(Map<String, String> params, String key)
+    {
+        double value = nonNegative(params, key);
+        if (value <= 0)
+        {
+            throw new IllegalArgumentException("Arrival profile parameter '" + key + "' must be positive");
+        }
+        return value;
+    }
+
+    /**
+     * Reads a parameter which must be a non-negative number.
+     */
+    static double nonNegative(Map<String, String> params, String key)
+    {
+        String value = params.get(key);
+        if (value == null)
+        {
+            throw new IllegalArgumentException("Missing arrival profile parameter '" + key + "'");
+        }
+
+        double d = Double.parseDouble(value);
+        if (d < 0)
+        {
+            throw new IllegalArgumentException("Arrival profile parameter '" + key + "' must not be negative");
+        }
+        return d;
+    }
+
+    /**
+     * A constant rate.
+     */
+    class Constant
+        implements ArrivalProfile
+    {
+        private final double rate;
+        private final boolean poisson;
+
+        Constant(double rate, boolean poisson)
+        {
+            this.rate = rate;
+            this.poisson = poisson;
+        }
+
+        @Override
+        public double rate(double t)
+        {
+            return rate;
+        }
+
+        @Override
+        public boolean isPoisson()
+        {
+            return poisson;
+        }
+
+        @Override
+        public String toString()
+        {
+            return (poisson ? "poisson" : "constant") + "(" + rate + "/s)";
+        }
+    }
+
+    /**
+     * A rate growing linearly, then staying at the final value.
+     */
+    class Ramp
+        implements ArrivalProfile
+    {
+        private final double from;
+        private final double to;
+        private final double duration;
+        private final boolean poisson;
+
+        Ramp(double from, double to, double duration, boolean poisson)
+        {
+            this.from = from;
+            this.to = to;
+            this.duration = duration;
+            this.poisson = poisson;
+        }
+
+        @Override
+        public double rate(double t)
+        {
+            return t >= duration ? to : from + (to - from) * t / duration;
+        }
+
+        @Override
+        public boolean isPoisson()
+        {
+            return poisson;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ramp(" + from + "/s -> " + to + "/s over " + duration + "s" + (poisson ? ", poisson" : "") + ")";
+        }
+    }
+
+    /**
+     * A rate changing in steps of equal duration, then staying at the last
+     * value.
+     */
+    class Step
+        implements ArrivalProfile
+    {
+        private final double[] rates;
+        private final double step;
+        private final boolean poisson;
+
+        Step(double[] rates, double step, boolean poisson)
+        {
+            this.rates = rates;
+            this.step = step;
+            this.poisson = poisson;
+        }
+
+        @Override
+        public double rate(double t)
+        {
+            return rates[(int) Math.min(rates.length - 1, Math.floor(t / step))];
+        }
+
+        @Override
+        public boolean isPoisson()
+        {
+            return poisson;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "step(" + Arrays.toString(rates) + "/s every " + step + "s" + (poisson ? ", poisson" : "") + ")";
+        }
+    }
+
+    /**
+     * A base rate with a single burst of a higher rate.
+     */
+    class Spike
+        implements ArrivalProfile
+    {
+        private final double base;
+        private final double peak;
+        private final double at;
+        private final double duration;
+        private final boolean poisson;
+
+        Spike(double base, double peak, double at, double duration, boolean poisson)
+        {
+            this.base = base;
+            this.peak = peak;
+            this.at = at;
+            this.duration = duration;
+            this.poisson = poisson;
+        }
+
+        @Override
+        public double rate(double t)
+        {
+            return t >= at && t < at + duration ? peak : base;
+        }
+
+        @Override
+        public boolean isPoisson()
+        {
+            return poisson;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "spike(" + base + "/s, " + peak + "/s at " + at + "s for " + duration + "s"
+                + (poisson ? ", poisson" : "") + ")";
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.malleus;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Plans open-loop join times for the participants of all conferences of a
+ * Malleus run. The arrivals follow a single global {@link ArrivalProfile} and
+ * are distributed over the conferences according to a {@link FillPolicy}.
+ *
+ * Every conference registers the number of participants it will start with
+ * {@link #register(int, int)}, which blocks until all conferences have
+ * registered and then returns the start delays. Once a participant actually
+ * starts joining it should call {@link #recordArrival(int, int)}, so that the
+ * lag behind the intended arrival time (coordinated omission) is visible in
+ * {@link #getSummary()}.
+ */
+public class ArrivalScheduler
+{
+    /**
+     * How arrivals are distributed over the conferences.
+     */
+    public enum FillPolicy
+    {
+        /**
+         * Fill conferences one after the other.
+         */
+        SEQUENTIAL,
+
+        /**
+         * Join the conferences in turn, so that all fill in parallel.
+         */
+        ROUND_ROBIN,
+
+        /**
+         * Pick a random conference which is not full yet.
+         */
+        RANDOM;
+
+        /**
+         * Parses a fill policy, ignoring case.
+         *
+         * @param s the name of the policy, or null for the default.
+         * @return the fill policy.
+         */
+        public static FillPolicy parse(String s)
+        {
+            return s == null || s.trim().isEmpty() ? ROUND_ROBIN : valueOf(s.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * The integration step, in seconds, used to turn rates into arrival times.
+     */
+    private static final double STEP_S = 0.001;
+
+    /**
+     * Give up planning if the arrivals would take longer than this.
+     */
+    private static final double MAX_PLAN_S = TimeUnit.DAYS.toSeconds(1);
+
+    /**
+     * How long to wait for all conferences to register.
+     */
+    private static final long REGISTER_TIMEOUT_MINUTES = 5;
+
+    private final ArrivalProfile profile;
+
+    private final FillPolicy fillPolicy;
+
+    /**
+     * The number of arrivals of every conference, as registered.
+     */
+    private final int[] arrivalsPerConference;
+
+    /**
+     * Counts down the conferences which still have to register.
+     */
+    private final CountDownLatch allRegistered;
+
+    /**
+     * The intended offsets (in milliseconds from {@link #epochMs}) of every
+     * participant of every conference, computed once all have registered.
+     */
+    private long[][] plan;
+
+    /**
+     * The wall clock time the plan starts at.
+     */
+    private long epochMs;
+
+    /**
+     * The observed lag (in milliseconds) of every participant of every
+     * conference, or -1 if not yet arrived.
+     */
+    private long[][] lags;
+
+    /**
+     * Creates new scheduler.
+     *
+     * @param profile the global arrival profile.
+     * @param fillPolicy how to distribute arrivals over the conferences.
+     * @param numConferences the number of conferences which will register.
+     */
+    public ArrivalScheduler(ArrivalProfile profile, FillPolicy fillPolicy, int numConferences)
+    {
+        this.profile = Objects.requireNonNull(profile, "profile");
+        this.fillPolicy = Objects.requireNonNull(fillPolicy, "fillPolicy");
+        this.arrivalsPerConference = new int[numConferences];
+        this.allRegistered = new CountDownLatch(numConferences);
+    }
+
+    /**
+     * Registers the number of participants of a conference and waits for the
+     * other conferences to do the same.
+     *
+     * @param conference the index of the conference.
+     * @param numArrivals the number of participants to start.
+     * @return the delays in milliseconds, from now, at which the participants
+     * of this conference should start joining, in the order they should join.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public long[] register(int conference, int numArrivals)
+        throws InterruptedException
+    {
+        synchronized (this)
+        {
+            arrivalsPerConference[conference] = numArrivals;
+        }
+        allRegistered.countDown();
+
+        if (!allRegistered.await(REGISTER_TIMEOUT_MINUTES, TimeUnit.MINUTES))
+        {
+            throw new IllegalStateException("Not all conferences registered with the arrival scheduler");
+        }
+
+        synchronized (this)
+        {
+            if (plan == null)
+            {
+                createPlan();
+            }
+
+            long now = System.currentTimeMillis();
+            long[] offsets = plan[conference];
+            long[] delays = new long[offsets.length];
+            for (int i = 0; i < offsets.length; i++)
+            {
+                delays[i] = Math.max(0, epochMs + offsets[i] - now);
+            }
+
+            return delays;
+        }
+    }
+
+    /**
+     * Records that a participant has started joining.
+     *
+     * @param conference the index of the conference.
+     * @param index the index of the participant within the conference, as
+     * registered.
+     */
+    public synchronized void recordArrival(int conference, int index)
+    {
+        if (plan == null)
+        {
+            return;
+        }
+
+        lags[conference][index] = Math.max(0, System.currentTimeMillis() - epochMs - plan[conference][index]);
+    }
+
+    /**
+     * Computes the arrival times and assigns them to the conferences.
+     */
+    private void createPlan()
+    {
+        int total = Arrays.stream(arrivalsPerConference).sum();
+        double[] times = arrivalTimes(profile, total, ThreadLocalRandom.current());
+
+        plan = new long[arrivalsPerConference.length][];
+        lags = new long[arrivalsPerConference.length][];
+        for (int c = 0; c < arrivalsPerConference.length; c++)
+        {
+            plan[c] = new long[arrivalsPerConference[c]];
+            lags[c] = new long[arrivalsPerConference[c]];
+            Arrays.fill(lags[c], -1);
+        }
+
+        int[] filled = new int[arrivalsPerConference.length];
+        int cursor = 0;
+        for (double time : times)
+        {
+            int c = nextConference(filled, cursor);
+            plan[c][filled[c]++] = Math.round(time * 1000);
+            cursor = c + 1;
+        }
+
+        epochMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Chooses the conference the next arrival joins.
+     *
+     * @param filled the number of arrivals assigned to every conference.
+     * @param cursor the conference after the previously chosen one.
+     */
+    private int nextConference(int[] filled, int cursor)
+    {
+        int n = filled.length;
+        switch (fillPolicy)
+        {
+        case SEQUENTIAL:
+            cursor = 0;
+            break;
+        case RANDOM:
+            cursor = ThreadLocalRandom.current().nextInt(n);
+            break;
+        default:
+            break;
+        }
+
+        for (int i = 0; i < n; i++)
+        {
+            int c = (cursor + i) % n;
+            if (filled[c] < arrivalsPerConference[c])
+            {
+                return c;
+            }
+        }
+
+        throw new IllegalStateException("All conferences are full");
+    }
+
+    /**
+     * Computes the arrival times by integrating the rate of a profile. For
+     * evenly spaced arrivals the k-th arrival happens when the integral
+     * reaches k, for Poisson arrivals the gaps in the integral are
+     * exponentially distributed.
+     *
+     * @param profile the profile.
+     * @param count the number of arrivals.
+     * @param random the source of randomness for Poisson arrivals.
+     * @return the arrival times in seconds.
+     */
+    static double[] arrivalTimes(ArrivalProfile profile, int count, Random random)
+    {
+        double[] times = new double[count];
+        double t = 0;
+        double integral = 0;
+        double threshold = profile.isPoisson() ? -Math.log(1 - random.nextDouble()) : 0;
+
+        for (int k = 0; k < count; k++)
+        {
+            while (integral < threshold)
+            {
+                integral += profile.rate(t) * STEP_S;
+                t += STEP_S;
+
+                if (t > MAX_PLAN_S)
+                {
+                    throw new IllegalArgumentException("Arrival profile " + profile + " is too slow");
+                }
+            }
+
+            times[k] = t;
+            threshold += profile.isPoisson() ? -Math.log(1 - random.nextDouble()) : 1;
+        }
+
+        return times;
+    }
+
+    /**
+     * @return the profile of this scheduler.
+     */
+    public ArrivalProfile getProfile()
+    {
+        return profile;
+    }
+
+    /**
+     * @return the number of participants which have started joining.
+     */
+    public synchronized int getArrivedCount()
+    {
+        if (lags == null)
+        {
+            return 0;
+        }
+
+        return (int) Arrays.stream(lags).flatMapToLong(Arrays::stream).filter(l -> l >= 0).count();
+    }
+
+    /**
+     * @return a human readable summary of the intended and the actual
+     * arrivals.
+     */
+    public synchronized String getSummary()
+    {
+        if (plan == null)
+        {
+            return "arrivals: not started";
+        }
+
+        long[] observed = Arrays.stream(lags).flatMapToLong(Arrays::stream).filter(l -> l >= 0).sorted().toArray();
+        long lastIntended = Arrays.stream(plan).flatMapToLong(Arrays::stream).max().orElse(0);
+        int total = Arrays.stream(arrivalsPerConference).sum();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("arrivals: profile=").append(profile)
+            .append(" fill=").append(fillPolicy)
+            .append(" planned=").append(total)
+            .append(" over ").append(lastIntended).append("ms")
+            .append(" arrived=").append(observed.length);
+
+        if (observed.length > 0)
+        {
+            sb.append(" lag(ms): p50=").append(percentile(observed, 0.5))
+                .append(" p90=").append(percentile(observed, 0.9))
+                .append(" p99=").append(percentile(observed, 0.99))
+                .append(" max=").append(observed[observed.length - 1])
+                .append(" late(>1s)=").append(Arrays.stream(observed).filter(l -> l > 1000).count());
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the value at a percentile of sorted values.
+     */
+    private static long percentile(long[] sorted, double p)
+    {
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.malleus;
+
+import org.jitsi.meet.test.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Collects the latencies of the join milestones of the participants of a
+ * Malleus run. The latencies of every participant are kept, and recorded in a
+ * {@link LatencyHistogram} per conference and milestone. The global
+ * histograms are merged from the conference ones on demand, so all of them
+ * can be read at any time during the run.
+ */
+public class JoinLatencies
+{
+    /**
+     * The milestones of a join, all measured from the start of the join.
+     */
+    public enum Milestone
+    {
+        /**
+         * The conference URL was opened and the page loaded.
+         */
+        URL_OPEN("url_open"),
+
+        /**
+         * The MUC was joined.
+         */
+        MUC_JOIN("muc_join"),
+
+        /**
+         * The ICE connection was connected.
+         */
+        ICE_CONNECTED("ice_connected"),
+
+        /**
+         * A bridge was assigned, i.e. the stats report a non-P2P transport.
+         */
+        BRIDGE_ASSIGNED("bridge_assigned"),
+
+        /**
+         * The first non-zero upload bitrate.
+         */
+        FIRST_SEND_BITRATE("first_send_bitrate"),
+
+        /**
+         * The first non-zero download bitrate.
+         */
+        FIRST_RECEIVE_BITRATE("first_receive_bitrate");
+
+        private final String label;
+
+        Milestone(String label)
+        {
+            this.label = label;
+        }
+
+        /**
+         * @return the name of the milestone as used in reports.
+         */
+        public String getLabel()
+        {
+            return label;
+        }
+    }
+
+    private static final Milestone[] MILESTONES = Milestone.values();
+
+    /**
+     * The histograms of every conference, indexed by milestone.
+     */
+    private final Map<Integer, LatencyHistogram[]> conferences = new ConcurrentSkipListMap<>();
+
+    /**
+     * The latencies of every participant, indexed by milestone, -1 if not
+     * reached.
+     */
+    private final Map<String, long[]> participants = new ConcurrentHashMap<>();
+
+    /**
+     * Records the latency of a milestone of a participant.
+     *
+     * @param conference the index of the conference.
+     * @param participant the index of the participant within the conference.
+     * @param milestone the milestone.
+     * @param latencyMs the time since the start of the join, in milliseconds.
+     */
+    public void record(int conference, int participant, Milestone milestone, long latencyMs)
+    {
+        long[] latencies = participants.computeIfAbsent(conference + "/" + participant, k -> {
+            long[] l = new long[MILESTONES.length];
+            Arrays.fill(l, -1);
+            return l;
+        });
+        latencies[milestone.ordinal()] = latencyMs;
+
+        histograms(conference)[milestone.ordinal()].record(latencyMs);
+    }
+
+    private LatencyHistogram[] histograms(int conference)
+    {
+        return conferences.computeIfAbsent(conference, c -> {
+            LatencyHistogram[] h = new LatencyHistogram[MILESTONES.length];
+            for (int i = 0; i < h.length; i++)
+            {
+                h[i] = new LatencyHistogram();
+            }
+            return h;
+        });
+    }
+
+    /**
+     * Returns the latency of a milestone of a participant.
+     *
+     * @param conference the index of the conference.
+     * @param participant the index of the participant within the conference.
+     * @param milestone the milestone.
+     * @return the latency in milliseconds, -1 if not (yet) reached.
+     */
+    public long getLatency(int conference, int participant, Milestone milestone)
+    {
+        long[] latencies = participants.get(conference + "/" + participant);
+        return latencies == null ? -1 : latencies[milestone.ordinal()];
+    }
+
+    /**
+     * @param conference the index of the conference.
+     * @param milestone the milestone.
+     * @return the histogram of a milestone of a conference.
+     */
+    public LatencyHistogram getHistogram(int conference, Milestone milestone)
+    {
+        return histograms(conference)[milestone.ordinal()];
+    }
+
+    /**
+     * @param milestone the milestone.
+     * @return a new histogram of a milestone merged from all conferences.
+     */
+    public LatencyHistogram getGlobalHistogram(Milestone milestone)
+    {
+        LatencyHistogram global = new LatencyHistogram();
+        for (LatencyHistogram[] h : conferences.values())
+        {
+            global.add(h[milestone.ordinal()]);
+        }
+        return global;
+    }
+
+    /**
+     * @param conference the index of the conference.
+     * @return the percentiles of every milestone of a conference.
+     */
+    public String getSummary(int conference)
+    {
+        StringBuilder sb = new StringBuilder("join latencies (ms) of conference ").append(conference).append(':');
+        for (Milestone milestone : MILESTONES)
+        {
+            sb.append("\n  ").append(milestone.getLabel()).append(": ")
+                .append(getHistogram(conference, milestone));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the percentiles of every milestone of all conferences.
+     */
+    public String getSummary()
+    {
+        StringBuilder sb = new StringBuilder("join latencies (ms) of all conferences:");
+        for (Milestone milestone : MILESTONES)
+        {
+            sb.append("\n  ").append(milestone.getLabel()).append(": ")
+                .append(getGlobalHistogram(milestone));
+        }
+        return sb.toString();
+    }
+}
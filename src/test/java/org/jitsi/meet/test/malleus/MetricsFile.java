@@ -0,0 +1,387 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.malleus;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The append-only binary format of the Malleus metrics. A file starts with a
+ * header holding the magic number, the format version and the names of the
+ * metric columns, followed by records. Every record starts with its type:
+ * <ul>
+ *     <li>{@link #RECORD_STRING}: int id, UTF value. Defines a string (e.g. a
+ *     bridge IP) which samples refer to by id, so it is stored only
+ *     once.</li>
+ *     <li>{@link #RECORD_SAMPLE}: long timestamp, short conference, short
+ *     participant, int bridge string id (-1 for unknown) and a float for
+ *     every metric column.</li>
+ * </ul>
+ * A sample with ten columns takes 57 bytes. Since records are only appended,
+ * a file of an interrupted run is readable up to its last complete record.
+ */
+public final class MetricsFile
+{
+    /**
+     * The magic number at the start of every metrics file, "MLM1".
+     */
+    static final int MAGIC = 0x4D4C4D31;
+
+    /**
+     * The version of the format.
+     */
+    static final short VERSION = 1;
+
+    /**
+     * The type of a record which defines a string.
+     */
+    static final byte RECORD_STRING = 1;
+
+    /**
+     * The type of a record which holds a sample.
+     */
+    static final byte RECORD_SAMPLE = 2;
+
+    private MetricsFile()
+    {
+    }
+
+    /**
+     * Appends records to a metrics file. Not thread safe, the recorder writes
+     * from a single thread.
+     */
+    public static class Writer
+        implements Closeable
+    {
+        private final DataOutputStream out;
+
+        private final int columnCount;
+
+        /**
+         * The ids of the strings written so far.
+         */
+        private final Map<String, Integer> stringIds = new HashMap<>();
+
+        /**
+         * Creates the file and writes the header.
+         *
+         * @param file the file to create.
+         * @param columns the names of the metric columns.
+         * @throws IOException if the file can not be written.
+         */
+        public Writer(File file, String[] columns)
+            throws IOException
+        {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            this.columnCount = columns.length;
+
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(columns.length);
+            for (String column : columns)
+            {
+                out.writeUTF(column);
+            }
+        }
+
+        /**
+         * Appends a sample.
+         *
+         * @param timestamp the time of the sample, in milliseconds since the
+         * epoch.
+         * @param conference the index of the conference.
+         * @param participant the index of the participant.
+         * @param bridge the IP of the bridge, or <tt>null</tt>.
+         * @param values the value of every metric column.
+         * @throws IOException if writing fails.
+         */
+        public void writeSample(long timestamp, int conference, int participant, String bridge, float[] values)
+            throws IOException
+        {
+            if (values.length != columnCount)
+            {
+                throw new IllegalArgumentException(
+                    "Expected " + columnCount + " values, got " + values.length);
+            }
+
+            int bridgeId = bridge == null ? -1 : stringId(bridge);
+
+            out.writeByte(RECORD_SAMPLE);
+            out.writeLong(timestamp);
+            out.writeShort(conference);
+            out.writeShort(participant);
+            out.writeInt(bridgeId);
+            for (float value : values)
+            {
+                out.writeFloat(value);
+            }
+        }
+
+        /**
+         * Returns the id of a string, writing its definition first if needed.
+         */
+        private int stringId(String s)
+            throws IOException
+        {
+            Integer id = stringIds.get(s);
+            if (id == null)
+            {
+                id = stringIds.size();
+                stringIds.put(s, id);
+
+                out.writeByte(RECORD_STRING);
+                out.writeInt(id);
+                out.writeUTF(s);
+            }
+
+            return id;
+        }
+
+        /**
+         * Writes the buffered records to the file.
+         *
+         * @throws IOException if writing fails.
+         */
+        public void flush()
+            throws IOException
+        {
+            out.flush();
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a metrics file record by record, so that files of any size can be
+     * processed.
+     */
+    public static class Reader
+        implements Closeable
+    {
+        private final DataInputStream in;
+
+        private final String[] columns;
+
+        private final List<String> strings = new ArrayList<>();
+
+        private long timestamp;
+        private int conference;
+        private int participant;
+        private String bridge;
+        private final float[] values;
+
+        /**
+         * Opens a file and reads its header.
+         *
+         * @param file the file to read.
+         * @throws IOException if the file can not be read or is not a metrics
+         * file.
+         */
+        public Reader(File file)
+            throws IOException
+        {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+
+            if (in.readInt() != MAGIC)
+            {
+                in.close();
+                throw new IOException("Not a metrics file: " + file);
+            }
+
+            short version = in.readShort();
+            if (version != VERSION)
+            {
+                in.close();
+                throw new IOException("Unsupported metrics file version " + version + ": " + file);
+            }
+
+            columns = new String[in.readShort()];
+            for (int i = 0; i < columns.length; i++)
+            {
+                columns[i] = in.readUTF();
+            }
+            values = new float[columns.length];
+        }
+
+        /**
+         * @return the names of the metric columns.
+         */
+        public String[] getColumns()
+        {
+            return columns.clone();
+        }
+
+        /**
+         * Advances to the next sample. The values of the sample are available
+         * through the getters until the next call.
+         *
+         * @return {@code true} if there is a sample, {@code false} at the end
+         * of the file (including a truncated last record).
+         * @throws IOException if reading fails.
+         */
+        public boolean next()
+            throws IOException
+        {
+            try
+            {
+                while (true)
+                {
+                    int type = in.read();
+                    if (type < 0)
+                    {
+                        return false;
+                    }
+
+                    if (type == RECORD_STRING)
+                    {
+                        int id = in.readInt();
+                        String s = in.readUTF();
+                        if (id != strings.size())
+                        {
+                            throw new IOException("Unexpected string id " + id);
+                        }
+                        strings.add(s);
+                    }
+                    else if (type == RECORD_SAMPLE)
+                    {
+                        timestamp = in.readLong();
+                        conference = in.readShort();
+                        participant = in.readShort();
+                        int bridgeId = in.readInt();
+                        bridge = bridgeId < 0 ? null : strings.get(bridgeId);
+                        for (int i = 0; i < values.length; i++)
+                        {
+                            values[i] = in.readFloat();
+                        }
+                        return true;
+                    }
+                    else
+                    {
+                        throw new IOException("Unknown record type " + type);
+                    }
+                }
+            }
+            catch (EOFException e)
+            {
+                // The run was interrupted while writing the last record.
+                return false;
+            }
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public int getConference()
+        {
+            return conference;
+        }
+
+        public int getParticipant()
+        {
+            return participant;
+        }
+
+        public String getBridge()
+        {
+            return bridge;
+        }
+
+        /**
+         * @param column the index of the column.
+         * @return the value of the column in the current sample.
+         */
+        public float getValue(int column)
+        {
+            return values[column];
+        }
+
+        /**
+         * Writes all (remaining) samples as CSV.
+         *
+         * @param writer where to write to.
+         * @return the number of samples written.
+         * @throws IOException if reading or writing fails.
+         */
+        public long exportCsv(Appendable writer)
+            throws IOException
+        {
+            writer.append("timestamp,conference,participant,bridge");
+            for (String column : columns)
+            {
+                writer.append(',').append(column);
+            }
+            writer.append('\n');
+
+            long count = 0;
+            while (next())
+            {
+                writer.append(Long.toString(timestamp))
+                    .append(',').append(Integer.toString(conference))
+                    .append(',').append(Integer.toString(participant))
+                    .append(',').append(bridge == null ? "" : bridge);
+                for (float value : values)
+                {
+                    writer.append(',').append(Float.toString(value));
+                }
+                writer.append('\n');
+                count++;
+            }
+
+            return count;
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Converts a metrics file to CSV.
+     *
+     * @param args the metrics file and optionally the CSV file, which
+     * defaults to the metrics file with a ".csv" extension.
+     * @throws IOException if reading or writing fails.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: MetricsFile <metrics file> [<csv file>]");
+            System.exit(1);
+        }
+
+        File in = new File(args[0]);
+        File out = new File(args.length > 1 ? args[1] : args[0].replaceFirst("\\.[^./]*$", "") + ".csv");
+
+        try (Reader reader = new Reader(in);
+             BufferedWriter writer = new BufferedWriter(new FileWriter(out)))
+        {
+            long count = reader.exportCsv(writer);
+            System.out.println("Exported " + count + " samples to " + out);
+        }
+    }
+}
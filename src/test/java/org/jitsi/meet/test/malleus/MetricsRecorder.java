@@ -0,0 +1,400 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.malleus;
+
+import org.jitsi.meet.test.base.stats.*;
+import org.jitsi.meet.test.util.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Periodically samples the RTP statistics of the participants of a Malleus
+ * run and appends them to a {@link MetricsFile}.
+ *
+ * On every tick a sample is requested from every registered participant
+ * whose previous sample has completed, on a bounded number of sampling
+ * threads. Completed samples are queued and written in one batch by the
+ * timer thread on the next tick, so nothing but the last snapshot of every
+ * participant (needed for the deltas) is held in memory.
+ */
+public class MetricsRecorder
+    implements Closeable
+{
+    /**
+     * The names of the metric columns.
+     */
+    public static final String[] COLUMNS = {
+        "download_bps",
+        "upload_bps",
+        "loss_down_pct",
+        "loss_up_pct",
+        "jitter_ms",
+        "rtt_ms",
+        "loss_ratio",
+        "encode_fps",
+        "decode_fps",
+        "freezes",
+        "freeze_ms",
+        "concealed_ratio",
+        "max_recv_height",
+        "max_send_height",
+        "quality_limited"
+    };
+
+    /**
+     * The maximum number of completed samples waiting to be written. Samples
+     * beyond this are dropped (and counted).
+     */
+    private static final int MAX_PENDING = 1 << 16;
+
+    /**
+     * Provides the samples of a participant.
+     */
+    public interface Source
+    {
+        /**
+         * @return the current RTP statistics of the participant.
+         */
+        RtpStatsSnapshot sample();
+    }
+
+    private final File file;
+
+    private final MetricsFile.Writer writer;
+
+    private final ScheduledExecutorService timer;
+
+    private final ExecutorService samplers;
+
+    private final Map<Long, Registration> registrations = new ConcurrentHashMap<>();
+
+    private final BlockingQueue<Row> pending = new ArrayBlockingQueue<>(MAX_PENDING);
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates the metrics file and starts sampling.
+     *
+     * @param file the file to write to.
+     * @param intervalMs the sampling interval in milliseconds.
+     * @param maxConcurrentSamples the maximum number of samples taken at the
+     * same time.
+     * @throws IOException if the file can not be created.
+     */
+    public MetricsRecorder(File file, long intervalMs, int maxConcurrentSamples)
+        throws IOException
+    {
+        this.file = file;
+        this.writer = new MetricsFile.Writer(file, COLUMNS);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "malleus-metrics-timer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        AtomicInteger counter = new AtomicInteger();
+        this.samplers = Executors.newFixedThreadPool(Math.max(1, maxConcurrentSamples), r -> {
+            Thread t = new Thread(r, "malleus-metrics-sampler-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        timer.scheduleAtFixedRate(this::tick, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+
+        PrometheusMetrics metrics = PrometheusMetrics.getInstance();
+        metrics.gauge(
+            "malleus_sampled_participants",
+            "Participants sampled by the metrics recorder.",
+            registrations::size);
+        metrics.gauge(
+            "malleus_download_bitrate_bps",
+            "Sum of the download bitrates of the sampled participants.",
+            () -> registrations.values().stream().mapToDouble(r -> r.lastDownloadBitrate).sum());
+        metrics.gauge(
+            "malleus_upload_bitrate_bps",
+            "Sum of the upload bitrates of the sampled participants.",
+            () -> registrations.values().stream().mapToDouble(r -> r.lastUploadBitrate).sum());
+        metrics.gauge(
+            "malleus_packet_loss_ratio",
+            "Mean packet loss ratio of the sampled participants in the last interval.",
+            () -> registrations.values().stream().mapToDouble(r -> r.lastLossRatio).average().orElse(0));
+    }
+
+    /**
+     * Starts sampling a participant.
+     *
+     * @param conference the index of the conference.
+     * @param participant the index of the participant within the conference.
+     * @param source provides the samples.
+     */
+    public void register(int conference, int participant, Source source)
+    {
+        registrations.put(key(conference, participant), new Registration(conference, participant, source));
+    }
+
+    /**
+     * Stops sampling a participant.
+     *
+     * @param conference the index of the conference.
+     * @param participant the index of the participant within the conference.
+     */
+    public void unregister(int conference, int participant)
+    {
+        registrations.remove(key(conference, participant));
+    }
+
+    private static long key(int conference, int participant)
+    {
+        return ((long) conference << 32) | (participant & 0xffffffffL);
+    }
+
+    /**
+     * Writes the samples completed since the previous tick and requests new
+     * ones.
+     */
+    private void tick()
+    {
+        writePending();
+
+        for (Registration registration : registrations.values())
+        {
+            if (registration.sampling.compareAndSet(false, true))
+            {
+                samplers.execute(registration::sample);
+            }
+        }
+    }
+
+    /**
+     * Writes the queued samples in one batch.
+     */
+    private synchronized void writePending()
+    {
+        if (pending.isEmpty())
+        {
+            return;
+        }
+
+        try
+        {
+            Row row;
+            while ((row = pending.poll()) != null)
+            {
+                writer.writeSample(row.timestamp, row.conference, row.participant, row.bridge, row.values);
+                written.incrementAndGet();
+            }
+            writer.flush();
+        }
+        catch (IOException e)
+        {
+            TestUtils.print("Failed to write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the file the metrics are written to.
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Stops sampling and writes the remaining samples.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+
+        timer.shutdownNow();
+        samplers.shutdownNow();
+        try
+        {
+            samplers.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        writePending();
+        synchronized (this)
+        {
+            writer.close();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "metrics: file=%s participants=%d written=%d dropped=%d failed=%d",
+            file, registrations.size(), written.get(), dropped.get(), failed.get());
+    }
+
+    /**
+     * A participant being sampled.
+     */
+    private class Registration
+    {
+        private final int conference;
+        private final int participant;
+        private final Source source;
+
+        /**
+         * Whether a sample is being taken, so that a slow participant is not
+         * sampled again before the previous sample completes.
+         */
+        private final AtomicBoolean sampling = new AtomicBoolean();
+
+        /**
+         * The previous snapshot, for the deltas.
+         */
+        private RtpStatsSnapshot previous;
+
+        /**
+         * The values of the last sample, for the aggregated gauges.
+         */
+        private volatile double lastDownloadBitrate;
+        private volatile double lastUploadBitrate;
+        private volatile double lastLossRatio;
+
+        private Registration(int conference, int participant, Source source)
+        {
+            this.conference = conference;
+            this.participant = participant;
+            this.source = source;
+        }
+
+        private void sample()
+        {
+            try
+            {
+                if (closed)
+                {
+                    return;
+                }
+
+                RtpStatsSnapshot snapshot = source.sample();
+                if (previous != null)
+                {
+                    Row row = new Row(this, previous, snapshot);
+                    lastLossRatio = row.values[6];
+                    if (!pending.offer(row))
+                    {
+                        dropped.incrementAndGet();
+                    }
+                }
+                lastDownloadBitrate = snapshot.getDownloadBitrate();
+                lastUploadBitrate = snapshot.getUploadBitrate();
+                previous = snapshot;
+            }
+            catch (Exception e)
+            {
+                failed.incrementAndGet();
+            }
+            finally
+            {
+                sampling.set(false);
+            }
+        }
+    }
+
+    /**
+     * A completed sample waiting to be written.
+     */
+    private static class Row
+    {
+        private final long timestamp;
+        private final int conference;
+        private final int participant;
+        private final String bridge;
+        private final float[] values = new float[COLUMNS.length];
+
+        private Row(Registration registration, RtpStatsSnapshot previous, RtpStatsSnapshot current)
+        {
+            this.timestamp = current.getTimestamp();
+            this.conference = registration.conference;
+            this.participant = registration.participant;
+            this.bridge = bridgeIp(current);
+
+            RtpStatsSnapshot.Delta delta = current.delta(previous);
+
+            int maxRecvHeight = 0;
+            int maxSendHeight = 0;
+            for (int i = 0; i < current.getSsrcCount(); i++)
+            {
+                if (current.isLocalSsrc(i))
+                {
+                    maxSendHeight = Math.max(maxSendHeight, current.getHeight(i));
+                }
+                else
+                {
+                    maxRecvHeight = Math.max(maxRecvHeight, current.getHeight(i));
+                }
+            }
+
+            String limitation = current.getQualityLimitationReason();
+
+            values[0] = current.getDownloadBitrate();
+            values[1] = current.getUploadBitrate();
+            values[2] = (float) current.getDownloadPacketLoss();
+            values[3] = (float) current.getUploadPacketLoss();
+            values[4] = (float) current.getJitterMs();
+            values[5] = (float) current.getRttMs();
+            values[6] = (float) delta.getLossRatio();
+            values[7] = (float) delta.getEncodeFps();
+            values[8] = (float) delta.getDecodeFps();
+            values[9] = delta.getFreezeCount();
+            values[10] = delta.getFreezeDurationMs();
+            values[11] = (float) delta.getConcealedRatio();
+            values[12] = maxRecvHeight;
+            values[13] = maxSendHeight;
+            values[14] = limitation != null && !RtpStatsSnapshot.QUALITY_LIMITATION_NONE.equals(limitation)
+                ? 1 : 0;
+        }
+
+        /**
+         * Extracts the IP of the bridge from the transport of a snapshot.
+         */
+        private static String bridgeIp(RtpStatsSnapshot snapshot)
+        {
+            RtpStatistics.RtpTransport transport = snapshot.getRtpTransport();
+            if (transport == null || transport.isP2P() || transport.getRemoteSocket() == null)
+            {
+                return null;
+            }
+
+            String ip = transport.getRemoteSocket().split(":")[0];
+            return ip.isEmpty() ? null : ip;
+        }
+    }
+}
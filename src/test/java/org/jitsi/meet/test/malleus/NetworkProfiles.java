@@ -0,0 +1,286 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.malleus;
+
+import org.jitsi.meet.test.bwe.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The network conditions of the participants of every conference, played with
+ * a {@link NetworkEmulator} once they joined. Profiles are created from a
+ * specification string of the form {@code participants=profile;...}, where
+ * the participants are indexes in the conference, ranges of them or "*" for
+ * all, and the profile either the space separated steps of a
+ * {@link BandwidthSchedule} or {@code trace:file|file...:key=value...}, which
+ * replays mahimahi traces ({@link MahimahiTrace}), assigned to the
+ * participants round robin, with the optional parameters:
+ * <ul>
+ *     <li>{@code bin={ms}} - the resolution of the replay, see
+ *     {@link MahimahiTrace#DEFAULT_BIN_MILLIS}.</li>
+ *     <li>{@code scale={factor}} - stretches the time of the traces, e.g. 2
+ *     makes their rates change twice as slowly.</li>
+ *     <li>{@code stagger=true} - every participant starts at a different
+ *     point of its trace, rather than all in lockstep.</li>
+ * </ul>
+ * For example:
+ * <ul>
+ *     <li>{@code *=2mbit:delay=50ms,0} - every participant has 2 Mbps and
+ *     50ms of delay.</li>
+ *     <li>{@code 0=1mbit:loss=2%,0;3-5,7=500kbit,30 2mbit:jitter=20ms,0} -
+ *     participant 0 has 1 Mbps and 2% loss, participants 3 to 5 and 7 have
+ *     500 kbps for 30 seconds and then 2 Mbps with 20ms of jitter.</li>
+ *     <li>{@code 1-49=trace:/usr/share/mahimahi/traces/Verizon-LTE-short.down|/usr/share/mahimahi/traces/TMobile-LTE-driving.down:stagger=true}
+ *     - participants 1 to 49 alternate between two cellular downlinks.</li>
+ * </ul>
+ * A participant without a profile is not shaped, an explicit index takes
+ * precedence over "*". The last step of a schedule is held until the
+ * participant leaves, and the traces loop for the duration of the test.
+ */
+public class NetworkProfiles
+{
+    /**
+     * The prefix of the trace profiles.
+     */
+    private static final String TRACE_PREFIX = "trace:";
+
+    /**
+     * Spreads the start points of staggered participants evenly over the
+     * traces, whatever the number of participants.
+     */
+    private static final double GOLDEN_RATIO_CONJUGATE = 0.6180339887498949;
+
+    private final Map<Integer, Profile> byParticipant = new TreeMap<>();
+
+    private final Map<String, Profile> bySpec = new LinkedHashMap<>();
+
+    private final long durationMillis;
+
+    private Profile all;
+
+    /**
+     * Parses a specification.
+     *
+     * @param spec the specification, see the class description.
+     * @param durationMillis the duration the traces are replayed for.
+     * @return the profiles.
+     * @throws IllegalArgumentException if the specification is invalid.
+     * @throws IOException if a trace can not be loaded.
+     */
+    public static NetworkProfiles parse(String spec, long durationMillis)
+        throws IOException
+    {
+        NetworkProfiles profiles = new NetworkProfiles(durationMillis);
+        for (String entry : Objects.requireNonNull(spec, "spec").split(";"))
+        {
+            if (entry.trim().isEmpty())
+            {
+                continue;
+            }
+
+            int eq = entry.indexOf('=');
+            if (eq < 0)
+            {
+                throw new IllegalArgumentException("Invalid network profile: " + entry);
+            }
+
+            String value = entry.substring(eq + 1).trim();
+            Profile profile = value.startsWith(TRACE_PREFIX)
+                ? profiles.parseTraces(value.substring(TRACE_PREFIX.length()))
+                : new Profile(BandwidthSchedule.parse(value.split("\\s+")));
+            String participants = entry.substring(0, eq).trim();
+            for (String range : participants.split(","))
+            {
+                profiles.add(range.trim(), profile);
+            }
+            profiles.bySpec.put(participants, profile);
+        }
+        return profiles;
+    }
+
+    private NetworkProfiles(long durationMillis)
+    {
+        this.durationMillis = durationMillis;
+    }
+
+    private Profile parseTraces(String spec)
+        throws IOException
+    {
+        String[] parts = spec.split(":");
+        long binMillis = MahimahiTrace.DEFAULT_BIN_MILLIS;
+        double timeScale = 1;
+        boolean stagger = false;
+        for (int i = 1; i < parts.length; i++)
+        {
+            String[] kv = parts[i].split("=", 2);
+            String value = kv.length == 2 ? kv[1].trim() : "true";
+            switch (kv[0].trim().toLowerCase(Locale.ROOT))
+            {
+            case "bin":
+                binMillis = Long.parseLong(value);
+                break;
+            case "scale":
+                timeScale = Double.parseDouble(value);
+                break;
+            case "stagger":
+                stagger = Boolean.parseBoolean(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid trace parameter: " + parts[i]);
+            }
+        }
+
+        List<MahimahiTrace> traces = new ArrayList<>();
+        for (String file : parts[0].split("\\|"))
+        {
+            if (!file.trim().isEmpty())
+            {
+                traces.add(MahimahiTrace.load(file.trim()));
+            }
+        }
+        if (traces.isEmpty())
+        {
+            throw new IllegalArgumentException("No trace in " + spec);
+        }
+
+        return new TraceProfile(traces, binMillis, timeScale, stagger);
+    }
+
+    private void add(String participants, Profile profile)
+    {
+        if ("*".equals(participants))
+        {
+            all = profile;
+            return;
+        }
+
+        try
+        {
+            int dash = participants.indexOf('-');
+            int from = Integer.parseInt(dash < 0 ? participants : participants.substring(0, dash));
+            int to = dash < 0 ? from : Integer.parseInt(participants.substring(dash + 1));
+            if (from < 0 || to < from)
+            {
+                throw new IllegalArgumentException("Invalid participants: " + participants);
+            }
+            for (int i = from; i <= to; i++)
+            {
+                byParticipant.put(i, profile);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid participants: " + participants);
+        }
+    }
+
+    /**
+     * Returns the schedule of a participant.
+     *
+     * @param participant the index of the participant in its conference.
+     * @return the schedule, or null if the participant is not shaped.
+     */
+    public BandwidthSchedule get(int participant)
+    {
+        Profile profile = byParticipant.getOrDefault(participant, all);
+        return profile == null ? null : profile.get(participant);
+    }
+
+    @Override
+    public String toString()
+    {
+        if (bySpec.isEmpty())
+        {
+            return "none";
+        }
+
+        StringJoiner joiner = new StringJoiner(";");
+        for (Map.Entry<String, Profile> e : bySpec.entrySet())
+        {
+            joiner.add(e.getKey() + "=" + e.getValue());
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * The same schedule for all its participants.
+     */
+    private static class Profile
+    {
+        private final BandwidthSchedule schedule;
+
+        private Profile(BandwidthSchedule schedule)
+        {
+            this.schedule = schedule;
+        }
+
+        BandwidthSchedule get(int participant)
+        {
+            return schedule;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.valueOf(schedule);
+        }
+    }
+
+    /**
+     * Replays traces, one per participant.
+     */
+    private class TraceProfile
+        extends Profile
+    {
+        private final List<MahimahiTrace> traces;
+
+        private final long binMillis;
+
+        private final double timeScale;
+
+        private final boolean stagger;
+
+        private TraceProfile(List<MahimahiTrace> traces, long binMillis, double timeScale, boolean stagger)
+        {
+            super(null);
+            this.traces = traces;
+            this.binMillis = binMillis;
+            this.timeScale = timeScale;
+            this.stagger = stagger;
+        }
+
+        @Override
+        BandwidthSchedule get(int participant)
+        {
+            MahimahiTrace trace = traces.get(participant % traces.size());
+            long offsetMillis = 0;
+            if (stagger)
+            {
+                double phase = participant * GOLDEN_RATIO_CONJUGATE;
+                offsetMillis = (long) ((phase - Math.floor(phase)) * trace.getPeriodMillis());
+            }
+            return trace.toSchedule(durationMillis, binMillis, timeScale, offsetMillis, null);
+        }
+
+        @Override
+        public String toString()
+        {
+            return TRACE_PREFIX + traces + ":bin=" + binMillis + ":scale=" + timeScale
+                + ":stagger=" + stagger;
+        }
+    }
+}
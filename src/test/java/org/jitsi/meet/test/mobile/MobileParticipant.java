@@ -235,6 +235,24 @@ public class MobileParticipant extends Participant<AppiumDriver<MobileElement>>
         throw new RuntimeException("Not implemented");
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HealthSnapshot getHealthSnapshot()
+    {
+        throw new RuntimeException("Not implemented");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RtpStatsSnapshot getRtpStatsSnapshot()
+    {
+        throw new RuntimeException("Not implemented");
+    }
+
     /**
      * Will try to grant drawing overlay permissions on Android.
      */
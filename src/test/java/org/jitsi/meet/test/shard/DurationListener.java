@@ -0,0 +1,95 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.shard;
+
+import org.jitsi.meet.test.base.*;
+import org.jitsi.meet.test.util.*;
+import org.testng.*;
+import org.testng.xml.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Records the wall clock durations of the test classes in the history of
+ * {@link TestDurations}, once the suite finished. The duration of a class is
+ * the one of its test in the suite, from before its setup to after its
+ * cleanup, without the time it waited for browsers when the classes run in
+ * parallel. The duration of a test with several classes is split evenly
+ * between them.
+ *
+ * The classes skipped altogether, e.g. excluded from the run, are not
+ * recorded, so that they keep their duration of the runs which included them.
+ */
+public class DurationListener
+    implements ITestListener, ISuiteListener
+{
+    private final Map<String, Long> durations = new ConcurrentHashMap<>();
+
+    @Override
+    public void onFinish(ITestContext context)
+    {
+        if (context.getPassedTests().size() == 0
+            && context.getFailedTests().size() == 0
+            && context.getFailedButWithinSuccessPercentageTests().size() == 0)
+        {
+            return;
+        }
+
+        List<XmlClass> classes = context.getCurrentXmlTest().getClasses();
+        if (classes.isEmpty())
+        {
+            return;
+        }
+
+        long millis = context.getEndDate().getTime() - context.getStartDate().getTime();
+        Object waitMillis = context.getAttribute(AbstractBaseTest.BROWSER_SLOTS_WAIT_ATTR);
+        if (waitMillis instanceof Long)
+        {
+            millis -= (Long) waitMillis;
+        }
+
+        for (XmlClass xmlClass : classes)
+        {
+            durations.put(xmlClass.getName(), Math.max(0, millis / classes.size()));
+        }
+    }
+
+    @Override
+    public void onFinish(ISuite suite)
+    {
+        if (durations.isEmpty())
+        {
+            return;
+        }
+
+        Path path = TestDurations.getDefaultPath();
+        try
+        {
+            TestDurations.update(path, durations);
+            TestUtils.print(
+                "Recorded the durations of " + durations.size()
+                    + " test classes in " + path);
+        }
+        catch (IOException e)
+        {
+            TestUtils.print("Failed to record the test durations in " + path + ": " + e);
+        }
+        durations.clear();
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.shard;
+
+import org.w3c.dom.*;
+import org.xml.sax.*;
+
+import javax.xml.parsers.*;
+import javax.xml.transform.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.stream.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Merges the reports of the shards planned by {@link ShardPlanner} into one
+ * directory:
+ * <ul>
+ * <li>the artifacts of the shards (logs, screenshots, page sources, html
+ * reports) are copied with their relative paths, the ones which clash with
+ * a different file of another shard under a directory with the name of
+ * their shard,</li>
+ * <li>the surefire results of the shards (TEST-*.xml) are combined into
+ * {@link #RESULTS_FILE}, for the CI to show one run, and kept under the
+ * directory of their shard,</li>
+ * <li>the totals of every shard and of the run are written to
+ * {@link #SUMMARY_FILE}.</li>
+ * </ul>
+ */
+public class ShardMerger
+{
+    /**
+     * The name of the combined results.
+     */
+    public static final String RESULTS_FILE = "TEST-shards.xml";
+
+    /**
+     * The name of the summary.
+     */
+    public static final String SUMMARY_FILE = "shards-summary.txt";
+
+    private final Path outDir;
+
+    private final Document results;
+
+    private final Totals total = new Totals("total");
+
+    private final List<Totals> shardTotals = new ArrayList<>();
+
+    /**
+     * Creates a merger.
+     *
+     * @param outDir the directory to merge the shards into.
+     * @throws IOException if the directory can not be created.
+     */
+    public ShardMerger(Path outDir)
+        throws IOException
+    {
+        this.outDir = outDir;
+        Files.createDirectories(outDir);
+        try
+        {
+            results = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        }
+        catch (ParserConfigurationException e)
+        {
+            throw new IOException(e);
+        }
+        results.appendChild(results.createElement("testsuites"));
+    }
+
+    /**
+     * Merges the reports of a shard.
+     *
+     * @param shardDir the report directory of the shard.
+     * @throws IOException if reading or copying fails.
+     */
+    public void add(Path shardDir)
+        throws IOException
+    {
+        String shardName = shardDir.getFileName().toString();
+        Totals totals = new Totals(shardName);
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(shardDir))
+        {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        for (Path file : files)
+        {
+            Path relative = shardDir.relativize(file);
+            Path target = outDir.resolve(relative.toString());
+            if (relative.getNameCount() == 1
+                && relative.toString().startsWith("TEST-") && relative.toString().endsWith(".xml"))
+            {
+                addResults(file, totals);
+
+                // Kept apart, so that the CI does not count them twice with
+                // the combined results.
+                target = outDir.resolve(shardName).resolve(relative.toString());
+            }
+            else if (Files.exists(target) && !sameContent(file, target))
+            {
+                target = outDir.resolve(shardName).resolve(relative.toString());
+            }
+            Files.createDirectories(target.getParent());
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        shardTotals.add(totals);
+        total.add(totals);
+    }
+
+    private static boolean sameContent(Path a, Path b)
+        throws IOException
+    {
+        return Files.size(a) == Files.size(b) && Arrays.equals(Files.readAllBytes(a), Files.readAllBytes(b));
+    }
+
+    /**
+     * Adds the test suites of a surefire result file to the combined
+     * results.
+     */
+    private void addResults(Path file, Totals totals)
+        throws IOException
+    {
+        Document document;
+        try
+        {
+            document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file.toFile());
+        }
+        catch (ParserConfigurationException | SAXException e)
+        {
+            System.err.println("Ignoring the invalid results " + file + ": " + e);
+            return;
+        }
+
+        Element root = document.getDocumentElement();
+        List<Element> suites = new ArrayList<>();
+        if ("testsuite".equals(root.getTagName()))
+        {
+            suites.add(root);
+        }
+        else
+        {
+            NodeList children = root.getElementsByTagName("testsuite");
+            for (int i = 0; i < children.getLength(); i++)
+            {
+                suites.add((Element) children.item(i));
+            }
+        }
+
+        for (Element suite : suites)
+        {
+            totals.tests += intAttribute(suite, "tests");
+            totals.failures += intAttribute(suite, "failures");
+            totals.errors += intAttribute(suite, "errors");
+            totals.skipped += intAttribute(suite, "skipped");
+            totals.seconds += doubleAttribute(suite, "time");
+            results.getDocumentElement().appendChild(results.importNode(suite, true));
+        }
+    }
+
+    private static int intAttribute(Element element, String name)
+    {
+        return (int) doubleAttribute(element, name);
+    }
+
+    private static double doubleAttribute(Element element, String name)
+    {
+        String value = element.getAttribute(name).replace(",", "");
+        try
+        {
+            return value.isEmpty() ? 0 : Double.parseDouble(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * Writes the combined results and the summary.
+     *
+     * @return the summary.
+     * @throws IOException if writing fails.
+     */
+    public String finish()
+        throws IOException
+    {
+        Element root = results.getDocumentElement();
+        root.setAttribute("tests", String.valueOf(total.tests));
+        root.setAttribute("failures", String.valueOf(total.failures));
+        root.setAttribute("errors", String.valueOf(total.errors));
+        root.setAttribute("skipped", String.valueOf(total.skipped));
+        root.setAttribute("time", String.format(Locale.ROOT, "%.3f", total.seconds));
+        try
+        {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.transform(
+                new DOMSource(results), new StreamResult(outDir.resolve(RESULTS_FILE).toFile()));
+        }
+        catch (TransformerException e)
+        {
+            throw new IOException(e);
+        }
+
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(
+            "%-10s %8s %8s %8s %8s %10s%n", "shard", "tests", "failures", "errors", "skipped", "time (s)"));
+        for (Totals totals : shardTotals)
+        {
+            summary.append(totals).append('\n');
+        }
+        summary.append(total).append('\n');
+        Files.write(outDir.resolve(SUMMARY_FILE), summary.toString().getBytes());
+
+        return summary.toString();
+    }
+
+    /**
+     * @return whether a test failed in any of the shards.
+     */
+    public boolean hasFailures()
+    {
+        return total.failures + total.errors > 0;
+    }
+
+    /**
+     * The totals of the results of a shard. The time is the sum of the ones
+     * of the suites, not the wall clock time of the run.
+     */
+    private static class Totals
+    {
+        private final String name;
+
+        private int tests;
+
+        private int failures;
+
+        private int errors;
+
+        private int skipped;
+
+        private double seconds;
+
+        private Totals(String name)
+        {
+            this.name = name;
+        }
+
+        private void add(Totals other)
+        {
+            tests += other.tests;
+            failures += other.failures;
+            errors += other.errors;
+            skipped += other.skipped;
+            seconds += other.seconds;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(
+                Locale.ROOT, "%-10s %8d %8d %8d %8d %10.1f", name, tests, failures, errors, skipped, seconds);
+        }
+    }
+
+    /**
+     * Merges the reports of shards.
+     *
+     * @param args the output directory, followed by the report directories
+     * of the shards.
+     * @throws IOException if reading or writing fails.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: ShardMerger <output directory> <shard report directory>...");
+            System.exit(1);
+        }
+
+        ShardMerger merger = new ShardMerger(Paths.get(args[0]));
+        boolean missing = false;
+        for (int i = 1; i < args.length; i++)
+        {
+            Path shardDir = Paths.get(args[i]);
+            if (Files.isDirectory(shardDir))
+            {
+                merger.add(shardDir);
+            }
+            else
+            {
+                // The shard did not run at all, which is a failure too.
+                System.err.println("No reports in " + shardDir);
+                missing = true;
+            }
+        }
+
+        System.out.print(merger.finish());
+        System.exit(missing || merger.hasFailures() ? 1 : 0);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.shard;
+
+import org.testng.annotations.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests {@link ShardMerger}.
+ */
+public class ShardMergerTest
+{
+    private Path dir;
+
+    @BeforeMethod
+    public void createDir()
+        throws IOException
+    {
+        dir = Files.createTempDirectory("shard-merger");
+    }
+
+    @AfterMethod
+    public void deleteDir()
+        throws IOException
+    {
+        delete(dir);
+    }
+
+    /**
+     * Deletes a directory with its content.
+     */
+    static void delete(Path dir)
+        throws IOException
+    {
+        if (dir == null || !Files.exists(dir))
+        {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(dir))
+        {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+            {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void write(Path file, String content)
+        throws IOException
+    {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String results(String name, int tests, int failures, double seconds)
+    {
+        return String.format(
+            Locale.ROOT,
+            "<testsuite name=\"%s\" tests=\"%d\" failures=\"%d\" errors=\"0\" skipped=\"1\" time=\"%.1f\">"
+                + "<testcase name=\"test\" classname=\"%s\"/></testsuite>",
+            name, tests, failures, seconds, name);
+    }
+
+    @Test
+    public void testMerge()
+        throws IOException
+    {
+        Path shard1 = dir.resolve("1");
+        Path shard2 = dir.resolve("2");
+        write(shard1.resolve("TEST-a.xml"), results("a", 3, 0, 1.5));
+        write(shard2.resolve("TEST-b.xml"), results("b", 2, 1, 2.0));
+        write(shard1.resolve("logs/same.log"), "same");
+        write(shard2.resolve("logs/same.log"), "same");
+        write(shard1.resolve("logs/clash.log"), "first");
+        write(shard2.resolve("logs/clash.log"), "second");
+
+        Path out = dir.resolve("out");
+        ShardMerger merger = new ShardMerger(out);
+        merger.add(shard1);
+        merger.add(shard2);
+        String summary = merger.finish();
+
+        assertTrue(merger.hasFailures());
+
+        // The shard results are kept apart from the combined ones.
+        assertFalse(Files.exists(out.resolve("TEST-a.xml")));
+        assertTrue(Files.exists(out.resolve("1/TEST-a.xml")));
+        assertTrue(Files.exists(out.resolve("2/TEST-b.xml")));
+
+        String combined = new String(Files.readAllBytes(out.resolve(ShardMerger.RESULTS_FILE)), StandardCharsets.UTF_8);
+        assertTrue(combined.contains("tests=\"5\""), combined);
+        assertTrue(combined.contains("failures=\"1\""), combined);
+        assertTrue(combined.contains("skipped=\"2\""), combined);
+        assertTrue(combined.contains("name=\"a\"") && combined.contains("name=\"b\""), combined);
+
+        // Identical artifacts are merged, clashing ones kept per shard.
+        assertEquals(new String(Files.readAllBytes(out.resolve("logs/same.log")), StandardCharsets.UTF_8), "same");
+        assertFalse(Files.exists(out.resolve("2/logs/same.log")));
+        assertEquals(new String(Files.readAllBytes(out.resolve("logs/clash.log")), StandardCharsets.UTF_8), "first");
+        assertEquals(new String(Files.readAllBytes(out.resolve("2/logs/clash.log")), StandardCharsets.UTF_8), "second");
+
+        assertTrue(Files.exists(out.resolve(ShardMerger.SUMMARY_FILE)));
+        assertTrue(summary.contains("total"), summary);
+        assertTrue(summary.matches("(?s).*total\\s+5\\s+1\\s+0\\s+2\\s+3\\.5.*"), summary);
+    }
+
+    @Test
+    public void testNoFailures()
+        throws IOException
+    {
+        Path shard = dir.resolve("serial");
+        write(shard.resolve("TEST-a.xml"), results("a", 1, 0, 0.1));
+        write(shard.resolve("TEST-invalid.xml"), "<testsuite");
+
+        ShardMerger merger = new ShardMerger(dir.resolve("out"));
+        merger.add(shard);
+        merger.finish();
+
+        assertFalse(merger.hasFailures());
+    }
+}
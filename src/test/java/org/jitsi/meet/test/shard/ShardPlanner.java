@@ -0,0 +1,280 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.shard;
+
+import org.jitsi.meet.test.base.*;
+import org.testng.xml.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Splits the tests of a suite into shards of balanced durations, to be run by
+ * separate processes at the same time (see scripts/shard.sh). The durations
+ * are predicted from the history of {@link TestDurations}, and the tests are
+ * assigned longest first to the shard which finishes first so far, which
+ * keeps the longest shard close to the total duration divided by the number
+ * of shards.
+ *
+ * The serial only tests (marked {@link SerialOnly}) can not run at the same
+ * time as the shards, they are planned in a separate
+ * {@link #SERIAL_SHARD} to be run after all the others.
+ */
+public class ShardPlanner
+{
+    /**
+     * The name of the shard of the serial only tests.
+     */
+    public static final String SERIAL_SHARD = "serial";
+
+    private final TestDurations history;
+
+    private final int shardCount;
+
+    /**
+     * Creates a planner.
+     *
+     * @param history the durations of the previous runs.
+     * @param shardCount the number of shards, not counting
+     * {@link #SERIAL_SHARD}.
+     */
+    public ShardPlanner(TestDurations history, int shardCount)
+    {
+        if (shardCount < 1)
+        {
+            throw new IllegalArgumentException("Invalid number of shards: " + shardCount);
+        }
+        this.history = Objects.requireNonNull(history, "history");
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Plans the shards of a suite.
+     *
+     * @param suite the suite.
+     * @return the non empty shards, the {@link #SERIAL_SHARD} last.
+     */
+    public List<Shard> plan(XmlSuite suite)
+    {
+        List<Shard> shards = new ArrayList<>(shardCount);
+        for (int i = 1; i <= shardCount; i++)
+        {
+            shards.add(new Shard(String.valueOf(i)));
+        }
+        Shard serial = new Shard(SERIAL_SHARD);
+
+        List<XmlTest> tests = new ArrayList<>(suite.getTests());
+        // Longest first, by name for the ties so that the plan is stable.
+        tests.sort(Comparator.comparingLong(this::predict).reversed()
+            .thenComparing(XmlTest::getName));
+
+        PriorityQueue<Shard> byEnd = new PriorityQueue<>(
+            Comparator.comparingLong(Shard::getPredictedMillis)
+                .thenComparing(s -> Integer.parseInt(s.getName())));
+        byEnd.addAll(shards);
+        for (XmlTest test : tests)
+        {
+            if (test.getClasses().stream().anyMatch(c -> isSerialOnly(c.getName())))
+            {
+                serial.add(test, predict(test));
+                continue;
+            }
+
+            Shard shard = byEnd.poll();
+            shard.add(test, predict(test));
+            byEnd.add(shard);
+        }
+
+        List<Shard> plan = new ArrayList<>();
+        shards.stream().filter(s -> !s.getTests().isEmpty()).forEach(plan::add);
+        if (!serial.getTests().isEmpty())
+        {
+            plan.add(serial);
+        }
+        return plan;
+    }
+
+    /**
+     * Predicts the duration of a test, the sum of the ones of its classes.
+     *
+     * @param test the test.
+     * @return the duration in milliseconds.
+     */
+    private long predict(XmlTest test)
+    {
+        return test.getClasses().stream().mapToLong(c -> history.predict(c.getName())).sum();
+    }
+
+    /**
+     * Checks whether a test class is marked {@link SerialOnly}. The class is
+     * loaded without being initialized.
+     *
+     * @param className the name of the class.
+     * @return whether the class must run alone.
+     * @throws IllegalArgumentException if the class does not exist.
+     */
+    private static boolean isSerialOnly(String className)
+    {
+        try
+        {
+            return Class.forName(className, false, ShardPlanner.class.getClassLoader())
+                .isAnnotationPresent(SerialOnly.class);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IllegalArgumentException("Unknown test class: " + className, e);
+        }
+    }
+
+    /**
+     * Writes the suite of a shard, with the name, the parameters and the
+     * listeners of the suite it was planned from.
+     *
+     * @param suite the planned suite.
+     * @param shard the shard.
+     * @param file the file to write.
+     * @throws IOException if writing fails.
+     */
+    public static void write(XmlSuite suite, Shard shard, Path file)
+        throws IOException
+    {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<!DOCTYPE suite SYSTEM \"http://testng.org/testng-1.0.dtd\" >\n");
+        xml.append("<suite name=\"").append(escape(suite.getName() + "-shard-" + shard.getName()))
+            .append("\" verbose=\"").append(suite.getVerbose()).append("\">\n");
+        for (Map.Entry<String, String> e : suite.getParameters().entrySet())
+        {
+            xml.append("    <parameter name=\"").append(escape(e.getKey()))
+                .append("\" value=\"").append(escape(e.getValue())).append("\" />\n");
+        }
+        if (!suite.getListeners().isEmpty())
+        {
+            xml.append("    <listeners>\n");
+            for (String listener : suite.getListeners())
+            {
+                xml.append("        <listener class-name=\"").append(escape(listener)).append("\" />\n");
+            }
+            xml.append("    </listeners>\n");
+        }
+        for (XmlTest test : shard.getTests())
+        {
+            xml.append(test.toXml("    "));
+        }
+        xml.append("</suite>\n");
+
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String escape(String value)
+    {
+        return value.replace("&", "&amp;").replace("\"", "&quot;")
+            .replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * The tests of one shard.
+     */
+    public static class Shard
+    {
+        private final String name;
+
+        private final List<XmlTest> tests = new ArrayList<>();
+
+        private long predictedMillis;
+
+        private Shard(String name)
+        {
+            this.name = name;
+        }
+
+        private void add(XmlTest test, long millis)
+        {
+            tests.add(test);
+            predictedMillis += millis;
+        }
+
+        /**
+         * @return the name of the shard, its number or {@link #SERIAL_SHARD}.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return the tests of the shard, longest first.
+         */
+        public List<XmlTest> getTests()
+        {
+            return tests;
+        }
+
+        /**
+         * @return the predicted duration of the shard in milliseconds.
+         */
+        public long getPredictedMillis()
+        {
+            return predictedMillis;
+        }
+    }
+
+    /**
+     * Plans the shards of a suite and writes their suites, "shard-1.xml" to
+     * "shard-N.xml" and "shard-serial.xml" if there are serial only tests.
+     *
+     * @param args the suite file, the number of shards, the output directory
+     * and optionally the history file, which defaults to
+     * {@link TestDurations#getDefaultPath()}.
+     * @throws IOException if reading or writing fails.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        if (args.length < 3)
+        {
+            System.err.println(
+                "Usage: ShardPlanner <suite file> <shards> <output directory> [<history file>]");
+            System.exit(1);
+        }
+
+        XmlSuite suite;
+        try (InputStream in = Files.newInputStream(Paths.get(args[0])))
+        {
+            suite = new SuiteXmlParser().parse(args[0], in, false);
+        }
+        Path historyFile = args.length > 3 ? Paths.get(args[3]) : TestDurations.getDefaultPath();
+        TestDurations history = TestDurations.load(historyFile);
+        List<Shard> plan = new ShardPlanner(history, Integer.parseInt(args[1])).plan(suite);
+
+        Path outDir = Paths.get(args[2]);
+        Files.createDirectories(outDir);
+        long total = 0;
+        for (Shard shard : plan)
+        {
+            Path file = outDir.resolve("shard-" + shard.getName() + ".xml");
+            write(suite, shard, file);
+            total += shard.getPredictedMillis();
+            System.out.printf(
+                "%s: %d tests, %d s predicted%n",
+                file, shard.getTests().size(), shard.getPredictedMillis() / 1000);
+        }
+        System.out.printf(
+            "%d s of tests in %d shards, %d classes with history in %s%n",
+            total / 1000, plan.size(), history.size(), historyFile);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.shard;
+
+import org.jitsi.meet.test.*;
+import org.testng.annotations.*;
+import org.testng.xml.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests the plans of {@link ShardPlanner}.
+ */
+public class ShardPlannerTest
+{
+    /**
+     * Test classes which are not serial only, see {@link #test(XmlSuite, Class)}.
+     */
+    public static class A {}
+    public static class B {}
+    public static class C {}
+    public static class D {}
+
+    private static XmlTest test(XmlSuite suite, Class<?> clazz)
+    {
+        XmlTest test = new XmlTest(suite);
+        test.setName(clazz.getSimpleName());
+        test.setXmlClasses(Collections.singletonList(new XmlClass(clazz.getName(), false)));
+        return test;
+    }
+
+    private static List<String> names(ShardPlanner.Shard shard)
+    {
+        return shard.getTests().stream().map(XmlTest::getName).collect(Collectors.toList());
+    }
+
+    private static TestDurations history(Object... classesAndMillis)
+    {
+        TestDurations history = new TestDurations();
+        for (int i = 0; i < classesAndMillis.length; i += 2)
+        {
+            history.add(((Class<?>) classesAndMillis[i]).getName(), (Integer) classesAndMillis[i + 1]);
+        }
+        return history;
+    }
+
+    @Test
+    public void testLongestFirstOnTheShardWhichEndsFirst()
+    {
+        XmlSuite suite = new XmlSuite();
+        test(suite, D.class);
+        test(suite, B.class);
+        test(suite, A.class);
+        test(suite, C.class);
+
+        List<ShardPlanner.Shard> plan = new ShardPlanner(
+            history(A.class, 100, B.class, 80, C.class, 60, D.class, 40), 2).plan(suite);
+
+        assertEquals(plan.size(), 2);
+        assertEquals(plan.get(0).getName(), "1");
+        assertEquals(names(plan.get(0)), Arrays.asList("A", "D"));
+        assertEquals(plan.get(0).getPredictedMillis(), 140);
+        assertEquals(plan.get(1).getName(), "2");
+        assertEquals(names(plan.get(1)), Arrays.asList("B", "C"));
+        assertEquals(plan.get(1).getPredictedMillis(), 140);
+    }
+
+    @Test
+    public void testTies()
+    {
+        XmlSuite suite = new XmlSuite();
+        test(suite, C.class);
+        test(suite, B.class);
+        test(suite, A.class);
+
+        List<ShardPlanner.Shard> plan = new ShardPlanner(
+            history(A.class, 50, B.class, 50, C.class, 50), 2).plan(suite);
+
+        // By name for equal durations, to the lowest shard for equal ends.
+        assertEquals(names(plan.get(0)), Arrays.asList("A", "C"));
+        assertEquals(names(plan.get(1)), Collections.singletonList("B"));
+    }
+
+    @Test
+    public void testSerialShard()
+    {
+        XmlSuite suite = new XmlSuite();
+        test(suite, A.class);
+        test(suite, ReloadTest.class);
+        test(suite, B.class);
+
+        List<ShardPlanner.Shard> plan = new ShardPlanner(
+            history(A.class, 10, B.class, 20, ReloadTest.class, 1000), 3).plan(suite);
+
+        // The empty shard is left out, the serial one is last.
+        assertEquals(plan.size(), 3);
+        assertEquals(names(plan.get(0)), Collections.singletonList("B"));
+        assertEquals(names(plan.get(1)), Collections.singletonList("A"));
+        assertEquals(plan.get(2).getName(), ShardPlanner.SERIAL_SHARD);
+        assertEquals(names(plan.get(2)), Collections.singletonList("ReloadTest"));
+        assertEquals(plan.get(2).getPredictedMillis(), 1000);
+    }
+
+    @Test
+    public void testMissingHistory()
+    {
+        XmlSuite suite = new XmlSuite();
+        test(suite, A.class);
+        test(suite, B.class);
+        test(suite, C.class);
+
+        // B has no history, it is predicted as the mean of A and C.
+        List<ShardPlanner.Shard> plan = new ShardPlanner(history(A.class, 100, C.class, 300), 3).plan(suite);
+
+        assertEquals(names(plan.get(0)), Collections.singletonList("C"));
+        assertEquals(names(plan.get(1)), Collections.singletonList("B"));
+        assertEquals(plan.get(1).getPredictedMillis(), 200);
+        assertEquals(names(plan.get(2)), Collections.singletonList("A"));
+    }
+
+    @Test
+    public void testNoHistory()
+    {
+        XmlSuite suite = new XmlSuite();
+        test(suite, B.class);
+        test(suite, A.class);
+
+        List<ShardPlanner.Shard> plan = new ShardPlanner(new TestDurations(), 1).plan(suite);
+
+        assertEquals(plan.size(), 1);
+        assertEquals(names(plan.get(0)), Arrays.asList("A", "B"));
+        assertEquals(plan.get(0).getPredictedMillis(), 120000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNoShards()
+    {
+        new ShardPlanner(new TestDurations(), 0);
+    }
+}
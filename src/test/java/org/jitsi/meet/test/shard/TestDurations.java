@@ -0,0 +1,216 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.shard;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The wall clock durations of the test classes in the previous runs, kept in
+ * a properties file which maps the names of the classes to their durations
+ * in milliseconds. A new duration is averaged with the previous one, so that
+ * one slow run does not skew the plans of {@link ShardPlanner}.
+ *
+ * The file is locked while it is updated, so that the shards running on the
+ * same host can all update it.
+ */
+public class TestDurations
+{
+    /**
+     * The name of the system property with the path of the history file.
+     */
+    public static final String FILE_PNAME = "jitsi-meet.tests.durations";
+
+    /**
+     * The default path of the history file, relative to the working
+     * directory.
+     */
+    public static final String DEFAULT_FILE = "test-durations.properties";
+
+    /**
+     * The weight of a new duration in the average with the previous one.
+     */
+    private static final double NEW_WEIGHT = 0.5;
+
+    /**
+     * The duration predicted for a class without history when there is no
+     * history at all.
+     */
+    private static final long DEFAULT_MILLIS = 60000;
+
+    private final Map<String, Long> durations = new TreeMap<>();
+
+    /**
+     * @return the path of the history file, from {@link #FILE_PNAME}.
+     */
+    public static Path getDefaultPath()
+    {
+        String path = System.getProperty(FILE_PNAME);
+        return Paths.get(path == null || path.trim().isEmpty() ? DEFAULT_FILE : path.trim());
+    }
+
+    /**
+     * Loads a history file.
+     *
+     * @param path the path of the file.
+     * @return the durations, empty if the file does not exist.
+     * @throws IOException if the file can not be read.
+     */
+    public static TestDurations load(Path path)
+        throws IOException
+    {
+        TestDurations history = new TestDurations();
+        if (Files.exists(path))
+        {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.ISO_8859_1))
+            {
+                history.read(reader);
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Adds new durations to a history file.
+     *
+     * @param path the path of the file, created if it does not exist.
+     * @param newDurations the durations of the classes which ran, in
+     * milliseconds.
+     * @throws IOException if the file can not be updated.
+     */
+    public static synchronized void update(Path path, Map<String, Long> newDurations)
+        throws IOException
+    {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null)
+        {
+            Files.createDirectories(parent);
+        }
+
+        try (FileChannel channel = FileChannel.open(
+                path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            FileLock lock = channel.lock();
+            try
+            {
+                ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+                {
+                    // Read the whole file.
+                }
+
+                TestDurations history = new TestDurations();
+                history.read(new StringReader(
+                    new String(buffer.array(), 0, buffer.position(), StandardCharsets.ISO_8859_1)));
+                newDurations.forEach(history::add);
+
+                StringWriter content = new StringWriter();
+                history.write(content);
+                channel.truncate(0);
+                channel.write(ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.ISO_8859_1)), 0);
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+    }
+
+    private void read(Reader reader)
+        throws IOException
+    {
+        Properties properties = new Properties();
+        properties.load(reader);
+        for (String name : properties.stringPropertyNames())
+        {
+            try
+            {
+                durations.put(name, Long.parseLong(properties.getProperty(name).trim()));
+            }
+            catch (NumberFormatException e)
+            {
+                // Ignore a corrupt entry, the class gets a new history.
+            }
+        }
+    }
+
+    private void write(Writer writer)
+        throws IOException
+    {
+        // Sorted, so that the file diffs well.
+        for (Map.Entry<String, Long> e : durations.entrySet())
+        {
+            writer.write(e.getKey() + "=" + e.getValue() + "\n");
+        }
+    }
+
+    /**
+     * Adds a new duration of a class, averaged with the previous one.
+     *
+     * @param className the name of the class.
+     * @param millis the duration in milliseconds.
+     */
+    public void add(String className, long millis)
+    {
+        Long previous = durations.get(className);
+        durations.put(
+            className,
+            previous == null
+                ? millis : Math.round(previous * (1 - NEW_WEIGHT) + millis * NEW_WEIGHT));
+    }
+
+    /**
+     * @param className the name of a class.
+     * @return the duration of the class in milliseconds, or null if it has
+     * no history.
+     */
+    public Long get(String className)
+    {
+        return durations.get(className);
+    }
+
+    /**
+     * Predicts the duration of a class, the mean duration of the classes with
+     * history when it has none.
+     *
+     * @param className the name of the class.
+     * @return the duration in milliseconds.
+     */
+    public long predict(String className)
+    {
+        Long millis = durations.get(className);
+        if (millis != null)
+        {
+            return millis;
+        }
+
+        return durations.isEmpty()
+            ? DEFAULT_MILLIS
+            : Math.round(durations.values().stream().mapToLong(Long::longValue).average().getAsDouble());
+    }
+
+    /**
+     * @return the number of classes with history.
+     */
+    public int size()
+    {
+        return durations.size();
+    }
+}
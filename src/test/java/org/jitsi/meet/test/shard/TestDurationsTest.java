@@ -0,0 +1,103 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.shard;
+
+import org.testng.annotations.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests {@link TestDurations}.
+ */
+public class TestDurationsTest
+{
+    private Path dir;
+
+    @BeforeMethod
+    public void createDir()
+        throws IOException
+    {
+        dir = Files.createTempDirectory("test-durations");
+    }
+
+    @AfterMethod
+    public void deleteDir()
+        throws IOException
+    {
+        ShardMergerTest.delete(dir);
+    }
+
+    @Test
+    public void testAverage()
+    {
+        TestDurations durations = new TestDurations();
+        durations.add("A", 100);
+        assertEquals(durations.get("A"), Long.valueOf(100));
+
+        durations.add("A", 200);
+        assertEquals(durations.get("A"), Long.valueOf(150));
+        assertNull(durations.get("B"));
+    }
+
+    @Test
+    public void testPredictWithoutHistory()
+    {
+        TestDurations durations = new TestDurations();
+        assertEquals(durations.predict("A"), 60000);
+
+        durations.add("A", 100);
+        durations.add("B", 300);
+        assertEquals(durations.predict("A"), 100);
+        assertEquals(durations.predict("C"), 200);
+    }
+
+    @Test
+    public void testUpdate()
+        throws IOException
+    {
+        Path file = dir.resolve("sub").resolve("durations.properties");
+
+        assertEquals(TestDurations.load(file).size(), 0);
+
+        TestDurations.update(file, Collections.singletonMap("A", 100L));
+        Map<String, Long> second = new HashMap<>();
+        second.put("A", 300L);
+        second.put("B", 50L);
+        TestDurations.update(file, second);
+
+        TestDurations loaded = TestDurations.load(file);
+        assertEquals(loaded.size(), 2);
+        assertEquals(loaded.get("A"), Long.valueOf(200));
+        assertEquals(loaded.get("B"), Long.valueOf(50));
+    }
+
+    @Test
+    public void testCorruptEntry()
+        throws IOException
+    {
+        Path file = dir.resolve("durations.properties");
+        Files.write(file, "A=abc\nB=5\n".getBytes(StandardCharsets.ISO_8859_1));
+
+        TestDurations loaded = TestDurations.load(file);
+        assertNull(loaded.get("A"));
+        assertEquals(loaded.get("B"), Long.valueOf(5));
+    }
+}
@@ -16,6 +16,7 @@
 package org.jitsi.meet.test.tasks;
 
 import org.jitsi.meet.test.base.*;
+import org.jitsi.meet.test.base.stats.*;
 import org.jitsi.meet.test.util.*;
 import org.openqa.selenium.*;
 import org.testng.*;
@@ -81,36 +82,40 @@ public class HeartbeatTask
             TestUtils.print("Checking at " + new Date()
                 + " / to finish: " + millsToRun + " ms.");
 
-            if (!MeetUtils.isIceConnected(participant1.getDriver()))
+            // A single round trip per participant for all the checks below.
+            HealthSnapshot health1 = participant1.getHealthSnapshot();
+            HealthSnapshot health2 = participant2.getHealthSnapshot();
+
+            if (!health1.isIceConnected())
             {
+                TortureMetrics.ICE_DISCONNECTS.increment();
                 assertAndQuit("Participant1 ice is not connected.");
                 return;
             }
 
-            if (!participant1.isInMuc())
+            if (!health1.isInMuc())
             {
                 assertAndQuit("Participant1 is not in the muc.");
                 return;
             }
 
-            if (!MeetUtils.isIceConnected(participant2.getDriver()))
+            if (!health2.isIceConnected())
             {
+                TortureMetrics.ICE_DISCONNECTS.increment();
                 assertAndQuit(
                     "Participant2 ice is not connected.");
                 return;
             }
 
-            if (!participant2.isInMuc())
+            if (!health2.isInMuc())
             {
                 assertAndQuit(
                     "Participant2 is not in the muc.");
                 return;
             }
 
-            long download1
-                = MeetUtils.getDownloadBitrate(participant1.getDriver());
-            long download2 =
-                MeetUtils.getDownloadBitrate(participant2.getDriver());
+            long download1 = health1.getDownloadBitrate();
+            long download2 = health2.getDownloadBitrate();
 
             if (download1 <= 0)
             {
@@ -146,13 +151,13 @@ public class HeartbeatTask
                 return;
             }
 
-            if (!participant1.isXmppConnected())
+            if (!health1.isXmppConnected())
             {
                 assertAndQuit("Participant1 xmpp connection is not connected");
                 return;
             }
 
-            if (!participant2.isXmppConnected())
+            if (!health2.isXmppConnected())
             {
                 assertAndQuit("Participant2's xmpp connection is not connected");
                 return;
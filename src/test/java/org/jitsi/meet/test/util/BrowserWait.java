@@ -0,0 +1,296 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import org.jitsi.meet.test.web.*;
+import org.json.simple.*;
+import org.openqa.selenium.*;
+import org.openqa.selenium.support.ui.*;
+
+import java.util.*;
+
+/**
+ * Waits for conditions in the browser without polling it over WebDriver.
+ *
+ * The condition is the body of a javascript function. It is evaluated in the
+ * browser by a single asynchronous script, which returns as soon as the
+ * condition holds. The condition is evaluated again on every DOM mutation
+ * (through a {@code MutationObserver}), on the given events of the conference
+ * (e.g. {@link #CONFERENCE_JOINED}) and every {@link #BROWSER_POLL_MILLIS} ms,
+ * for the state which changes neither the DOM nor emits an event. A wait
+ * longer than {@link #SLICE_MILLIS} takes one script per slice, to stay within
+ * the script timeout of the driver. With a {@link TabbedWebDriver} the slices
+ * are {@link #TABBED_SLICE_MILLIS}, since a script holds the browser, and so
+ * the commands of the other tabs, until it returns.
+ *
+ * The waits fall back to polling with a {@link WebDriverWait} when the driver
+ * can not run asynchronous scripts, or when disabled with
+ * {@link #ENABLED_PNAME}.
+ */
+public class BrowserWait
+{
+    /**
+     * The name of the system property which enables the waits in the browser,
+     * true by default.
+     */
+    public static final String ENABLED_PNAME = "org.jitsi.meet.test.util.event_waits";
+
+    /**
+     * The event of the conference emitted when the local participant joined
+     * the MUC.
+     */
+    public static final String CONFERENCE_JOINED = "conference.joined";
+
+    /**
+     * The events of the conference emitted when the state of the media
+     * connections changed.
+     */
+    public static final String[] ICE_EVENTS = {
+        "conference.connectionEstablished",
+        "conference.connectionInterrupted",
+        "conference.connectionRestored",
+        "conference.p2pStatus"
+    };
+
+    /**
+     * How often the condition is evaluated in the browser besides the
+     * mutations and the events. It costs no round trip to the driver.
+     */
+    public static final long BROWSER_POLL_MILLIS = 100;
+
+    /**
+     * The longest time one script waits, below the default script timeout of
+     * the drivers (30 seconds).
+     */
+    public static final long SLICE_MILLIS = 10000;
+
+    /**
+     * The longest time one script waits with a {@link TabbedWebDriver}.
+     */
+    public static final long TABBED_SLICE_MILLIS = 300;
+
+    /**
+     * Observes the DOM, the events and the time until the condition holds or
+     * the slice ends. The condition is inserted as the body of
+     * {@code condition}, rather than compiled in the page, which the content
+     * security policy may forbid.
+     */
+    private static final String SCRIPT_START
+        = "var timeout = arguments[0];"
+        + "var events = arguments[1];"
+        + "var done = arguments[arguments.length - 1];"
+        + "var condition = function() {";
+
+    private static final String SCRIPT_END
+        = "};"
+        + "var finished = false, observer, interval, timer, lastError = null;"
+        + "var room = null, listeners = [];"
+        + "function finish(result) {"
+        + "  if (finished) return;"
+        + "  finished = true;"
+        + "  if (observer) observer.disconnect();"
+        + "  clearInterval(interval);"
+        + "  clearTimeout(timer);"
+        + "  listeners.forEach(function(l) {"
+        + "    try { room.off(l[0], l[1]); } catch (e) {}"
+        + "  });"
+        + "  done(result);"
+        + "}"
+        + "function check() {"
+        + "  if (finished) return;"
+        + "  var value;"
+        + "  try { value = condition(); }"
+        + "  catch (e) { lastError = String(e); return; }"
+        + "  if (value !== undefined && value !== null && value !== false) {"
+        + "    finish({ ok: true, value: value });"
+        + "  }"
+        + "}"
+        + "check();"
+        + "if (finished) return;"
+        + "if (window.MutationObserver && document.documentElement) {"
+        + "  observer = new MutationObserver(check);"
+        + "  observer.observe(document.documentElement, {"
+        + "    childList: true, subtree: true, attributes: true,"
+        + "    characterData: true });"
+        + "}"
+        + "try {"
+        + "  room = window.APP && APP.conference && APP.conference._room;"
+        + "  if (room && room.on) {"
+        + "    events.forEach(function(e) {"
+        + "      var l = function() { setTimeout(check, 0); };"
+        + "      room.on(e, l);"
+        + "      listeners.push([e, l]);"
+        + "    });"
+        + "  }"
+        + "} catch (e) {}"
+        + "interval = setInterval(check, " + BROWSER_POLL_MILLIS + ");"
+        + "timer = setTimeout(function() {"
+        + "  finish({ ok: false, error: lastError });"
+        + "}, timeout);";
+
+    /**
+     * The drivers which failed to run the scripts, which poll from then on.
+     */
+    private static final Set<WebDriver> unsupported
+        = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    /**
+     * Waits until a condition holds.
+     *
+     * @param driver the driver of the browser.
+     * @param condition the body of a javascript function, which holds when
+     * it returns something else than {@code null}, {@code undefined} or
+     * {@code false}.
+     * @param fallback the same condition, evaluated by polling if the driver
+     * can not wait in the browser.
+     * @param timeoutSeconds the time to wait in seconds.
+     * @param message the message of the exception thrown on timeout, or null.
+     * @param events the events of the conference on which to evaluate the
+     * condition again.
+     * @return what the condition returned.
+     * @throws TimeoutException if the condition did not hold in time.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T until(
+        WebDriver driver, String condition, ExpectedCondition<T> fallback,
+        long timeoutSeconds, String message, String... events)
+    {
+        long deadline = System.currentTimeMillis() + timeoutSeconds * 1000;
+        if (isSupported(driver))
+        {
+            String script = SCRIPT_START + condition + SCRIPT_END;
+            List<String> eventList = Arrays.asList(events);
+            long slice = driver instanceof TabbedWebDriver ? TABBED_SLICE_MILLIS : SLICE_MILLIS;
+            Object lastError = null;
+            try
+            {
+                // The condition is checked at least once, also without time
+                // left.
+                long remaining = deadline - System.currentTimeMillis();
+                do
+                {
+                    Object result = ((JavascriptExecutor) driver).executeAsyncScript(
+                        script, Math.max(0, Math.min(remaining, slice)), eventList);
+                    if (!(result instanceof Map))
+                    {
+                        throw new UnsupportedCommandException("Unexpected result: " + result);
+                    }
+
+                    Map<String, Object> map = (Map<String, Object>) result;
+                    if (Boolean.TRUE.equals(map.get("ok")))
+                    {
+                        return (T) map.get("value");
+                    }
+                    lastError = map.get("error");
+                }
+                while ((remaining = deadline - System.currentTimeMillis()) > 0);
+
+                throw new TimeoutException(
+                    (message != null ? message : "Condition not met: " + condition)
+                        + (lastError != null ? " (last error: " + lastError + ")" : ""));
+            }
+            catch (ScriptTimeoutException | UnsupportedCommandException | JavascriptException e)
+            {
+                // The driver times the scripts out early, or can not run them
+                // at all: poll for the rest of the time.
+                TestUtils.print("Polling instead of waiting in " + driver + ": " + e.getMessage());
+                unsupported.add(driver);
+            }
+        }
+
+        long remainingSeconds = Math.max(
+            1, (deadline - System.currentTimeMillis() + 999) / 1000);
+        FluentWait<WebDriver> wait = new WebDriverWait(driver, remainingSeconds);
+        if (message != null)
+        {
+            wait = wait.withMessage(message);
+        }
+        return wait.until(fallback);
+    }
+
+    private static boolean isSupported(WebDriver driver)
+    {
+        String enabled = System.getProperty(ENABLED_PNAME);
+        return driver instanceof JavascriptExecutor
+            && (enabled == null || enabled.trim().isEmpty() || Boolean.parseBoolean(enabled.trim()))
+            && !unsupported.contains(driver);
+    }
+
+    /**
+     * Converts a script which returns a boolean, as used with
+     * {@link JavascriptExecutor#executeScript}, into a condition which holds
+     * when it returns {@code true}.
+     *
+     * @param script the script.
+     * @return the condition.
+     */
+    public static String isTrue(String script)
+    {
+        return "return (function() {" + script + "\n}).call(this) === true;";
+    }
+
+    /**
+     * Converts a script which returns a string, as used with
+     * {@link JavascriptExecutor#executeScript}, into a condition which holds
+     * when it returns a given string.
+     *
+     * @param script the script.
+     * @param expected the string.
+     * @return the condition.
+     */
+    public static String isEqual(String script, String expected)
+    {
+        return "return (function() {" + script + "\n}).call(this) === "
+            + JSONValue.toJSONString(expected) + ";";
+    }
+
+    /**
+     * Returns a javascript expression which evaluates to the first element
+     * located by a {@link By}, or null.
+     *
+     * @param by the locator.
+     * @return the expression, or null if the locator is not supported.
+     */
+    public static String findElement(By by)
+    {
+        String spec = by.toString();
+        int colon = spec.indexOf(": ");
+        if (colon < 0)
+        {
+            return null;
+        }
+
+        String value = JSONValue.toJSONString(spec.substring(colon + 2));
+        switch (spec.substring(0, colon))
+        {
+        case "By.xpath":
+            return "document.evaluate(" + value + ", document, null,"
+                + " XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue";
+        case "By.id":
+            return "document.getElementById(" + value + ")";
+        case "By.cssSelector":
+            return "document.querySelector(" + value + ")";
+        case "By.className":
+            return "(document.getElementsByClassName(" + value + ")[0] || null)";
+        case "By.name":
+            return "(document.getElementsByName(" + value + ")[0] || null)";
+        case "By.tagName":
+            return "(document.getElementsByTagName(" + value + ")[0] || null)";
+        default:
+            return null;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A lock-free histogram of latencies in milliseconds, in the style of
+ * HdrHistogram: values below 256 are counted exactly, larger values in
+ * 128 buckets per power of two, whose width grows with the value so that the
+ * relative error stays below 1/128 (0.8%). Values up to {@link #MAX_VALUE} (about 70 minutes) are tracked,
+ * larger ones are counted as {@link #MAX_VALUE}.
+ *
+ * Recording and reading may happen concurrently from any thread. Histograms
+ * can be merged with {@link #add(LatencyHistogram)}.
+ */
+public class LatencyHistogram
+{
+    /**
+     * The number of bits of precision of every bucket.
+     */
+    private static final int SUB_BUCKET_BITS = 8;
+
+    /**
+     * The number of values counted exactly.
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+
+    /**
+     * The number of bits of the largest value tracked.
+     */
+    private static final int MAX_VALUE_BITS = 22;
+
+    /**
+     * The largest value tracked, in milliseconds.
+     */
+    public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    /**
+     * The number of buckets.
+     */
+    private static final int BUCKET_COUNT
+        = SUB_BUCKET_COUNT + (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong totalCount = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param valueMs the latency in milliseconds, negative values are
+     * counted as zero.
+     */
+    public void record(long valueMs)
+    {
+        long value = Math.max(0, Math.min(MAX_VALUE, valueMs));
+
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other the histogram to add.
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            long count = other.counts.get(i);
+            if (count != 0)
+            {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        sum.addAndGet(other.sum.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * Returns the index of the bucket a value falls in.
+     */
+    static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKET_COUNT)
+        {
+            return (int) value;
+        }
+
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        long mantissa = value >>> shift;
+
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT + (int) (mantissa - HALF_SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * Returns the largest value which falls in a bucket.
+     */
+    static long highestValueInBucket(int index)
+    {
+        if (index < SUB_BUCKET_COUNT)
+        {
+            return index;
+        }
+
+        int shift = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+        long mantissa = (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public long getCount()
+    {
+        return totalCount.get();
+    }
+
+    /**
+     * @return the largest recorded value, in milliseconds.
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, in milliseconds.
+     */
+    public double getMean()
+    {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * Returns the value at a percentile. The result is the highest value
+     * equivalent (within the precision of the histogram) to the value at the
+     * percentile, but never more than the largest recorded value.
+     *
+     * @param percentile the percentile, from 0 to 100.
+     * @return the value at the percentile in milliseconds, 0 if nothing was
+     * recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long count = totalCount.get();
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= target)
+            {
+                return Math.min(highestValueInBucket(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "n=%d p50=%d p90=%d p99=%d p99.9=%d max=%d",
+            getCount(),
+            getValueAtPercentile(50),
+            getValueAtPercentile(90),
+            getValueAtPercentile(99),
+            getValueAtPercentile(99.9),
+            getMax());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import org.testng.annotations.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void testEmpty()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.getMean(), 0.0);
+        assertEquals(histogram.getValueAtPercentile(99), 0);
+    }
+
+    @Test
+    public void testExactBelow256()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 256; i++)
+        {
+            histogram.record(i);
+        }
+
+        assertEquals(histogram.getCount(), 256);
+        assertEquals(histogram.getValueAtPercentile(50), 127);
+        assertEquals(histogram.getValueAtPercentile(100), 255);
+        assertEquals(histogram.getMean(), 127.5);
+        for (int i = 0; i < 256; i++)
+        {
+            assertEquals(LatencyHistogram.highestValueInBucket(LatencyHistogram.bucketIndex(i)), i);
+        }
+    }
+
+    @Test
+    public void testRelativeError()
+    {
+        int previous = LatencyHistogram.bucketIndex(255);
+        for (long value = 256; value <= LatencyHistogram.MAX_VALUE; value += 1 + value / 1000)
+        {
+            int index = LatencyHistogram.bucketIndex(value);
+            long highest = LatencyHistogram.highestValueInBucket(index);
+
+            assertTrue(index >= previous, "Buckets out of order at " + value);
+            assertTrue(highest >= value, value + " above its bucket " + highest);
+            assertTrue(highest - value <= value / 128, value + " in a bucket up to " + highest);
+            previous = index;
+        }
+
+        assertEquals(
+            LatencyHistogram.highestValueInBucket(LatencyHistogram.bucketIndex(LatencyHistogram.MAX_VALUE)),
+            LatencyHistogram.MAX_VALUE);
+    }
+
+    @Test
+    public void testClamping()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(histogram.getMax(), 0);
+
+        histogram.record(LatencyHistogram.MAX_VALUE + 10);
+        assertEquals(histogram.getMax(), LatencyHistogram.MAX_VALUE);
+        assertEquals(histogram.getValueAtPercentile(100), LatencyHistogram.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentileNotAboveMax()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+
+        // 1000 is in a bucket up to 1003.
+        assertEquals(histogram.getValueAtPercentile(50), 1000);
+    }
+
+    @Test
+    public void testAdd()
+    {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        a.record(20);
+        b.record(30);
+        b.record(5000);
+
+        a.add(b);
+
+        assertEquals(a.getCount(), 4);
+        assertEquals(a.getMax(), 5000);
+        assertEquals(a.getMean(), 1265.0);
+        assertEquals(a.getValueAtPercentile(75), 30);
+        assertEquals(b.getCount(), 2);
+    }
+}
@@ -108,6 +108,39 @@ public class MeetUtils
         return TestUtils.executeScriptAndReturnString(driver, script);
     }
 
+    /**
+     * Estimates the offset of the clock of a browser, which provides the
+     * timestamps of the RTC stats and of the captured frames, from the clock
+     * of the JVM. Of a number of round trips the one which took the least time
+     * is used, assuming the browser read its clock half way through.
+     *
+     * @param driver the driver of the browser.
+     * @param samples the number of round trips.
+     * @return the time of the browser (JavaScript Date.now()) minus the time of
+     * the JVM ({@link System#currentTimeMillis()}), in milliseconds.
+     */
+    public static double getClockOffset(WebDriver driver, int samples)
+    {
+        long bestRoundTrip = Long.MAX_VALUE;
+        double offset = 0;
+        for (int i = 0; i < samples; i++)
+        {
+            long start = System.nanoTime();
+            long before = System.currentTimeMillis();
+            Number now = (Number) ((JavascriptExecutor) driver)
+                .executeScript("return Date.now();");
+            long roundTrip = System.nanoTime() - start;
+
+            if (roundTrip < bestRoundTrip)
+            {
+                bestRoundTrip = roundTrip;
+                offset = now.longValue() - (before + roundTrip / 2e6);
+            }
+        }
+
+        return offset;
+    }
+
     /**
      * Obtains the last value of the desired stat.
      *
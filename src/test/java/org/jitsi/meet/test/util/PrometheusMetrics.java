@@ -0,0 +1,283 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import com.sun.net.httpserver.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * A process wide registry of metrics which can be served over HTTP in the
+ * Prometheus text exposition format, so that a running torture or Malleus
+ * JVM can be scraped like the rest of the backend.
+ *
+ * The endpoint is started by {@link #startIfConfigured()} when
+ * {@link #PORT_PNAME} is set, and serves the metrics on any path. Metrics can
+ * be registered and updated whether the endpoint runs or not.
+ */
+public class PrometheusMetrics
+{
+    /**
+     * The name of the property with the port of the HTTP endpoint. Nothing
+     * is served when not set.
+     */
+    public static final String PORT_PNAME = "org.jitsi.meet.test.metrics.port";
+
+    /**
+     * The quantiles reported for summaries.
+     */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /**
+     * The singleton instance.
+     */
+    private static final PrometheusMetrics instance = new PrometheusMetrics();
+
+    /**
+     * The metrics, sorted by name.
+     */
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    /**
+     * The HTTP server, if started.
+     */
+    private HttpServer server;
+
+    /**
+     * @return the process wide instance.
+     */
+    public static PrometheusMetrics getInstance()
+    {
+        return instance;
+    }
+
+    private PrometheusMetrics()
+    {
+    }
+
+    /**
+     * Starts the HTTP endpoint if {@link #PORT_PNAME} is set and it is not
+     * running yet.
+     */
+    public static void startIfConfigured()
+    {
+        String portStr = System.getProperty(PORT_PNAME);
+        if (portStr == null || portStr.trim().isEmpty())
+        {
+            return;
+        }
+
+        try
+        {
+            instance.start(Integer.parseInt(portStr.trim()));
+        }
+        catch (IOException e)
+        {
+            TestUtils.print("Failed to start the metrics endpoint on port " + portStr + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts the HTTP endpoint, unless already running.
+     *
+     * @param port the port to listen on.
+     * @throws IOException if the port can not be bound.
+     */
+    public synchronized void start(int port)
+        throws IOException
+    {
+        if (server != null)
+        {
+            return;
+        }
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-endpoint");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+
+        TestUtils.print("Serving metrics on http://localhost:" + port + "/metrics");
+    }
+
+    /**
+     * Stops the HTTP endpoint, if running.
+     */
+    public synchronized void stop()
+    {
+        if (server != null)
+        {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * Returns a counter, registering it on first use.
+     *
+     * @param name the name of the metric, should end with "_total".
+     * @param help the description of the metric.
+     * @return the counter.
+     */
+    public LongAdder counter(String name, String help)
+    {
+        return register(name, help, "counter", LongAdder.class, LongAdder::new);
+    }
+
+    /**
+     * Returns a gauge which is updated by adding to it, registering it on
+     * first use.
+     *
+     * @param name the name of the metric.
+     * @param help the description of the metric.
+     * @return the gauge.
+     */
+    public LongAdder gauge(String name, String help)
+    {
+        return register(name, help, "gauge", LongAdder.class, LongAdder::new);
+    }
+
+    /**
+     * Registers a gauge whose value is computed when scraped, replacing any
+     * previous gauge with the same name.
+     *
+     * @param name the name of the metric.
+     * @param help the description of the metric.
+     * @param value computes the value.
+     */
+    public void gauge(String name, String help, DoubleSupplier value)
+    {
+        metrics.put(name, new Metric(name, help, "gauge", value));
+    }
+
+    /**
+     * Returns a summary of durations in milliseconds, which is exposed in
+     * seconds, registering it on first use.
+     *
+     * @param name the name of the metric, should end with "_seconds".
+     * @param help the description of the metric.
+     * @return the histogram to record the durations to.
+     */
+    public LatencyHistogram summary(String name, String help)
+    {
+        return register(name, help, "summary", LatencyHistogram.class, LatencyHistogram::new);
+    }
+
+    private <V> V register(String name, String help, String type, Class<V> clazz, Supplier<V> create)
+    {
+        Metric metric = metrics.computeIfAbsent(name, n -> new Metric(name, help, type, create.get()));
+        if (!clazz.isInstance(metric.value) || !type.equals(metric.type))
+        {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + metric.type);
+        }
+
+        return clazz.cast(metric.value);
+    }
+
+    /**
+     * @return all metrics in the text exposition format.
+     */
+    public String scrape()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Metric metric : metrics.values())
+        {
+            sb.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            sb.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+
+            if (metric.value instanceof LongAdder)
+            {
+                sb.append(metric.name).append(' ').append(((LongAdder) metric.value).sum()).append('\n');
+            }
+            else if (metric.value instanceof DoubleSupplier)
+            {
+                double value;
+                try
+                {
+                    value = ((DoubleSupplier) metric.value).getAsDouble();
+                }
+                catch (RuntimeException e)
+                {
+                    value = Double.NaN;
+                }
+                sb.append(metric.name).append(' ').append(format(value)).append('\n');
+            }
+            else if (metric.value instanceof LatencyHistogram)
+            {
+                LatencyHistogram histogram = (LatencyHistogram) metric.value;
+                for (double q : QUANTILES)
+                {
+                    sb.append(metric.name).append("{quantile=\"").append(q).append("\"} ")
+                        .append(format(histogram.getValueAtPercentile(q * 100) / 1000d)).append('\n');
+                }
+                sb.append(metric.name).append("_sum ")
+                    .append(format(histogram.getMean() * histogram.getCount() / 1000d)).append('\n');
+                sb.append(metric.name).append("_count ").append(histogram.getCount()).append('\n');
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static String format(double value)
+    {
+        if (Double.isNaN(value))
+        {
+            return "NaN";
+        }
+        if (Double.isInfinite(value))
+        {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * A registered metric.
+     */
+    private static class Metric
+    {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Object value;
+
+        private Metric(String name, String help, String type, Object value)
+        {
+            this.name = Objects.requireNonNull(name, "name");
+            this.help = help;
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
@@ -122,7 +122,7 @@ public class TestUtils
 
     /**
      * Waits until a javascript expression evaluates to {@code true}.
-     * @param driver where we check (poll)
+     * @param driver where we check, see {@link BrowserWait}
      * @param scriptToExecute the javascript to execute and expect a boolean
      * value from.
      * @param timeout time to wait in seconds
@@ -132,12 +132,16 @@ public class TestUtils
         final String scriptToExecute,
         long timeout)
     {
-        (new WebDriverWait(driver, timeout))
-            .until((ExpectedCondition<Boolean>) d -> {
+        BrowserWait.until(
+            driver,
+            BrowserWait.isTrue(scriptToExecute),
+            (ExpectedCondition<Boolean>) d -> {
                 Object res = ((JavascriptExecutor) driver)
                     .executeScript(scriptToExecute);
                 return res != null && res.equals(Boolean.TRUE);
-            });
+            },
+            timeout,
+            null);
     }
 
     /**
@@ -154,14 +158,18 @@ public class TestUtils
         final String expectedResult,
         long timeout)
     {
-        (new WebDriverWait(driver, timeout))
-            .until((ExpectedCondition<Boolean>) d -> {
+        BrowserWait.until(
+            driver,
+            BrowserWait.isEqual(scriptToExecute, expectedResult),
+            (ExpectedCondition<Boolean>) d -> {
                 Object res =
                     ((JavascriptExecutor) driver)
                         .executeScript(scriptToExecute);
 
                 return res != null && res.equals(expectedResult);
-            });
+            },
+            timeout,
+            null);
     }
 
     /**
@@ -192,19 +200,16 @@ public class TestUtils
         long timeout,
         String errorMessage)
     {
-        FluentWait<WebDriver> waitImpl
-            = new WebDriverWait(driver, timeout);
-
-        if (errorMessage != null)
-        {
-            waitImpl = waitImpl.withMessage(errorMessage);
-        }
-
-        return  waitImpl.until((ExpectedCondition<WebElement>) d -> {
-            List<WebElement> elements
-                = d.findElements(By.xpath(xpath));
-            return elements.isEmpty() ? null : elements.get(0);
-        });
+        return BrowserWait.until(
+            driver,
+            "return " + BrowserWait.findElement(By.xpath(xpath)) + ";",
+            (ExpectedCondition<WebElement>) d -> {
+                List<WebElement> elements
+                    = d.findElements(By.xpath(xpath));
+                return elements.isEmpty() ? null : elements.get(0);
+            },
+            timeout,
+            errorMessage);
     }
 
     /**
@@ -219,21 +224,19 @@ public class TestUtils
         final By by,
         long timeout)
     {
-        final WebElement[] foundElement = new WebElement[1];
-        new WebDriverWait(driver, timeout)
-            .until((ExpectedCondition<Boolean>) d -> {
-                List<WebElement> elements = d.findElements(by);
+        ExpectedCondition<WebElement> condition = d -> {
+            List<WebElement> elements = d.findElements(by);
+            return elements.isEmpty() ? null : elements.get(0);
+        };
 
-                if (!elements.isEmpty())
-                {
-                    foundElement[0] = elements.get(0);
-                    return true;
-                }
-                else
-                    return false;
-            });
+        String find = BrowserWait.findElement(by);
+        if (find == null)
+        {
+            return new WebDriverWait(driver, timeout).until(condition);
+        }
 
-        return foundElement[0];
+        return BrowserWait.until(
+            driver, "return " + find + ";", condition, timeout, null);
     }
 
     /**
@@ -294,9 +297,18 @@ public class TestUtils
         final By by,
         long timeout)
     {
-        new WebDriverWait(driver, timeout)
-            .until((ExpectedCondition<Boolean>) d -> d.findElements(by)
-                .isEmpty());
+        ExpectedCondition<Boolean> condition
+            = d -> d.findElements(by).isEmpty();
+
+        String find = BrowserWait.findElement(by);
+        if (find == null)
+        {
+            new WebDriverWait(driver, timeout).until(condition);
+            return;
+        }
+
+        BrowserWait.until(
+            driver, "return " + find + " === null;", condition, timeout, null);
     }
 
     /**
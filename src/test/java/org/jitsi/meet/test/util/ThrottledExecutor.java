@@ -0,0 +1,548 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import org.openqa.selenium.remote.*;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Executes timed and periodic tasks which spend most of their time blocked in
+ * WebDriver calls. A small timer fires the tasks at the right time and hands
+ * them over to the workers, which are virtual threads when the running JVM
+ * supports them. The number of concurrent WebDriver calls can be limited:
+ * every command sent to a driver passed to {@link #throttle(RemoteWebDriver)}
+ * waits for a permit, and so do the calls run through
+ * {@link #throttled(Supplier)} for the commands which are not sent by such a
+ * driver, e.g. to start a browser. A thread which holds a permit does not wait
+ * for another one.
+ *
+ * When created with {@link #wrap(ScheduledExecutorService)} the tasks are
+ * executed directly by the given scheduled pool and nothing is throttled.
+ */
+public class ThrottledExecutor
+{
+    /**
+     * The threads which fire the tasks at their scheduled time.
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * The threads which execute the tasks, or <tt>null</tt> to execute them
+     * on the {@link #timer} threads.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * Limits the number of concurrent throttled calls, or <tt>null</tt> for
+     * no limit.
+     */
+    private final Semaphore permits;
+
+    /**
+     * Whether the current thread holds a permit.
+     */
+    private final ThreadLocal<Boolean> holdingPermit = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * The number of throttled calls currently waiting for a permit.
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * The number of throttled calls currently executing.
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Whether the workers are virtual threads.
+     */
+    private final boolean virtual;
+
+    /**
+     * Creates an executor which runs everything on the given pool, without
+     * any limit of the concurrent calls.
+     *
+     * @param pool the pool to use.
+     * @return the new executor.
+     */
+    public static ThrottledExecutor wrap(ScheduledExecutorService pool)
+    {
+        return new ThrottledExecutor(pool, null, 0, false);
+    }
+
+    /**
+     * Creates an executor which uses a small timer and executes the tasks
+     * on virtual threads, falling back to a cached thread pool if the JVM
+     * does not support virtual threads.
+     *
+     * @param timerThreads the number of threads firing the scheduled tasks.
+     * @param maxConcurrentCalls the maximum number of concurrent throttled
+     * calls, zero or negative for no limit.
+     * @return the new executor.
+     */
+    public static ThrottledExecutor create(int timerThreads, int maxConcurrentCalls)
+    {
+        ExecutorService workers = newVirtualThreadPerTaskExecutor();
+        boolean virtual = workers != null;
+
+        if (workers == null)
+        {
+            TestUtils.print("Virtual threads are not supported by this JVM, will use a cached thread pool.");
+            workers = Executors.newCachedThreadPool(daemonThreadFactory("malleus-worker"));
+        }
+
+        return new ThrottledExecutor(
+            Executors.newScheduledThreadPool(Math.max(1, timerThreads), daemonThreadFactory("malleus-timer")),
+            workers,
+            maxConcurrentCalls,
+            virtual);
+    }
+
+    /**
+     * Obtains {@code Executors.newVirtualThreadPerTaskExecutor()} through
+     * reflection, as we compile against a release which does not have it.
+     *
+     * @return the executor or <tt>null</tt> if not supported.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a thread factory producing named daemon threads.
+     */
+    private static ThreadFactory daemonThreadFactory(String prefix)
+    {
+        AtomicInteger counter = new AtomicInteger();
+
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private ThrottledExecutor(
+        ScheduledExecutorService timer, ExecutorService workers, int maxConcurrentCalls, boolean virtual)
+    {
+        this.timer = Objects.requireNonNull(timer, "timer");
+        this.workers = workers;
+        this.permits = maxConcurrentCalls > 0 ? new Semaphore(maxConcurrentCalls, true) : null;
+        this.virtual = virtual;
+    }
+
+    /**
+     * Hands a task to the workers, or runs it in place if there are no
+     * separate workers.
+     */
+    private void dispatch(Runnable task)
+    {
+        if (workers == null)
+        {
+            task.run();
+        }
+        else
+        {
+            workers.execute(task);
+        }
+    }
+
+    /**
+     * Executes a task as soon as possible.
+     *
+     * @param task the task to execute.
+     */
+    public void execute(Runnable task)
+    {
+        if (workers == null)
+        {
+            timer.execute(task);
+        }
+        else
+        {
+            workers.execute(task);
+        }
+    }
+
+    /**
+     * Submits a task to be executed as soon as possible.
+     *
+     * @param task the task to execute.
+     * @return a future which completes when the task completes.
+     */
+    public Future<?> submit(Runnable task)
+    {
+        FutureTask<Void> future = new FutureTask<>(task, null);
+        execute(future);
+        return future;
+    }
+
+    /**
+     * Schedules a task to be executed after a delay.
+     *
+     * @param task the task to execute.
+     * @param delay the delay.
+     * @param unit the time unit of the <tt>delay</tt>.
+     * @return a future which completes when the task completes.
+     */
+    public Future<?> schedule(Runnable task, long delay, TimeUnit unit)
+    {
+        FutureTask<Void> future = new FutureTask<>(task, null);
+        timer.schedule(() -> dispatch(future), delay, unit);
+        return future;
+    }
+
+    /**
+     * Schedules a task to be executed repeatedly with a fixed delay between
+     * the end of one execution and the start of the next. As with
+     * {@link ScheduledExecutorService#scheduleWithFixedDelay}, if an execution
+     * throws, subsequent executions are suppressed.
+     *
+     * @param task the task to execute.
+     * @param initialDelay the delay before the first execution.
+     * @param delay the delay between executions.
+     * @param unit the time unit of the delays.
+     * @return a future which can be used to cancel the executions, and to
+     * interrupt the running one.
+     */
+    public Future<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit)
+    {
+        PeriodicTask periodic = new PeriodicTask(task, delay, unit);
+        periodic.scheduleNext(initialDelay);
+        return periodic;
+    }
+
+    /**
+     * Limits the number of concurrent commands sent by a driver, if the
+     * number of concurrent calls is limited. Every command waits for a permit
+     * and holds it only while it executes.
+     *
+     * @param driver the driver, shared by the tabs of a browser.
+     */
+    public void throttle(RemoteWebDriver driver)
+    {
+        if (permits == null)
+        {
+            return;
+        }
+
+        synchronized (holdingPermit)
+        {
+            CommandExecutor executor = driver.getCommandExecutor();
+            if (executor instanceof ThrottledCommandExecutor)
+            {
+                return;
+            }
+
+            try
+            {
+                // Not part of the public API, but the only way to see every
+                // command of a driver which is already started.
+                Method setCommandExecutor
+                    = RemoteWebDriver.class.getDeclaredMethod("setCommandExecutor", CommandExecutor.class);
+                setCommandExecutor.setAccessible(true);
+                setCommandExecutor.invoke(driver, new ThrottledCommandExecutor(executor));
+            }
+            catch (ReflectiveOperationException | RuntimeException e)
+            {
+                TestUtils.print("Can not throttle the WebDriver calls of " + driver.getSessionId() + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Waits for a permit, unless the current thread already holds one or the
+     * number of concurrent calls is not limited.
+     *
+     * @return whether a permit was acquired, and must be released with
+     * {@link #release(boolean)}.
+     */
+    private boolean acquire()
+    {
+        if (permits == null || holdingPermit.get())
+        {
+            return false;
+        }
+
+        waiting.incrementAndGet();
+        try
+        {
+            permits.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a WebDriver permit", e);
+        }
+        finally
+        {
+            waiting.decrementAndGet();
+        }
+
+        holdingPermit.set(true);
+        active.incrementAndGet();
+        return true;
+    }
+
+    private void release(boolean acquired)
+    {
+        if (acquired)
+        {
+            active.decrementAndGet();
+            holdingPermit.set(false);
+            permits.release();
+        }
+    }
+
+    /**
+     * Runs a call which uses WebDriver without a throttled driver, e.g. which
+     * starts a browser, waiting for a permit first if the number of
+     * concurrent calls is limited.
+     *
+     * @param call the call to run.
+     * @param <T> the result type.
+     * @return the result of the call.
+     */
+    public <T> T throttled(Supplier<T> call)
+    {
+        boolean acquired = acquire();
+        try
+        {
+            return call.get();
+        }
+        finally
+        {
+            release(acquired);
+        }
+    }
+
+    /**
+     * Runs a call which uses WebDriver without a throttled driver, waiting for
+     * a permit first if the number of concurrent calls is limited.
+     *
+     * @param call the call to run.
+     */
+    public void throttled(Runnable call)
+    {
+        throttled(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return the number of throttled calls waiting for a permit.
+     */
+    public int getWaitingCount()
+    {
+        return waiting.get();
+    }
+
+    /**
+     * @return the number of throttled calls currently executing.
+     */
+    public int getActiveCount()
+    {
+        return active.get();
+    }
+
+    /**
+     * Stops accepting new tasks.
+     */
+    public void shutdown()
+    {
+        timer.shutdown();
+        if (workers != null)
+        {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Executes the commands of a driver, each with a permit.
+     */
+    private class ThrottledCommandExecutor
+        implements CommandExecutor
+    {
+        private final CommandExecutor delegate;
+
+        private ThrottledCommandExecutor(CommandExecutor delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Response execute(Command command)
+            throws IOException
+        {
+            boolean acquired = acquire();
+            try
+            {
+                return delegate.execute(command);
+            }
+            finally
+            {
+                release(acquired);
+            }
+        }
+    }
+
+    /**
+     * A task executed with a fixed delay, which can be cancelled while it
+     * runs.
+     */
+    private class PeriodicTask
+        implements Runnable, Future<Void>
+    {
+        private final Runnable task;
+
+        private final long delay;
+
+        private final TimeUnit unit;
+
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        /**
+         * The thread running the task, guarded by this.
+         */
+        private Thread runner;
+
+        /**
+         * The next execution, guarded by this.
+         */
+        private ScheduledFuture<?> next;
+
+        private PeriodicTask(Runnable task, long delay, TimeUnit unit)
+        {
+            this.task = task;
+            this.delay = delay;
+            this.unit = unit;
+        }
+
+        private synchronized void scheduleNext(long delay)
+        {
+            if (!done.isDone())
+            {
+                next = timer.schedule(() -> dispatch(this), delay, unit);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            synchronized (this)
+            {
+                if (done.isDone())
+                {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                done.completeExceptionally(t);
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    runner = null;
+                    if (done.isCancelled())
+                    {
+                        // Do not leave the interrupt of a cancel which came
+                        // late to the next task of a pooled thread.
+                        Thread.interrupted();
+                    }
+                }
+            }
+
+            scheduleNext(delay);
+        }
+
+        @Override
+        public synchronized boolean cancel(boolean mayInterruptIfRunning)
+        {
+            if (!done.cancel(false))
+            {
+                return false;
+            }
+            if (next != null)
+            {
+                next.cancel(false);
+            }
+            if (mayInterruptIfRunning && runner != null)
+            {
+                runner.interrupt();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return done.isCancelled();
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return done.isDone();
+        }
+
+        @Override
+        public Void get()
+            throws InterruptedException, ExecutionException
+        {
+            return done.get();
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            return done.get(timeout, unit);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "ThrottledExecutor[virtual=%b, active=%d, waiting=%d]",
+            virtual, getActiveCount(), getWaitingCount());
+    }
+}
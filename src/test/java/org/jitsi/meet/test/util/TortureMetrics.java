@@ -0,0 +1,67 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * The metrics of the torture framework itself, registered with
+ * {@link PrometheusMetrics}.
+ */
+public final class TortureMetrics
+{
+    private static final PrometheusMetrics registry = PrometheusMetrics.getInstance();
+
+    /**
+     * The number of participants created and not yet closed.
+     */
+    public static final LongAdder ACTIVE_PARTICIPANTS = registry.gauge(
+        "torture_active_participants", "Participants created and not yet closed.");
+
+    /**
+     * The number of participants currently joining a conference.
+     */
+    public static final LongAdder JOINS_IN_PROGRESS = registry.gauge(
+        "torture_joins_in_progress", "Participants currently joining a conference.");
+
+    /**
+     * The number of failed joins.
+     */
+    public static final LongAdder JOIN_FAILURES = registry.counter(
+        "torture_join_failures_total", "Joins which failed.");
+
+    /**
+     * The number of times a participant was found with ICE not connected.
+     */
+    public static final LongAdder ICE_DISCONNECTS = registry.counter(
+        "torture_ice_disconnects_total", "Health checks which found ICE not connected.");
+
+    /**
+     * The number of errors creating a driver on the hub (or locally).
+     */
+    public static final LongAdder HUB_ERRORS = registry.counter(
+        "torture_hub_errors_total", "Errors creating a WebDriver session.");
+
+    /**
+     * The duration of the scripts executed through WebDriver.
+     */
+    public static final LatencyHistogram WEBDRIVER_CALL_LATENCY = registry.summary(
+        "torture_webdriver_call_seconds", "Duration of the scripts executed through WebDriver.");
+
+    private TortureMetrics()
+    {
+    }
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.web;
+
+import org.jitsi.meet.test.util.*;
+import org.openqa.selenium.*;
+import org.openqa.selenium.remote.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * A pool of warm browsers, so that creating a participant does not have to
+ * wait for a browser to launch. Browsers are pooled by the fingerprint of the
+ * options they were launched with (see
+ * {@link WebParticipantOptions#getBrowserFingerprint()}), only a browser
+ * launched with equivalent options is handed out.
+ *
+ * After a browser is handed out, the pool launches replacements in the
+ * background, so that {@link #SIZE_PNAME} browsers with the same fingerprint
+ * are ready for the next participants. A released browser is reset and
+ * returned to the pool, unless it has been used {@link #MAX_USES_PNAME}
+ * times. Idle browsers are checked periodically, which also keeps their
+ * remote sessions alive, and are quit when unhealthy or idle for longer than
+ * {@link #MAX_IDLE_PNAME}.
+ *
+ * With {@link #REUSE_PNAME}, the browsers of the participants closed at the
+ * end of a test class are kept for the next classes, up to
+ * {@link #MAX_IDLE_COUNT_PNAME} idle browsers, so that the next classes
+ * start without launching browsers, even without warm browsers.
+ *
+ * The reset leaves the conference by navigating away, clears the cookies and
+ * the storage of the origin of the conference from one of its pages which
+ * does not run the application, and verifies that the browser has no state
+ * left: a single window on about:blank, without cookies or storage. A
+ * browser which fails the reset is quit, and the next participant gets a new
+ * one.
+ *
+ * The pool is disabled unless {@link #SIZE_PNAME} is set to a positive value
+ * or {@link #REUSE_PNAME} is enabled.
+ */
+public class BrowserPool
+{
+    /**
+     * The number of warm browsers to keep ready per fingerprint. The pool is
+     * disabled when not set or zero.
+     */
+    public static final String SIZE_PNAME = "org.jitsi.meet.test.browser_pool.size";
+
+    /**
+     * The number of times a browser is handed out before it is quit.
+     * Defaults to 20.
+     */
+    public static final String MAX_USES_PNAME = "org.jitsi.meet.test.browser_pool.max_uses";
+
+    /**
+     * How long (in seconds) a browser may stay idle in the pool before it is
+     * quit. Defaults to 600.
+     */
+    public static final String MAX_IDLE_PNAME = "org.jitsi.meet.test.browser_pool.max_idle";
+
+    /**
+     * The largest number of idle browsers kept in the pool, of all
+     * fingerprints, when {@link #REUSE_PNAME} is enabled. Defaults to 6, and
+     * is never less than {@link #SIZE_PNAME}.
+     */
+    public static final String MAX_IDLE_COUNT_PNAME = "org.jitsi.meet.test.browser_pool.max_idle_count";
+
+    /**
+     * The interval (in seconds) of the health checks of the idle browsers.
+     * Defaults to 20, which also keeps remote sessions alive.
+     */
+    public static final String HEALTH_CHECK_INTERVAL_PNAME
+        = "org.jitsi.meet.test.browser_pool.health_check_interval";
+
+    /**
+     * The number of browsers launched in the background at the same time.
+     * Defaults to 2.
+     */
+    public static final String LAUNCH_THREADS_PNAME = "org.jitsi.meet.test.browser_pool.launch_threads";
+
+    /**
+     * Whether to keep the browsers of the closed participants for the next
+     * participants, besides the warm browsers of {@link #SIZE_PNAME}. False
+     * by default.
+     */
+    public static final String REUSE_PNAME = "org.jitsi.meet.test.browser_pool.reuse";
+
+    /**
+     * The page of the origin of a conference the storage is cleared from. Any
+     * page which does not run the application will do, e.g. a 404 page.
+     */
+    private static final String RESET_PATH = "/robots.txt";
+
+    /**
+     * The script which clears the storage of the current page.
+     */
+    private static final String CLEAR_STORAGE_SCRIPT
+        = "try { localStorage.clear(); sessionStorage.clear(); } catch (e) {}";
+
+    /**
+     * The script which returns the number of items left in the storage of
+     * the current page.
+     */
+    private static final String COUNT_STORAGE_SCRIPT
+        = "return localStorage.length + sessionStorage.length;";
+
+    /**
+     * The singleton instance.
+     */
+    private static BrowserPool instance;
+
+    private final int size;
+
+    /**
+     * Whether the browsers of the closed participants are kept, see
+     * {@link #REUSE_PNAME}.
+     */
+    private final boolean reuse;
+
+    private final int maxUses;
+
+    private final long maxIdleMs;
+
+    /**
+     * The largest number of idle browsers kept in reuse mode.
+     */
+    private final int maxIdleCount;
+
+    /**
+     * The idle browsers by fingerprint.
+     */
+    private final Map<String, Deque<PooledBrowser>> idle = new ConcurrentHashMap<>();
+
+    /**
+     * The number of browsers being launched in the background, by fingerprint.
+     */
+    private final Map<String, AtomicInteger> launching = new ConcurrentHashMap<>();
+
+    /**
+     * The number of times every handed out browser has been used.
+     */
+    private final Map<RemoteWebDriver, Integer> uses = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private final ExecutorService launcher;
+
+    private final ScheduledExecutorService maintenance;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The number of released browsers quit because they could not be reset.
+     */
+    private final AtomicLong resetFailures = new AtomicLong();
+
+    /**
+     * Returns the process wide pool, creating it on first use.
+     *
+     * @return the pool, or <tt>null</tt> if pooling is disabled.
+     */
+    public static synchronized BrowserPool getInstance()
+    {
+        if (instance == null)
+        {
+            int size = Math.max(0, intProperty(SIZE_PNAME, 0));
+            boolean reuse = Boolean.parseBoolean(System.getProperty(REUSE_PNAME, "false").trim());
+            if (size == 0 && !reuse)
+            {
+                return null;
+            }
+
+            instance = new BrowserPool(
+                size,
+                reuse,
+                intProperty(MAX_USES_PNAME, 20),
+                intProperty(MAX_IDLE_PNAME, 600),
+                intProperty(MAX_IDLE_COUNT_PNAME, 6),
+                intProperty(HEALTH_CHECK_INTERVAL_PNAME, 20),
+                intProperty(LAUNCH_THREADS_PNAME, 2));
+        }
+
+        return instance;
+    }
+
+    private static int intProperty(String name, int defaultValue)
+    {
+        String value = System.getProperty(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private BrowserPool(
+        int size, boolean reuse, int maxUses, int maxIdleSeconds, int maxIdleCount,
+        int healthCheckIntervalSeconds, int launchThreads)
+    {
+        this.size = size;
+        this.reuse = reuse;
+        this.maxUses = Math.max(1, maxUses);
+        this.maxIdleMs = TimeUnit.SECONDS.toMillis(maxIdleSeconds);
+        this.maxIdleCount = Math.max(size, maxIdleCount);
+
+        AtomicInteger counter = new AtomicInteger();
+        this.launcher = Executors.newFixedThreadPool(Math.max(1, launchThreads), r -> {
+            Thread t = new Thread(r, "browser-pool-launcher-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "browser-pool-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+
+        long interval = Math.max(1, healthCheckIntervalSeconds);
+        maintenance.scheduleWithFixedDelay(this::checkIdle, interval, interval, TimeUnit.SECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "browser-pool-shutdown"));
+
+        TestUtils.print("Browser pool enabled: size=" + size + " reuse=" + reuse + " maxUses=" + maxUses
+            + " maxIdle=" + maxIdleSeconds + "s" + (reuse ? " maxIdleCount=" + this.maxIdleCount : ""));
+    }
+
+    /**
+     * Hands out a browser with the given fingerprint, launching one if none
+     * is ready, and starts launching replacements in the background.
+     *
+     * @param fingerprint the fingerprint of the options.
+     * @param launch launches a new browser with the options, for the
+     * requester.
+     * @param launchSpare launches a new browser with the options but without
+     * anything specific to the requester (e.g. its name in the log files),
+     * to be handed out to any participant later.
+     * @return the browser.
+     */
+    public RemoteWebDriver acquire(
+        String fingerprint, Supplier<RemoteWebDriver> launch, Supplier<RemoteWebDriver> launchSpare)
+    {
+        RemoteWebDriver driver = null;
+
+        Deque<PooledBrowser> browsers = idle.get(fingerprint);
+        while (browsers != null && driver == null)
+        {
+            PooledBrowser browser = browsers.pollFirst();
+            if (browser == null)
+            {
+                break;
+            }
+
+            if (isHealthy(browser.driver))
+            {
+                driver = browser.driver;
+                hits.incrementAndGet();
+            }
+            else
+            {
+                quit(browser.driver);
+            }
+        }
+
+        if (driver == null)
+        {
+            misses.incrementAndGet();
+            driver = launch.get();
+            uses.put(driver, 0);
+        }
+
+        uses.computeIfPresent(driver, (d, n) -> n + 1);
+
+        fill(fingerprint, launchSpare);
+
+        return driver;
+    }
+
+    /**
+     * Returns a browser to the pool, or quits it if it was used too often or
+     * can not be reset.
+     *
+     * @param fingerprint the fingerprint of the options the browser was
+     * launched with.
+     * @param driver the browser.
+     */
+    public void release(String fingerprint, RemoteWebDriver driver)
+    {
+        Integer used = uses.get(driver);
+        Deque<PooledBrowser> browsers = idle.computeIfAbsent(fingerprint, k -> new ConcurrentLinkedDeque<>());
+
+        if (used == null
+            || used >= maxUses
+            || (reuse ? getIdleCount() >= maxIdleCount : browsers.size() >= size))
+        {
+            quit(driver);
+            return;
+        }
+
+        if (!reset(driver))
+        {
+            resetFailures.incrementAndGet();
+            quit(driver);
+            return;
+        }
+
+        browsers.addLast(new PooledBrowser(driver));
+    }
+
+    /**
+     * @return the number of idle browsers of all fingerprints.
+     */
+    private int getIdleCount()
+    {
+        return idle.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    /**
+     * Launches browsers in the background until {@link #size} are idle or
+     * being launched for a fingerprint.
+     */
+    private void fill(String fingerprint, Supplier<RemoteWebDriver> launch)
+    {
+        Deque<PooledBrowser> browsers = idle.computeIfAbsent(fingerprint, k -> new ConcurrentLinkedDeque<>());
+        AtomicInteger inProgress = launching.computeIfAbsent(fingerprint, k -> new AtomicInteger());
+
+        while (true)
+        {
+            int n = inProgress.get();
+            if (browsers.size() + n >= size)
+            {
+                return;
+            }
+
+            if (inProgress.compareAndSet(n, n + 1))
+            {
+                launcher.execute(() -> {
+                    try
+                    {
+                        RemoteWebDriver driver = launch.get();
+                        uses.put(driver, 0);
+                        browsers.addLast(new PooledBrowser(driver));
+                    }
+                    catch (Exception e)
+                    {
+                        TestUtils.print("Browser pool failed to launch a browser: " + e.getMessage());
+                    }
+                    finally
+                    {
+                        inProgress.decrementAndGet();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Leaves the current page, clears the cookies and the storage of its
+     * origin and verifies that no state is left.
+     *
+     * @return {@code true} if the browser is as good as a new one.
+     */
+    private boolean reset(RemoteWebDriver driver)
+    {
+        try
+        {
+            String origin = getOrigin(driver.getCurrentUrl());
+
+            // Leaves the conference, so that the application does not write
+            // to the storage again once it is cleared.
+            driver.get("about:blank");
+
+            if (origin != null)
+            {
+                driver.get(origin + RESET_PATH);
+                driver.executeScript(CLEAR_STORAGE_SCRIPT);
+                driver.manage().deleteAllCookies();
+
+                Object left = driver.executeScript(COUNT_STORAGE_SCRIPT);
+                if (!(left instanceof Number) || ((Number) left).intValue() != 0)
+                {
+                    TestUtils.print("Browser pool failed to clear the storage of " + origin + ": " + left);
+                    return false;
+                }
+                if (!driver.manage().getCookies().isEmpty())
+                {
+                    TestUtils.print("Browser pool failed to clear the cookies of " + origin);
+                    return false;
+                }
+
+                driver.get("about:blank");
+            }
+
+            // The windows opened by a test, e.g. by the iframe API, would be
+            // inherited by the next one.
+            Set<String> windows = driver.getWindowHandles();
+            if (windows.size() != 1 || !"about:blank".equals(driver.getCurrentUrl()))
+            {
+                TestUtils.print("Browser pool can not reuse a browser with " + windows.size() + " windows");
+                return false;
+            }
+
+            return true;
+        }
+        catch (WebDriverException e)
+        {
+            TestUtils.print("Browser pool failed to reset a browser: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @param url a URL.
+     * @return the origin of the URL, or null if it is not an http(s) URL.
+     */
+    private static String getOrigin(String url)
+    {
+        if (url == null || !(url.startsWith("http://") || url.startsWith("https://")))
+        {
+            return null;
+        }
+
+        int pathStart = url.indexOf('/', url.indexOf("//") + 2);
+        return pathStart < 0 ? url : url.substring(0, pathStart);
+    }
+
+    private boolean isHealthy(RemoteWebDriver driver)
+    {
+        try
+        {
+            driver.getCurrentUrl();
+            return true;
+        }
+        catch (Exception e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Quits the idle browsers which are unhealthy or idle for too long.
+     */
+    private void checkIdle()
+    {
+        long now = System.currentTimeMillis();
+        for (Deque<PooledBrowser> browsers : idle.values())
+        {
+            for (PooledBrowser browser : browsers)
+            {
+                if ((now - browser.idleSinceMs > maxIdleMs || !isHealthy(browser.driver))
+                    && browsers.remove(browser))
+                {
+                    quit(browser.driver);
+                }
+            }
+        }
+    }
+
+    private void quit(RemoteWebDriver driver)
+    {
+        uses.remove(driver);
+        try
+        {
+            driver.quit();
+        }
+        catch (Exception e)
+        {
+            // Already gone.
+        }
+    }
+
+    /**
+     * Quits all idle browsers and stops launching new ones.
+     */
+    public void shutdown()
+    {
+        maintenance.shutdownNow();
+        launcher.shutdownNow();
+
+        for (Deque<PooledBrowser> browsers : idle.values())
+        {
+            PooledBrowser browser;
+            while ((browser = browsers.pollFirst()) != null)
+            {
+                quit(browser.driver);
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "BrowserPool[idle=%d, launching=%d, hits=%d, misses=%d, resetFailures=%d]",
+            getIdleCount(),
+            launching.values().stream().mapToInt(AtomicInteger::get).sum(),
+            hits.get(),
+            misses.get(),
+            resetFailures.get());
+    }
+
+    /**
+     * An idle browser.
+     */
+    private static class PooledBrowser
+    {
+        private final RemoteWebDriver driver;
+        private final long idleSinceMs = System.currentTimeMillis();
+
+        private PooledBrowser(RemoteWebDriver driver)
+        {
+            this.driver = driver;
+        }
+    }
+}
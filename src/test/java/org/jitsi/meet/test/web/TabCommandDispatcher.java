@@ -0,0 +1,422 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.web;
+
+import org.jitsi.meet.test.util.*;
+import org.openqa.selenium.*;
+import org.openqa.selenium.remote.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Executes the commands of all the {@link TabbedWebDriver}s of one browser on
+ * a single thread, which is the only one talking to the base driver.
+ *
+ * Callers queue their commands and wait for the result. The dispatcher takes
+ * the oldest queued command and then the following commands queued for the
+ * same tab (at most {@link #MAX_RUN_LENGTH}), so that a tab is switched to
+ * once per run rather than once per command, and the window is only switched
+ * when the tab differs from the current one. The order of the commands of a
+ * tab is preserved.
+ */
+public class TabCommandDispatcher
+{
+    /**
+     * The maximum number of commands of the same tab executed before looking
+     * at the other tabs again, so that a busy tab does not starve the rest.
+     */
+    private static final int MAX_RUN_LENGTH = 32;
+
+    /**
+     * The time spent by the commands in the queues of all dispatchers.
+     */
+    private static final LatencyHistogram WAIT_TIME = PrometheusMetrics.getInstance().summary(
+        "torture_tab_command_wait_seconds", "Time tab commands spent queued for their browser.");
+
+    /**
+     * The number of commands in the queues of all dispatchers.
+     */
+    private static final LongAdder QUEUE_DEPTH = PrometheusMetrics.getInstance().gauge(
+        "torture_tab_command_queue_depth", "Tab commands queued for their browser.");
+
+    /**
+     * The number of window switches done by all dispatchers.
+     */
+    private static final LongAdder SWITCHES = PrometheusMetrics.getInstance().counter(
+        "torture_tab_switches_total", "Window switches done to execute tab commands.");
+
+    /**
+     * The dispatchers by base driver.
+     */
+    private static final Map<RemoteWebDriver, TabCommandDispatcher> dispatchers = new IdentityHashMap<>();
+
+    /**
+     * An action executed on the base driver.
+     *
+     * @param <T> the type of the result.
+     */
+    public interface Action<T>
+    {
+        /**
+         * Executes the action.
+         *
+         * @param driver the base driver, switched to the tab of the command.
+         * @return the result.
+         */
+        T run(RemoteWebDriver driver);
+    }
+
+    private final RemoteWebDriver driver;
+
+    private final Thread thread;
+
+    /**
+     * The queued commands, guarded by itself.
+     */
+    private final LinkedList<Command<?>> queue = new LinkedList<>();
+
+    /**
+     * The number of tabbed drivers using this dispatcher, guarded by
+     * {@link #dispatchers}.
+     */
+    private int references;
+
+    /**
+     * The tab the base driver is switched to, only accessed by the dispatcher
+     * thread.
+     */
+    private String currentTab;
+
+    /**
+     * Whether the window the browser was started with is used by a tab, only
+     * accessed by the dispatcher thread.
+     */
+    private boolean initialTabClaimed;
+
+    private volatile boolean stopped;
+
+    private final AtomicLong commands = new AtomicLong();
+
+    private final AtomicLong switches = new AtomicLong();
+
+    /**
+     * Returns the dispatcher of a browser, starting it if needed, and adds a
+     * reference to it.
+     *
+     * @param driver the base driver.
+     * @return the dispatcher.
+     */
+    static TabCommandDispatcher acquire(RemoteWebDriver driver)
+    {
+        synchronized (dispatchers)
+        {
+            TabCommandDispatcher dispatcher = dispatchers.computeIfAbsent(driver, TabCommandDispatcher::new);
+            dispatcher.references++;
+            return dispatcher;
+        }
+    }
+
+    private TabCommandDispatcher(RemoteWebDriver driver)
+    {
+        this.driver = driver;
+        this.thread = new Thread(this::dispatch, "tab-dispatcher-" + driver.getSessionId());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Removes a reference to the dispatcher and, if it was the last one, quits
+     * the browser and stops the dispatcher.
+     */
+    void release()
+    {
+        synchronized (dispatchers)
+        {
+            if (--references > 0)
+            {
+                return;
+            }
+            dispatchers.remove(driver);
+        }
+
+        try
+        {
+            call(null, d -> {
+                d.quit();
+                return null;
+            });
+        }
+        finally
+        {
+            synchronized (queue)
+            {
+                stopped = true;
+            }
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Claims the window the browser was started with for a tab. Must be called
+     * from an action.
+     *
+     * @return <tt>true</tt> if the window was not claimed yet, i.e. the caller
+     * should use it rather than opening a new one.
+     */
+    boolean claimInitialTab()
+    {
+        if (initialTabClaimed)
+        {
+            return false;
+        }
+        initialTabClaimed = true;
+        return true;
+    }
+
+    /**
+     * Executes an action in a tab and waits for its result.
+     *
+     * @param tab the tab to execute in, or <tt>null</tt> if the action does
+     * not depend on the current tab.
+     * @param action the action.
+     * @param <T> the type of the result.
+     * @return the result of the action.
+     */
+    public <T> T call(String tab, Action<T> action)
+    {
+        return await(enqueue(new Command<>(tab, action)));
+    }
+
+    /**
+     * Executes a script in a tab and waits for its result.
+     *
+     * @param tab the tab to execute in.
+     * @param script the script.
+     * @param args the arguments of the script.
+     * @return the result of the script.
+     */
+    public Object executeScript(String tab, String script, Object... args)
+    {
+        return await(enqueue(new Command<>(tab, d -> d.executeScript(script, args))));
+    }
+
+    /**
+     * Forgets the current tab, so that the next command switches windows.
+     * Must be called from an action which closes the current window.
+     */
+    void invalidateCurrentTab()
+    {
+        currentTab = null;
+    }
+
+    private <T> Command<T> enqueue(Command<T> command)
+    {
+        if (Thread.currentThread() == thread)
+        {
+            /* Called from within an action, execute it right away. */
+            execute(Collections.singletonList(command));
+            return command;
+        }
+
+        synchronized (queue)
+        {
+            if (stopped)
+            {
+                throw new WebDriverException("The browser of this tab was quit");
+            }
+            queue.addLast(command);
+            queue.notify();
+        }
+        QUEUE_DEPTH.increment();
+
+        return command;
+    }
+
+    private static <T> T await(Command<T> command)
+    {
+        try
+        {
+            return command.result.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new WebDriverException("Interrupted while waiting for a tab command", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new WebDriverException(cause);
+        }
+    }
+
+    /**
+     * The loop of the dispatcher thread.
+     */
+    private void dispatch()
+    {
+        List<Command<?>> run = new ArrayList<>(MAX_RUN_LENGTH);
+        while (!stopped)
+        {
+            try
+            {
+                takeRun(run);
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+
+            QUEUE_DEPTH.add(-run.size());
+            long now = System.nanoTime();
+            for (Command<?> command : run)
+            {
+                WAIT_TIME.record(TimeUnit.NANOSECONDS.toMillis(now - command.queuedNanos));
+            }
+
+            execute(run);
+            run.clear();
+        }
+
+        synchronized (queue)
+        {
+            for (Command<?> command : queue)
+            {
+                command.result.completeExceptionally(new WebDriverException("The browser of this tab was quit"));
+            }
+            QUEUE_DEPTH.add(-queue.size());
+            queue.clear();
+        }
+    }
+
+    /**
+     * Takes the oldest command and the following commands of the same tab out
+     * of the queue, waiting for one if the queue is empty.
+     */
+    private void takeRun(List<Command<?>> run)
+        throws InterruptedException
+    {
+        synchronized (queue)
+        {
+            while (queue.isEmpty())
+            {
+                queue.wait();
+            }
+
+            Command<?> first = queue.removeFirst();
+            run.add(first);
+
+            Iterator<Command<?>> it = queue.iterator();
+            while (it.hasNext() && run.size() < MAX_RUN_LENGTH)
+            {
+                Command<?> command = it.next();
+                if (Objects.equals(first.tab, command.tab))
+                {
+                    it.remove();
+                    run.add(command);
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes a run of commands of the same tab.
+     */
+    private void execute(List<Command<?>> run)
+    {
+        String tab = run.get(0).tab;
+        if (tab != null && !tab.equals(currentTab))
+        {
+            try
+            {
+                driver.switchTo().window(tab);
+                currentTab = tab;
+                switches.incrementAndGet();
+                SWITCHES.increment();
+            }
+            catch (RuntimeException e)
+            {
+                currentTab = null;
+                for (Command<?> command : run)
+                {
+                    command.result.completeExceptionally(e);
+                }
+                return;
+            }
+        }
+
+        for (Command<?> command : run)
+        {
+            command.execute(driver);
+            commands.incrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        int depth;
+        synchronized (queue)
+        {
+            depth = queue.size();
+        }
+        return String.format(
+            "TabCommandDispatcher[%s: queued=%d, commands=%d, switches=%d]",
+            driver.getSessionId(), depth, commands.get(), switches.get());
+    }
+
+    /**
+     * A queued command.
+     *
+     * @param <T> the type of the result.
+     */
+    private static class Command<T>
+    {
+        private final String tab;
+        private final Action<T> action;
+
+        private final long queuedNanos = System.nanoTime();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Command(String tab, Action<T> action)
+        {
+            this.tab = tab;
+            this.action = action;
+        }
+
+        private void execute(RemoteWebDriver driver)
+        {
+            try
+            {
+                result.complete(action.run(driver));
+            }
+            catch (RuntimeException | Error e)
+            {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -24,51 +24,46 @@ import org.openqa.selenium.remote.*;
 
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.*;
 
-/** A wrapper around RemoteWebDriver that allows multiple tabs to be running at once in the same browser instance. */
+/**
+ * A wrapper around RemoteWebDriver that allows multiple tabs to be running at once in the same browser instance.
+ * The commands of all tabs of a browser are executed by its {@link TabCommandDispatcher}.
+ */
 public class TabbedWebDriver implements WebDriver, JavascriptExecutor,
     FindsById, FindsByClassName, FindsByLinkText, FindsByName,
     FindsByCssSelector, FindsByTagName, FindsByXPath,
     HasInputDevices, HasCapabilities, Interactive, TakesScreenshot
 {
-    private static final Map<WebDriver, AtomicInteger> bases = Collections.synchronizedMap(new IdentityHashMap<>());
-
     final RemoteWebDriver baseDriver;
-    final AtomicInteger counter;
+
+    /**
+     * Executes the commands of all the tabs of {@link #baseDriver}.
+     */
+    final TabCommandDispatcher dispatcher;
 
     String tabId;
 
     public TabbedWebDriver(RemoteWebDriver base)
     {
         baseDriver = base;
+        dispatcher = TabCommandDispatcher.acquire(baseDriver);
 
-        synchronized (baseDriver)
-        {
-            Set<String> oldTabs = baseDriver.getWindowHandles();
+        tabId = dispatcher.call(null, d -> {
+            Set<String> oldTabs = d.getWindowHandles();
 
-            AtomicBoolean first = new AtomicBoolean(false);
-            counter = bases.computeIfAbsent(baseDriver, key -> {
-                first.set(true);
-                return new AtomicInteger();
-            });
-            counter.incrementAndGet();
-
-            if (first.get())
+            if (dispatcher.claimInitialTab())
             {
                 assert (oldTabs.size() == 1);
-                tabId = oldTabs.iterator().next();
-            }
-            else
-            {
-                /* TODO: is there a non-quadratic way of doing this? */
-                baseDriver.executeScript("window.open()");
-                Set<String> newTabs = baseDriver.getWindowHandles();
-                newTabs.removeAll(oldTabs);
-                assert (newTabs.size() == 1);
-                tabId = newTabs.iterator().next();
+                return oldTabs.iterator().next();
             }
-        }
+
+            /* TODO: is there a non-quadratic way of doing this? */
+            d.executeScript("window.open()");
+            Set<String> newTabs = d.getWindowHandles();
+            newTabs.removeAll(oldTabs);
+            assert (newTabs.size() == 1);
+            return newTabs.iterator().next();
+        });
     }
 
     public String getSessionId()
@@ -90,119 +85,79 @@ public class TabbedWebDriver implements WebDriver, JavascriptExecutor,
     @Override
     public Object executeScript(String script, Object... args)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.executeScript(script, args);
-        }
+        return dispatcher.executeScript(tabId, script, args);
     }
 
     @Override
     public Object executeAsyncScript(String script, Object... args)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.executeAsyncScript(script, args);
-        }
+        return dispatcher.call(tabId, d -> d.executeAsyncScript(script, args));
     }
 
     @Override
     public <X> X getScreenshotAs(OutputType<X> target) throws WebDriverException
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.getScreenshotAs(target);
-        }
+        return dispatcher.call(tabId, d -> d.getScreenshotAs(target));
     }
 
     @Override
     public void get(String url)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            baseDriver.get(url);
-        }
+        dispatcher.call(tabId, d -> {
+            d.get(url);
+            return null;
+        });
     }
 
     @Override
     public String getCurrentUrl()
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.getCurrentUrl();
-        }
+        return dispatcher.call(tabId, d -> d.getCurrentUrl());
     }
 
     @Override
     public String getTitle()
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.getTitle();
-        }
+        return dispatcher.call(tabId, d -> d.getTitle());
     }
 
     @Override
     public List<WebElement> findElements(By by)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElements(by);
-        }
+        return dispatcher.call(tabId, d -> d.findElements(by));
     }
 
     @Override
     public WebElement findElement(By by)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElement(by);
-        }
+        return dispatcher.call(tabId, d -> d.findElement(by));
     }
 
     @Override
     public String getPageSource()
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.getPageSource();
-        }
+        return dispatcher.call(tabId, d -> d.getPageSource());
     }
 
     @Override
     public void close()
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            baseDriver.close();
-            tabId = null;
-        }
+        dispatcher.call(tabId, d -> {
+            d.close();
+            dispatcher.invalidateCurrentTab();
+            return null;
+        });
+        tabId = null;
     }
 
     @Override
     public void quit()
     {
-        synchronized (baseDriver)
+        if (tabId != null)
         {
-            if (tabId != null)
-            {
-                close();
-            }
-            if (counter.decrementAndGet() == 0)
-            {
-                bases.remove(baseDriver);
-                baseDriver.quit();
-            }
+            close();
         }
+        dispatcher.release();
     }
 
     @Override
@@ -233,11 +188,7 @@ public class TabbedWebDriver implements WebDriver, JavascriptExecutor,
     @Override
     public Options manage()
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return new TabbedWebDriverOptions(baseDriver.manage());
-        }
+        return new TabbedWebDriverOptions();
     }
 
     @Override
@@ -257,261 +208,175 @@ public class TabbedWebDriver implements WebDriver, JavascriptExecutor,
     @Override
     public void perform(Collection<Sequence> actions)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            baseDriver.perform(actions);
-        }
+        dispatcher.call(tabId, d -> {
+            d.perform(actions);
+            return null;
+        });
     }
 
     @Override
     public void resetInputState()
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            baseDriver.resetInputState();
-        }
+        dispatcher.call(tabId, d -> {
+            d.resetInputState();
+            return null;
+        });
     }
 
     @Override
     public WebElement findElementByClassName(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementByClassName(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementByClassName(using));
     }
 
     @Override
     public List<WebElement> findElementsByClassName(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementsByClassName(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementsByClassName(using));
     }
 
     @Override
     public WebElement findElementByCssSelector(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementByCssSelector(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementByCssSelector(using));
     }
 
     @Override
     public List<WebElement> findElementsByCssSelector(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementsByCssSelector(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementsByCssSelector(using));
     }
 
     @Override
     public WebElement findElementById(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementById(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementById(using));
     }
 
     @Override
     public List<WebElement> findElementsById(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementsById(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementsById(using));
     }
 
     @Override
     public WebElement findElementByLinkText(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementByLinkText(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementByLinkText(using));
     }
 
     @Override
     public List<WebElement> findElementsByLinkText(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementsByLinkText(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementsByLinkText(using));
     }
 
     @Override
     public WebElement findElementByPartialLinkText(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementByPartialLinkText(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementByPartialLinkText(using));
     }
 
     @Override
     public List<WebElement> findElementsByPartialLinkText(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementsByPartialLinkText(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementsByPartialLinkText(using));
     }
 
     @Override
     public WebElement findElementByName(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementByName(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementByName(using));
     }
 
     @Override
     public List<WebElement> findElementsByName(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementsByName(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementsByName(using));
     }
 
     @Override
     public WebElement findElementByTagName(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementByTagName(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementByTagName(using));
     }
 
     @Override
     public List<WebElement> findElementsByTagName(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementsByTagName(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementsByTagName(using));
     }
 
     @Override
     public WebElement findElementByXPath(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementByXPath(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementByXPath(using));
     }
 
     @Override
     public List<WebElement> findElementsByXPath(String using)
     {
-        synchronized (baseDriver)
-        {
-            baseDriver.switchTo().window(tabId);
-            return baseDriver.findElementsByXPath(using);
-        }
+        return dispatcher.call(tabId, d -> d.findElementsByXPath(using));
     }
 
+    /**
+     * The options of a tab, whose commands are executed by the dispatcher.
+     */
     protected class TabbedWebDriverOptions
         implements Options
     {
-        private final Options baseOptions;
-
-        protected TabbedWebDriverOptions(Options base)
-        {
-            baseOptions = base;
-        }
-
         @Override
         public void addCookie(Cookie cookie)
         {
-            synchronized (baseDriver)
-            {
-                baseDriver.switchTo().window(tabId);
-                baseOptions.addCookie(cookie);
-            }
+            dispatcher.call(tabId, d -> {
+                d.manage().addCookie(cookie);
+                return null;
+            });
         }
 
         @Override
         public void deleteCookieNamed(String name)
         {
-            synchronized (baseDriver)
-            {
-                baseDriver.switchTo().window(tabId);
-                baseOptions.deleteCookieNamed(name);
-            }
+            dispatcher.call(tabId, d -> {
+                d.manage().deleteCookieNamed(name);
+                return null;
+            });
         }
 
         @Override
         public void deleteCookie(Cookie cookie)
         {
-            synchronized (baseDriver)
-            {
-                baseDriver.switchTo().window(tabId);
-                baseOptions.deleteCookie(cookie);
-            }
+            dispatcher.call(tabId, d -> {
+                d.manage().deleteCookie(cookie);
+                return null;
+            });
         }
 
         @Override
         public void deleteAllCookies()
         {
-            synchronized (baseDriver)
-            {
-                baseDriver.switchTo().window(tabId);
-                baseOptions.deleteAllCookies();
-            }
+            dispatcher.call(tabId, d -> {
+                d.manage().deleteAllCookies();
+                return null;
+            });
         }
 
         @Override
         public Set<Cookie> getCookies()
         {
-            synchronized (baseDriver)
-            {
-                baseDriver.switchTo().window(tabId);
-                return baseOptions.getCookies();
-            }
+            return dispatcher.call(tabId, d -> d.manage().getCookies());
         }
 
         @Override
         public Cookie getCookieNamed(String name)
         {
-            synchronized (baseDriver)
-            {
-                baseDriver.switchTo().window(tabId);
-                return baseOptions.getCookieNamed(name);
-            }
+            return dispatcher.call(tabId, d -> d.manage().getCookieNamed(name));
         }
 
         @Override
         public Timeouts timeouts()
         {
-            synchronized (baseDriver)
-            {
-                baseDriver.switchTo().window(tabId);
-                return new TabbedWebTimeouts(baseOptions.timeouts());
-            }
+            return new TabbedWebTimeouts();
         }
 
         @Override
@@ -536,32 +401,31 @@ public class TabbedWebDriver implements WebDriver, JavascriptExecutor,
         }
     }
 
-    /** TODO: I think these parameters may affect the base driver globally.  It should be ok for us though. */
+    /**
+     * The timeouts of the browser, shared by all its tabs, set by the
+     * dispatcher.
+     */
     protected class TabbedWebTimeouts implements Timeouts
     {
-        private final Timeouts baseTimeouts;
-
-        protected TabbedWebTimeouts(Timeouts base)
-        {
-            baseTimeouts = base;
-        }
-
         @Override
         public Timeouts implicitlyWait(long time, TimeUnit unit)
         {
-            return null;
+            dispatcher.call(null, d -> d.manage().timeouts().implicitlyWait(time, unit));
+            return this;
         }
 
         @Override
         public Timeouts setScriptTimeout(long time, TimeUnit unit)
         {
-            return null;
+            dispatcher.call(null, d -> d.manage().timeouts().setScriptTimeout(time, unit));
+            return this;
         }
 
         @Override
         public Timeouts pageLoadTimeout(long time, TimeUnit unit)
         {
-            return null;
+            dispatcher.call(null, d -> d.manage().timeouts().pageLoadTimeout(time, unit));
+            return this;
         }
     }
 }
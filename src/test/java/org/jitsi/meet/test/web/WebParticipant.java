@@ -94,6 +94,32 @@ public class WebParticipant extends Participant<WebDriver>
     public static final String ICE_CONNECTED_CHECK_SCRIPT =
         "return APP.conference.getConnectionState() === 'connected';";
 
+    /**
+     * The javascript code which returns the state used to build a
+     * {@link HealthSnapshot}. Only the few fields needed are returned, so
+     * that the (large) stats object is not serialized over the wire.
+     */
+    private static final String HEALTH_SNAPSHOT_SCRIPT =
+        "try {"
+            + "const c = APP.conference;"
+            + "const x = c._room && c._room.xmpp;"
+            + "let s = {};"
+            + "try { s = c.getStats() || {}; } catch (e) {}"
+            + "const b = s.bitrate || {};"
+            + "const t = (s.transport && s.transport[0]) || {};"
+            + "return {"
+            + " ice: c.getConnectionState() || null,"
+            + " p2pIce: c.getP2PConnectionState() || null,"
+            + " muc: c.isJoined() === true,"
+            + " xmpp: Boolean(x && x.connection && x.connection.connected),"
+            + " down: b.download || 0,"
+            + " up: b.upload || 0,"
+            + " p2p: t.p2p === true,"
+            + " type: t.type || null,"
+            + " ip: t.ip || null"
+            + "};"
+            + "} catch (err) { return null; }";
+
     /**
      *  The javascript code which returns an array of remote participant IDs.
      */
@@ -118,6 +144,17 @@ public class WebParticipant extends Participant<WebDriver>
     private final boolean isLoadTest;
     private final boolean saveLogs;
 
+    /**
+     * The pool the browser of this participant was taken from and is
+     * returned to on close, or <tt>null</tt>.
+     */
+    private BrowserPool browserPool;
+
+    /**
+     * The fingerprint the browser is pooled with.
+     */
+    private String browserFingerprint;
+
     /**
      * Constructs a Participant.
      *
@@ -135,6 +172,37 @@ public class WebParticipant extends Participant<WebDriver>
         this.saveLogs = saveLogs;
     }
 
+    /**
+     * Marks the browser of this participant as taken from a pool, so that it
+     * is returned to it on close instead of quit.
+     *
+     * @param browserPool the pool.
+     * @param browserFingerprint the fingerprint the browser is pooled with.
+     */
+    void setBrowserPool(BrowserPool browserPool, String browserFingerprint)
+    {
+        this.browserPool = browserPool;
+        this.browserFingerprint = browserFingerprint;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns the browser to the pool it was taken from, if any.
+     */
+    @Override
+    protected void quitDriver()
+    {
+        if (browserPool != null && driver instanceof RemoteWebDriver)
+        {
+            browserPool.release(browserFingerprint, (RemoteWebDriver) driver);
+        }
+        else
+        {
+            super.quitDriver();
+        }
+    }
+
     public String getBridgeIp()
     {
         // With the default stats interval (10s) this can take up to 20 seconds.
@@ -296,7 +364,16 @@ public class WebParticipant extends Participant<WebDriver>
     @Override
     public Object executeScript(String var1, Object... var2)
     {
-        return getJSExecutor().executeScript(var1, var2);
+        long start = System.nanoTime();
+        try
+        {
+            return getJSExecutor().executeScript(var1, var2);
+        }
+        finally
+        {
+            TortureMetrics.WEBDRIVER_CALL_LATENCY.record(
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
     }
 
     /**
@@ -307,7 +384,16 @@ public class WebParticipant extends Participant<WebDriver>
     @Override
     public Object executeAsyncScript(String var1, Object... var2)
     {
-        return getJSExecutor().executeAsyncScript(var1, var2);
+        long start = System.nanoTime();
+        try
+        {
+            return getJSExecutor().executeAsyncScript(var1, var2);
+        }
+        finally
+        {
+            TortureMetrics.WEBDRIVER_CALL_LATENCY.record(
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
     }
 
     private JavascriptExecutor getJSExecutor()
@@ -406,6 +492,15 @@ public class WebParticipant extends Participant<WebDriver>
         return new WebRtpStatistics(this);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RtpStatsSnapshot getRtpStatsSnapshot()
+    {
+        return new WebRtpStatsSnapshot(this);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -427,6 +522,38 @@ public class WebParticipant extends Participant<WebDriver>
                 "return APP.conference._room.xmpp.connection.connected;"));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HealthSnapshot getHealthSnapshot()
+    {
+        Object result = executeScript(HEALTH_SNAPSHOT_SCRIPT);
+
+        Map<?, ?> map = result instanceof Map ? (Map<?, ?>) result : Collections.emptyMap();
+
+        Object type = map.get("type");
+
+        return new HealthSnapshot(
+            (String) map.get("ice"),
+            (String) map.get("p2pIce"),
+            Boolean.TRUE.equals(map.get("muc")),
+            Boolean.TRUE.equals(map.get("xmpp")),
+            toLong(map.get("down")),
+            toLong(map.get("up")),
+            Boolean.TRUE.equals(map.get("p2p")),
+            type == null ? null : type.toString().toLowerCase(),
+            (String) map.get("ip"));
+    }
+
+    /**
+     * Converts a number returned by the driver to long.
+     */
+    private static long toLong(Object o)
+    {
+        return o instanceof Number ? ((Number) o).longValue() : 0;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -490,18 +617,43 @@ public class WebParticipant extends Participant<WebDriver>
         waitForIceConnected(15);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void waitForIceConnected(int timeoutSeconds)
+    {
+        waitForScript(
+            ICE_CONNECTED_CHECK_SCRIPT,
+            timeoutSeconds,
+            toString() + "#isIceConnected",
+            BrowserWait.ICE_EVENTS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void waitToJoinMUC(int timeout)
+    {
+        waitForScript(
+            IS_MUC_JOINED,
+            timeout,
+            toString() + "#waitToJoinMUC",
+            BrowserWait.CONFERENCE_JOINED);
+    }
+
     /**
      * Waits for number of remote streams.
      * @param n number of remote streams to wait for.
      */
     public void waitForRemoteStreams(int n)
     {
-        waitForCondition(
-            () -> (Boolean) executeScript(
-                "return APP.conference"
-                    + ".getNumberOfParticipantsWithTracks() >= " + n + ";"),
-                15,
-                "waitForRemoteStreams:" + n);
+        waitForScript(
+            "return APP.conference"
+                + ".getNumberOfParticipantsWithTracks() >= " + n + ";",
+            15,
+            "waitForRemoteStreams:" + n);
     }
 
     /**
@@ -510,12 +662,35 @@ public class WebParticipant extends Participant<WebDriver>
      */
     public void waitForParticipants(int n)
     {
-        waitForCondition(
-            () -> (Boolean) executeScript(
-                "return APP.conference"
-                    + ".listMembers().length === " + n + ";"),
-                15,
-                "waitForParticipants:" + n);
+        waitForScript(
+            "return APP.conference"
+                + ".listMembers().length === " + n + ";",
+            15,
+            "waitForParticipants:" + n);
+    }
+
+    /**
+     * Waits in the browser until a script returns {@code true}, see
+     * {@link BrowserWait}.
+     *
+     * @param script the script.
+     * @param timeoutSeconds a timeout in seconds.
+     * @param label a label which will appear in a timeout exception when
+     * the condition is not met withing the time limit.
+     * @param events the events of the conference which may change the result
+     * of the script.
+     */
+    private void waitForScript(
+        String script, int timeoutSeconds, String label, String... events)
+    {
+        BrowserWait.until(
+            driver,
+            BrowserWait.isTrue(script),
+            (ExpectedCondition<Boolean>) d
+                -> Boolean.TRUE.equals(executeScript(script)),
+            timeoutSeconds,
+            label,
+            events);
     }
 
     /**
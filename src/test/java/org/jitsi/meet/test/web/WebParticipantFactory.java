@@ -30,6 +30,7 @@ import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.*;
 import java.util.logging.*;
 
 /**
@@ -46,6 +47,17 @@ public class WebParticipantFactory
             + "?response=redirect&prodversion=38.0&x=id%%3D%s"
             + "%%26installsource%%3Dondemand%%26uc";
 
+    /**
+     * The browser types whose driver binary has been set up.
+     */
+    private static final Set<ParticipantType> driverBinariesSetUp = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The number of browsers launched ahead of time by the browser pool,
+     * which name their log files.
+     */
+    private static final AtomicInteger spareBrowsers = new AtomicInteger();
+
     /**
      * Gets a {@link File} pointing to the pathname passed as an argument.
      */
@@ -102,24 +114,42 @@ public class WebParticipantFactory
         }
 
         WebDriver driver;
+        BrowserPool browserPool = BrowserPool.getInstance();
+        String fingerprint = null;
 
-        if (webOptions.getMultitab())
+        try
         {
-            RemoteWebDriver baseDriver;
-            if (webOptions.getBaseDriver() != null)
+            if (webOptions.getMultitab())
+            {
+                RemoteWebDriver baseDriver;
+                if (webOptions.getBaseDriver() != null)
+                {
+                    /* Throws BadCast if this isn't a RemoteWebDriver. */
+                    baseDriver = (RemoteWebDriver)webOptions.getBaseDriver();
+                }
+                else
+                {
+                    baseDriver = startWebDriver(webOptions);
+                }
+                driver = new TabbedWebDriver(baseDriver);
+            }
+            else if (browserPool != null && isPoolable(webOptions))
             {
-                /* Throws BadCast if this isn't a RemoteWebDriver. */
-                baseDriver = (RemoteWebDriver)webOptions.getBaseDriver();
+                fingerprint = webOptions.getBrowserFingerprint();
+                driver = browserPool.acquire(
+                    fingerprint,
+                    () -> startWebDriver(webOptions),
+                    () -> startWebDriver(getSpareOptions(webOptions)));
             }
             else
             {
-                baseDriver = startWebDriver(webOptions);
+                driver = startWebDriver(webOptions);
             }
-            driver = new TabbedWebDriver(baseDriver);
         }
-        else
+        catch (WebDriverException e)
         {
-            driver = startWebDriver(webOptions);
+            TortureMetrics.HUB_ERRORS.increment();
+            throw e;
         }
 
         WebParticipant webParticipant
@@ -130,9 +160,64 @@ public class WebParticipantFactory
                     webOptions.getLoadTest(),
                     webOptions.getSaveLogs());
 
+        if (fingerprint != null)
+        {
+            webParticipant.setBrowserPool(browserPool, fingerprint);
+        }
+
         return webParticipant;
     }
 
+    /**
+     * Returns the options of a browser launched ahead of time for any
+     * participant, named after the pool rather than the participant which
+     * triggered the launch.
+     *
+     * @param options the options of the participant.
+     * @return the options of the spare browser.
+     */
+    private static WebParticipantOptions getSpareOptions(WebParticipantOptions options)
+    {
+        WebParticipantOptions spareOptions = new WebParticipantOptions();
+        spareOptions.putAll(options);
+        spareOptions.setName("browser-pool-" + spareBrowsers.incrementAndGet());
+        return spareOptions;
+    }
+
+    /**
+     * Browsers with their own profile directory can not be launched ahead
+     * of time, as the directory can be used by one browser only.
+     *
+     * @param options the options.
+     * @return whether a browser with these options can be pooled.
+     */
+    private static boolean isPoolable(WebParticipantOptions options)
+    {
+        String profileDirectory = options.getProfileDirectory();
+        return profileDirectory == null || profileDirectory.isEmpty();
+    }
+
+    /**
+     * Sets up the driver binary of a browser type once per JVM, instead of
+     * resolving it again for every browser.
+     *
+     * @param type the participant type.
+     * @param setup does the setup.
+     */
+    private static void setupDriverBinary(ParticipantType type, Runnable setup)
+    {
+        // The participants created at the same time wait for the first one
+        // to finish the setup.
+        synchronized (driverBinariesSetUp)
+        {
+            if (!driverBinariesSetUp.contains(type))
+            {
+                setup.run();
+                driverBinariesSetUp.add(type);
+            }
+        }
+    }
+
     /**
      * Starts a <tt>WebDriver</tt> instance using default settings.
      * @param options the options to use when creating the driver.
@@ -150,7 +235,7 @@ public class WebParticipantFactory
         // by default we load chrome, but we can load safari or firefox
         if (participantType.isFirefox())
         {
-            WebDriverManager.firefoxdriver().setup();
+            setupDriverBinary(participantType, () -> WebDriverManager.firefoxdriver().setup());
 
             if (browserBinaryAPath != null
                     && (browserBinaryAPath.exists() || isRemote))
@@ -185,11 +270,6 @@ public class WebParticipantFactory
                 "/firefox-js-console-"
                 + options.getName() + ".log");
 
-            System.setProperty("webdriver.firefox.logfile",
-                FailureListener.createLogsFolder() +
-                    "/firefox-console-"
-                    + options.getName() + ".log");
-
             ffOptions.setProfile(profile);
 
             if (isRemote)
@@ -202,7 +282,16 @@ public class WebParticipantFactory
                 return new RemoteWebDriver(options.getRemoteDriverAddress(), ffOptions);
             }
 
-            return new FirefoxDriver(ffOptions);
+            // The log file is set on the service of every browser, as the
+            // system property would be shared by the browsers started at the
+            // same time.
+            GeckoDriverService service = new GeckoDriverService.Builder()
+                .usingAnyFreePort()
+                .withLogFile(new File(
+                    FailureListener.createLogsFolder(), "firefox-console-" + options.getName() + ".log"))
+                .build();
+
+            return new FirefoxDriver(service, ffOptions);
         }
         else if (participantType == ParticipantType.safari)
         {
@@ -219,7 +308,7 @@ public class WebParticipantFactory
         }
         else if (participantType == ParticipantType.edge)
         {
-            WebDriverManager.edgedriver().setup();
+            setupDriverBinary(participantType, () -> WebDriverManager.edgedriver().setup());
 
             InternetExplorerOptions ieOptions = new InternetExplorerOptions();
             ieOptions.ignoreZoomSettings();
@@ -230,13 +319,10 @@ public class WebParticipantFactory
         }
         else
         {
-            WebDriverManager.chromedriver().setup();
+            setupDriverBinary(participantType, () -> WebDriverManager.chromedriver().setup());
 
-            System.setProperty("webdriver.chrome.verboseLogging", "true");
-            System.setProperty(
-                    "webdriver.chrome.logfile",
-                    FailureListener.createLogsFolder()
-                        + "/chrome-console-" + options.getName() + ".log");
+            File chromeLogFile = new File(
+                FailureListener.createLogsFolder(), "chrome-console-" + options.getName() + ".log");
 
             LoggingPreferences logPrefs = new LoggingPreferences();
             logPrefs.enable(LogType.BROWSER, Level.ALL);
@@ -361,7 +447,8 @@ public class WebParticipantFactory
                         future = pool.submit(
                             () -> {
                                 long start = System.currentTimeMillis();
-                                ChromeDriver resDr = new ChromeDriver(ops);
+                                ChromeDriver resDr
+                                    = new ChromeDriver(createChromeDriverService(chromeLogFile), ops);
                                 TestUtils.print(
                                     "ChromeDriver created for:"
                                         + (System.currentTimeMillis() - start)
@@ -392,7 +479,25 @@ public class WebParticipantFactory
 
             // keep the old code
             TestUtils.print("Just create ChromeDriver, may hang!");
-            return new ChromeDriver(ops);
+            return new ChromeDriver(createChromeDriverService(chromeLogFile), ops);
         }
     }
+
+    /**
+     * Creates the service of a chrome driver, which logs verbosely to its
+     * own file. The log file is set on the service of every browser, as the
+     * system property would be shared by the browsers started at the same
+     * time.
+     *
+     * @param logFile the log file.
+     * @return the service.
+     */
+    private static ChromeDriverService createChromeDriverService(File logFile)
+    {
+        return new ChromeDriverService.Builder()
+            .usingAnyFreePort()
+            .withVerbose(true)
+            .withLogFile(logFile)
+            .build();
+    }
 }
@@ -512,6 +512,29 @@ public class WebParticipantOptions
         return getProperty(PROP_FAKE_VIDEO);
     }
 
+    /**
+     * @return a string which is the same for options which launch equivalent
+     * browsers (type, version, hub, headless, binary, fake media, network
+     * emulation and flags), used to pool browsers, see {@link BrowserPool}.
+     */
+    public String getBrowserFingerprint()
+    {
+        return String.join("|",
+            String.valueOf(getParticipantType()),
+            String.valueOf(getVersion()),
+            String.valueOf(isRemote() ? getRemoteDriverAddress() : null),
+            String.valueOf(isHeadless()),
+            String.valueOf(getBinary()),
+            String.valueOf(getFakeStreamAudioFile()),
+            String.valueOf(getFakeStreamVideoFile()),
+            String.valueOf(getUplink()),
+            String.valueOf(getDownlink()),
+            String.valueOf(hostResolverRules()),
+            String.valueOf(isChromeSandboxDisabled()),
+            String.valueOf(allowsInsecureCerts()),
+            String.valueOf(getApplicationName()));
+    }
+
     /**
      * @return the app name capability that the node must have.
      */
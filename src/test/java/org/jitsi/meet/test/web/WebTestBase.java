@@ -18,7 +18,10 @@ package org.jitsi.meet.test.web;
 import org.jitsi.meet.test.base.*;
 import org.jitsi.meet.test.util.*;
 import org.openqa.selenium.*;
+import org.openqa.selenium.TimeoutException;
 
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.*;
 
 /**
@@ -27,6 +30,20 @@ import java.util.logging.*;
 public class WebTestBase
     extends TypedBaseTest<WebParticipant, WebParticipantFactory>
 {
+    /**
+     * The name of the system property which enables joining the participants
+     * of {@link #ensureParticipants(JitsiMeetUrl[], WebParticipantOptions[])}
+     * at the same time, true by default. When disabled they join one after
+     * the other, e.g. to tell apart their logs.
+     */
+    public static final String CONCURRENT_JOINS_PNAME
+        = "org.jitsi.meet.test.web.concurrent_joins";
+
+    /**
+     * How long the participants wait for each other to join at the same time.
+     */
+    private static final long JOIN_BARRIER_TIMEOUT_SECONDS = 60;
+
     /**
      * Default
      */
@@ -148,23 +165,9 @@ public class WebTestBase
         WebParticipantOptions participantOneOptions,
         WebParticipantOptions participantTwoOptions)
     {
-        ensureOneParticipant(participantOneMeetURL, participantOneOptions);
-
-        Participant participant1 = getParticipant1();
-        Participant participant2
-            = joinParticipantAndWait(
-                1, participantTwoMeetURL, participantTwoOptions);
-
-        participant1.waitForIceConnected();
-        participant1.waitForSendReceiveData();
-
-        participant2.waitForIceConnected();
-        participant2.waitForSendReceiveData();
-
-
-        // FIXME missing a comment on why is it needed here (in case someone
-        // would want to come up with a proper fix).
-        TestUtils.waitMillis(500);
+        ensureParticipants(
+            new JitsiMeetUrl[] { participantOneMeetURL, participantTwoMeetURL },
+            new WebParticipantOptions[] { participantOneOptions, participantTwoOptions });
     }
 
     /**
@@ -182,17 +185,196 @@ public class WebTestBase
         JitsiMeetUrl participantTwoMeetURL,
         JitsiMeetUrl participantThreeMeetURL)
     {
-        ensureTwoParticipantsInternal(
-            participantOneMeetURL,
-            participantTwoMeetURL,
-            null, null);
+        ensureParticipants(
+            new JitsiMeetUrl[] {
+                participantOneMeetURL, participantTwoMeetURL, participantThreeMeetURL },
+            null);
+    }
+
+    /**
+     * Starts the first participants, if they are not started, and waits until
+     * they all send and receive media. The participants are set up at the
+     * same time:
+     * <ol>
+     * <li>the browsers of the missing participants are started,</li>
+     * <li>the first participant joins, so that it owns the conference,</li>
+     * <li>the others join together,</li>
+     * <li>all wait for ICE and media, and the last one for the streams of all
+     * the others when there are more than two.</li>
+     * </ol>
+     * If participants fail, the exception names every one of them and what
+     * it failed to do.
+     *
+     * @param meetURLs the URLs of the participants, in the order of their
+     * indexes, whose number is the number of participants. A null URL, if it
+     * doesn't exist already, is the URL of the test.
+     * @param options custom options to be used for the participants which do
+     * not exist already, in the same order, or null.
+     */
+    public void ensureParticipants(
+        JitsiMeetUrl[] meetURLs, WebParticipantOptions[] options)
+    {
+        int count = meetURLs.length;
+        if (count == 0)
+        {
+            return;
+        }
+
+        boolean concurrent = count > 1
+            && Boolean.parseBoolean(System.getProperty(CONCURRENT_JOINS_PNAME, "true").trim());
+        ExecutorService executor = concurrent
+            ? Executors.newFixedThreadPool(count, r -> {
+                Thread t = new Thread(r, "join-" + getClass().getSimpleName());
+                t.setDaemon(true);
+                return t;
+            })
+            : null;
+
+        // Every participant has its own URL, to which it adds its display
+        // name.
+        JitsiMeetUrl[] urls = new JitsiMeetUrl[count];
+        WebParticipantOptions[] participantOptions = new WebParticipantOptions[count];
+        for (int i = 0; i < count; i++)
+        {
+            urls[i] = meetURLs[i] == null ? null : meetURLs[i].copy();
+            participantOptions[i] = options == null || i >= options.length ? null : options[i];
+        }
+
+        try
+        {
+            forParticipants(executor, 0, count, "start", i -> getOrCreateParticipant(i, participantOptions[i]));
+
+            joinParticipantAndWait(0, urls[0], participantOptions[0]);
+
+            CyclicBarrier barrier = concurrent && count > 2 ? new CyclicBarrier(count - 1) : null;
+            forParticipants(executor, 1, count, "join", i -> {
+                if (barrier != null)
+                {
+                    barrier.await(JOIN_BARRIER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                }
+                joinParticipantAndWait(i, urls[i], participantOptions[i]);
+            });
+
+            if (count > 1)
+            {
+                forParticipants(executor, 0, count, "connect", i -> {
+                    WebParticipant participant = participants.get(i);
+                    participant.waitForIceConnected();
+                    participant.waitForSendReceiveData();
+                    if (count > 2 && i == count - 1)
+                    {
+                        participant.waitForRemoteStreams(count - 1);
+                    }
+                });
+
+                // FIXME missing a comment on why is it needed here (in case someone
+                // would want to come up with a proper fix).
+                TestUtils.waitMillis(500);
+            }
+        }
+        finally
+        {
+            if (executor != null)
+            {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Runs a task for participants, at the same time if there is an executor,
+     * and waits for all of them to finish.
+     *
+     * @param executor the executor, or null to run the tasks one after the
+     * other.
+     * @param from the index of the first participant.
+     * @param to the index after the last participant.
+     * @param step what the task does, for the messages.
+     * @param task the task.
+     * @throws TimeoutException if the task timed out for all the participants
+     * which failed, otherwise a {@link RuntimeException}, naming all of them.
+     */
+    private void forParticipants(
+        ExecutorService executor, int from, int to, String step, ParticipantTask task)
+    {
+        Map<Integer, Throwable> failures = new TreeMap<>();
+        if (executor == null)
+        {
+            for (int i = from; i < to; i++)
+            {
+                try
+                {
+                    task.run(i);
+                }
+                catch (Exception e)
+                {
+                    failures.put(i, e);
+                    break;
+                }
+            }
+        }
+        else
+        {
+            Map<Integer, Future<?>> futures = new TreeMap<>();
+            for (int i = from; i < to; i++)
+            {
+                int index = i;
+                futures.put(i, executor.submit(() -> {
+                    task.run(index);
+                    return null;
+                }));
+            }
+            for (Map.Entry<Integer, Future<?>> e : futures.entrySet())
+            {
+                try
+                {
+                    e.getValue().get();
+                }
+                catch (ExecutionException ex)
+                {
+                    failures.put(e.getKey(), ex.getCause());
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while participants " + step, ex);
+                }
+            }
+        }
 
-        WebParticipant participant
-            = joinParticipantAndWait(2, participantThreeMeetURL, null);
+        if (failures.isEmpty())
+        {
+            return;
+        }
 
-        participant.waitForIceConnected();
-        participant.waitForSendReceiveData();
-        participant.waitForRemoteStreams(2);
+        StringJoiner message = new StringJoiner("; ");
+        boolean timeouts = true;
+        for (Map.Entry<Integer, Throwable> e : failures.entrySet())
+        {
+            WebParticipant participant = participants.get(e.getKey());
+            String name = participant != null
+                ? participant.getName() : "web.participant" + (e.getKey() + 1);
+            message.add(name + " failed to " + step + ": " + e.getValue());
+            timeouts &= e.getValue() instanceof TimeoutException
+                || e.getValue() instanceof java.util.concurrent.TimeoutException;
+        }
+
+        Iterator<Throwable> causes = failures.values().iterator();
+        Throwable first = causes.next();
+        RuntimeException exception = timeouts
+            ? new TimeoutException(message.toString(), first)
+            : new RuntimeException(message.toString(), first);
+        causes.forEachRemaining(exception::addSuppressed);
+        throw exception;
+    }
+
+    /**
+     * A task for one of the participants.
+     */
+    private interface ParticipantTask
+    {
+        void run(int index)
+            throws Exception;
     }
 
     /**
@@ -294,20 +476,7 @@ public class WebTestBase
         JitsiMeetUrl            meetURL,
         WebParticipantOptions      options)
     {
-        WebParticipant p = participants.get(index);
-
-        if (p == null)
-        {
-            String configPrefix = "web.participant" + (index + 1);
-
-            p = participants.createParticipant(index, configPrefix, options);
-
-            // Adds a print in the console/selenium-node logs
-            // useful when checking crashes or failures in node logs
-            p.executeScript(
-                    "console.log('--- Will start test:"
-                            + getClass().getSimpleName() + "')");
-        }
+        WebParticipant p = getOrCreateParticipant(index, options);
 
         if (meetURL == null)
         {
@@ -326,6 +495,34 @@ public class WebTestBase
         return p;
     }
 
+    /**
+     * Returns a participant, created if it does not exist.
+     *
+     * @param index the participant index.
+     * @param options the options to be used when creating the participant.
+     * @return the participant.
+     */
+    private WebParticipant getOrCreateParticipant(
+        int index, WebParticipantOptions options)
+    {
+        WebParticipant p = participants.get(index);
+
+        if (p == null)
+        {
+            String configPrefix = "web.participant" + (index + 1);
+
+            p = participants.createParticipant(index, configPrefix, options);
+
+            // Adds a print in the console/selenium-node logs
+            // useful when checking crashes or failures in node logs
+            p.executeScript(
+                    "console.log('--- Will start test:"
+                            + getClass().getSimpleName() + "')");
+        }
+
+        return p;
+    }
+
     /**
      * Joins the first participant.
      * @return the participant which was created.
@@ -27,9 +27,14 @@ public class WebRtpStatistics
     implements RtpStatistics
 {
     /**
-     * The bitrate part of the RTP statistics state retrieved from the app.
+     * The download bitrate retrieved from the app.
      */
-    private final Map<String, Long> bitrateMap;
+    private final long downloadBitrate;
+
+    /**
+     * The upload bitrate retrieved from the app.
+     */
+    private final long uploadBitrate;
 
     /**
      * The transport part of the RTP statistics state retrieved from the app.
@@ -49,8 +54,9 @@ public class WebRtpStatistics
         Map stats
             = (Map) javascriptExecutor.executeScript(
                     "return APP.conference.getStats();");
-        this.bitrateMap
-            = (Map<String, Long>) stats.get("bitrate");
+        Map bitrate = (Map) stats.get("bitrate");
+        this.downloadBitrate = bitrate != null ? toLong(bitrate.get("download")) : 0L;
+        this.uploadBitrate = bitrate != null ? toLong(bitrate.get("upload")) : 0L;
 
         List transport = (List) stats.get("transport");
         this.rtpTransport = new WebRtpTransport(
@@ -63,7 +69,7 @@ public class WebRtpStatistics
     @Override
     public long getDownloadBitrate()
     {
-        return bitrateMap != null ? bitrateMap.get("download") : 0L;
+        return downloadBitrate;
     }
 
     /**
@@ -72,7 +78,7 @@ public class WebRtpStatistics
     @Override
     public long getUploadBitrate()
     {
-        return bitrateMap != null ? bitrateMap.get("upload") : 0L;
+        return uploadBitrate;
     }
 
     /**
@@ -84,15 +90,25 @@ public class WebRtpStatistics
         return rtpTransport;
     }
 
+    /**
+     * Converts a number returned by the driver to long.
+     */
+    private static long toLong(Object o)
+    {
+        return o instanceof Number ? ((Number) o).longValue() : 0L;
+    }
+
     static class WebRtpTransport implements RtpTransport
     {
         /**
-         * The transport part of the RTP statistics state retrieved from the app.
-         *
-         * Note that the transport object that is returned from the app is a list.
-         * For simplicity we keep only the first element.
+         * The socket of the remote endpoint.
          */
-        private final Map transportMap;
+        private final String remoteSocket;
+
+        /**
+         * Whether the transport is peer-to-peer.
+         */
+        private final boolean p2p;
 
         /**
          * Ctor.
@@ -101,7 +117,21 @@ public class WebRtpStatistics
          */
         WebRtpTransport(Map transportMap)
         {
-            this.transportMap = transportMap;
+            this(
+                transportMap != null ? (String) transportMap.get("ip") : "",
+                transportMap != null && Boolean.TRUE.equals(transportMap.get("p2p")));
+        }
+
+        /**
+         * Ctor.
+         *
+         * @param remoteSocket the socket of the remote endpoint.
+         * @param p2p whether the transport is peer-to-peer.
+         */
+        WebRtpTransport(String remoteSocket, boolean p2p)
+        {
+            this.remoteSocket = remoteSocket != null ? remoteSocket : "";
+            this.p2p = p2p;
         }
 
         /**
@@ -110,7 +140,7 @@ public class WebRtpStatistics
         @Override
         public String getRemoteSocket()
         {
-            return transportMap != null ? (String) transportMap.get("ip") : "";
+            return remoteSocket;
         }
 
         /**
@@ -119,7 +149,7 @@ public class WebRtpStatistics
         @Override
         public boolean isP2P()
         {
-            return transportMap != null && (boolean) transportMap.get("p2p");
+            return p2p;
         }
     }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright @ 2018 8x8 Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.web.stats;
+
+import org.jitsi.meet.test.base.stats.*;
+import org.openqa.selenium.*;
+
+import java.util.*;
+
+/**
+ * The web version of {@link RtpStatsSnapshot}. Combines the app's connection
+ * stats with the WebRTC stats of the active peer connection. The script does
+ * the aggregation in the browser and returns a single flat array, which is
+ * read by index into the primitive fields of the snapshot.
+ */
+public class WebRtpStatsSnapshot
+    extends RtpStatsSnapshot
+{
+    /**
+     * The number of fixed values at the start of the array returned by
+     * {@link #SCRIPT}.
+     */
+    private static final int HEADER_LENGTH = 18;
+
+    /**
+     * The number of values for every SSRC which follow the fixed values.
+     */
+    private static final int SSRC_LENGTH = 5;
+
+    /**
+     * Collects the stats. Returns (through the callback) an array with the
+     * download and upload bitrate, download and upload packet loss, jitter,
+     * RTT, packets received, lost and sent, frames encoded and decoded,
+     * freeze count and duration, concealed and received audio samples,
+     * quality limitation reason, remote socket and p2p flag, followed by
+     * ssrc, local, width, height and fps of every video SSRC.
+     */
+    private static final String SCRIPT =
+        "const cb = arguments[arguments.length - 1];"
+        + "try {"
+        + "const c = APP.conference;"
+        + "const s = c.getStats() || {};"
+        + "const b = s.bitrate || {};"
+        + "const l = s.packetLoss || {};"
+        + "const t = (s.transport && s.transport[0]) || {};"
+        + "const r = [b.download || 0, b.upload || 0, l.download || 0, l.upload || 0,"
+        + " 0, s.jvbRTT || 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, null, t.ip || null, t.p2p === true];"
+        + "const room = c._room;"
+        + "const tpc = room && room.getActivePeerConnection && room.getActivePeerConnection();"
+        + "if (!tpc || !tpc.peerconnection) { cb(r); return; }"
+        + "tpc.peerconnection.getStats().then(report => {"
+        + "let rtt = 0;"
+        + "report.forEach(e => {"
+        + "if (e.type === 'inbound-rtp') {"
+        + " r[4] = Math.max(r[4], (e.jitter || 0) * 1000);"
+        + " r[6] += e.packetsReceived || 0; r[7] += e.packetsLost || 0;"
+        + " if (e.kind === 'video') {"
+        + "  r[10] += e.framesDecoded || 0; r[11] += e.freezeCount || 0;"
+        + "  r[12] += Math.round((e.totalFreezesDuration || 0) * 1000);"
+        + "  r.push(e.ssrc, 0, e.frameWidth || 0, e.frameHeight || 0, e.framesPerSecond || 0);"
+        + " } else if (e.kind === 'audio') {"
+        + "  r[13] += e.concealedSamples || 0; r[14] += e.totalSamplesReceived || 0;"
+        + " }"
+        + "} else if (e.type === 'outbound-rtp') {"
+        + " r[8] += e.packetsSent || 0;"
+        + " if (e.kind === 'video') {"
+        + "  r[9] += e.framesEncoded || 0;"
+        + "  if (e.qualityLimitationReason && (r[15] === null || r[15] === 'none')) {"
+        + "   r[15] = e.qualityLimitationReason; }"
+        + "  r.push(e.ssrc, 1, e.frameWidth || 0, e.frameHeight || 0, e.framesPerSecond || 0);"
+        + " }"
+        + "} else if (e.type === 'remote-inbound-rtp' && e.roundTripTime) {"
+        + " rtt = Math.max(rtt, e.roundTripTime * 1000);"
+        + "}"
+        + "});"
+        + "if (rtt > 0) { r[5] = rtt; }"
+        + "cb(r);"
+        + "}, () => cb(r));"
+        + "} catch (err) { cb(null); }";
+
+    /**
+     * Creates new {@link WebRtpStatsSnapshot}.
+     *
+     * @param javascriptExecutor the {@link JavascriptExecutor} for whom the
+     * stats will be created.
+     */
+    public WebRtpStatsSnapshot(JavascriptExecutor javascriptExecutor)
+    {
+        Object result = javascriptExecutor.executeAsyncScript(SCRIPT);
+
+        List<?> values = result instanceof List ? (List<?>) result : Collections.emptyList();
+
+        if (values.size() < HEADER_LENGTH)
+        {
+            rtpTransport = new WebRtpStatistics.WebRtpTransport(null);
+            return;
+        }
+
+        downloadBitrate = toLong(values.get(0));
+        uploadBitrate = toLong(values.get(1));
+        downloadPacketLoss = toDouble(values.get(2));
+        uploadPacketLoss = toDouble(values.get(3));
+        jitterMs = toDouble(values.get(4));
+        rttMs = toDouble(values.get(5));
+        packetsReceived = toLong(values.get(6));
+        packetsLost = toLong(values.get(7));
+        packetsSent = toLong(values.get(8));
+        framesEncoded = toLong(values.get(9));
+        framesDecoded = toLong(values.get(10));
+        freezeCount = toLong(values.get(11));
+        freezeDurationMs = toLong(values.get(12));
+        concealedSamples = toLong(values.get(13));
+        totalSamplesReceived = toLong(values.get(14));
+        qualityLimitationReason = (String) values.get(15);
+        rtpTransport = new WebRtpStatistics.WebRtpTransport(
+            (String) values.get(16), Boolean.TRUE.equals(values.get(17)));
+
+        allocateSsrcs((values.size() - HEADER_LENGTH) / SSRC_LENGTH);
+        for (int i = 0, j = HEADER_LENGTH; i < ssrcCount; i++, j += SSRC_LENGTH)
+        {
+            ssrcs[i] = toLong(values.get(j));
+            ssrcLocal[i] = toLong(values.get(j + 1)) != 0;
+            widths[i] = (int) toLong(values.get(j + 2));
+            heights[i] = (int) toLong(values.get(j + 3));
+            framesPerSecond[i] = toDouble(values.get(j + 4));
+        }
+    }
+
+    /**
+     * Converts a number returned by the driver (Long or Double) to long.
+     */
+    private static long toLong(Object o)
+    {
+        return o instanceof Number ? ((Number) o).longValue() : 0;
+    }
+
+    /**
+     * Converts a number returned by the driver (Long or Double) to double.
+     */
+    private static double toDouble(Object o)
+    {
+        return o instanceof Number ? ((Number) o).doubleValue() : 0;
+    }
+}